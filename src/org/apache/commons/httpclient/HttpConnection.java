@@ -31,6 +31,8 @@ package org.apache.commons.httpclient;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -499,18 +501,23 @@ public class HttpConnection {
             // the connection is open, but now we have to see if we can read it
             // assume the connection is not stale.
             isStale = false;
+            // START IA/HERITRIX change
+            // probe beneath any recorder, so the probe byte isn't recorded
+            InputStream in = (rawInputStream != null)
+                ? rawInputStream : inputStream;
+            // END IA/HERITRIX change
             try {
-                if (inputStream.available() <= 0) {
+                if (in.available() <= 0) {
                     try {
                         socket.setSoTimeout(1);
-                        inputStream.mark(1);
-                        int byteRead = inputStream.read();
+                        in.mark(1);
+                        int byteRead = in.read();
                         if (byteRead == -1) {
                             // again - if the socket is reporting all data read,
                             // probably stale
                             isStale = true;
                         } else {
-                            inputStream.reset();
+                            in.reset();
                         }
                     } finally {
                         socket.setSoTimeout(this.params.getSoTimeout());
@@ -746,19 +753,16 @@ public class HttpConnection {
             
             // START IA/HERITRIX change
             HttpRecorder httpRecorder = HttpRecorder.getHttpRecorder();
+            rawInputStream = new BufferedInputStream(
+                socket.getInputStream(), inbuffersize);
+            rawOutputStream = new BufferedOutputStream(
+                socket.getOutputStream(), outbuffersize);
             if (httpRecorder == null || (isSecure() && isProxied())) {
                 // no recorder, OR defer recording for pre-tunnel leg
-                inputStream = new BufferedInputStream(
-                    socket.getInputStream(), inbuffersize);
-                outputStream = new BufferedOutputStream(
-                    socket.getOutputStream(), outbuffersize);
+                inputStream = rawInputStream;
+                outputStream = rawOutputStream;
             } else {
-                inputStream = httpRecorder.inputWrap((InputStream)
-                        (new BufferedInputStream(socket.getInputStream(),
-                        inbuffersize)));
-                outputStream = httpRecorder.outputWrap((OutputStream)
-                        (new BufferedOutputStream(socket.getOutputStream(), 
-                        outbuffersize)));
+                recordStreams(httpRecorder);
             }
             // END IA/HERITRIX change
 
@@ -821,16 +825,15 @@ public class HttpConnection {
 
         // START IA/HERITRIX change
         HttpRecorder httpRecorder = HttpRecorder.getHttpRecorder();
+        rawInputStream = new BufferedInputStream(socket.getInputStream(),
+            inbuffersize);
+        rawOutputStream = new BufferedOutputStream(socket.getOutputStream(),
+            outbuffersize);
         if (httpRecorder == null) {
-        inputStream = new BufferedInputStream(socket.getInputStream(), inbuffersize);
-        outputStream = new BufferedOutputStream(socket.getOutputStream(), outbuffersize);
+            inputStream = rawInputStream;
+            outputStream = rawOutputStream;
         } else {
-            inputStream = httpRecorder.inputWrap((InputStream)
-                    (new BufferedInputStream(socket.getInputStream(),
-                    inbuffersize)));
-            outputStream = httpRecorder.outputWrap((OutputStream)
-                (new BufferedOutputStream(socket.getOutputStream(), 
-                outbuffersize)));
+            recordStreams(httpRecorder);
         }
         // END IA/HERITRIX change
 
@@ -1238,6 +1241,67 @@ public class HttpConnection {
     protected void setLocked(boolean locked) {
         this.locked = locked;
     }
+    // START IA/HERITRIX change
+    /**
+     * Route this connection's traffic through the given recorder, as
+     * {@link #open()} does for a fresh connection. Lets a kept-alive
+     * connection be reused for the next exchange, recorded by whichever
+     * thread's recorder now holds it.
+     *
+     * The recorder sees the socket streams through wrappers that ignore
+     * close(), so finishing a recording does not close the connection.
+     *
+     * @param httpRecorder recorder to capture the next exchange
+     * @throws IOException
+     */
+    public void recordStreams(HttpRecorder httpRecorder) throws IOException {
+        if (rawInputStream == null) {
+            throw new IOException("Connection is not open");
+        }
+        inputStream = httpRecorder.inputWrap(
+            new FilterInputStream(rawInputStream) {
+                public void close() {
+                    // leave the socket stream open
+                }
+            });
+        outputStream = httpRecorder.outputWrap(
+            new FilterOutputStream(rawOutputStream) {
+                public void write(byte[] b, int off, int len)
+                throws IOException {
+                    out.write(b, off, len);
+                }
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+    }
+
+    /**
+     * Finish recording on this connection, closing the recorder streams
+     * but leaving the socket open for reuse.
+     *
+     * @see #recordStreams(HttpRecorder)
+     */
+    public void unrecordStreams() {
+        if (inputStream != rawInputStream) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOG.debug("Exception caught when closing recorder input", e);
+            }
+            inputStream = rawInputStream;
+        }
+        if (outputStream != rawOutputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOG.debug("Exception caught when closing recorder output", e);
+            }
+            outputStream = rawOutputStream;
+        }
+    }
+    // END IA/HERITRIX change
+
     // ------------------------------------------------------ Protected Methods
 
     /**
@@ -1273,6 +1337,12 @@ public class HttpConnection {
             }
         }
 
+        // START IA/HERITRIX change
+        // recorder streams above leave the socket streams open
+        rawInputStream = null;
+        rawOutputStream = null;
+        // END IA/HERITRIX change
+
         if (null != socket) {
             Socket temp = socket;
             socket = null;
@@ -1375,6 +1445,14 @@ public class HttpConnection {
     /** My OutputStream. */
     private OutputStream outputStream = null;
     
+    // START IA/HERITRIX change
+    /** Buffered socket InputStream, beneath any recorder wrapping. */
+    private InputStream rawInputStream = null;
+
+    /** Buffered socket OutputStream, beneath any recorder wrapping. */
+    private OutputStream rawOutputStream = null;
+    // END IA/HERITRIX change
+
     /** An {@link InputStream} for the response to an individual request. */
     private InputStream lastResponseInputStream = null;
     
@@ -0,0 +1,118 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.datamodel;
+
+import java.util.Arrays;
+import java.util.List;
+
+import st.ata.util.AList;
+import st.ata.util.HashtableAList;
+
+/**
+ * Compare retained memory and put/get/cleanup throughput of
+ * HashtableAList and SlottedAList, populated with the attributes a
+ * typical HTTP fetch leaves on a CrawlURI.
+ *
+ * Usage: BenchmarkSlottedAList [count [cycles]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkSlottedAList implements CoreAttributeConstants {
+    static final List<String> PERSISTENT =
+        Arrays.asList(new String[] {A_CREDENTIAL_AVATARS_KEY});
+    static final Object TRANSACTION = new Object();
+
+    public static void main(String[] args) {
+        (new BenchmarkSlottedAList()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int cycles =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 5000000;
+        for (int rep = 0; rep < 3; rep++) {
+            memory(false, count);
+            memory(true, count);
+            throughput(false, cycles);
+            throughput(true, cycles);
+        }
+    }
+
+    protected AList newAList(boolean slotted) {
+        return slotted ? (AList)new SlottedAList() : new HashtableAList();
+    }
+
+    protected void populate(AList alist, long i) {
+        alist.putLong(A_FETCH_BEGAN_TIME, i);
+        alist.putLong(A_FETCH_COMPLETED_TIME, i + 10);
+        alist.putObject(A_HTTP_TRANSACTION, TRANSACTION);
+        alist.putString(A_CONTENT_TYPE, "text/html");
+        alist.putLong(A_REFERENCE_LENGTH, 1000 + i);
+        alist.putString(A_ETAG_HEADER, "etag");
+        alist.putString(A_LAST_MODIFIED_HEADER, "lastmod");
+    }
+
+    protected void memory(boolean slotted, int count) {
+        AList[] alists = new AList[count];
+        long before = usedMemory();
+        for (int i = 0; i < count; i++) {
+            alists[i] = newAList(slotted);
+            populate(alists[i], i);
+        }
+        long after = usedMemory();
+        System.out.println((slotted ? "slotted" : "hashtable")
+            + ": bytes/alist=" + ((after - before) / count));
+        alists[0].getKeyArray(); // keep array live until measured
+    }
+
+    protected void throughput(boolean slotted, int cycles) {
+        AList alist = newAList(slotted);
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < cycles; i++) {
+            populate(alist, i);
+            sum += alist.getLong(A_FETCH_COMPLETED_TIME)
+                - alist.getLong(A_FETCH_BEGAN_TIME)
+                + alist.getLong(A_REFERENCE_LENGTH);
+            if (alist instanceof SlottedAList) {
+                ((SlottedAList)alist).retainKeys(PERSISTENT, null);
+            } else {
+                // as CrawlURI.getPersistentAList()
+                AList fresh = new HashtableAList();
+                fresh.copyKeysFrom(PERSISTENT.iterator(), alist);
+                alist = fresh;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println((slotted ? "slotted" : "hashtable")
+            + ": cycles/s=" + (cycles * 1000000000L / Math.max(1, ns))
+            + " (" + sum % 7 + ")");
+    }
+
+    protected static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
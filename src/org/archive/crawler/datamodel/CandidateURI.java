@@ -23,6 +23,10 @@
  */
 package org.archive.crawler.datamodel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -34,13 +38,15 @@ import java.util.List;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.extractor.Link;
+import org.archive.crawler.settings.CrawlerSettings;
+import org.archive.crawler.settings.SettingsHandler;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.CompactIO;
 import org.archive.util.Reporter;
 
 import st.ata.util.AList;
-import st.ata.util.HashtableAList;
 
 /**
  * A URI, discovered or passed-in, that may be scheduled.
@@ -136,6 +142,13 @@ implements Serializable, Reporter, CoreAttributeConstants {
      * toString.
      */
     private String cachedCandidateURIString = null;
+
+    /**
+     * Settings object last resolved for this URI by the settings
+     * framework, and the settings version it was resolved at.
+     */
+    private transient CrawlerSettings resolvedSettings = null;
+    private transient int resolvedSettingsVersion;
     
 
     /**
@@ -493,11 +506,36 @@ implements Serializable, Reporter, CoreAttributeConstants {
      */
     public AList getAList() {
         if (this.alist == null) {
-            this.alist = new HashtableAList();
+            this.alist = new SlottedAList();
         }
         return this.alist;
     }
     
+    /**
+     * @param handler SettingsHandler doing the lookup
+     * @return settings object previously resolved for this URI by the
+     *         handler, or null if none or settings have since changed
+     */
+    public CrawlerSettings getResolvedSettings(SettingsHandler handler) {
+        CrawlerSettings s = this.resolvedSettings;
+        if (s == null || s.getSettingsHandler() != handler
+                || resolvedSettingsVersion != handler.getSettingsVersion()) {
+            return null;
+        }
+        return s;
+    }
+
+    /**
+     * Remember the settings object in effect for this URI.
+     *
+     * @param settings settings object resolved for this URI
+     * @param version SettingsHandler version it was resolved at
+     */
+    public void setResolvedSettings(CrawlerSettings settings, int version) {
+        this.resolvedSettings = settings;
+        this.resolvedSettingsVersion = version;
+    }
+
     protected void clearAList() {
         this.alist = null;
     }
@@ -621,6 +659,269 @@ implements Serializable, Reporter, CoreAttributeConstants {
         }
     }
     
+    /**
+     * Hop types packed 2 per byte by the compact form of pathFromSeed;
+     * paths with any other character are written as plain strings.
+     */
+    private static final String COMPACT_HOPS = "LPEXRIDNCT";
+
+    private static final int COMPACT_SEED = 1;
+    private static final int COMPACT_FORCE_REVISIT = 2;
+    private static final int COMPACT_VIA = 4;
+    private static final int COMPACT_VIA_CONTEXT = 8;
+    private static final int COMPACT_CLASS_KEY = 16;
+    private static final int COMPACT_ALIST = 32;
+
+    private static final int ALIST_STRING = 0;
+    private static final int ALIST_INT = 1;
+    private static final int ALIST_LONG = 2;
+    private static final int ALIST_BOOLEAN = 3;
+    private static final int ALIST_INT_ARRAY = 4;
+    private static final int ALIST_LONG_ARRAY = 5;
+    private static final int ALIST_STRING_ARRAY = 6;
+    private static final int ALIST_SERIALIZED = 7;
+
+    /**
+     * Write persistent state in a compact binary form, an alternative
+     * to Java serialization for bulk storage (as by the frontier's
+     * CrawlURIBinding). Subclasses adding persistent state must extend
+     * both this and {@link #readCompactFrom(DataInput)}.
+     *
+     * The 'via' is written as the length of the prefix it shares with
+     * this URI plus the differing remainder, as most links are to the
+     * same host. The alist's common value types are written directly;
+     * others by Java serialization.
+     *
+     * @param out destination
+     * @throws IOException
+     */
+    protected void writeCompactTo(DataOutput out) throws IOException {
+        String u = uuri.toString();
+        CompactIO.writeString(out, u);
+        boolean hasAList = alist != null && alist.getKeys().hasNext();
+        int flags = (isSeed ? COMPACT_SEED : 0)
+            | (forceRevisit ? COMPACT_FORCE_REVISIT : 0)
+            | (via != null ? COMPACT_VIA : 0)
+            | (viaContext != null ? COMPACT_VIA_CONTEXT : 0)
+            | (classKey != null ? COMPACT_CLASS_KEY : 0)
+            | (hasAList ? COMPACT_ALIST : 0);
+        out.writeByte(flags);
+        CompactIO.writeVarInt(out, schedulingDirective);
+        writeCompactPath(out, pathFromSeed);
+        if (via != null) {
+            String v = via.getURI();
+            int common = 0;
+            int max = Math.min(u.length(), v.length());
+            while (common < max && u.charAt(common) == v.charAt(common)) {
+                common++;
+            }
+            CompactIO.writeVarInt(out, common);
+            CompactIO.writeString(out, v.substring(common));
+        }
+        if (viaContext != null) {
+            CompactIO.writeString(out, viaContext.toString());
+        }
+        if (classKey != null) {
+            CompactIO.writeString(out, classKey);
+        }
+        if (hasAList) {
+            writeCompactAList(out, alist);
+        }
+    }
+
+    /**
+     * Read persistent state written by {@link #writeCompactTo(DataOutput)}.
+     *
+     * @param in source
+     * @throws IOException
+     */
+    protected void readCompactFrom(DataInput in) throws IOException {
+        String u = CompactIO.readString(in);
+        uuri = readUuri(u);
+        int flags = in.readUnsignedByte();
+        isSeed = (flags & COMPACT_SEED) != 0;
+        forceRevisit = (flags & COMPACT_FORCE_REVISIT) != 0;
+        schedulingDirective = CompactIO.readVarInt(in);
+        pathFromSeed = readCompactPath(in);
+        if ((flags & COMPACT_VIA) != 0) {
+            int common = CompactIO.readVarInt(in);
+            via = readUuri(u.substring(0, common) + CompactIO.readString(in));
+        }
+        if ((flags & COMPACT_VIA_CONTEXT) != 0) {
+            viaContext = CompactIO.readString(in);
+        }
+        if ((flags & COMPACT_CLASS_KEY) != 0) {
+            classKey = CompactIO.readString(in);
+        }
+        if ((flags & COMPACT_ALIST) != 0) {
+            readCompactAList(in, getAList());
+        }
+    }
+
+    private static void writeCompactPath(DataOutput out, String path)
+    throws IOException {
+        if (path == null) {
+            CompactIO.writeVarInt(out, 0);
+            return;
+        }
+        int len = path.length();
+        for (int i = 0; i < len; i++) {
+            if (COMPACT_HOPS.indexOf(path.charAt(i)) < 0) {
+                // raw: (len+1)*2+1
+                CompactIO.writeVarInt(out, (len + 1) * 2 + 1);
+                out.write(path.getBytes("UTF-8"));
+                return;
+            }
+        }
+        // packed: (len+1)*2, then 2 hops per byte
+        CompactIO.writeVarInt(out, (len + 1) * 2);
+        for (int i = 0; i < len; i += 2) {
+            int hi = COMPACT_HOPS.indexOf(path.charAt(i));
+            int lo = (i + 1 < len) ? COMPACT_HOPS.indexOf(path.charAt(i + 1)) : 0;
+            out.writeByte((hi << 4) | lo);
+        }
+    }
+
+    private static String readCompactPath(DataInput in) throws IOException {
+        int header = CompactIO.readVarInt(in);
+        if (header == 0) {
+            return null;
+        }
+        int len = (header >>> 1) - 1;
+        if ((header & 1) != 0) {
+            byte[] bytes = new byte[len];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+        char[] hops = new char[len];
+        for (int i = 0; i < len; i += 2) {
+            int b = in.readUnsignedByte();
+            hops[i] = COMPACT_HOPS.charAt(b >>> 4);
+            if (i + 1 < len) {
+                hops[i + 1] = COMPACT_HOPS.charAt(b & 0x0F);
+            }
+        }
+        return new String(hops);
+    }
+
+    private static void writeCompactAList(DataOutput out, AList list)
+    throws IOException {
+        int count = 0;
+        for (Iterator i = list.getKeys(); i.hasNext(); i.next()) {
+            count++;
+        }
+        CompactIO.writeVarInt(out, count);
+        for (Iterator i = list.getKeys(); i.hasNext();) {
+            String key = (String)i.next();
+            Object value = list.getObject(key);
+            CompactIO.writeString(out, key);
+            if (value instanceof String) {
+                out.writeByte(ALIST_STRING);
+                CompactIO.writeString(out, (String)value);
+            } else if (value instanceof Integer) {
+                out.writeByte(ALIST_INT);
+                CompactIO.writeSignedVarInt(out, ((Integer)value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(ALIST_LONG);
+                CompactIO.writeSignedVarLong(out, ((Long)value).longValue());
+            } else if (value instanceof Boolean) {
+                out.writeByte(ALIST_BOOLEAN);
+                out.writeBoolean(((Boolean)value).booleanValue());
+            } else if (value instanceof int[]) {
+                out.writeByte(ALIST_INT_ARRAY);
+                int[] a = (int[])value;
+                CompactIO.writeVarInt(out, a.length);
+                for (int j = 0; j < a.length; j++) {
+                    CompactIO.writeSignedVarInt(out, a[j]);
+                }
+            } else if (value instanceof long[]) {
+                out.writeByte(ALIST_LONG_ARRAY);
+                long[] a = (long[])value;
+                CompactIO.writeVarInt(out, a.length);
+                for (int j = 0; j < a.length; j++) {
+                    CompactIO.writeSignedVarLong(out, a[j]);
+                }
+            } else if (value instanceof String[]) {
+                out.writeByte(ALIST_STRING_ARRAY);
+                String[] a = (String[])value;
+                CompactIO.writeVarInt(out, a.length);
+                for (int j = 0; j < a.length; j++) {
+                    CompactIO.writeString(out, a[j]);
+                }
+            } else {
+                out.writeByte(ALIST_SERIALIZED);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(baos);
+                oos.writeObject(value);
+                oos.close();
+                CompactIO.writeBytes(out, baos.toByteArray());
+            }
+        }
+    }
+
+    private static void readCompactAList(DataInput in, AList list)
+    throws IOException {
+        int count = CompactIO.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            // keys are nearly always interned constants
+            String key = CompactIO.readString(in).intern();
+            Object value;
+            int type = in.readUnsignedByte();
+            switch (type) {
+            case ALIST_STRING:
+                value = CompactIO.readString(in);
+                break;
+            case ALIST_INT:
+                value = new Integer(CompactIO.readSignedVarInt(in));
+                break;
+            case ALIST_LONG:
+                value = new Long(CompactIO.readSignedVarLong(in));
+                break;
+            case ALIST_BOOLEAN:
+                value = Boolean.valueOf(in.readBoolean());
+                break;
+            case ALIST_INT_ARRAY: {
+                int[] a = new int[CompactIO.readVarInt(in)];
+                for (int j = 0; j < a.length; j++) {
+                    a[j] = CompactIO.readSignedVarInt(in);
+                }
+                value = a;
+                break;
+            }
+            case ALIST_LONG_ARRAY: {
+                long[] a = new long[CompactIO.readVarInt(in)];
+                for (int j = 0; j < a.length; j++) {
+                    a[j] = CompactIO.readSignedVarLong(in);
+                }
+                value = a;
+                break;
+            }
+            case ALIST_STRING_ARRAY: {
+                String[] a = new String[CompactIO.readVarInt(in)];
+                for (int j = 0; j < a.length; j++) {
+                    a[j] = CompactIO.readString(in);
+                }
+                value = a;
+                break;
+            }
+            case ALIST_SERIALIZED:
+                ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(CompactIO.readBytes(in)));
+                try {
+                    value = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e.getMessage());
+                } finally {
+                    ois.close();
+                }
+                break;
+            default:
+                throw new IOException("unknown alist value type " + type);
+            }
+            list.putObject(key, value);
+        }
+    }
+
     //
     // Reporter implementation
     //
@@ -127,6 +127,8 @@ public interface CoreAttributeConstants {
     public static final String A_FETCH_HISTORY = "fetch-history";
     /** content digest */
     public static final String A_CONTENT_DIGEST = "content-digest";
+    /** fast, non-cryptographic content hash for spotting duplicates */
+    public static final String A_DEDUP_DIGEST = "dedup-digest";
 	/** header name (and AList key) for last-modified timestamp */
     public static final String A_LAST_MODIFIED_HEADER = "last-modified";
 	/** header name (and AList key) for ETag */
@@ -50,7 +50,9 @@ public class CrawlHost implements Serializable, CrawlSubstats.HasCrawlSubstats {
     private String hostname;
     private String countryCode;
     private InetAddress ip;
-    private long ipFetched = IP_NEVER_LOOKED_UP;
+    /** volatile, and set last, so a host resolved on another thread is
+     * seen whole */
+    private volatile long ipFetched = IP_NEVER_LOOKED_UP;
     protected CrawlSubstats substats = new CrawlSubstats(); 
     /**
      * TTL gotten from dns record.
@@ -112,10 +114,10 @@ public class CrawlHost implements Serializable, CrawlSubstats.HasCrawlSubstats {
      */
     public void setIP(InetAddress address, long ttl) {
         this.ip = address;
+        this.ipTTL = ttl;
         // Assume that a lookup as occurred by the time
         // a caller decides to set this (even to null)
         this.ipFetched = System.currentTimeMillis();
-        this.ipTTL = ttl;
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(hostname + ": " +
                 ((address != null)? address.toString(): "null"));
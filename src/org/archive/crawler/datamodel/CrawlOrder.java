@@ -92,6 +92,16 @@ public class CrawlOrder extends ModuleType implements Serializable {
         "recorder-out-buffer-bytes";
     public static final String ATTR_RECORDER_IN_BUFFER =
         "recorder-in-buffer-bytes";
+    public static final String ATTR_RECORDER_IN_MEMORY_MAX =
+        "recorder-in-memory-max-bytes";
+    public static final String ATTR_RECORDER_BUFFER_POOL =
+        "recorder-buffer-pool-bytes";
+    public static final String ATTR_MAX_URIS_PER_HANDOUT =
+        "max-uris-per-handout";
+    public static final String ATTR_EXTRACTOR_THREADS =
+        "extractor-threads";
+    public static final String ATTR_EXTRACTOR_QUEUE_SIZE =
+        "extractor-queue-size";
     
     /** Percentage of heap to allocate to bdb cache */
     public static final String ATTR_BDB_CACHE_PERCENT =
@@ -224,6 +234,61 @@ public class CrawlOrder extends ModuleType implements Serializable {
                 new Integer(65536)));
         e.setOverrideable(false);
         e.setExpertSetting(true);
+
+        e = addElementToDefinition(new SimpleType(ATTR_RECORDER_IN_MEMORY_MAX,
+                "Size in bytes to which the inbound recording buffer may " +
+                "grow before recordings overflow to a scratch file. When " +
+                "positive, recording buffers are drawn from a shared pool " +
+                "only while a URI is being processed, starting at " +
+                ATTR_RECORDER_IN_BUFFER + " and doubling as needed, rather " +
+                "than reserved for every ToeThread. Set to 0 to reserve " +
+                "fixed-size buffers per ToeThread instead.",
+                new Integer(1024 * 1024)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
+
+        e = addElementToDefinition(new SimpleType(ATTR_RECORDER_BUFFER_POOL,
+                "Maximum size in bytes of released recording buffers kept " +
+                "for reuse by later recordings. Only used when " +
+                ATTR_RECORDER_IN_MEMORY_MAX + " is positive.",
+                new Integer(32 * 1024 * 1024)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
+        
+        e = addElementToDefinition(new SimpleType(ATTR_MAX_URIS_PER_HANDOUT,
+                "Maximum number of URIs a ToeThread may take from the " +
+                "Frontier at once. URIs taken together all come from one " +
+                "queue and are processed in turn by the same thread. " +
+                "Frontiers only hand out more than one URI from queues " +
+                "whose politeness settings (max-delay-ms, " +
+                "respect-crawl-delay-up-to-secs, " +
+                "max-per-host-bandwidth-usage-KB-sec) are all zero. " +
+                "Default of 1 means one URI per handout.",
+                new Integer(1)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
+
+        e = addElementToDefinition(new SimpleType(ATTR_EXTRACTOR_THREADS,
+                "Number of threads dedicated to running the extract, write " +
+                "and postprocess chains. When positive, a ToeThread that " +
+                "has finished the fetch chain hands its URI to these " +
+                "threads and goes on to fetch its next URI, so slow " +
+                "extraction (of PDFs, say) does not hold up fetching. " +
+                "Default of 0 runs all chains on the ToeThread. Read " +
+                "only at crawl start.",
+                new Integer(0)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
+
+        e = addElementToDefinition(new SimpleType(ATTR_EXTRACTOR_QUEUE_SIZE,
+                "Most URIs that may wait for an extractor thread. When the " +
+                "queue is full, a ToeThread runs the remaining chains " +
+                "itself, which bounds the recordings held in memory and " +
+                "on disk awaiting extraction. Only used when " +
+                ATTR_EXTRACTOR_THREADS + " is positive.",
+                new Integer(16)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
         
         e = addElementToDefinition(new SimpleType(ATTR_BDB_CACHE_PERCENT,
                 "Percentage of heap to allocate to BerkeleyDB JE cache. " +
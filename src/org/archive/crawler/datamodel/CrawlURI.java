@@ -23,6 +23,10 @@
  */
 package org.archive.crawler.datamodel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -45,6 +49,7 @@ import org.archive.crawler.util.Transform;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.Base32;
+import org.archive.util.CompactIO;
 import org.archive.util.HttpRecorder;
 
 import st.ata.util.AList;
@@ -177,6 +182,13 @@ implements FetchStatusCodes {
     private String contentDigestScheme = null;
 
 
+    /**
+     * Constructor for use by {@link #readCompact(DataInput)}.
+     */
+    private CrawlURI() {
+        super();
+    }
+
     /**
      * Create a new instance of CrawlURI from a {@link UURI}.
      *
@@ -890,7 +902,14 @@ implements FetchStatusCodes {
         // Clear 'links extracted' flag.
         this.linkExtractorFinished = false;
         // Clean the alist of all but registered permanent members.
-        setAList(getPersistentAList());
+        AList alist = getAList();
+        if (alist instanceof SlottedAList) {
+            // in place, without rebuilding or boxing
+            ((SlottedAList)alist).retainKeys(alistPersistentMember,
+                (List)getObject(A_HERITABLE_KEYS));
+        } else {
+            setAList(getPersistentAList());
+        }
     }
     
     public AList getPersistentAList() {
@@ -1403,6 +1422,89 @@ implements FetchStatusCodes {
         outLinks = (ol == null) ? new ArrayList<Object>() : ol;
     }
 
+    /**
+     * Write persistent state in a compact binary form; see
+     * {@link CandidateURI#writeCompactTo(DataOutput)}. Must be kept in
+     * step with the non-transient fields of this class.
+     *
+     * @param out destination
+     * @throws IOException
+     */
+    public void writeCompactTo(DataOutput out) throws IOException {
+        super.writeCompactTo(out);
+        CompactIO.writeSignedVarInt(out, fetchStatus);
+        CompactIO.writeVarInt(out, deferrals);
+        CompactIO.writeVarInt(out, fetchAttempts);
+        CompactIO.writeSignedVarInt(out, linkHopCount);
+        CompactIO.writeSignedVarInt(out, embedHopCount);
+        CompactIO.writeString(out, userAgent);
+        CompactIO.writeSignedVarLong(out, contentSize);
+        CompactIO.writeSignedVarLong(out, contentLength);
+        CompactIO.writeString(out, contentType);
+        out.writeByte((prerequisite ? 1 : 0) | (post ? 2 : 0));
+        CompactIO.writeVarLong(out, ordinal);
+        CompactIO.writeBytes(out, contentDigest);
+        CompactIO.writeString(out, contentDigestScheme);
+        CompactIO.writeSignedVarInt(out, holderCost);
+        if (outLinks.isEmpty()) {
+            CompactIO.writeBytes(out, null);
+        } else {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(outLinks);
+            oos.close();
+            CompactIO.writeBytes(out, baos.toByteArray());
+        }
+    }
+
+    protected void readCompactFrom(DataInput in) throws IOException {
+        super.readCompactFrom(in);
+        fetchStatus = CompactIO.readSignedVarInt(in);
+        deferrals = CompactIO.readVarInt(in);
+        fetchAttempts = CompactIO.readVarInt(in);
+        linkHopCount = CompactIO.readSignedVarInt(in);
+        embedHopCount = CompactIO.readSignedVarInt(in);
+        userAgent = CompactIO.readString(in);
+        contentSize = CompactIO.readSignedVarLong(in);
+        contentLength = CompactIO.readSignedVarLong(in);
+        contentType = CompactIO.readString(in);
+        int flags = in.readUnsignedByte();
+        prerequisite = (flags & 1) != 0;
+        post = (flags & 2) != 0;
+        ordinal = CompactIO.readVarLong(in);
+        contentDigest = CompactIO.readBytes(in);
+        contentDigestScheme = CompactIO.readString(in);
+        holderCost = CompactIO.readSignedVarInt(in);
+        byte[] links = CompactIO.readBytes(in);
+        if (links != null) {
+            ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(links));
+            try {
+                @SuppressWarnings("unchecked")
+                Collection<Object> ol = (Collection<Object>)ois.readObject();
+                outLinks = ol;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                ois.close();
+            }
+        }
+    }
+
+    /**
+     * Create a CrawlURI from state written by
+     * {@link #writeCompactTo(DataOutput)}.
+     *
+     * @param in source
+     * @return the CrawlURI
+     * @throws IOException
+     */
+    public static CrawlURI readCompact(DataInput in) throws IOException {
+        CrawlURI curi = new CrawlURI();
+        curi.readCompactFrom(in);
+        return curi;
+    }
+
     public long getFetchDuration() {
         if(! containsKey(A_FETCH_COMPLETED_TIME)) {
             return -1;
@@ -55,6 +55,11 @@ public class ServerCache {
      */
     protected ObjectIdentityCache<String,CrawlHost> hosts = null;
     
+    /**
+     * Given each CrawlHost as it's created, if set.
+     */
+    protected Closure newHostClosure = null;
+    
     /**
      * Constructor.
      * Shutdown access to the default constructor by making it protected.
@@ -142,15 +147,29 @@ public class ServerCache {
         if (hostname == null || hostname.length() == 0) {
             return null;
         }
+        final CrawlHost[] created = new CrawlHost[1];
         CrawlHost host = hosts.getOrUse(
                 hostname,
                 new Supplier<CrawlHost>() {
                     public CrawlHost get() {
                         String hkey = new String(hostname); // ensure private minimal key
-                        return new CrawlHost(hkey);
+                        created[0] = new CrawlHost(hkey);
+                        return created[0];
                     }});
+        if (host == created[0] && newHostClosure != null) {
+            // the supplied host was the one kept
+            newHostClosure.execute(host);
+        }
         return host;
     }
+
+    /**
+     * @param c closure to be given each CrawlHost as it's created (e.g.
+     * to begin resolving its name), or null for none
+     */
+    public void setNewHostClosure(Closure c) {
+        this.newHostClosure = c;
+    }
     
     /**
      * Get the {@link CrawlHost} associated with <code>curi</code>.
@@ -0,0 +1,711 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.datamodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import st.ata.util.AList;
+import st.ata.util.HashtableAList;
+import st.ata.util.MutableAList;
+import st.ata.util.X;
+
+/**
+ * AList specialized for the well-known {@link CoreAttributeConstants}
+ * keys carried by nearly every CrawlURI.
+ *
+ * Each well-known key has a fixed slot, found through a static
+ * open-addressing table rather than a per-instance Hashtable. Slot
+ * presence and value kind are kept in bitmasks; reference values sit
+ * in an Object[] indexed by slot, and the few keys conventionally
+ * holding ints or longs (fetch times, retry delay, status, reference
+ * length) are stored unboxed in a long[]. Both arrays are allocated
+ * only on first use. Any other key goes to a lazily-created
+ * HashtableAList.
+ *
+ * Typing follows HashtableAList: a value put as an int cannot be read
+ * as a long, and a missing key read through a typed getter throws
+ * NoSuchElementException.
+ */
+public class SlottedAList
+implements MutableAList, Serializable, CoreAttributeConstants {
+    private static final long serialVersionUID = 1L;
+
+    /** well-known keys, by slot; at most 64 */
+    private static final String[] SLOT_KEYS;
+    /** index into prims of each slot, or -1 if not a primitive slot */
+    private static final int[] PRIM_INDEX;
+    /** number of primitive slots */
+    private static final int PRIM_COUNT;
+    /** open-addressing table from key to slot */
+    private static final String[] TABLE_KEYS;
+    private static final int[] TABLE_SLOTS;
+    private static final int TABLE_MASK;
+    static {
+        String[] refKeys = {
+            A_CONTENT_TYPE, A_DELAY_FACTOR, A_MINIMUM_DELAY,
+            A_RRECORD_SET_LABEL, A_DNS_FETCH_TIME, A_DNS_SERVER_IP_LABEL,
+            A_HTTP_TRANSACTION, A_FTP_CONTROL_CONVERSATION,
+            A_FTP_FETCH_STATUS, A_RUNTIME_EXCEPTION, A_LOCALIZED_ERRORS,
+            A_ANNOTATIONS, A_PREREQUISITE_URI, A_DISTANCE_FROM_SEED,
+            A_HTML_BASE, A_META_ROBOTS, A_MIRROR_PATH,
+            A_CREDENTIAL_AVATARS_KEY, A_SOURCE_TAG, A_HERITABLE_KEYS,
+            A_FORCE_RETIRE, A_HTTP_PROXY_HOST, A_HTTP_PROXY_PORT,
+            A_HTTP_BIND_ADDRESS, A_FETCH_HISTORY, A_CONTENT_DIGEST,
+            A_LAST_MODIFIED_HEADER, A_ETAG_HEADER};
+        String[] primKeys = {
+            A_FETCH_BEGAN_TIME, A_FETCH_COMPLETED_TIME, A_RETRY_DELAY,
+            A_STATUS, A_REFERENCE_LENGTH};
+        List<String> keys = new ArrayList<String>();
+        for (String k : primKeys) {
+            if (!keys.contains(k)) {
+                keys.add(k);
+            }
+        }
+        int primCount = keys.size();
+        for (String k : refKeys) {
+            if (!keys.contains(k)) {
+                keys.add(k);
+            }
+        }
+        if (keys.size() > 64) {
+            throw new IllegalStateException("too many slots: "
+                + keys.size());
+        }
+        SLOT_KEYS = keys.toArray(new String[keys.size()]);
+        PRIM_COUNT = primCount;
+        PRIM_INDEX = new int[SLOT_KEYS.length];
+        for (int i = 0; i < SLOT_KEYS.length; i++) {
+            PRIM_INDEX[i] = (i < primCount) ? i : -1;
+        }
+        int size = Integer.highestOneBit(SLOT_KEYS.length * 4 - 1) << 1;
+        TABLE_KEYS = new String[size];
+        TABLE_SLOTS = new int[size];
+        TABLE_MASK = size - 1;
+        for (int i = 0; i < SLOT_KEYS.length; i++) {
+            int j = spread(SLOT_KEYS[i].hashCode()) & TABLE_MASK;
+            while (TABLE_KEYS[j] != null) {
+                j = (j + 1) & TABLE_MASK;
+            }
+            TABLE_KEYS[j] = SLOT_KEYS[i];
+            TABLE_SLOTS[j] = i;
+        }
+    }
+
+    /** bit per slot: slot holds a value */
+    private transient long present;
+    /** bit per slot: value is held unboxed in prims */
+    private transient long primitive;
+    /** bit per slot: unboxed value is a long (else an int) */
+    private transient long longTyped;
+    /** unboxed values, by PRIM_INDEX; null until first needed */
+    private transient long[] prims;
+    /** reference values, by slot; null until first needed */
+    private transient Object[] refs;
+    /** entries for keys without a slot; null until first needed */
+    private transient HashtableAList others;
+
+    public SlottedAList() {
+        super();
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param key attribute key
+     * @return slot of the key, or -1 if it is not a well-known key
+     */
+    protected static int slotOf(String key) {
+        int j = spread(key.hashCode()) & TABLE_MASK;
+        for (;;) {
+            String k = TABLE_KEYS[j];
+            if (k == null) {
+                return -1;
+            }
+            if (k == key || k.equals(key)) {
+                return TABLE_SLOTS[j];
+            }
+            j = (j + 1) & TABLE_MASK;
+        }
+    }
+
+    private boolean isPresent(int slot) {
+        return (present & (1L << slot)) != 0;
+    }
+
+    private boolean isPrimitive(int slot) {
+        return (primitive & (1L << slot)) != 0;
+    }
+
+    private void putPrimitive(int slot, long value, boolean isLong) {
+        if (prims == null) {
+            prims = new long[PRIM_COUNT];
+        }
+        prims[PRIM_INDEX[slot]] = value;
+        long bit = 1L << slot;
+        present |= bit;
+        primitive |= bit;
+        if (isLong) {
+            longTyped |= bit;
+        } else {
+            longTyped &= ~bit;
+        }
+        if (refs != null) {
+            refs[slot] = null;
+        }
+    }
+
+    private void putReference(int slot, Object val) {
+        if (refs == null) {
+            refs = new Object[SLOT_KEYS.length];
+        }
+        refs[slot] = val;
+        long bit = 1L << slot;
+        present |= bit;
+        primitive &= ~bit;
+        longTyped &= ~bit;
+    }
+
+    private void clearSlot(int slot) {
+        long bit = ~(1L << slot);
+        present &= bit;
+        primitive &= bit;
+        longTyped &= bit;
+        if (refs != null) {
+            refs[slot] = null;
+        }
+    }
+
+    private Object slotValue(int slot) {
+        if (!isPresent(slot)) {
+            return null;
+        }
+        if (isPrimitive(slot)) {
+            long v = prims[PRIM_INDEX[slot]];
+            return ((longTyped & (1L << slot)) != 0)
+                ? (Object)Long.valueOf(v) : (Object)Integer.valueOf((int)v);
+        }
+        return refs[slot];
+    }
+
+    private Object require(String key) {
+        Object v = getObject(key);
+        if (v == null) {
+            throw new NoSuchElementException(key);
+        }
+        return v;
+    }
+
+    public boolean containsKey(String key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return isPresent(slot);
+        }
+        return others != null && others.containsKey(key);
+    }
+
+    public Object getObject(String key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return slotValue(slot);
+        }
+        return (others == null) ? null : others.getObject(key);
+    }
+
+    public void putObject(String key, Object val) {
+        if (val == null) {
+            // as Hashtable
+            throw new NullPointerException(key);
+        }
+        int slot = slotOf(key);
+        if (slot < 0) {
+            if (others == null) {
+                others = new HashtableAList();
+            }
+            others.putObject(key, val);
+        } else if (PRIM_INDEX[slot] >= 0 && val instanceof Integer) {
+            putPrimitive(slot, ((Integer)val).intValue(), false);
+        } else if (PRIM_INDEX[slot] >= 0 && val instanceof Long) {
+            putPrimitive(slot, ((Long)val).longValue(), true);
+        } else {
+            putReference(slot, val);
+        }
+    }
+
+    public void remove(String key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            clearSlot(slot);
+        } else if (others != null) {
+            others.remove(key);
+        }
+    }
+
+    public Iterator getKeys() {
+        return Arrays.asList(getKeyArray()).iterator();
+    }
+
+    public String[] getKeyArray() {
+        String[] otherKeys = (others == null) ? null : others.getKeyArray();
+        int n = Long.bitCount(present)
+            + ((otherKeys == null) ? 0 : otherKeys.length);
+        String[] keys = new String[n];
+        int i = 0;
+        for (long bits = present; bits != 0; bits &= bits - 1) {
+            keys[i++] = SLOT_KEYS[Long.numberOfTrailingZeros(bits)];
+        }
+        if (otherKeys != null) {
+            System.arraycopy(otherKeys, 0, keys, i, otherKeys.length);
+        }
+        return keys;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return Long.bitCount(present)
+            + ((others == null) ? 0 : others.getKeyArray().length);
+    }
+
+    public int getInt(String key) {
+        int slot = slotOf(key);
+        if (slot >= 0 && isPrimitive(slot)) {
+            if ((longTyped & (1L << slot)) != 0) {
+                throw new ClassCastException(key + " holds a long");
+            }
+            return (int)prims[PRIM_INDEX[slot]];
+        }
+        return ((Integer)require(key)).intValue();
+    }
+
+    public long getLong(String key) {
+        int slot = slotOf(key);
+        if (slot >= 0 && isPrimitive(slot)) {
+            if ((longTyped & (1L << slot)) == 0) {
+                throw new ClassCastException(key + " holds an int");
+            }
+            return prims[PRIM_INDEX[slot]];
+        }
+        return ((Long)require(key)).longValue();
+    }
+
+    public String getString(String key) {
+        return (String)require(key);
+    }
+
+    public AList getAList(String key) {
+        return (AList)require(key);
+    }
+
+    public Date getDate(String key) {
+        return (Date)require(key);
+    }
+
+    public InputStream getInputStream(String key) {
+        return (InputStream)require(key);
+    }
+
+    public int[] getIntArray(String key) {
+        return (int[])require(key);
+    }
+
+    public long[] getLongArray(String key) {
+        return (long[])require(key);
+    }
+
+    public String[] getStringArray(String key) {
+        return (String[])require(key);
+    }
+
+    public AList[] getAListArray(String key) {
+        return (AList[])require(key);
+    }
+
+    public Date[] getDateArray(String key) {
+        int slot = slotOf(key);
+        if (slot < 0 && others != null) {
+            return others.getDateArray(key);
+        }
+        return (Date[])require(key);
+    }
+
+    public InputStream[] getInputStreamArray(String key) {
+        return (InputStream[])require(key);
+    }
+
+    public String[][] getStringArrayArray(String key) {
+        return (String[][])require(key);
+    }
+
+    public void putInt(String key, int value) {
+        int slot = slotOf(key);
+        if (slot >= 0 && PRIM_INDEX[slot] >= 0) {
+            putPrimitive(slot, value, false);
+        } else {
+            putObject(key, Integer.valueOf(value));
+        }
+    }
+
+    public void putLong(String key, long value) {
+        int slot = slotOf(key);
+        if (slot >= 0 && PRIM_INDEX[slot] >= 0) {
+            putPrimitive(slot, value, true);
+        } else {
+            putObject(key, Long.valueOf(value));
+        }
+    }
+
+    public void putString(String key, String value) {
+        putObject(key, value);
+    }
+
+    public void putAList(String key, AList value) {
+        putObject(key, value);
+    }
+
+    public void putDate(String key, Date value) {
+        putObject(key, value);
+    }
+
+    public void putInputStream(String key, InputStream value) {
+        putObject(key, value);
+    }
+
+    public void putIntArray(String key, int[] value) {
+        putObject(key, value);
+    }
+
+    public void putLongArray(String key, long[] value) {
+        putObject(key, value);
+    }
+
+    public void putStringArray(String key, String[] value) {
+        putObject(key, value);
+    }
+
+    public void putAListArray(String key, AList[] value) {
+        putObject(key, value);
+    }
+
+    public void putDateArray(String key, Date[] value) {
+        if (slotOf(key) < 0) {
+            if (others == null) {
+                others = new HashtableAList();
+            }
+            others.putDateArray(key, value);
+        } else {
+            putObject(key, value);
+        }
+    }
+
+    public void putInputStreamArray(String key, InputStream[] value) {
+        putObject(key, value);
+    }
+
+    public void putStringArrayArray(String key, String[][] value) {
+        putObject(key, value);
+    }
+
+    public int getType(String key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return (others == null) ? T_UNDEFINED : others.getType(key);
+        }
+        if (!isPresent(slot)) {
+            return T_UNDEFINED;
+        }
+        if (isPrimitive(slot)) {
+            return ((longTyped & (1L << slot)) != 0) ? T_LONG : T_INT;
+        }
+        Object o = refs[slot];
+        if (o instanceof AList) return T_ALIST;
+        else if (o instanceof Date) return T_DATE;
+        else if (o instanceof Integer) return T_INT;
+        else if (o instanceof Long) return T_LONG;
+        else if (o instanceof String) return T_STRING;
+        else if (o instanceof InputStream) return T_INPUTSTREAM;
+        else if (o instanceof AList[]) return T_ALIST | F_ARRAY;
+        else if (o instanceof Date[]) return T_DATE | F_ARRAY;
+        else if (o instanceof int[]) return T_INT | F_ARRAY;
+        else if (o instanceof long[]) return T_LONG | F_ARRAY;
+        else if (o instanceof String[]) return T_STRING | F_ARRAY;
+        else if (o instanceof InputStream[]) return T_INPUTSTREAM | F_ARRAY;
+        else if (o instanceof String[][]) return T_STRING | F_ARRAY_ARRAY;
+        else if (o instanceof Object[]) return T_OBJECT | F_ARRAY;
+        return T_OBJECT;
+    }
+
+    public void close() {
+        try {
+            for (long bits = present & ~primitive; bits != 0;
+                    bits &= bits - 1) {
+                Object o = refs[Long.numberOfTrailingZeros(bits)];
+                if (o instanceof InputStream) {
+                    ((InputStream)o).close();
+                } else if (o instanceof InputStream[]) {
+                    for (InputStream in : (InputStream[])o) {
+                        in.close();
+                    }
+                } else if (o instanceof AList) {
+                    ((AList)o).close();
+                } else if (o instanceof AList[]) {
+                    for (AList a : (AList[])o) {
+                        a.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw X.toRTE(e);
+        }
+        if (others != null) {
+            others.close();
+        }
+    }
+
+    public AList newAList() {
+        return new SlottedAList();
+    }
+
+    public void clear() {
+        close();
+        present = 0;
+        primitive = 0;
+        longTyped = 0;
+        if (refs != null) {
+            Arrays.fill(refs, null);
+        }
+        others = null;
+    }
+
+    /**
+     * Remove all entries except those whose keys appear in either
+     * collection, in place.
+     *
+     * @param keep keys to retain; may be null
+     * @param moreKeep further keys to retain; may be null
+     */
+    public void retainKeys(Collection<?> keep, Collection<?> moreKeep) {
+        for (long bits = present; bits != 0; bits &= bits - 1) {
+            int slot = Long.numberOfTrailingZeros(bits);
+            String key = SLOT_KEYS[slot];
+            if (!contains(keep, key) && !contains(moreKeep, key)) {
+                clearSlot(slot);
+            }
+        }
+        if (others != null) {
+            for (String key : others.getKeyArray()) {
+                if (!contains(keep, key) && !contains(moreKeep, key)) {
+                    others.remove(key);
+                }
+            }
+        }
+    }
+
+    private static boolean contains(Collection<?> c, String key) {
+        return c != null && !c.isEmpty() && c.contains(key);
+    }
+
+    public void copyKeysFrom(Iterator keys, AList other) {
+        copyKeysFrom(keys, other, true);
+    }
+
+    public void copyKeysFrom(Iterator keys, AList other, boolean clobber) {
+        while (keys.hasNext()) {
+            String key = (String)keys.next();
+            if (!clobber && containsKey(key)) {
+                continue;
+            }
+            if (other instanceof SlottedAList) {
+                SlottedAList o = (SlottedAList)other;
+                int slot = slotOf(key);
+                if (slot >= 0 && o.isPrimitive(slot)) {
+                    putPrimitive(slot, o.prims[PRIM_INDEX[slot]],
+                        (o.longTyped & (1L << slot)) != 0);
+                    continue;
+                }
+            }
+            Object value = other.getObject(key);
+            if (value != null) {
+                putObject(key, value);
+            }
+        }
+    }
+
+    /**
+     * Copy, cloning nested ALists and string arrays as HashtableAList
+     * does.
+     *
+     * @return The cloned object.
+     */
+    public Object clone() {
+        SlottedAList copy = new SlottedAList();
+        copy.present = present;
+        copy.primitive = primitive;
+        copy.longTyped = longTyped;
+        if (prims != null) {
+            copy.prims = prims.clone();
+        }
+        if (refs != null) {
+            copy.refs = refs.clone();
+            for (int i = 0; i < refs.length; i++) {
+                Object o = refs[i];
+                if (o instanceof AList) {
+                    copy.refs[i] = ((AList)o).clone();
+                } else if (o instanceof String[]) {
+                    copy.refs[i] = ((String[])o).clone();
+                }
+            }
+        }
+        if (others != null) {
+            copy.others = (HashtableAList)others.clone();
+        }
+        return copy;
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SlottedAList)) {
+            return false;
+        }
+        SlottedAList o = (SlottedAList)obj;
+        if (present != o.present || primitive != o.primitive
+                || longTyped != o.longTyped) {
+            return false;
+        }
+        for (long bits = present; bits != 0; bits &= bits - 1) {
+            int slot = Long.numberOfTrailingZeros(bits);
+            if (isPrimitive(slot)) {
+                if (prims[PRIM_INDEX[slot]] != o.prims[PRIM_INDEX[slot]]) {
+                    return false;
+                }
+            } else if (!Arrays.deepEquals(new Object[] {refs[slot]},
+                    new Object[] {o.refs[slot]})) {
+                return false;
+            }
+        }
+        if (others == null || o.others == null) {
+            return (others == null || others.getKeyArray().length == 0)
+                && (o.others == null || o.others.getKeyArray().length == 0);
+        }
+        return others.equals(o.others);
+    }
+
+    public int hashCode() {
+        return (int)(present ^ (present >>> 32));
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        for (String key : getKeyArray()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(key).append('=').append(getObject(key));
+        }
+        builder.append('}');
+        return builder.toString();
+    }
+
+    public String toPrettyString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{ ");
+        boolean needsComma = false;
+        for (String key : getKeyArray()) {
+            if (needsComma) {
+                builder.append(", ");
+            }
+            builder.append(key);
+            builder.append(": ");
+            Object obj = getObject(key);
+            if (obj instanceof AList) {
+                builder.append(((AList)obj).toPrettyString());
+            } else if (obj instanceof AList[]) {
+                builder.append("[ ");
+                boolean innerComma = false;
+                for (AList alist : (AList[])obj) {
+                    if (alist == null) continue;
+                    if (innerComma) {
+                        builder.append(", ");
+                    }
+                    builder.append(alist.toPrettyString());
+                    innerComma = true;
+                }
+                builder.append(" ]");
+            } else {
+                builder.append("<").append(obj).append(">");
+            }
+            needsComma = true;
+        }
+        builder.append(" }");
+        return builder.toString();
+    }
+
+    /**
+     * Serialize as key/value pairs rather than slot arrays, so stored
+     * instances stay readable if the set of slots changes.
+     *
+     * @param stream
+     * @throws IOException
+     */
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        int n = Long.bitCount(present);
+        stream.writeInt(n);
+        for (long bits = present; bits != 0; bits &= bits - 1) {
+            int slot = Long.numberOfTrailingZeros(bits);
+            stream.writeUTF(SLOT_KEYS[slot]);
+            stream.writeObject(slotValue(slot));
+        }
+        stream.writeObject(others);
+    }
+
+    private void readObject(ObjectInputStream stream)
+    throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        int n = stream.readInt();
+        for (int i = 0; i < n; i++) {
+            String key = stream.readUTF().intern();
+            putObject(key, stream.readObject());
+        }
+        HashtableAList storedOthers = (HashtableAList)stream.readObject();
+        if (storedOthers != null) {
+            for (String key : storedOthers.getKeyArray()) {
+                if (storedOthers.getType(key) == (T_DATE | F_ARRAY)) {
+                    putDateArray(key, storedOthers.getDateArray(key));
+                } else {
+                    putObject(key, storedOthers.getObject(key));
+                }
+            }
+        }
+    }
+}
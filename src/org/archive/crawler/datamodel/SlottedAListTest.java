@@ -0,0 +1,149 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.datamodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURIFactory;
+
+import st.ata.util.AList;
+
+/**
+ * Test SlottedAList.
+ */
+public class SlottedAListTest extends TestCase
+implements CoreAttributeConstants {
+
+    public void testTypedAccess() {
+        SlottedAList alist = new SlottedAList();
+        alist.putLong(A_FETCH_BEGAN_TIME, 1234567890123L);
+        alist.putInt(A_STATUS, 200);
+        alist.putString(A_CONTENT_TYPE, "text/html");
+        alist.putInt(A_DISTANCE_FROM_SEED, 3);
+        alist.putString("custom", "x");
+        alist.putDateArray("dates", new Date[] {new Date(5)});
+
+        assertEquals(1234567890123L, alist.getLong(A_FETCH_BEGAN_TIME));
+        assertEquals(200, alist.getInt(A_STATUS));
+        assertEquals("text/html", alist.getString(A_CONTENT_TYPE));
+        assertEquals(3, alist.getInt(A_DISTANCE_FROM_SEED));
+        assertEquals("x", alist.getString("custom"));
+        assertEquals(new Date(5), alist.getDateArray("dates")[0]);
+        assertEquals(Long.valueOf(1234567890123L),
+            alist.getObject(A_FETCH_BEGAN_TIME));
+        assertEquals(AList.T_LONG, alist.getType(A_FETCH_BEGAN_TIME));
+        assertEquals(AList.T_INT, alist.getType(A_STATUS));
+        assertEquals(AList.T_STRING, alist.getType(A_CONTENT_TYPE));
+        assertEquals(AList.T_DATE | AList.F_ARRAY, alist.getType("dates"));
+        assertEquals(AList.T_UNDEFINED, alist.getType(A_RETRY_DELAY));
+        assertEquals(6, alist.getKeyArray().length);
+        assertEquals(6, alist.size());
+
+        try {
+            alist.getInt(A_FETCH_BEGAN_TIME);
+            fail("long read as int");
+        } catch (ClassCastException e) {
+            // expected
+        }
+        try {
+            alist.getLong(A_RETRY_DELAY);
+            fail("absent key read");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        // equal but distinct key instance
+        String key = new String(A_STATUS);
+        assertTrue(alist.containsKey(key));
+        alist.remove(key);
+        assertFalse(alist.containsKey(A_STATUS));
+        alist.putObject(A_STATUS, Integer.valueOf(404));
+        assertEquals(404, alist.getInt(A_STATUS));
+    }
+
+    public void testRetainKeys() {
+        SlottedAList alist = new SlottedAList();
+        alist.putLong(A_FETCH_BEGAN_TIME, 1);
+        alist.putString(A_CONTENT_TYPE, "text/html");
+        alist.putString(A_SOURCE_TAG, "seed");
+        alist.putString("custom", "x");
+        alist.putString("other", "y");
+        alist.retainKeys(Arrays.asList(A_SOURCE_TAG),
+            Arrays.asList("custom"));
+        assertEquals(new HashSet<String>(Arrays.asList(A_SOURCE_TAG,
+            "custom")), new HashSet<String>(Arrays.asList(
+                alist.getKeyArray())));
+        assertNull(alist.getObject(A_CONTENT_TYPE));
+    }
+
+    public void testProcessingCleanup() throws Exception {
+        CrawlURI curi =
+            new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        assertTrue(curi.getAList() instanceof SlottedAList);
+        List<String> heritable = new ArrayList<String>();
+        heritable.add(A_SOURCE_TAG);
+        heritable.add(A_HERITABLE_KEYS);
+        curi.putObject(A_HERITABLE_KEYS, heritable);
+        curi.putString(A_SOURCE_TAG, "seed");
+        curi.putLong(A_FETCH_BEGAN_TIME, 1);
+        curi.putString("custom", "x");
+        curi.processingCleanup();
+        assertEquals("seed", curi.getString(A_SOURCE_TAG));
+        assertTrue(curi.containsKey(A_HERITABLE_KEYS));
+        assertFalse(curi.containsKey(A_FETCH_BEGAN_TIME));
+        assertFalse(curi.containsKey("custom"));
+    }
+
+    public void testSerializationAndClone() throws Exception {
+        SlottedAList alist = new SlottedAList();
+        alist.putLong(A_FETCH_COMPLETED_TIME, 99L);
+        alist.putInt(A_RETRY_DELAY, 900);
+        alist.putString(A_ETAG_HEADER, "\"abc\"");
+        alist.putStringArray("strings", new String[] {"a", "b"});
+        alist.putString("custom", "x");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(alist);
+        oos.close();
+        SlottedAList read = (SlottedAList)new ObjectInputStream(
+            new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals(alist, read);
+        assertEquals(99L, read.getLong(A_FETCH_COMPLETED_TIME));
+        assertEquals(900, read.getInt(A_RETRY_DELAY));
+        assertEquals("x", read.getString("custom"));
+
+        SlottedAList copy = (SlottedAList)alist.clone();
+        assertEquals(alist, copy);
+        copy.putLong(A_FETCH_COMPLETED_TIME, 100L);
+        assertEquals(99L, alist.getLong(A_FETCH_COMPLETED_TIME));
+    }
+}
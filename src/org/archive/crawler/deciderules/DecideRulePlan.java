@@ -0,0 +1,250 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.deciderules;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.MultiRegexMatcher;
+
+/**
+ * A {@link DecideRuleSequence}'s rules as they apply in one settings
+ * context, compiled for repeated evaluation:
+ *
+ * <ul>
+ * <li>the rules are resolved from settings once, into an array;</li>
+ * <li>each rule's single possible decision is looked up once;</li>
+ * <li>rules before the last rule that always decides (an
+ * {@link AcceptDecideRule} or {@link RejectDecideRule}) are dropped;</li>
+ * <li>evaluation stops once no later rule could change the decision;</li>
+ * <li>plain regular-expression rules have their expressions looked up
+ * once, and runs of them making the same decision are tested together
+ * in one pass by a {@link MultiRegexMatcher}.</li>
+ * </ul>
+ *
+ * The result is the same as that of evaluating each rule in turn, given
+ * that (as {@link DecideRuleSequence} already assumes in skipping rules)
+ * evaluating a rule has no side effects the sequence depends on.
+ */
+class DecideRulePlan {
+    private static final Logger logger =
+        Logger.getLogger(DecideRulePlan.class.getName());
+
+    /** marks a step whose single possible decision varies by object */
+    private static final Object VARIES = new Object();
+
+    /** classes declaring rule methods, by rule class and method name */
+    private static final ConcurrentHashMap<String,Class<?>> declarers =
+        new ConcurrentHashMap<String,Class<?>>();
+
+    private final String name;
+    private final Step[] steps;
+    /** decision of the last rule always deciding, or PASS */
+    private final Object initialAnswer;
+
+    private DecideRulePlan(String name, Step[] steps, Object initialAnswer) {
+        this.name = name;
+        this.steps = steps;
+        this.initialAnswer = initialAnswer;
+    }
+
+    /**
+     * Compile the rules of a sequence as they apply to the given object.
+     *
+     * @param sequence Sequence to compile.
+     * @param object Object whose settings context to compile for.
+     * @return the plan
+     */
+    static DecideRulePlan compile(DecideRuleSequence sequence, Object object) {
+        List<Step> steps = new ArrayList<Step>();
+        Object initialAnswer = DecideRule.PASS;
+        for (Iterator<?> iter = sequence.getRules(object).iterator(object);
+                iter.hasNext();) {
+            DecideRule r = (DecideRule)iter.next();
+            Class<?> decider = declarer(r.getClass(), "decisionFor");
+            if (decider == AcceptDecideRule.class
+                    || decider == RejectDecideRule.class) {
+                // always decides: earlier rules cannot matter
+                steps.clear();
+                initialAnswer = r.decisionFor(object);
+                continue;
+            }
+            Object decision = VARIES;
+            Class<?> single = declarer(r.getClass(),
+                "singlePossibleNonPassDecision");
+            if (single == DecideRule.class
+                    || single == ConfiguredDecideRule.class) {
+                decision = r.singlePossibleNonPassDecision(object);
+            }
+            String regexp = null;
+            boolean negated = false;
+            if (decider == PredicatedDecideRule.class
+                    && single == ConfiguredDecideRule.class) {
+                Class<?> evaluator = declarer(r.getClass(), "evaluate");
+                if (evaluator == MatchesRegExpDecideRule.class
+                        || evaluator == NotMatchesRegExpDecideRule.class) {
+                    regexp = ((MatchesRegExpDecideRule)r).getRegexp(object);
+                    negated = evaluator == NotMatchesRegExpDecideRule.class;
+                }
+            }
+            if (regexp != null && (decision == DecideRule.ACCEPT
+                    || decision == DecideRule.REJECT)) {
+                Step previous = steps.isEmpty()
+                    ? null : steps.get(steps.size() - 1);
+                if (!negated && previous != null && previous.regexps != null
+                        && !previous.negated && previous.decision == decision) {
+                    previous.merge(r, regexp);
+                } else {
+                    steps.add(new Step(r, decision, regexp, negated));
+                }
+            } else {
+                steps.add(new Step(r, decision, null, false));
+            }
+        }
+        Step[] plan = steps.toArray(new Step[steps.size()]);
+        // note, back to front, decisions shared by all remaining steps
+        Object rest = null;
+        for (int i = plan.length - 1; i >= 0; i--) {
+            Object decision = plan[i].decision;
+            if (decision != DecideRule.ACCEPT
+                    && decision != DecideRule.REJECT) {
+                rest = VARIES;
+            } else if (rest == null) {
+                rest = decision;
+            } else if (rest != decision) {
+                rest = VARIES;
+            }
+            plan[i].rest = rest;
+            if (plan[i].regexps != null) {
+                plan[i].matcher = new MultiRegexMatcher(plan[i].regexps);
+            }
+        }
+        return new DecideRulePlan(sequence.getName(), plan, initialAnswer);
+    }
+
+    /**
+     * @return the class declaring the named one-argument rule method
+     * inherited by the given rule class
+     */
+    static Class<?> declarer(Class<?> ruleClass, String method) {
+        String key = ruleClass.getName() + '.' + method;
+        Class<?> declarer = declarers.get(key);
+        if (declarer == null) {
+            for (Class<?> c = ruleClass; c != null; c = c.getSuperclass()) {
+                try {
+                    Method m = c.getDeclaredMethod(method, Object.class);
+                    if (m != null) {
+                        declarer = c;
+                        break;
+                    }
+                } catch (NoSuchMethodException e) {
+                    // try superclass
+                }
+            }
+            if (declarer == null) {
+                declarer = Object.class;
+            }
+            declarers.put(key, declarer);
+        }
+        return declarer;
+    }
+
+    /**
+     * @return Number of steps left after compilation.
+     */
+    int size() {
+        return this.steps.length;
+    }
+
+    Object decisionFor(Object object) {
+        Object runningAnswer = this.initialAnswer;
+        for (int i = 0; i < this.steps.length; i++) {
+            Step s = this.steps[i];
+            if (runningAnswer == s.rest) {
+                // no remaining rule can change the decision
+                break;
+            }
+            Object decision = (s.decision == VARIES)
+                ? s.rule.singlePossibleNonPassDecision(object): s.decision;
+            if (runningAnswer == decision) {
+                // there's no chance this rule will change the decision
+                continue;
+            }
+            Object answer = s.decisionFor(object);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Rule " + s.name + " of " + this.name +
+                    " decided " + answer + " on " + object);
+            }
+            if (answer != DecideRule.PASS) {
+                runningAnswer = answer;
+            }
+        }
+        return runningAnswer;
+    }
+
+    /**
+     * A rule, or a run of regular-expression rules tested as one.
+     */
+    private static class Step {
+        String name;
+        final DecideRule rule;
+        final Object decision;
+        /** expressions tested against the object's string form, or null */
+        final List<String> regexps;
+        final boolean negated;
+        MultiRegexMatcher matcher;
+        /** decision shared by this and all later steps, or VARIES */
+        Object rest;
+
+        Step(DecideRule rule, Object decision, String regexp,
+                boolean negated) {
+            this.name = rule.getName();
+            this.rule = rule;
+            this.decision = decision;
+            this.regexps = (regexp == null) ? null : new ArrayList<String>();
+            if (regexp != null) {
+                this.regexps.add(regexp);
+            }
+            this.negated = negated;
+        }
+
+        /**
+         * Also test the given rule's expression, a match of either
+         * deciding.
+         */
+        void merge(DecideRule next, String nextRegexp) {
+            this.name = this.name + "+" + next.getName();
+            this.regexps.add(nextRegexp);
+        }
+
+        Object decisionFor(Object object) {
+            if (this.matcher == null) {
+                return this.rule.decisionFor(object);
+            }
+            boolean matched = this.matcher.matchesAny(object.toString());
+            return (matched != this.negated) ? this.decision: DecideRule.PASS;
+        }
+    }
+}
@@ -50,6 +50,9 @@ public class DecideRuleSequence extends DecideRule {
         Logger.getLogger(DecideRuleSequence.class.getName());
 
     public static final String ATTR_RULES = "rules";
+
+    /** key of the compiled rules among values derived from settings */
+    private static final String PLAN = "plan";
     
     public DecideRuleSequence(String name) {
         this(name,"DecideRuleSequence. Multiple DecideRules applied in " +
@@ -65,6 +68,15 @@ public class DecideRuleSequence extends DecideRule {
     }
 
     public Object decisionFor(Object object) {
+        DecideRulePlan plan = getPlan(object);
+        if (plan != null) {
+            Object answer = plan.decisionFor(object);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Decision of " + this.getName() + " was " +
+                    answer);
+            }
+            return answer;
+        }
         Object runningAnswer = PASS;
         for(Iterator iter = getRules(object).iterator(object);
                 iter.hasNext();) {
@@ -89,6 +101,23 @@ public class DecideRuleSequence extends DecideRule {
         return runningAnswer;
     }
 
+    /**
+     * Get the rules compiled for the settings that apply to the given
+     * object, compiling them if settings have changed since last compiled.
+     *
+     * @param o Object to decide on.
+     * @return the compiled rules, or null if they cannot be reused
+     * for this object's settings (as when refinements are in play).
+     */
+    DecideRulePlan getPlan(Object o) {
+        DecideRulePlan plan = (DecideRulePlan)getDerivedValue(o, PLAN);
+        if (plan == null && isDerivedValueCacheable(o)) {
+            plan = DecideRulePlan.compile(this, o);
+            putDerivedValue(o, PLAN, plan);
+        }
+        return plan;
+    }
+
     protected MapType getRules(Object o) {
         MapType rules = null;
         try {
@@ -37,6 +37,7 @@ import org.archive.crawler.datamodel.CrawlURI;
 import org.archive.crawler.filter.ContentTypeRegExpFilter;
 import org.archive.crawler.settings.MapType;
 import org.archive.crawler.settings.SettingsHandler;
+import org.archive.crawler.settings.StringList;
 import org.archive.crawler.settings.XMLSettingsHandler;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
@@ -160,6 +161,100 @@ public class DecideRuleSequenceTest extends TmpDirTestCase {
     }
     
     
+    public void testMergedRegexes()
+    throws InvalidAttributeValueException, AttributeNotFoundException,
+    MBeanException, ReflectionException {
+        DecideRule a = addDecideRule(new MatchesRegExpDecideRule("A"));
+        a.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_REGEXP,
+            "^.*\\.archive\\.org.*"));
+        DecideRule b = addDecideRule(new MatchesRegExpDecideRule("B"));
+        b.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_REGEXP,
+            "^.*\\.example\\.com.*"));
+        DecideRule c = addDecideRule(new MatchesRegExpDecideRule("C"));
+        c.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_REGEXP,
+            "^.*/trap/.*"));
+        c.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_DECISION,
+            DecideRule.REJECT));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.archive.org/"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.example.com/"));
+        assertEquals(DecideRule.PASS,
+            this.rule.decisionFor("http://www.google.com/"));
+        assertEquals(DecideRule.REJECT,
+            this.rule.decisionFor("http://www.archive.org/trap/x"));
+        // A and B share a decision and are tested as one expression
+        assertEquals(2, this.rule.getPlan(null).size());
+
+        // a changed setting must be seen by the next decision
+        b.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_DECISION,
+            DecideRule.REJECT));
+        assertEquals(DecideRule.REJECT,
+            this.rule.decisionFor("http://www.example.com/"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.archive.org/"));
+        b.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_REGEXP,
+            "^.*\\.example\\.net.*"));
+        assertEquals(DecideRule.PASS,
+            this.rule.decisionFor("http://www.example.com/"));
+    }
+
+    public void testMatchesListRegExp()
+    throws InvalidAttributeValueException, AttributeNotFoundException,
+    MBeanException, ReflectionException {
+        DecideRule r = addDecideRule(new MatchesListRegExpDecideRule("LIST"));
+        StringList list = (StringList)r.getAttribute(
+            MatchesListRegExpDecideRule.ATTR_REGEXP_LIST);
+        list.add("^.*\\.archive\\.org.*");
+        list.add(".*/(calendar|cal)/.*");
+        // with a backreference, tested by java.util.regex
+        list.add(".*(/[^/]+)\\1.*");
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.archive.org/"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://example.com/cal/2009"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://example.com/a/a/"));
+        assertEquals(DecideRule.PASS,
+            this.rule.decisionFor("http://example.com/a/b/"));
+
+        // edited in place, without settings noticing
+        list.add(".*/b/.*");
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://example.com/a/b/"));
+
+        r.setAttribute(new Attribute(
+            MatchesListRegExpDecideRule.ATTR_LIST_LOGIC, "AND"));
+        assertEquals(DecideRule.PASS,
+            this.rule.decisionFor("http://www.archive.org/cal/"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.archive.org/cal/cal/b/"));
+    }
+
+    public void testAcceptTruncatesPlan()
+    throws InvalidAttributeValueException, AttributeNotFoundException,
+    MBeanException, ReflectionException {
+        DecideRule r = addDecideRule(new NotMatchesRegExpDecideRule("NOT"));
+        r.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_REGEXP,
+            "^.*\\.archive\\.org.*"));
+        r.setAttribute(new Attribute(MatchesRegExpDecideRule.ATTR_DECISION,
+            DecideRule.REJECT));
+        addDecideRule(new AcceptDecideRule("ACCEPT"));
+        // the accept-all rule overrides everything before it
+        assertEquals(0, this.rule.getPlan(null).size());
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.google.com/"));
+
+        // reordering must be seen by the next decision
+        MapType rules = this.rule.getRules(null);
+        rules.moveElementUp(null, "ACCEPT");
+        assertEquals(1, this.rule.getPlan(null).size());
+        assertEquals(DecideRule.REJECT,
+            this.rule.decisionFor("http://www.google.com/"));
+        assertEquals(DecideRule.ACCEPT,
+            this.rule.decisionFor("http://www.archive.org/"));
+    }
+    
     public void testPrerequisite()
     throws InvalidAttributeValueException, URIException {
         addDecideRule(new PrerequisiteAcceptDecideRule("PREREQUISITE"));
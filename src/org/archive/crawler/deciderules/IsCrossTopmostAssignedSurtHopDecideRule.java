@@ -74,9 +74,13 @@ public class IsCrossTopmostAssignedSurtHopDecideRule extends PredicatedDecideRul
     }
     
     private String getTopmostAssignedSurt(UURI uuri){
-        String surt = uuri.getSurtForm().replaceFirst(".*://\\((.*?)\\).*", "$1");
-        return PublicSuffixes.reduceSurtToTopmostAssigned(surt);
-        
+        String surt = uuri.getTopmostAssignedSurt();
+        if (surt == null) {
+            // no SURT authority (as for dns: URIs): use the whole SURT
+            surt = PublicSuffixes.reduceSurtToTopmostAssigned(
+                uuri.getSurtForm());
+        }
+        return surt;
     }
 
 }
@@ -24,7 +24,7 @@
  */
 package org.archive.crawler.deciderules;
 
-import java.util.Iterator;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,7 +33,7 @@ import javax.management.AttributeNotFoundException;
 
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.StringList;
-import org.archive.util.TextUtils;
+import org.archive.util.MultiRegexMatcher;
 
 
 /**
@@ -59,6 +59,9 @@ public class MatchesListRegExpDecideRule extends PredicatedDecideRule {
     public static final String DEFAULT_LIST_LOGIC = "OR";
     public static final String[] LEGAL_LIST_LOGIC = {"OR","AND"};
 
+    /** matcher last built, for contexts whose settings can't hold one */
+    private transient volatile MultiRegexMatcher lastMatcher = null;
+
     /**
      * Usual constructor. 
      * @param name
@@ -92,38 +95,19 @@ public class MatchesListRegExpDecideRule extends PredicatedDecideRule {
                 return false;
             }
             String str = o.toString();
-            Iterator it = regexps.iterator();
-            
-            boolean listLogicOR = isListLogicOR(o);
-            // Result is initialized so that if OR based the default assumption is
-            // false (find no matches) but if AND based the default assumption is
-            // true (finds no non-matches)
-            boolean result = listLogicOR == false;
-            
-            while(it.hasNext()){
-                String regexp = (String)it.next();
-                boolean matches = TextUtils.matches(regexp, str);
-
-                if (logger.isLoggable(Level.FINER)) {
+            MultiRegexMatcher matcher = getMatcher(o, regexps);
+            if (logger.isLoggable(Level.FINER)) {
+                BitSet matching = matcher.matching(str);
+                for (int i = 0; i < regexps.size(); i++) {
                     logger.finer("Tested '" + str + "' match with regex '" +
-                        regexp + " and result was " + matches);
-                }
-                
-                if(matches){
-                    if(listLogicOR){
-                        // OR based and we just got a match, done!
-                        result = true;
-                        break;
-                    }
-                } else {
-                    if(listLogicOR == false){
-                        // AND based and we just found a non-match, done!
-                        result = false;
-                        break;
-                    }
+                        regexps.get(i) + " and result was " + matching.get(i));
                 }
             }
             
+            // all expressions are tested in one pass over the string
+            boolean result = isListLogicOR(o)
+                ? matcher.matchesAny(str): matcher.matchesAll(str);
+            
             if (logger.isLoggable(Level.FINE) && result){
                 logger.fine("Matched: " + str);
             }
@@ -135,6 +119,29 @@ public class MatchesListRegExpDecideRule extends PredicatedDecideRule {
         }
     }
     
+    /**
+     * Get a matcher for the given expressions, reusing the one last built
+     * for the settings context if its expressions are unchanged (they can
+     * be edited in place without a settings change being noted).
+     *
+     * @param o the object for which the expressions should be matched.
+     * @param regexps the expressions.
+     * @return a matcher testing the expressions.
+     */
+    protected MultiRegexMatcher getMatcher(Object o, List regexps) {
+        MultiRegexMatcher matcher =
+            (MultiRegexMatcher)getDerivedValue(o, ATTR_REGEXP_LIST);
+        if (matcher == null || !matcher.isFor(regexps)) {
+            matcher = this.lastMatcher;
+            if (matcher == null || !matcher.isFor(regexps)) {
+                matcher = new MultiRegexMatcher(regexps);
+                this.lastMatcher = matcher;
+            }
+            putDerivedValue(o, ATTR_REGEXP_LIST, matcher);
+        }
+        return matcher;
+    }
+
     /** 
      * Get the regular expressions list to match the URI against.
      *
@@ -30,7 +30,7 @@ import javax.management.AttributeNotFoundException;
 import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.net.UURI;
-import org.archive.util.SurtPrefixSet;
+import org.archive.util.PrefixTrie;
 
 /**
  * Rule allows one level of discovery beyond configured scope
@@ -82,7 +82,7 @@ public class ScopePlusOneDecideRule extends SurtPrefixedDecideRule {
             // Can't evaluate if not a candidate URI
             return false; 
         }
-        SurtPrefixSet set = getPrefixes(object);
+        PrefixTrie set = getPrefixes(object);
         UURI u = UURI.from(object);
         // First, is the URI itself in scope?
         boolean firstResult = isInScope(u, set);
@@ -111,28 +111,41 @@ public class ScopePlusOneDecideRule extends SurtPrefixedDecideRule {
     }
     
     /**
-     * Synchronized get of prefix set to use
+     * Get the prefix trie to use, building it on first use.
      * 
-     * @return SurtPrefixSet to use for check
+     * @return PrefixTrie to use for check
      *@see org.archive.crawler.deciderules.SurtPrefixedDecideRule#getPrefixes()
      */
-    protected synchronized SurtPrefixSet getPrefixes() {
+    protected PrefixTrie getPrefixes() {
         return getPrefixes(null);
     } 
     
     /**
-     * Synchronized get of prefix set to use.
+     * Get the prefix trie to use, building it on first use.
      * @param o Context object.
      * 
-     * @return SurtPrefixSet to use for check
+     * @return PrefixTrie to use for check
      * @see org.archive.crawler.deciderules.SurtPrefixedDecideRule#getPrefixes()
      */
-    protected synchronized SurtPrefixSet getPrefixes(Object o) {
-        if (surtPrefixes == null) {
-            readPrefixes(o);
+    protected PrefixTrie getPrefixes(Object o) {
+        PrefixTrie trie = surtTrie;
+        if (trie == null) {
+            synchronized (this) {
+                if (surtTrie == null) {
+                    if (surtPrefixes == null) {
+                        readPrefixes(o);
+                    }
+                    installPrefixes();
+                }
+                trie = surtTrie;
+            }
         }
-        return surtPrefixes;
+        return trie;
     }    
+
+    protected void readPrefixes() {
+        readPrefixes(null);
+    }
     
     /**
      * Patch the SURT prefix set so that it only includes the appropriate
@@ -180,7 +193,7 @@ public class ScopePlusOneDecideRule extends SurtPrefixedDecideRule {
     }
     
     //check that the URI is in scope
-    private boolean isInScope (Object o, SurtPrefixSet set) {
+    private boolean isInScope (Object o, PrefixTrie set) {
         boolean iResult = false;
         UURI u = (UURI)o;
         if (u == null) {
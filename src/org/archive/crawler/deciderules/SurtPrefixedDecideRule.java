@@ -29,12 +29,14 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.Collections;
 
 import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.crawler.framework.CrawlScope;
 import org.archive.crawler.scope.SeedListener;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.Type;
+import org.archive.util.PrefixTrie;
 import org.archive.util.SurtPrefixSet;
 
 
@@ -87,8 +89,18 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
     public static final Boolean
         DEFAULT_ALSO_CHECK_VIA = Boolean.FALSE;
     
+    /**
+     * Prefixes being assembled by {@link #readPrefixes()}; released once
+     * compiled into the lookup trie.
+     */
     protected SurtPrefixSet surtPrefixes = null;
 
+    /** Mapped prebuilt trie named as the source file, if any */
+    protected transient PrefixTrie sourceTrie = null;
+
+    /** Immutable trie consulted by {@link #evaluate(Object)} */
+    protected transient volatile PrefixTrie surtTrie = null;
+
     /**
      * Usual constructor. 
      * @param name
@@ -103,7 +115,9 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
                 "Source file from which to infer SURT prefixes. Any URLs " +
                 "in file will be converted to the implied SURT prefix, and " +
                 "literal SURT prefixes may be listed on lines beginning " +
-                "with a '+' character.",
+                "with a '+' character. Alternatively, a trie file written " +
+                "by org.archive.util.PrefixTrie from such a source, which " +
+                "is memory-mapped and used as-is.",
                 ""));
         addElementToDefinition(new SimpleType(ATTR_SEEDS_AS_SURT_PREFIXES,
                 "Should seeds also be interpreted as SURT prefixes.",
@@ -156,15 +170,45 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
     }
 
     /**
-     * Synchronized get of prefix set to use
+     * Get the prefix trie to use, building it on first use.
      * 
-     * @return SurtPrefixSet to use for check
+     * @return PrefixTrie to use for check
+     */
+    protected PrefixTrie getPrefixes() {
+        PrefixTrie trie = surtTrie;
+        if (trie == null) {
+            synchronized (this) {
+                if (surtTrie == null) {
+                    if (surtPrefixes == null) {
+                        readPrefixes();
+                    }
+                    installPrefixes();
+                }
+                trie = surtTrie;
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Compile the prefixes assembled by readPrefixes() into the trie
+     * used for lookups, releasing the assembled set.
+     */
+    protected synchronized void installPrefixes() {
+        surtTrie = compilePrefixes();
+        surtPrefixes = null;
+        sourceTrie = null;
+    }
+
+    /**
+     * @return trie holding the prefixes assembled by readPrefixes(),
+     * including any mapped source trie
      */
-    private synchronized SurtPrefixSet getPrefixes() {
-        if (surtPrefixes == null) {
-            readPrefixes();
+    protected PrefixTrie compilePrefixes() {
+        if (sourceTrie != null) {
+            return sourceTrie.merge(surtPrefixes);
         }
-        return surtPrefixes;
+        return PrefixTrie.build(surtPrefixes);
     }
 
     protected void readPrefixes() {
@@ -189,7 +233,7 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
                 OutputStreamWriter fw = 
                     new OutputStreamWriter(new FileOutputStream(dump),"UTF-8");
                 try {
-                    surtPrefixes.exportTo(fw);
+                    compilePrefixes().exportTo(fw);
                 } finally {
                     fw.close();
                 }
@@ -206,6 +250,7 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
      */
     protected void buildSurtPrefixSet() {
         SurtPrefixSet newSurtPrefixes = new SurtPrefixSet();
+        PrefixTrie newSourceTrie = null;
         FileReader fr = null;
 
         // read SURTs from file, if appropriate
@@ -218,11 +263,15 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
                     .getController().getDisk(), sourcePath);
             }
             try {
-                fr = new FileReader(source);
-                try {
-                    newSurtPrefixes.importFromMixed(fr, true);
-                } finally {
-                    fr.close();
+                if (PrefixTrie.isTrieFile(source)) {
+                    newSourceTrie = PrefixTrie.map(source);
+                } else {
+                    fr = new FileReader(source);
+                    try {
+                        newSurtPrefixes.importFromMixed(fr, true);
+                    } finally {
+                        fr.close();
+                    }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -248,6 +297,7 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
         }
 
         surtPrefixes = newSurtPrefixes;
+        sourceTrie = newSourceTrie;
     }
 
     /**
@@ -259,7 +309,10 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
         super.kickUpdate();
         if (((Boolean) getUncheckedAttribute(null, ATTR_REBUILD_ON_RECONFIG))
                 .booleanValue()) {
-            readPrefixes();
+            synchronized (this) {
+                readPrefixes();
+                installPrefixes();
+            }
         }
         // TODO: make conditional on file having actually changed,
         // perhaps by remembering mod-time
@@ -279,9 +332,8 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule
     }
 
     public synchronized void addedSeed(final CandidateURI curi) {
-        SurtPrefixSet newSurtPrefixes = (SurtPrefixSet) surtPrefixes.clone();
-        newSurtPrefixes.add(prefixFrom(curi.toString()));
-        surtPrefixes = newSurtPrefixes;
+        surtTrie = getPrefixes().merge(
+            Collections.singleton(prefixFrom(curi.toString())));
     }
     
     protected String prefixFrom(String uri) {
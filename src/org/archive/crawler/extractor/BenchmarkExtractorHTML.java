@@ -0,0 +1,168 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.extractor;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archive.crawler.datamodel.CrawlOrder;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.crawler.settings.MapType;
+import org.archive.crawler.settings.SettingsHandler;
+import org.archive.crawler.settings.XMLSettingsHandler;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+
+/**
+ * Compare link-extraction throughput of ExtractorHTML, 
+ * StreamingExtractorHTML and JerichoExtractorHTML over a corpus of saved
+ * pages: every file in the given directory, read as ISO-8859-1. Without
+ * a directory, a generated corpus of link-heavy pages is used.
+ *
+ * Usage: BenchmarkExtractorHTML [directory [iterations]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkExtractorHTML {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkExtractorHTML()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        List<String> pages = (args.length > 0)
+            ? readCorpus(new File(args[0])) : generateCorpus(200);
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        long chars = 0;
+        for (String page : pages) {
+            chars += page.length();
+        }
+        System.out.println(pages.size() + " pages, " + chars + " chars");
+
+        File dir = File.createTempFile("BenchmarkExtractorHTML", "");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            ExtractorHTML[] extractors = {
+                install(dir, new ExtractorHTML("regex")),
+                install(dir, new StreamingExtractorHTML("streaming")),
+                install(dir, new JerichoExtractorHTML("jericho")),
+            };
+            UURI base = UURIFactory.getInstance("http://www.example.com/d/");
+            for (int rep = 0; rep < 3; rep++) {
+                for (int i = 0; i < extractors.length; i++) {
+                    run(extractors[i], base, pages, chars, iterations);
+                }
+            }
+        } finally {
+            FileUtils.deleteDir(dir);
+        }
+    }
+
+    protected ExtractorHTML install(File dir, ExtractorHTML extractor)
+    throws Exception {
+        // as in ExtractorHTMLTest, give the extractor settings
+        SettingsHandler handler = new XMLSettingsHandler(
+            new File(dir, extractor.getName() + ".order.xml"));
+        handler.initialize();
+        return (ExtractorHTML)((MapType)handler.getOrder().
+            getAttribute(CrawlOrder.ATTR_RULES)).addElement(handler.
+                getSettingsObject(null), extractor);
+    }
+
+    protected void run(ExtractorHTML extractor, UURI base, List<String> pages,
+            long chars, int iterations) {
+        long links = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String page : pages) {
+                CrawlURI curi = new CrawlURI(base);
+                extractor.extract(curi, page);
+                links += curi.getOutLinks().size();
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(extractor.getName() + ": "
+            + (chars * iterations * 1000 / Math.max(1, ns)) + " Mchars/s, "
+            + (ns / 1000000 / iterations) + "ms/pass, "
+            + (links / iterations) + " links/pass");
+    }
+
+    protected List<String> readCorpus(File dir) throws IOException {
+        List<String> pages = new ArrayList<String>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("not a directory: " + dir);
+        }
+        for (File f : files) {
+            if (f.isFile()) {
+                byte[] bytes = new byte[(int)f.length()];
+                DataInputStream in =
+                    new DataInputStream(new FileInputStream(f));
+                try {
+                    in.readFully(bytes);
+                } finally {
+                    in.close();
+                }
+                pages.add(new String(bytes, "ISO-8859-1"));
+            }
+        }
+        return pages;
+    }
+
+    protected List<String> generateCorpus(int count) {
+        List<String> pages = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("<html><head><title>Page ").append(i)
+                .append("</title>\n<meta name=\"keywords\" content=\"a,b\">\n")
+                .append("<link rel=\"stylesheet\" href=\"/css/site.css\">\n")
+                .append("<style type=\"text/css\">body { background: ")
+                .append("url(/img/bg").append(i).append(".png) }</style>\n")
+                .append("<script type=\"text/javascript\">var menu = ")
+                .append("['/m/one.html', '/m/two.html', 'not a link'];\n")
+                .append("function go(x) { location.href = x + '.html'; }")
+                .append("</script></head>\n<body>\n");
+            for (int j = 0; j < 60; j++) {
+                sb.append("<div class=\"item\" id=\"i").append(j)
+                    .append("\"><p>Some text about item ").append(j)
+                    .append(" with <b>markup</b> and more words to scan.")
+                    .append("</p>\n<a href=\"/items/").append(i * 100 + j)
+                    .append(".html\" title=\"Item ").append(j)
+                    .append("\" onclick=\"track('/t/").append(j)
+                    .append(".gif')\">Item</a> <img src=\"/thumbs/")
+                    .append(j).append(".jpg\" alt=\"\" width=64 height=64>")
+                    .append("</div>\n<!-- item ").append(j).append(" -->\n");
+            }
+            sb.append("<form action=\"/search\" method=\"get\">")
+                .append("<input name=\"q\" value=\"\"></form>\n")
+                .append("</body></html>\n");
+            pages.add(sb.toString());
+        }
+        return pages;
+    }
+}
@@ -81,7 +81,7 @@ implements CoreAttributeConstants {
      * <li> 8: !-- comment --
      */
 // version w/ less unnecessary backtracking
-      private static final int MAX_ELEMENT_LENGTH =
+      static final int MAX_ELEMENT_LENGTH =
           Integer.parseInt(System.getProperty(ExtractorHTML.class.getName() +
               ".maxElementNameLength", "1024"));
       
@@ -106,7 +106,7 @@ implements CoreAttributeConstants {
 //    static Pattern ROBOTS_ATTRIBUTE_EXTRACTOR = Pattern.compile(
 //     "(?is)(\\w+)\\s+.*?(?:(robots))\\s*=(?:(?:\\s*\"(.+)\")|(?:\\s*'(.+)')|(\\S+))");
 
-      private static final int MAX_ATTR_NAME_LENGTH =
+      static final int MAX_ATTR_NAME_LENGTH =
           Integer.parseInt(System.getProperty(ExtractorHTML.class.getName() +
               ".maxAttributeNameLength", "1024")); // 1K; 
       
@@ -436,7 +436,8 @@ implements CoreAttributeConstants {
         
         // finish handling VALUE
         if(valueVal != null) {
-            if("PARAM".equalsIgnoreCase(elementStr) && "flashvars".equalsIgnoreCase(nameVal.toString())) {
+            if("PARAM".equalsIgnoreCase(elementStr) && nameVal != null
+                    && "flashvars".equalsIgnoreCase(nameVal.toString())) {
                 // special handling for <PARAM NAME='flashvars" VALUE="">
                 String queryStringLike = valueVal.toString();
                 // treat value as query-string-like "key=value[;key=value]*" pairings
@@ -768,7 +769,20 @@ implements CoreAttributeConstants {
             // TODO: handle other stuff
         }
         TextUtils.recycleMatcher(attr);
+        return processMeta(curi, name, httpEquiv, content, cs);
+    }
 
+    /**
+     * Act on the attribute values of a metadata tag.
+     * @param curi CrawlURI we're processing.
+     * @param name Value of NAME attribute, or null.
+     * @param httpEquiv Value of HTTP-EQUIV attribute, or null.
+     * @param content Value of CONTENT attribute, or null.
+     * @param cs Tag text, for logging.
+     * @return True robots exclusion metatag.
+     */
+    protected boolean processMeta(CrawlURI curi, String name,
+            String httpEquiv, String content, CharSequence cs) {
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
             curi.putString(A_META_ROBOTS, content);
@@ -0,0 +1,1022 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.extractor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.crawler.framework.CrawlController;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.DevUtils;
+import org.archive.util.TextUtils;
+import org.archive.util.UriUtils;
+
+/**
+ * Link-extraction from an HTML content-body in a single forward pass, by
+ * a hand-written scanner rather than regular expressions.
+ *
+ * <p>Finds the same tags, attributes, in-page Javascript strings and CSS
+ * URIs as {@link ExtractorHTML} -- scanning decisions mirror its
+ * RELEVANT_TAG_EXTRACTOR and EACH_ATTRIBUTE_EXTRACTOR patterns, and those
+ * of {@link ExtractorJS} and {@link ExtractorCSS} for embedded code -- and
+ * emits the same Links, so may be used in its place. The content is
+ * read once, by position, without intermediate subsequences; strings are
+ * only made of attribute values and candidate URIs.
+ *
+ * <p>Settings are those of ExtractorHTML, read once per document.
+ */
+public class StreamingExtractorHTML extends ExtractorHTML {
+
+    private static final long serialVersionUID = -2735291744226458384L;
+
+    private static Logger logger =
+        Logger.getLogger(StreamingExtractorHTML.class.getName());
+
+    // attribute kinds, numbered as EACH_ATTRIBUTE_EXTRACTOR groups
+    static final int HREF = 2;
+    static final int ACTION = 3;
+    static final int ON = 4;
+    static final int SRC = 5;
+    static final int CODEBASE = 6;
+    static final int CLASSID = 7;
+    static final int ARCHIVE = 8;
+    static final int CODE = 9;
+    static final int VALUE = 10;
+    static final int STYLE = 11;
+    static final int METHOD = 12;
+    static final int OTHER = 13;
+
+    public StreamingExtractorHTML(String name) {
+        this(name, "Streaming HTML extractor. Extracts the same links from " +
+            "HTML documents as ExtractorHTML, in a single pass without " +
+            "regular expressions.");
+    }
+
+    public StreamingExtractorHTML(String name, String description) {
+        super(name, description);
+    }
+
+    /**
+     * Run extractor.
+     * This method is package visible to ease testing.
+     * @param curi CrawlURI we're processing.
+     * @param cs Sequence from underlying ReplayCharSequence. This
+     * is TRANSIENT data. Make a copy if you want the data to live outside
+     * of this extractors' lifetime.
+     */
+    void extract(CrawlURI curi, CharSequence cs) {
+        new Scan(curi, cs).run();
+    }
+
+    protected void processScriptCode(CrawlURI curi, CharSequence cs) {
+        if ((Boolean)getUncheckedAttribute(curi, ATTR_EXTRACT_JAVASCRIPT)) {
+            this.numberOfLinksExtracted += considerStrings(curi, cs, 0,
+                cs.length(), getController(), false);
+        }
+    }
+
+    protected void processLink(CrawlURI curi, final CharSequence value,
+            CharSequence context) {
+        if (isJavascriptUri(value)) {
+            processScriptCode(curi, value.subSequence(11, value.length()));
+        } else {
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest("link: " + value.toString() + " from " + curi);
+            }
+            addLinkFromString(curi, value, context, Link.NAVLINK_HOP);
+            this.numberOfLinksExtracted++;
+        }
+    }
+
+    /**
+     * State of the scan of one document.
+     */
+    protected class Scan {
+        final CrawlURI curi;
+        final CharSequence cs;
+        final int length;
+
+        final boolean framesAsEmbeds;
+        final boolean ignoreFormActions;
+        final boolean extractValueAttributes;
+        final boolean extractOnlyFormGets;
+        final boolean extractJavascript;
+
+        // positions from which a sought terminator is known to be absent,
+        // so that unclosed constructs cost one search, not one per tag
+        int noGtFrom;
+        int noScriptEndFrom;
+        int noStyleEndFrom;
+        int noCommentEndFrom;
+
+        // the last attribute found by nextAttribute()
+        int attrStart;
+        int nameStart;
+        int nameEnd;
+        int valueStart;
+        int valueEnd;
+        int attrEnd;
+
+        Scan(CrawlURI curi, CharSequence cs) {
+            this.curi = curi;
+            this.cs = cs;
+            this.length = cs.length();
+            this.noGtFrom = this.noScriptEndFrom = this.noStyleEndFrom =
+                this.noCommentEndFrom = this.length + 1;
+            this.framesAsEmbeds = ((Boolean)getUncheckedAttribute(curi,
+                ATTR_TREAT_FRAMES_AS_EMBED_LINKS)).booleanValue();
+            this.ignoreFormActions = ((Boolean)getUncheckedAttribute(curi,
+                ATTR_IGNORE_FORM_ACTION_URLS)).booleanValue();
+            this.extractValueAttributes = ((Boolean)getUncheckedAttribute(
+                curi, EXTRACT_VALUE_ATTRIBUTES)).booleanValue();
+            this.extractOnlyFormGets = ((Boolean)getUncheckedAttribute(curi,
+                ATTR_EXTRACT_ONLY_FORM_GETS)).booleanValue();
+            this.extractJavascript = ((Boolean)getUncheckedAttribute(curi,
+                ATTR_EXTRACT_JAVASCRIPT)).booleanValue();
+        }
+
+        void run() {
+            int pos = 0;
+            while (pos < length) {
+                int lt = pos;
+                while (lt < length && cs.charAt(lt) != '<') {
+                    lt++;
+                }
+                if (lt >= length) {
+                    break;
+                }
+                int next = tag(lt + 1);
+                if (next == -1) {
+                    // not a relevant tag; look again from next char
+                    pos = lt + 1;
+                    continue;
+                }
+                if (next == -2) {
+                    // meta tag included NOFOLLOW; abort processing
+                    break;
+                }
+                if (Thread.interrupted()) {
+                    break;
+                }
+                pos = next;
+            }
+        }
+
+        /**
+         * Handle a tag whose name may begin at p, just after '&lt;'.
+         * @return position after the tag; -1 if there is no relevant tag
+         * here; -2 if processing should stop
+         */
+        int tag(int p) {
+            if (regionMatchesIgnoreCase(cs, p, length, "script")) {
+                int gt = indexOfGt(p + 6);
+                int close = (gt < 0) ? -1 : indexOfScriptEnd(gt + 1);
+                if (close >= 0) {
+                    generalTag(cs.subSequence(p, p + 6).toString(), p, gt);
+                    if (extractJavascript) {
+                        numberOfLinksExtracted += considerStrings(curi, cs,
+                            gt + 1, close, getController(), false);
+                    }
+                    return close + 9;
+                }
+            } else if (regionMatchesIgnoreCase(cs, p, length, "style")) {
+                int gt = indexOfGt(p + 5);
+                int close = (gt < 0) ? -1 : indexOfStyleEnd(gt + 1);
+                if (close >= 0) {
+                    // ExtractorHTML.processStyle() names the element by
+                    // its first 6 characters; match its link contexts
+                    generalTag(cs.subSequence(p, p + 6).toString(), p, gt);
+                    numberOfLinksExtracted += processStyleCode(curi, cs,
+                        gt + 1, close, getController());
+                    return close + 8;
+                }
+            }
+            int nameEnd = p;
+            while (nameEnd < length && isWordChar(cs.charAt(nameEnd))
+                    && nameEnd - p <= MAX_ELEMENT_LENGTH) {
+                nameEnd++;
+            }
+            if (nameEnd > p && nameEnd - p <= MAX_ELEMENT_LENGTH
+                    && nameEnd < length && isSpace(cs.charAt(nameEnd))) {
+                int gt = indexOfGt(nameEnd + 1);
+                if (gt < 0) {
+                    return -1;
+                }
+                if (nameEnd - p == 4
+                        && regionMatchesIgnoreCase(cs, p, length, "meta")) {
+                    return meta(p, gt) ? -2 : gt + 1;
+                }
+                generalTag(cs.subSequence(p, nameEnd).toString(), p, gt);
+                return gt + 1;
+            }
+            if (nameEnd == p
+                    && regionMatchesIgnoreCase(cs, p, length, "!--")) {
+                int close = indexOfCommentEnd(p + 3);
+                return (close < 0) ? -1 : close + 3;
+            }
+            return -1;
+        }
+
+        int indexOfGt(int from) {
+            if (from >= noGtFrom) {
+                return -1;
+            }
+            for (int i = from; i < length; i++) {
+                if (cs.charAt(i) == '>') {
+                    return i;
+                }
+            }
+            noGtFrom = from;
+            return -1;
+        }
+
+        int indexOfScriptEnd(int from) {
+            if (from >= noScriptEndFrom) {
+                return -1;
+            }
+            int i = indexOfIgnoreCase(cs, "</script>", from, length);
+            if (i < 0) {
+                noScriptEndFrom = from;
+            }
+            return i;
+        }
+
+        int indexOfStyleEnd(int from) {
+            if (from >= noStyleEndFrom) {
+                return -1;
+            }
+            int i = indexOfIgnoreCase(cs, "</style>", from, length);
+            if (i < 0) {
+                noStyleEndFrom = from;
+            }
+            return i;
+        }
+
+        int indexOfCommentEnd(int from) {
+            if (from >= noCommentEndFrom) {
+                return -1;
+            }
+            int i = indexOfIgnoreCase(cs, "-->", from, length);
+            if (i < 0) {
+                noCommentEndFrom = from;
+            }
+            return i;
+        }
+
+        /**
+         * Find the next attribute of the tag text [from, end) that starts
+         * at or after pos, as EACH_ATTRIBUTE_EXTRACTOR would, setting the
+         * attribute position fields.
+         * @return true if found
+         */
+        boolean nextAttribute(int from, int pos, int end) {
+            for (int q = pos; q < end; q++) {
+                char c = cs.charAt(q);
+                if (!isWordChar(c) && c != '-') {
+                    continue;
+                }
+                // \b
+                boolean prevWord = (q > from)
+                    && isBoundaryWordChar(cs.charAt(q - 1));
+                if (prevWord == isBoundaryWordChar(c)) {
+                    continue;
+                }
+                if (attributeAt(q, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean attributeAt(int q, int end) {
+            int r = q;
+            while (r < end && (isWordChar(cs.charAt(r)) || cs.charAt(r) == '-')
+                    && r - q <= MAX_ATTR_NAME_LENGTH) {
+                r++;
+            }
+            if (r - q > MAX_ATTR_NAME_LENGTH) {
+                return false;
+            }
+            int v = r;
+            while (v < end && isSpace(cs.charAt(v))) {
+                v++;
+            }
+            if (v >= end || cs.charAt(v) != '=') {
+                return false;
+            }
+            v++;
+            while (v < end && isSpace(cs.charAt(v))) {
+                v++;
+            }
+            if (v >= end) {
+                return false;
+            }
+            char quote = cs.charAt(v);
+            if (quote == '"' || quote == '\'') {
+                // up to closing quote, or end of tag ('$')
+                int dollar = end;
+                if (end - 1 > v) {
+                    char last = cs.charAt(end - 1);
+                    if (last == '\n' && end - 2 > v
+                            && cs.charAt(end - 2) == '\r') {
+                        dollar = end - 2;
+                    } else if (isLineTerminator(last)) {
+                        dollar = end - 1;
+                    }
+                }
+                int limit = Math.min(dollar, v + 1 + MAX_ATTR_VAL_LENGTH);
+                for (int k = v + 1; k <= limit; k++) {
+                    if (k == dollar || cs.charAt(k) == quote) {
+                        setAttribute(q, r, v + 1, k,
+                            (k == dollar) ? k : k + 1);
+                        return true;
+                    }
+                }
+                // fall through to unquoted value
+            }
+            int k = v;
+            while (k < end && !isSpace(cs.charAt(k))
+                    && k - v < MAX_ATTR_VAL_LENGTH) {
+                k++;
+            }
+            setAttribute(q, r, v, k, k);
+            return true;
+        }
+
+        void setAttribute(int nameStart, int nameEnd, int valueStart,
+                int valueEnd, int attrEnd) {
+            this.nameStart = nameStart;
+            this.nameEnd = nameEnd;
+            this.valueStart = valueStart;
+            this.valueEnd = valueEnd;
+            this.attrEnd = attrEnd;
+        }
+
+        String attributeName() {
+            return cs.subSequence(nameStart, nameEnd).toString();
+        }
+
+        CharSequence attributeValue() {
+            String value = cs.subSequence(valueStart, valueEnd).toString();
+            return (value.indexOf('&') < 0)
+                ? value : TextUtils.unescapeHtml(value);
+        }
+
+        int attributeKind() {
+            int len = nameEnd - nameStart;
+            switch (len) {
+            case 3:
+                if (nameIs("src")) return SRC;
+                break;
+            case 4:
+                if (nameIs("href")) return HREF;
+                if (nameIs("cite")) return SRC;
+                if (nameIs("data")) return CLASSID;
+                if (nameIs("code")) return CODE;
+                break;
+            case 5:
+                if (nameIs("value")) return VALUE;
+                if (nameIs("style")) return STYLE;
+                break;
+            case 6:
+                if (nameIs("action")) return ACTION;
+                if (nameIs("lowsrc")) return SRC;
+                if (nameIs("usemap")) return SRC;
+                if (nameIs("method")) return METHOD;
+                break;
+            case 7:
+                if (nameIs("profile")) return SRC;
+                if (nameIs("datasrc")) return SRC;
+                if (nameIs("classid")) return CLASSID;
+                if (nameIs("archive")) return ARCHIVE;
+                break;
+            case 8:
+                if (nameIs("longdesc")) return SRC;
+                if (nameIs("codebase")) return CODEBASE;
+                break;
+            case 10:
+                if (nameIs("background")) return SRC;
+                break;
+            }
+            if (len >= 2
+                    && regionMatchesIgnoreCase(cs, nameStart, nameEnd, "on")) {
+                for (int i = nameStart + 2; i < nameEnd; i++) {
+                    if (!isWordChar(cs.charAt(i))) {
+                        return OTHER;
+                    }
+                }
+                return ON;
+            }
+            return OTHER;
+        }
+
+        boolean nameIs(String lowerCase) {
+            return nameEnd - nameStart == lowerCase.length()
+                && regionMatchesIgnoreCase(cs, nameStart, nameEnd, lowerCase);
+        }
+
+        /**
+         * Handle the attributes of a tag, as
+         * {@link ExtractorHTML#processGeneralTag(CrawlURI, CharSequence,
+         * CharSequence)}.
+         * @param element element name
+         * @param from start of tag text, at element name
+         * @param end end of tag text, before '&gt;'
+         */
+        void generalTag(String element, int from, int end) {
+            // Just in case it's an OBJECT or APPLET tag
+            String codebase = null;
+            ArrayList<String> resources = null;
+
+            // Just in case it's a FORM
+            CharSequence action = null;
+            CharSequence actionContext = null;
+            CharSequence method = null;
+
+            // Just in case it's a VALUE whose interpretation depends on
+            // accompanying NAME
+            CharSequence valueVal = null;
+            CharSequence valueContext = null;
+            CharSequence nameVal = null;
+
+            int pos = from;
+            while (nextAttribute(from, pos, end)) {
+                pos = attrEnd;
+                int kind = attributeKind();
+                if (kind == OTHER && !nameIs("name")
+                        && !nameIs("flashvars")) {
+                    // any other attribute; ignore
+                    continue;
+                }
+                CharSequence value = attributeValue();
+                switch (kind) {
+                case HREF:
+                    CharSequence context =
+                        Link.elementContext(element, attributeName());
+                    if (element.equalsIgnoreCase(LINK)) {
+                        // <LINK> elements treated as embeds (css, ico, etc)
+                        processEmbed(curi, value, context);
+                    } else {
+                        // other HREFs treated as links
+                        processLink(curi, value, context);
+                    }
+                    if (element.equalsIgnoreCase(BASE)) {
+                        setBase(value);
+                    }
+                    break;
+                case ACTION:
+                    if (!ignoreFormActions) {
+                        action = value;
+                        actionContext =
+                            Link.elementContext(element, attributeName());
+                        // handling finished only at end (after METHOD)
+                    }
+                    break;
+                case ON:
+                    if (extractJavascript) {
+                        numberOfLinksExtracted += considerStrings(curi,
+                            value, 0, value.length(), getController(),
+                            false);
+                    }
+                    break;
+                case SRC:
+                    final char hopType;
+                    if (!framesAsEmbeds
+                            && (element.equalsIgnoreCase(FRAME)
+                                || element.equalsIgnoreCase(IFRAME))) {
+                        hopType = Link.NAVLINK_HOP;
+                    } else {
+                        hopType = Link.EMBED_HOP;
+                    }
+                    processEmbed(curi, value,
+                        Link.elementContext(element, attributeName()),
+                        hopType);
+                    break;
+                case CODEBASE:
+                    codebase = value.toString();
+                    processEmbed(curi, codebase,
+                        Link.elementContext(element, attributeName()));
+                    break;
+                case CLASSID:
+                    if (resources == null) {
+                        resources = new ArrayList<String>();
+                    }
+                    resources.add(value.toString());
+                    break;
+                case ARCHIVE:
+                    if (resources == null) {
+                        resources = new ArrayList<String>();
+                    }
+                    String[] multi = TextUtils.split(WHITESPACE, value);
+                    for (int i = 0; i < multi.length; i++) {
+                        resources.add(multi[i]);
+                    }
+                    break;
+                case CODE:
+                    if (resources == null) {
+                        resources = new ArrayList<String>();
+                    }
+                    // If element is applet and code value does not end with
+                    // '.class' then append '.class' to the code value.
+                    if (element.equalsIgnoreCase(APPLET) &&
+                            !value.toString().toLowerCase().endsWith(
+                                CLASSEXT)) {
+                        resources.add(value.toString() + CLASSEXT);
+                    } else {
+                        resources.add(value.toString());
+                    }
+                    break;
+                case VALUE:
+                    // store value, context for handling at end
+                    valueVal = value;
+                    valueContext =
+                        Link.elementContext(element, attributeName());
+                    break;
+                case STYLE:
+                    numberOfLinksExtracted += processStyleCode(curi, value,
+                        0, value.length(), getController());
+                    break;
+                case METHOD:
+                    method = value;
+                    break;
+                default:
+                    if (nameIs("name")) {
+                        // remember 'name' for end-analysis
+                        nameVal = value;
+                    } else {
+                        // consider FLASHVARS attribute immediately
+                        valueContext =
+                            Link.elementContext(element, attributeName());
+                        considerQueryStringValues(curi, value, valueContext,
+                            Link.SPECULATIVE_HOP);
+                    }
+                }
+            }
+
+            // finish handling codebase/resources now that all available
+            if (resources != null) {
+                embedResources(element, codebase, resources);
+            }
+
+            // finish handling form action, now method is available
+            if (action != null) {
+                if (method == null
+                        || "GET".equalsIgnoreCase(method.toString())
+                        || !extractOnlyFormGets) {
+                    processLink(curi, action, actionContext);
+                }
+            }
+
+            // finish handling VALUE
+            if (valueVal != null) {
+                if ("PARAM".equalsIgnoreCase(element) && nameVal != null
+                        && "flashvars".equalsIgnoreCase(nameVal.toString())) {
+                    // special handling for <PARAM NAME='flashvars" VALUE="">
+                    considerQueryStringValues(curi, valueVal.toString(),
+                        valueContext, Link.SPECULATIVE_HOP);
+                } else if (extractValueAttributes) {
+                    considerIfLikelyUri(curi, valueVal, valueContext,
+                        Link.NAVLINK_HOP);
+                }
+            }
+        }
+
+        void setBase(CharSequence value) {
+            try {
+                curi.setBaseURI(value.toString());
+            } catch (URIException e) {
+                if (getController() != null) {
+                    getController().logUriError(e, curi.getUURI(),
+                        value.toString());
+                } else {
+                    logger.info("Failed set base uri: " + curi + ", "
+                        + value.toString() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        void embedResources(String element, String codebase,
+                ArrayList<String> resources) {
+            Iterator<String> iter = resources.iterator();
+            UURI codebaseURI = null;
+            String res = null;
+            try {
+                if (codebase != null) {
+                    codebaseURI =
+                        UURIFactory.getInstance(curi.getUURI(), codebase);
+                }
+                while (iter.hasNext()) {
+                    res = iter.next().toString();
+                    res = (String)TextUtils.unescapeHtml(res);
+                    if (codebaseURI != null) {
+                        res = codebaseURI.resolve(res).toString();
+                    }
+                    processEmbed(curi, res, element);
+                }
+            } catch (URIException e) {
+                curi.addLocalizedError(getName(), e, "BAD CODEBASE "
+                    + codebase);
+            } catch (IllegalArgumentException e) {
+                DevUtils.logger.log(Level.WARNING, "processGeneralTag()\n" +
+                    "codebase=" + codebase + " res=" + res + "\n" +
+                    DevUtils.extraInfo(), e);
+            }
+        }
+
+        /**
+         * @return True robots exclusion metatag.
+         */
+        boolean meta(int from, int end) {
+            String name = null;
+            String httpEquiv = null;
+            String content = null;
+            int pos = from;
+            while (nextAttribute(from, pos, end)) {
+                pos = attrEnd;
+                if (nameIs("name")) {
+                    name = attributeValue().toString();
+                } else if (nameIs("http-equiv")) {
+                    httpEquiv = attributeValue().toString();
+                } else if (nameIs("content")) {
+                    content = attributeValue().toString();
+                }
+            }
+            return processMeta(curi, name, httpEquiv, content,
+                cs.subSequence(from, end));
+        }
+    }
+
+    /**
+     * Add links for strings in the Javascript code at [start, end) that
+     * are likely URIs, finding the same strings as
+     * {@link ExtractorJS#considerStrings(CrawlURI, CharSequence,
+     * CrawlController, boolean)}.
+     *
+     * @return count of links found
+     */
+    public static long considerStrings(CrawlURI curi, CharSequence cs,
+            int start, int end, CrawlController controller,
+            boolean handlingJSFile) {
+        long foundLinks = 0;
+        int pos = start;
+        while (pos < end) {
+            int quote = pos;
+            while (quote < end && cs.charAt(quote) != '"'
+                    && cs.charAt(quote) != '\'') {
+                quote++;
+            }
+            if (quote >= end) {
+                break;
+            }
+            // an opening quote may have up to 8 leading backslashes,
+            // which must then also lead the closing quote
+            int open = quote;
+            while (open > pos && cs.charAt(open - 1) == '\\') {
+                open--;
+            }
+            open = Math.max(open, quote - 8);
+            int stringStart = quote + 1;
+            int stringEnd = -1;
+            int matchEnd = -1;
+            for (int s = open; s <= quote && stringEnd < 0; s++) {
+                int delimiter = quote + 1 - s;
+                int limit = Math.min(end - delimiter,
+                    stringStart + UURI.MAX_URL_LENGTH);
+                for (int k = stringStart; k <= limit; k++) {
+                    if (regionMatches(cs, k, cs, s, delimiter)) {
+                        stringEnd = k;
+                        matchEnd = k + delimiter;
+                        break;
+                    }
+                    if (isSpace(cs.charAt(k))) {
+                        break;
+                    }
+                }
+            }
+            if (stringEnd < 0) {
+                pos = quote + 1;
+                continue;
+            }
+            String string = likelyUriString(cs, stringStart, stringEnd);
+            if (string != null) {
+                string = UriUtils.speculativeFixup(string, curi.getUURI());
+                foundLinks++;
+                try {
+                    if (handlingJSFile) {
+                        curi.createAndAddLinkRelativeToVia(string,
+                            Link.JS_MISC, Link.SPECULATIVE_HOP);
+                    } else {
+                        curi.createAndAddLinkRelativeToBase(string,
+                            Link.JS_MISC, Link.SPECULATIVE_HOP);
+                    }
+                } catch (URIException e) {
+                    // There may not be a controller (e.g. If we're being run
+                    // by the extractor tool).
+                    if (controller != null) {
+                        controller.logUriError(e, curi.getUURI(), string);
+                    } else {
+                        logger.info(curi + ", " + string + ": " +
+                            e.getMessage());
+                    }
+                }
+            } else {
+                foundLinks += considerStrings(curi, cs, stringStart,
+                    stringEnd, controller, handlingJSFile);
+            }
+            pos = matchEnd;
+        }
+        return foundLinks;
+    }
+
+    /**
+     * @return the string at [start, end) if it is likely a URI, else null
+     */
+    protected static String likelyUriString(CharSequence cs, int start,
+            int end) {
+        // a likely URI has a '.' or '/'; skip making most strings
+        boolean dotOrSlash = false;
+        for (int i = start; i < end && !dotOrSlash; i++) {
+            char c = cs.charAt(i);
+            dotOrSlash = (c == '.' || c == '/');
+        }
+        if (!dotOrSlash) {
+            return null;
+        }
+        String string = cs.subSequence(start, end).toString();
+        return UriUtils.isLikelyUriJavascriptContextLegacy(string)
+            ? string : null;
+    }
+
+    /**
+     * Add links for the URIs of the CSS at [start, end), finding the same
+     * URIs as {@link ExtractorCSS#processStyleCode(CrawlURI, CharSequence,
+     * CrawlController)}.
+     *
+     * @return count of links found
+     */
+    public static long processStyleCode(CrawlURI curi, CharSequence cs,
+            int start, int end, CrawlController controller) {
+        long foundLinks = 0;
+        int[] uri = new int[2];
+        int pos = start;
+        while (pos < end) {
+            char c = cs.charAt(pos);
+            int matchEnd = -1;
+            if (c == '@' && regionMatchesIgnoreCase(cs, pos, end, "@import ")) {
+                if (regionMatchesIgnoreCase(cs, pos + 8, end, "url(")) {
+                    matchEnd = cssUri(cs, pos + 12, end, uri);
+                }
+                if (matchEnd < 0) {
+                    matchEnd = cssUri(cs, pos + 8, end, uri);
+                }
+            } else if ((c == 'u' || c == 'U')
+                    && regionMatchesIgnoreCase(cs, pos, end, "url(")) {
+                matchEnd = cssUri(cs, pos + 4, end, uri);
+            }
+            if (matchEnd < 0) {
+                pos++;
+                continue;
+            }
+            pos = matchEnd;
+            String cssUri = unescapeCss(
+                cs.subSequence(uri[0], uri[1]).toString());
+            foundLinks++;
+            try {
+                curi.createAndAddLinkRelativeToBase(cssUri, Link.EMBED_MISC,
+                    Link.EMBED_HOP);
+            } catch (URIException e) {
+                // There may not be a controller (e.g. If we're being run
+                // by the extractor tool).
+                if (controller != null) {
+                    controller.logUriError(e, curi.getUURI(), cssUri);
+                } else {
+                    logger.info(curi + ", " + cssUri + ": " + e.getMessage());
+                }
+            }
+        }
+        return foundLinks;
+    }
+
+    /**
+     * Match the remainder of a CSS URI after 'url(' or '@import ': optional
+     * whitespace and quote, the URI, the same quote, optional whitespace,
+     * and ')' or ';'.
+     * @param uri receives start and end of the URI
+     * @return end of match, or -1
+     */
+    static int cssUri(CharSequence cs, int from, int end, int[] uri) {
+        int space = from;
+        while (space < end && isSpace(cs.charAt(space))) {
+            space++;
+        }
+        // as the pattern would, give back whitespace until a match
+        for (int s = space; s >= from; s--) {
+            if (s < end) {
+                char c = cs.charAt(s);
+                if (c == '"' || c == '\'') {
+                    int matchEnd = cssUriBody(cs, s + 1, end, c, uri);
+                    if (matchEnd >= 0) {
+                        return matchEnd;
+                    }
+                }
+            }
+            int matchEnd = cssUriBody(cs, s, end, (char)0, uri);
+            if (matchEnd >= 0) {
+                return matchEnd;
+            }
+        }
+        return -1;
+    }
+
+    static int cssUriBody(CharSequence cs, int from, int end, char quote,
+            int[] uri) {
+        if (from >= end || cs.charAt(from) == '"' || cs.charAt(from) == '\'') {
+            return -1;
+        }
+        int limit = Math.min(end, from + 1 + UURI.MAX_URL_LENGTH);
+        for (int k = from + 1; k <= limit; k++) {
+            int after = k;
+            if (quote == 0 || (after < end && cs.charAt(after) == quote)) {
+                if (quote != 0) {
+                    after++;
+                }
+                while (after < end && isSpace(cs.charAt(after))) {
+                    after++;
+                }
+                if (after < end
+                        && (cs.charAt(after) == ')'
+                            || cs.charAt(after) == ';')) {
+                    uri[0] = from;
+                    uri[1] = k;
+                    return after + 1;
+                }
+            }
+            if (k >= end || isLineTerminator(cs.charAt(k))) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Unescape a CSS URI as ExtractorCSS does: '&amp;amp' to '&amp;', and
+     * backslash-escaped punctuation or whitespace to itself.
+     */
+    static String unescapeCss(String cssUri) {
+        if (cssUri.indexOf('&') < 0 && cssUri.indexOf('\\') < 0) {
+            return cssUri;
+        }
+        StringBuilder sb = new StringBuilder(cssUri.length());
+        for (int i = 0; i < cssUri.length(); i++) {
+            char c = cssUri.charAt(i);
+            if (c == '&' && cssUri.startsWith("amp", i + 1)) {
+                sb.append('&');
+                i += 3;
+                continue;
+            }
+            sb.append(c);
+        }
+        String unescaped = sb.toString();
+        if (unescaped.indexOf('\\') < 0) {
+            return unescaped;
+        }
+        sb.setLength(0);
+        for (int i = 0; i < unescaped.length(); i++) {
+            char c = unescaped.charAt(i);
+            if (c == '\\' && i + 1 < unescaped.length()) {
+                char n = unescaped.charAt(i + 1);
+                if (n == ',' || n == '\'' || n == '"' || n == '('
+                        || n == ')' || isSpace(n)) {
+                    sb.append(n);
+                    i++;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if value is a 'javascript:' URI on a single line
+     */
+    static boolean isJavascriptUri(CharSequence value) {
+        if (!regionMatchesIgnoreCase(value, 0, value.length(),
+                "javascript:")) {
+            return false;
+        }
+        for (int i = 11; i < value.length(); i++) {
+            if (isLineTerminator(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** regex \s */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+    /** regex \w */
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** word character for the purposes of regex \b */
+    static boolean isBoundaryWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /** line terminators, which regex '.' and '$' respect */
+    static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
+
+    /**
+     * @return true if cs at pos, not reaching end, matches the given
+     * lower-case ASCII text, ignoring ASCII case
+     */
+    static boolean regionMatchesIgnoreCase(CharSequence cs, int pos, int end,
+            String lowerCase) {
+        int len = lowerCase.length();
+        if (pos < 0 || pos + len > end) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = cs.charAt(pos + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean regionMatches(CharSequence cs, int pos, CharSequence other,
+            int otherPos, int len) {
+        for (int i = 0; i < len; i++) {
+            if (cs.charAt(pos + i) != other.charAt(otherPos + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index in cs of the given lower-case ASCII text, ignoring ASCII
+     * case, at or after from and ending by end; or -1
+     */
+    static int indexOfIgnoreCase(CharSequence cs, String lowerCase, int from,
+            int end) {
+        char first = lowerCase.charAt(0);
+        char firstUpper = Character.toUpperCase(first);
+        int last = end - lowerCase.length();
+        for (int i = from; i <= last; i++) {
+            char c = cs.charAt(i);
+            if ((c == first || c == firstUpper)
+                    && regionMatchesIgnoreCase(cs, i, end, lowerCase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append("Processor: " + StreamingExtractorHTML.class.getName()
+            + "\n");
+        ret.append("  Function:          Link extraction on HTML documents\n");
+        ret.append("  CrawlURIs handled: " + this.numberOfCURIsHandled + "\n");
+        ret.append("  Links extracted:   " + this.numberOfLinksExtracted +
+            "\n\n");
+        return ret.toString();
+    }
+}
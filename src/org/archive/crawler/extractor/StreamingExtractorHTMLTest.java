@@ -0,0 +1,162 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.extractor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanException;
+import javax.management.ReflectionException;
+
+import org.archive.crawler.datamodel.CrawlOrder;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.crawler.settings.MapType;
+import org.archive.crawler.settings.SettingsHandler;
+import org.archive.crawler.settings.XMLSettingsHandler;
+import org.archive.net.UURIFactory;
+
+/**
+ * Test StreamingExtractorHTML: it passes the ExtractorHTML tests, and
+ * finds exactly the links ExtractorHTML does on assorted awkward markup.
+ */
+public class StreamingExtractorHTMLTest extends ExtractorHTMLTest {
+
+    static final String[] CONFORMANCE_CASES = {
+        "<a href=\"one.html\">1</a><A HREF='two.html'>2</A><a href=three.html>",
+        "<a\nhref = \"spaced.html\" >x</a><a href=\"unclosed.html>y</a>",
+        "<a title=\"x>y\" href=\"after-gt.html\">",
+        "<a href=\"http://www.example.com/&amp;q=1&lt;\">",
+        "<img src=\"i.gif\" lowsrc=l.gif><body background='bg.jpg'>",
+        "<frame name=\"main\"src=\"f.html\"><iframe src=if.html>",
+        "<link rel=stylesheet href=\"s.css\"><base href=\"http://b.example.org/d/\">"
+            + "<a href=rel.html>",
+        "<applet code=Foo codebase=\"/applets/\" archive=\"a.jar  b.jar\">",
+        "<object classid=\"clsid:x\" data=\"movie.swf\" codebase=\"/cb/\">",
+        "<form action=\"get.cgi\"><form method=POST action=\"post.cgi\">"
+            + "<form action=\"g2.cgi\" method=get>",
+        "<input name=foo value=\"/path/page.html\"><input value=\"plain\">",
+        "<param name=\"flashvars\" value=\"a=x/y.xml;b=z.swf\">"
+            + "<embed flashvars=\"c=e/f.xml\" src=m.swf>",
+        "<a onclick=\"go('/js/one.html'); x=\\\"/js/two.html\\\"\" href=#>",
+        "<a href=\"javascript:window.open('/popup.html')\">",
+        "<a href=\"javascript:a()\nb\">",
+        "<div style=\"background:url( 'q.png' )\">"
+            + "<p style='x:url(\"unterminated)'>",
+        "<style type=text/css>@import \"imp.css\"; @import url(u.css);"
+            + "a { background: url(bg\\(1\\).png) } b{x:url(a&amp;b.png)}"
+            + "</style>",
+        "<STYLE>p{background:url(\n\"nl.png\")}</STYLE>",
+        "<script src=\"s.js\"></script><script>var a=\"/x/y.js\";"
+            + "var b='w.example.com/z.html'; var c=\"not a uri\";"
+            + "d=\"\\\"q/r.html\\\"\";</script>",
+        "<script type=\"text/javascript\">document.write(\"<a href='in.html'>\")"
+            + "</SCRIPT>",
+        "<script>var unclosed = \"/u.js\"; <a href=\"after.html\">",
+        "<!-- <a href=\"commented.html\"> --><a href=\"visible.html\">"
+            + "<!-- unclosed <a href=\"inside.html\">",
+        "<!--><a href=\"short-comment.html\">-->",
+        "<meta name=\"robots\" content=\"index\"><a href=k.html>"
+            + "<meta http-equiv=\"refresh\" content=\"0;url=/refresh.html\">",
+        "<meta name=robots content=nofollow><a href=\"never.html\">",
+        "<metadata href=\"m.html\"><a data-href=\"d.html\" href=\"e.html\">",
+        "<a one=\"/on.js\" on-x=\"y.html\" hrefx=\"no.html\">",
+        "<a href=\"x.html\"\r\n",
+        "<a href=\"x.html\ny.html\">z",
+        "<td caf\u00e9href=\"accent.html\" \u00e9src=\"e.gif\">",
+        "< a href=\"space-before.html\"><a/href=\"slash.html\"><br>",
+        "<a href=\"\">empty</a><a href= >none</a>",
+    };
+
+    static final String[] FRAGMENTS = {
+        "<a ", "<img ", "<script>", "<script src=", "</script>", "<style>",
+        "</style>", "<meta ", "<!--", "-->", "<", ">", "href", "src",
+        "style", "onclick", "value", "action", "method", "name", "content",
+        "http-equiv", "refresh", "robots", "=", "\"", "'", "\\", " ", "\n",
+        "\r\n", "x.html", "/p/q.js", "a.b/c", "url(", "@import ",
+        "background:url(i.png);", "javascript:", "&amp;", "&lt;", ";",
+        "0;url=r.html", "flashvars", "<param ", "<base ",
+        "http://h.example.com/", "codebase", "archive", "code", "<applet ",
+        "<frame ", "<form ", "post", "get", ")", "(", "-", "\u00e9",
+    };
+
+    protected ExtractorHTML createExtractor()
+    throws InvalidAttributeValueException, AttributeNotFoundException,
+    MBeanException, ReflectionException {
+        return createExtractor(new StreamingExtractorHTML(
+            this.getClass().getName()));
+    }
+
+    protected ExtractorHTML createExtractor(ExtractorHTML extractor)
+    throws InvalidAttributeValueException, AttributeNotFoundException,
+    MBeanException, ReflectionException {
+        // see ExtractorHTMLTest#createExtractor()
+        SettingsHandler handler = new XMLSettingsHandler(
+            new File(getTmpDir(), extractor.getName() + ".order.xml"));
+        handler.initialize();
+        return (ExtractorHTML)((MapType)handler.getOrder().
+            getAttribute(CrawlOrder.ATTR_RULES)).addElement(handler.
+                getSettingsObject(null), extractor);
+    }
+
+    public void testConformance() throws Exception {
+        ExtractorHTML regex = createExtractor(new ExtractorHTML("regex"));
+        ExtractorHTML streaming = createExtractor();
+        for (int i = 0; i < CONFORMANCE_CASES.length; i++) {
+            assertSameLinks(regex, streaming, CONFORMANCE_CASES[i]);
+        }
+    }
+
+    public void testRandomConformance() throws Exception {
+        ExtractorHTML regex = createExtractor(new ExtractorHTML("regex"));
+        ExtractorHTML streaming = createExtractor();
+        Random random = new Random(0x5eed);
+        StringBuilder doc = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            doc.setLength(0);
+            int n = 1 + random.nextInt(40);
+            for (int j = 0; j < n; j++) {
+                doc.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSameLinks(regex, streaming, doc.toString());
+        }
+    }
+
+    protected void assertSameLinks(ExtractorHTML expected,
+            ExtractorHTML actual, String doc) throws Exception {
+        assertEquals(doc, links(expected, doc), links(actual, doc));
+    }
+
+    protected List<String> links(ExtractorHTML extractor, String doc)
+    throws Exception {
+        CrawlURI curi = new CrawlURI(
+            UURIFactory.getInstance("http://www.example.com/dir/page.html"));
+        extractor.extract(curi, doc);
+        List<String> links = new ArrayList<String>();
+        for (Link link : curi.getOutLinks()) {
+            links.add(link.toString());
+        }
+        links.add("base " + curi.getBaseURI());
+        return links;
+    }
+}
@@ -104,13 +104,16 @@ import org.archive.httpclient.ConfigurableX509TrustManager;
 import org.archive.httpclient.HttpRecorderGetMethod;
 import org.archive.httpclient.HttpRecorderMethod;
 import org.archive.httpclient.HttpRecorderPostMethod;
+import org.archive.httpclient.KeepAliveHttpConnectionManager;
 import org.archive.httpclient.SingleHttpConnectionManager;
 import org.archive.io.ObjectPlusFilesInputStream;
 import org.archive.io.RecorderLengthExceededException;
 import org.archive.io.RecorderTimeoutException;
 import org.archive.io.RecorderTooMuchHeaderException;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.Base32;
 import org.archive.util.HttpRecorder;
+import org.archive.util.MurmurHash3Digest;
 import org.archive.util.bdbje.EnhancedEnvironment;
 
 import st.ata.util.AList;
@@ -152,6 +155,8 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
     public static final String ATTR_DEFAULT_ENCODING = "default-encoding";
     public static final String ATTR_DIGEST_CONTENT = "digest-content";
     public static final String ATTR_DIGEST_ALGORITHM = "digest-algorithm";
+    public static final String ATTR_DEDUP_DIGEST_ALGORITHM =
+        "dedup-digest-algorithm";
     public static final String ATTR_FETCH_BANDWIDTH_MAX = "fetch-bandwidth";
 
     public static final String DESC_DIGEST_CONTENT = "Whether or not to"
@@ -159,6 +164,12 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
     public static final String DESC_DIGEST_ALGORITHM = "Which algorithm (for"
         + " example MD5 or SHA-1) to use to perform an on-the-fly digest hash"
         + " of retrieved content-bodies.";
+    public static final String DESC_DEDUP_DIGEST_ALGORITHM = "Fast,"
+        + " non-cryptographic hash of retrieved content-bodies to compute"
+        + " alongside the content digest, in the same pass, as a key for"
+        + " spotting duplicate content. Saved in the URI's '"
+        + CoreAttributeConstants.A_DEDUP_DIGEST + "' attribute as"
+        + " 'algorithm:base32-value'. Default: none.";
 
     /**
      * SSL trust level setting attribute name.
@@ -198,6 +209,13 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * Default algorithm to use for message disgesting.
      */
     public static final String  DEFAULT_DIGEST_ALGORITHM = SHA1; 
+
+    /**
+     * Choices of duplicate-detection hash, none by default.
+     */
+    public static final String NONE = "none";
+    public static final String MURMUR3 = MurmurHash3Digest.ALGORITHM;
+    public static String [] DEDUP_DIGEST_ALGORITHMS = {NONE, MURMUR3};
     
     private transient HttpClient http = null;
 
@@ -212,7 +230,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * Count of crawl uris handled.
      * Would like to be 'long', but longs aren't atomic
      */
-    private int curisHandled = 0;
+    protected int curisHandled = 0;
         
     /**
      * Rules to apply mid-fetch, just after receipt of the response
@@ -223,7 +241,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
     /**
      * What to log if midfetch abort.
      */
-    private static final String MIDFETCH_ABORT_LOG = "midFetchAbort";
+    protected static final String MIDFETCH_ABORT_LOG = "midFetchAbort";
     
     public static final String ATTR_SEND_CONNECTION_CLOSE =
         "send-connection-close";
@@ -247,6 +265,20 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
     
     public static final String ATTR_HTTP_BIND_ADDRESS = A_HTTP_BIND_ADDRESS;
     
+    public static final String ATTR_KEEP_ALIVE_IDLE_MS = "keep-alive-idle-ms";
+    private static Integer DEFAULT_KEEP_ALIVE_IDLE_MS = new Integer(0);
+    private static final Header HEADER_SEND_KEEP_ALIVE =
+        new Header("Connection", "keep-alive");
+
+    public static final String ATTR_MAX_IDLE_CONNECTIONS =
+        "max-idle-connections";
+    private static Integer DEFAULT_MAX_IDLE_CONNECTIONS = new Integer(100);
+
+    /**
+     * Manager holding connections open for reuse, if keep-alive is enabled
+     */
+    private transient KeepAliveHttpConnectionManager keepAliveManager = null;
+
     /**
      * Database backing cookie map, if using BDB
      */
@@ -367,6 +399,9 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         e = addElementToDefinition(new SimpleType(ATTR_DIGEST_ALGORITHM, DESC_DIGEST_ALGORITHM,
                 DEFAULT_DIGEST_ALGORITHM, DIGEST_ALGORITHMS));
         e.setExpertSetting(true);
+        e = addElementToDefinition(new SimpleType(ATTR_DEDUP_DIGEST_ALGORITHM,
+                DESC_DEDUP_DIGEST_ALGORITHM, NONE, DEDUP_DIGEST_ALGORITHMS));
+        e.setExpertSetting(true);
         e = addElementToDefinition(new SimpleType(ATTR_SEND_IF_MODIFIED_SINCE,
                 "Send 'If-Modified-Since' header, if previous 'Last-Modified' " +
                 "fetch history information is available in URI history.",
@@ -415,6 +450,24 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
                "(binding sockets). When not specified, uses default local" +
                "address(es).", ""));
            e.setExpertSetting(true);
+           e = addElementToDefinition(new SimpleType(ATTR_KEEP_ALIVE_IDLE_MS,
+               "Milliseconds to hold a connection open after a GET, awaiting " +
+               "the next request to the same server. A connection is only " +
+               "held if the server agreed to keep it alive and the whole " +
+               "response was read. Should exceed the politeness delay " +
+               "between requests to a server to be of use. If 0, each " +
+               "connection is closed after its request, and 'Connection: " +
+               "close' is sent if " + ATTR_SEND_CONNECTION_CLOSE + " is set. " +
+               "Changes take effect when the crawl is next started.",
+               DEFAULT_KEEP_ALIVE_IDLE_MS));
+           e.setExpertSetting(true);
+           e.setOverrideable(false);
+           e = addElementToDefinition(new SimpleType(ATTR_MAX_IDLE_CONNECTIONS,
+               "Most connections held open awaiting reuse, across all " +
+               "servers. Only pertinent if " + ATTR_KEEP_ALIVE_IDLE_MS +
+               " > 0.", DEFAULT_MAX_IDLE_CONNECTIONS));
+           e.setExpertSetting(true);
+           e.setOverrideable(false);
     }
 
     protected void innerProcess(final CrawlURI curi)
@@ -444,6 +497,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
             // clear
             rec.getRecordedInput().setDigest((MessageDigest)null);
         }        
+        String dedupAlgorithm = configureDedupDigest(curi, rec);
         
         // Below we do two inner classes that add check of midfetch
         // filters just as we're about to receive the response body.
@@ -513,11 +567,14 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
             return;
         }
         
-        // set softMax on bytes to get (if implied by content-length) 
-        long softMax = method.getResponseContentLength();
+        // set softMax on bytes to get (if implied by content-length or
+        // by a status that never has a body)
+        long softMax = HttpRecorderMethod.getResponseBodyLength(method);
 
         try {
-            if (!method.isAborted()) {
+            // An empty body on a kept-alive connection has no end-of-stream
+            // to read up to.
+            if (!method.isAborted() && !(softMax == 0 && isKeepAlive(method))) {
                 // Force read-to-end, so that any socket hangs occur here,
                 // not in later modules.
                 rec.getRecordedInput().readFullyOrUntil(softMax);
@@ -552,6 +609,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
             curi.setContentDigest(algorithm,
                 rec.getRecordedInput().getDigestValue());
         }
+        noteDedupDigest(curi, rec, dedupAlgorithm);
         if (logger.isLoggable(Level.INFO)) {
             logger.info((curi.isPost()? "POST": "GET") + " " +
                 curi.getUURI().toString() + " " + method.getStatusCode() +
@@ -668,7 +726,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * @param rec Recorder for this request.
      * @param method Method used for the request.
      */
-    private void setCharacterEncoding(final HttpRecorder rec,
+    protected void setCharacterEncoding(final HttpRecorder rec,
         final HttpMethod method) {
         String encoding = null;
 
@@ -685,6 +743,54 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         rec.setCharacterEncoding(encoding);
     }
 
+    /**
+     * @param method method of a fetch
+     * @return true if the method's connection may be kept for reuse
+     */
+    protected boolean isKeepAlive(HttpMethod method) {
+        return method instanceof HttpRecorderGetMethod
+            && ((HttpRecorderGetMethod)method).isKeepAlive();
+    }
+
+    /**
+     * Set up the recorder for any configured duplicate-detection hash.
+     * 
+     * @param curi CrawlURI about to be fetched.
+     * @param rec HttpRecorder to record the fetch.
+     * @return Algorithm of the hash, or null if none.
+     */
+    protected String configureDedupDigest(CrawlURI curi, HttpRecorder rec) {
+        String algorithm = (String)getUncheckedAttribute(curi,
+            ATTR_DEDUP_DIGEST_ALGORITHM);
+        if (algorithm == null || NONE.equals(algorithm)) {
+            rec.getRecordedInput().setAdditionalDigests(new String[0]);
+            return null;
+        }
+        rec.getRecordedInput().setAdditionalDigests(new String[] {algorithm});
+        return algorithm;
+    }
+
+    /**
+     * Save any duplicate-detection hash of the fetched content-body into
+     * the CrawlURI.
+     * 
+     * @param curi CrawlURI fetched.
+     * @param rec HttpRecorder that recorded the fetch.
+     * @param algorithm Algorithm returned by
+     * {@link #configureDedupDigest(CrawlURI, HttpRecorder)}.
+     */
+    protected void noteDedupDigest(CrawlURI curi, HttpRecorder rec,
+            String algorithm) {
+        if (algorithm == null) {
+            return;
+        }
+        byte[] value = rec.getRecordedInput().getDigestValue(algorithm);
+        if (value != null) {
+            curi.putString(A_DEDUP_DIGEST,
+                algorithm + ":" + Base32.encode(value));
+        }
+    }
+
     /**
      * Cleanup after a failed method execute.
      * @param curi CrawlURI we failed on.
@@ -704,7 +810,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * @param message Message to log with failure.
      * @param status Status to set on the fetch.
      */
-    private void cleanup(final CrawlURI curi, final Exception exception,
+    protected void cleanup(final CrawlURI curi, final Exception exception,
             final String message, final int status) {
         curi.addLocalizedError(this.getName(), exception, message);
         curi.setFetchStatus(status);
@@ -719,7 +825,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * @param curi
      * @return True if processor can fetch.
      */
-    private boolean canFetch(CrawlURI curi) {
+    protected boolean canFetch(CrawlURI curi) {
         if(curi.getFetchStatus()<0) {
             // already marked as errored, this pass through
             // skip to end
@@ -786,7 +892,11 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
                 RANGE_PREFIX.concat(Long.toString(maxLength - 1)));
         }
         
-        if (((Boolean)getUncheckedAttribute(curi,
+        if (this.keepAliveManager != null
+                && method instanceof HttpRecorderGetMethod) {
+            method.addRequestHeader(HEADER_SEND_KEEP_ALIVE);
+            ((HttpRecorderGetMethod)method).setKeepAlive(true);
+        } else if (((Boolean)getUncheckedAttribute(curi,
                 ATTR_SEND_CONNECTION_CLOSE)).booleanValue()) {
             method.addRequestHeader(HEADER_SEND_CONNECTION_CLOSE);
         }
@@ -1194,6 +1304,9 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * Perform any final cleanup related to the HttpClient instance.
      */
     protected void cleanupHttp() {
+        if (this.keepAliveManager != null) {
+            this.keepAliveManager.shutdown();
+        }
         if(cookieDb!=null) {
             try {
                 cookieDb.sync();
@@ -1210,7 +1323,17 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         int timeout = (getSoTimeout(null) > 0)? getSoTimeout(null): 0;
         
         // HttpConnectionManager cm = new ThreadLocalHttpConnectionManager();
-        HttpConnectionManager cm = new SingleHttpConnectionManager();
+        HttpConnectionManager cm = null;
+        int keepAliveMs = ((Integer)getUncheckedAttribute(null,
+            ATTR_KEEP_ALIVE_IDLE_MS)).intValue();
+        if (keepAliveMs > 0) {
+            this.keepAliveManager = new KeepAliveHttpConnectionManager(
+                keepAliveMs, ((Integer)getUncheckedAttribute(null,
+                    ATTR_MAX_IDLE_CONNECTIONS)).intValue());
+            cm = this.keepAliveManager;
+        } else {
+            cm = new SingleHttpConnectionManager();
+        }
         
         // TODO: The following settings should be made in the corresponding
         // HttpConnectionManager, not here.
@@ -1285,7 +1408,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * @param curi Current CrawlURI.  Used to get context.
      * @return Socket timeout value.
      */
-    private int getSoTimeout(CrawlURI curi) {
+    protected int getSoTimeout(CrawlURI curi) {
         Integer res = null;
         try {
             res = (Integer) getAttribute(ATTR_SOTIMEOUT_MS, curi);
@@ -1299,7 +1422,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
      * @param curi Current CrawlURI.  Used to get context.
      * @return Timeout value for total request.
      */
-    private int getTimeout(CrawlURI curi) {
+    protected int getTimeout(CrawlURI curi) {
         Integer res;
         try {
             res = (Integer) getAttribute(ATTR_TIMEOUT_SECONDS, curi);
@@ -1309,7 +1432,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         return res.intValue();
     }
 
-    private int getMaxFetchRate(CrawlURI curi) {
+    protected int getMaxFetchRate(CrawlURI curi) {
         Integer res;
         try {
             res = (Integer)getAttribute(ATTR_FETCH_BANDWIDTH_MAX, curi);
@@ -1320,7 +1443,7 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         return res.intValue();
     }
 
-    private long getMaxLength(CrawlURI curi) {
+    protected long getMaxLength(CrawlURI curi) {
         Long res;
         try {
             res = (Long) getAttribute(ATTR_MAX_LENGTH_BYTES, curi);
@@ -1417,7 +1540,18 @@ implements CoreAttributeConstants, FetchStatusCodes, CrawlStatusListener {
         ret.append("Processor: org.archive.crawler.fetcher.FetchHTTP\n");
         ret.append("  Function:          Fetch HTTP URIs\n");
         ret.append("  CrawlURIs handled: " + this.curisHandled + "\n");
-        ret.append("  Recovery retries:   " + this.recoveryRetries + "\n\n");
+        ret.append("  Recovery retries:   " + this.recoveryRetries + "\n");
+        if (this.keepAliveManager != null) {
+            long opened = this.keepAliveManager.getOpenedCount();
+            long reused = this.keepAliveManager.getReusedCount();
+            ret.append("  Connections opened: " + opened + "\n");
+            ret.append("  Connections reused: " + reused + " (" +
+                ((opened + reused == 0)? 0: (100 * reused / (opened + reused))) +
+                "% of requests)\n");
+            ret.append("  Connections idle:   " +
+                this.keepAliveManager.getIdleCount() + "\n");
+        }
+        ret.append("\n");
 
         return ret.toString();
     }
@@ -0,0 +1,382 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.fetcher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.util.EncodingUtil;
+import org.archive.crawler.datamodel.CrawlHost;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.crawler.framework.ToeThread;
+import org.archive.crawler.settings.SimpleType;
+import org.archive.crawler.settings.Type;
+import org.archive.httpclient.DetachedGetMethod;
+import org.archive.httpclient.HttpRecorderMethod;
+import org.archive.io.RecorderLengthExceededException;
+import org.archive.io.RecorderTimeoutException;
+import org.archive.io.RecorderTooMuchHeaderException;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.HttpRecorder;
+
+/**
+ * HTTP fetcher performing plain-http GETs on non-blocking sockets, with
+ * a few I/O threads multiplexing all connections in progress.
+ *
+ * When the crawl has extractor threads (see
+ * {@link org.archive.crawler.datamodel.CrawlOrder#ATTR_EXTRACTOR_THREADS}),
+ * the ToeThread starting a fetch suspends its URI and goes on to other
+ * work; once the response is in, the URI resumes on an extractor thread.
+ * Many more fetches may then be in flight than there are ToeThreads.
+ * Otherwise, or beyond the configured number of suspended fetches, the
+ * ToeThread waits for its fetch as with FetchHTTP.
+ *
+ * Responses are recorded by the URI's HttpRecorder as they arrive, so
+ * timeouts, length limits, digests and midfetch rules behave as in
+ * FetchHTTP. URIs this fetcher cannot handle this way (https, POSTs,
+ * proxied fetches, fetches with credentials or a bandwidth limit) are
+ * fetched by FetchHTTP as usual.
+ */
+public class FetchHTTPAsync extends FetchHTTP {
+    private static final long serialVersionUID =
+        ArchiveUtils.classnameBasedUID(FetchHTTPAsync.class,1);
+
+    private static Logger logger =
+        Logger.getLogger(FetchHTTPAsync.class.getName());
+
+    /** number of threads performing socket I/O */
+    public static final String ATTR_IO_THREADS = "io-threads";
+    protected static final Integer DEFAULT_IO_THREADS = new Integer(2);
+
+    /** most fetches in flight without a ToeThread waiting on them */
+    public static final String ATTR_MAX_SUSPENDED_FETCHES =
+        "max-suspended-fetches";
+    protected static final Integer DEFAULT_MAX_SUSPENDED_FETCHES =
+        new Integer(1000);
+
+    protected transient NioFetchEngine engine = null;
+    protected transient AtomicInteger suspendedFetches = new AtomicInteger(0);
+
+    /** fetches completed by the engine, and of those, how many suspended */
+    protected int asyncFetches = 0;
+    protected int asyncSuspended = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param name Name of this processor.
+     */
+    public FetchHTTPAsync(String name) {
+        super(name);
+        setDescription("Asynchronous HTTP Fetcher");
+        Type e = addElementToDefinition(new SimpleType(ATTR_IO_THREADS,
+            "Number of threads performing socket I/O for all fetches in " +
+            "progress. Changes take effect when the crawl is next started.",
+            DEFAULT_IO_THREADS));
+        e.setExpertSetting(true);
+        e.setOverrideable(false);
+        e = addElementToDefinition(new SimpleType(ATTR_MAX_SUSPENDED_FETCHES,
+            "Most fetches that may be in progress with no ToeThread " +
+            "waiting on them. Fetches are only suspended when the crawl " +
+            "has extractor threads to resume them; beyond this number, " +
+            "ToeThreads wait for their fetches.",
+            DEFAULT_MAX_SUSPENDED_FETCHES));
+        e.setExpertSetting(true);
+        e.setOverrideable(false);
+    }
+
+    public void initialTasks() {
+        super.initialTasks();
+        int threads = ((Integer)getUncheckedAttribute(null,
+            ATTR_IO_THREADS)).intValue();
+        try {
+            this.engine = new NioFetchEngine(getName() + " I/O", threads);
+        } catch (IOException e) {
+            // fetch everything synchronously
+            logger.log(Level.SEVERE, "Failed start of fetch engine", e);
+        }
+        if (this.suspendedFetches == null) {
+            this.suspendedFetches = new AtomicInteger(0);
+        }
+    }
+
+    public void finalTasks() {
+        if (this.engine != null) {
+            this.engine.shutdown();
+            this.engine = null;
+        }
+        super.finalTasks();
+    }
+
+    protected void innerProcess(final CrawlURI curi)
+    throws InterruptedException {
+        if (!canFetch(curi)) {
+            // Cannot fetch this, due to protocol, retries, or other problems
+            return;
+        }
+        NioFetchEngine engine = this.engine;
+        CrawlHost host = getController().getServerCache().getHostFor(curi);
+        if (engine == null || !curi.getUURI().getScheme().equals("http")
+                || curi.isPost() || curi.hasCredentialAvatars()
+                || getMaxFetchRate(curi) > 0 || host.getIP() == null) {
+            super.innerProcess(curi);
+            return;
+        }
+        DetachedGetMethod method =
+            new DetachedGetMethod(curi.getUURI().toString());
+        HostConfiguration config = configureMethod(curi, method);
+        if (config.getProxyHost() != null) {
+            super.innerProcess(curi);
+            return;
+        }
+        method.getParams().setDefaults(getHttp().getParams());
+
+        this.curisHandled++;
+        curi.putLong(A_FETCH_BEGAN_TIME, System.currentTimeMillis());
+
+        // Get a reference to the HttpRecorder that is set into this ToeThread.
+        HttpRecorder rec = HttpRecorder.getHttpRecorder();
+        String algorithm = null;
+        if (((Boolean)getUncheckedAttribute(curi, ATTR_DIGEST_CONTENT))
+                .booleanValue()) {
+            algorithm = (String)getUncheckedAttribute(curi,
+                ATTR_DIGEST_ALGORITHM);
+            rec.getRecordedInput().setDigest(algorithm);
+        } else {
+            // clear
+            rec.getRecordedInput().setDigest((MessageDigest)null);
+        }
+        String dedupAlgorithm = configureDedupDigest(curi, rec);
+        curi.setHttpRecorder(rec);
+
+        AsyncFetch fetch;
+        try {
+            int port = curi.getUURI().getPort();
+            HttpConnection conn = new HttpConnection(
+                curi.getUURI().getHost(), (port > 0)? port: 80);
+            byte[] request = EncodingUtil.getBytes(
+                method.generateRequest(getHttp().getState(), conn),
+                method.getParams().getHttpElementCharset());
+            long hardMax = getMaxLength(curi);
+            long timeoutMs = 1000 * getTimeout(curi);
+            rec.getRecordedInput().setLimits(hardMax, timeoutMs, 0);
+            fetch = new AsyncFetch(curi, method, conn, rec, algorithm,
+                dedupAlgorithm,
+                new InetSocketAddress(host.getIP(), conn.getPort()),
+                config.getLocalAddress(), request, getSoTimeout(curi),
+                timeoutMs, hardMax);
+            rec.inputWrap(fetch.getFeed());
+            OutputStream out = rec.outputWrap(null);
+            out.write(request);
+        } catch (URIException e) {
+            cleanup(curi, e, "executeMethod", S_CONNECT_FAILED);
+            return;
+        } catch (IOException e) {
+            cleanup(curi, e, "executeMethod", S_CONNECT_FAILED);
+            return;
+        }
+
+        int maxSuspended = ((Integer)getUncheckedAttribute(null,
+            ATTR_MAX_SUSPENDED_FETCHES)).intValue();
+        if (suspendedFetches.incrementAndGet() <= maxSuspended
+                && Thread.currentThread() instanceof ToeThread) {
+            final AsyncFetch suspended = fetch;
+            suspended.suspended = true;
+            final NioFetchEngine e = engine;
+            if (((ToeThread)Thread.currentThread()).suspendCurrentUri(
+                    new Runnable() {
+                        public void run() {
+                            e.submit(suspended);
+                        }
+                    })) {
+                return;
+            }
+            suspended.suspended = false;
+        }
+        suspendedFetches.decrementAndGet();
+        engine.submit(fetch);
+        fetch.awaitCompletion();
+    }
+
+    /**
+     * Record the outcome of a finished exchange in its CrawlURI, as
+     * FetchHTTP does after executing and reading its method.
+     *
+     * @param fetch finished fetch
+     */
+    protected void fetchCompleted(AsyncFetch fetch) {
+        CrawlURI curi = fetch.curi;
+        DetachedGetMethod method = fetch.method;
+        HttpRecorder rec = fetch.rec;
+        IOException failure = fetch.getFailure();
+        IOException truncation = fetch.getTruncation();
+
+        if (failure instanceof RecorderTooMuchHeaderException) {
+            // when too much header material, abort like other truncations
+            curi.addAnnotation(HEADER_TRUNC);
+            failure = null;
+        } else if (failure != null && !fetch.isHeadDone()) {
+            cleanup(curi, failure, "executeMethod",
+                (fetch.isRequestSent()? S_CONNECT_LOST: S_CONNECT_FAILED));
+            return;
+        }
+        if (truncation instanceof RecorderTimeoutException) {
+            curi.addAnnotation(TIMER_TRUNC);
+        } else if (truncation instanceof RecorderLengthExceededException) {
+            curi.addAnnotation(LENGTH_TRUNC);
+        } else if (failure != null) {
+            cleanup(curi, failure, "readFully", S_CONNECT_LOST);
+        }
+
+        // ensure recording has stopped
+        rec.close();
+        rec.closeRecorders();
+        // Note completion time
+        curi.putLong(A_FETCH_COMPLETED_TIME, System.currentTimeMillis());
+        // Set the response charset into the HttpRecord if available.
+        setCharacterEncoding(rec, method);
+        setSizes(curi, rec);
+        if (failure != null) {
+            return;
+        }
+
+        if (fetch.algorithm != null) {
+            curi.setContentDigest(fetch.algorithm,
+                rec.getRecordedInput().getDigestValue());
+        }
+        noteDedupDigest(curi, rec, fetch.dedupAlgorithm);
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("GET " + curi.getUURI().toString() + " "
+                + method.getStatusCode() + " "
+                + rec.getRecordedInput().getSize() + " "
+                + curi.getContentType());
+        }
+        if (method.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            // 401 is not 'success'.
+            handle401(method, curi);
+        }
+    }
+
+    /**
+     * @param fetch fetch whose response head has been read
+     * @return body bytes to read, or -1 to read until the connection
+     * closes
+     */
+    protected long responseHeadRead(AsyncFetch fetch) {
+        CrawlURI curi = fetch.curi;
+        addResponseContent(fetch.method, curi);
+        if (!curi.isPrerequisite()
+                && !rulesAccept(getMidfetchRule(curi), curi)) {
+            curi.addAnnotation(MIDFETCH_ABORT_LOG);
+            return 0;
+        }
+        return HttpRecorderMethod.getResponseBodyLength(fetch.method);
+    }
+
+    public String report() {
+        StringBuffer ret = new StringBuffer(super.report());
+        ret.append("  Asynchronous fetches: " + this.asyncFetches + " ("
+            + this.asyncSuspended + " suspended)\n");
+        NioFetchEngine engine = this.engine;
+        if (engine != null) {
+            ret.append("  Fetches in flight:  " + engine.getInFlightCount()
+                + "\n");
+        }
+        ret.append("\n");
+        return ret.toString();
+    }
+
+    /**
+     * One URI's fetch by the engine.
+     */
+    protected class AsyncFetch extends NioFetchEngine.Exchange {
+        protected final CrawlURI curi;
+        protected final DetachedGetMethod method;
+        protected final HttpConnection conn;
+        protected final HttpRecorder rec;
+        protected final String algorithm;
+        protected final String dedupAlgorithm;
+        /** whether no thread waits on this fetch; its URI is to resume */
+        protected volatile boolean suspended = false;
+        protected boolean done = false;
+
+        protected AsyncFetch(CrawlURI curi, DetachedGetMethod method,
+                HttpConnection conn, HttpRecorder rec, String algorithm,
+                String dedupAlgorithm, InetSocketAddress remote, InetAddress localAddress,
+                byte[] request, int soTimeoutMs, long timeoutMs,
+                long maxLength) {
+            super(remote, localAddress, request, rec.getRecordedInput(),
+                soTimeoutMs, timeoutMs, maxLength);
+            this.curi = curi;
+            this.method = method;
+            this.conn = conn;
+            this.rec = rec;
+            this.algorithm = algorithm;
+            this.dedupAlgorithm = dedupAlgorithm;
+        }
+
+        protected long headerEnd(byte[] head, int length)
+        throws IOException {
+            method.readResponseHead(head, length, getHttp().getState(), conn);
+            return responseHeadRead(this);
+        }
+
+        protected void completed() {
+            try {
+                fetchCompleted(this);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "completing " + curi, e);
+            } finally {
+                synchronized (FetchHTTPAsync.this) {
+                    asyncFetches++;
+                    if (suspended) {
+                        asyncSuspended++;
+                    }
+                }
+                if (suspended) {
+                    suspendedFetches.decrementAndGet();
+                    getController().getToePool().resume(curi);
+                } else {
+                    synchronized (this) {
+                        done = true;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        protected synchronized void awaitCompletion()
+        throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+        }
+    }
+}
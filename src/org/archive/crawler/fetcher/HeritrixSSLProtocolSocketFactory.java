@@ -95,7 +95,7 @@ implements SecureProtocolSocketFactory {
         return this.sslDefaultFactory.createSocket(host, port);
     }
 
-    public synchronized Socket createSocket(String host, int port,
+    public Socket createSocket(String host, int port,
     	InetAddress localAddress, int localPort, HttpConnectionParams params)
     throws IOException, UnknownHostException {
         // Below code is from the DefaultSSLProtocolSocketFactory#createSocket
@@ -117,8 +117,12 @@ implements SecureProtocolSocketFactory {
                 getParameter(FetchHTTP.SERVER_CACHE_KEY);
             InetAddress hostAddress = (cache !=  null)?
                 HeritrixProtocolSocketFactory.getHostAddress(cache, host): null;
+            // Name the cached IP with the host, so the TLS session is cached
+            // (and resumed on the next connection) under the host rather
+            // than the bare IP.
             InetSocketAddress address = (hostAddress != null)?
-                    new InetSocketAddress(hostAddress, port):
+                    new InetSocketAddress(InetAddress.getByAddress(host,
+                        hostAddress.getAddress()), port):
                     new InetSocketAddress(host, port);
             socket.bind(new InetSocketAddress(localAddress, localPort));
             try {
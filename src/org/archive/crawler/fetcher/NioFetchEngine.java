@@ -0,0 +1,624 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.fetcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.io.RecorderIOException;
+import org.archive.io.RecorderTimeoutException;
+import org.archive.io.RecordingInputStream;
+
+/**
+ * Carries out plain HTTP exchanges over non-blocking SocketChannels,
+ * multiplexing any number of connections over a few I/O threads.
+ *
+ * Each {@link Exchange} is submitted with its request already
+ * serialized and a RecordingInputStream already opened on the
+ * exchange's feed. Response bytes pass through that stream as they
+ * arrive, so recording, digesting and the recorder's length, timeout
+ * and header-size limits apply just as for a blocking fetch. The end
+ * of the response head is found here; the exchange decides from it how
+ * much body to expect.
+ *
+ * Completion is reported on the I/O thread, through
+ * {@link Exchange#completed()}, which should do no more than hand the
+ * exchange back to a thread that can finish processing it.
+ */
+public class NioFetchEngine {
+    private static final Logger logger =
+        Logger.getLogger(NioFetchEngine.class.getName());
+
+    /** how often I/O threads look for exchanges past their timeouts */
+    protected static final long CHECK_INTERVAL_MS = 250;
+
+    /** size of the per-thread socket read buffer */
+    protected static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    protected IoThread[] ioThreads;
+    protected AtomicInteger nextThread = new AtomicInteger(0);
+    protected AtomicInteger inFlight = new AtomicInteger(0);
+    protected volatile boolean shutdown = false;
+
+    /**
+     * @param name prefix for I/O thread names
+     * @param threads number of I/O threads to start
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioFetchEngine(String name, int threads) throws IOException {
+        this.ioThreads = new IoThread[Math.max(1, threads)];
+        for (int i = 0; i < this.ioThreads.length; i++) {
+            this.ioThreads[i] = new IoThread(name + " #" + i);
+        }
+        for (int i = 0; i < this.ioThreads.length; i++) {
+            this.ioThreads[i].start();
+        }
+    }
+
+    /**
+     * Begin the given exchange on one of the I/O threads. Its
+     * completed() is always called, even if the engine is shut down
+     * first.
+     *
+     * @param x exchange to carry out
+     */
+    public void submit(Exchange x) {
+        inFlight.incrementAndGet();
+        IoThread t = ioThreads[(nextThread.getAndIncrement() & 0x7fffffff)
+            % ioThreads.length];
+        t.pending.add(x);
+        t.selector.wakeup();
+        if (shutdown) {
+            // thread may have exited already; fail whatever it left
+            t.drainPending();
+        }
+    }
+
+    /**
+     * @return number of exchanges submitted and not yet completed
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Stop all I/O threads, failing any exchanges still in flight.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i].selector.wakeup();
+        }
+        for (int i = 0; i < ioThreads.length; i++) {
+            try {
+                ioThreads[i].join(CHECK_INTERVAL_MS * 4);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Fail the exchange, unless it has already finished.
+     */
+    protected void fail(Exchange x, IOException e) {
+        if (!x.finished.compareAndSet(false, true)) {
+            return;
+        }
+        if (x.headDone && e instanceof RecorderIOException) {
+            // a recorder limit cut the body short; keep what was read
+            x.truncation = e;
+        } else {
+            x.failure = e;
+        }
+        complete(x);
+    }
+
+    /**
+     * Finish the exchange, unless it has already finished.
+     */
+    protected void finish(Exchange x) {
+        if (!x.finished.compareAndSet(false, true)) {
+            return;
+        }
+        complete(x);
+    }
+
+    /**
+     * Release the exchange's connection and report its completion.
+     * Called once, by whichever of fail() or finish() ended it: the I/O
+     * thread and a submit() after shutdown may both try.
+     */
+    private void complete(Exchange x) {
+        if (x.key != null) {
+            x.key.cancel();
+        }
+        if (x.channel != null) {
+            try {
+                x.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "closing channel", e);
+            }
+        }
+        inFlight.decrementAndGet();
+        try {
+            x.completed();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "completing " + x, e);
+        }
+    }
+
+    /**
+     * Thread multiplexing the connections of its exchanges over one
+     * Selector.
+     */
+    protected class IoThread extends Thread {
+        protected Selector selector;
+        protected Queue<Exchange> pending =
+            new ConcurrentLinkedQueue<Exchange>();
+        protected ByteBuffer readBuffer =
+            ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        protected IoThread(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        public void run() {
+            long lastCheck = System.currentTimeMillis();
+            try {
+                while (!shutdown) {
+                    selector.select(CHECK_INTERVAL_MS);
+                    Exchange x;
+                    while ((x = pending.poll()) != null) {
+                        begin(x);
+                    }
+                    Iterator<SelectionKey> iter =
+                        selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        service(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastCheck >= CHECK_INTERVAL_MS) {
+                        checkTimeouts(now);
+                        lastCheck = now;
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, getName() + " failed", e);
+            } catch (ClosedSelectorException e) {
+                logger.log(Level.SEVERE, getName() + " failed", e);
+            } finally {
+                List<Exchange> left = new ArrayList<Exchange>();
+                try {
+                    for (SelectionKey key : selector.keys()) {
+                        left.add((Exchange)key.attachment());
+                    }
+                    selector.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "closing selector", e);
+                } catch (ClosedSelectorException e) {
+                    // already closed; nothing more to collect
+                }
+                for (Exchange x : left) {
+                    fail(x, new IOException("fetch engine shut down"));
+                }
+                drainPending();
+            }
+        }
+
+        protected void drainPending() {
+            Exchange x;
+            while ((x = pending.poll()) != null) {
+                fail(x, new IOException("fetch engine shut down"));
+            }
+        }
+
+        protected void begin(Exchange x) {
+            try {
+                x.startTime = x.lastActivity = System.currentTimeMillis();
+                x.channel = SocketChannel.open();
+                x.channel.configureBlocking(false);
+                if (x.localAddress != null) {
+                    x.channel.socket().bind(
+                        new InetSocketAddress(x.localAddress, 0));
+                }
+                if (x.channel.connect(x.remote)) {
+                    x.key = x.channel.register(selector,
+                        SelectionKey.OP_WRITE, x);
+                } else {
+                    x.key = x.channel.register(selector,
+                        SelectionKey.OP_CONNECT, x);
+                }
+            } catch (IOException e) {
+                fail(x, e);
+            } catch (RuntimeException e) {
+                // eg UnresolvedAddressException
+                fail(x, new IOException(e.toString()));
+            }
+        }
+
+        protected void service(SelectionKey key) {
+            Exchange x = (Exchange)key.attachment();
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    if (!x.channel.finishConnect()) {
+                        return;
+                    }
+                    x.lastActivity = System.currentTimeMillis();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    x.channel.write(x.request);
+                    x.lastActivity = System.currentTimeMillis();
+                    if (!x.request.hasRemaining()) {
+                        x.requestSent = true;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    readBuffer.clear();
+                    int n = x.channel.read(readBuffer);
+                    if (n < 0) {
+                        if (x.headDone) {
+                            finish(x);
+                        } else {
+                            fail(x, new IOException("connection closed "
+                                + "before end of response head"));
+                        }
+                        return;
+                    }
+                    x.lastActivity = System.currentTimeMillis();
+                    if (x.consume(readBuffer.array(), 0, n)) {
+                        finish(x);
+                    }
+                }
+            } catch (IOException e) {
+                fail(x, e);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "servicing " + x, e);
+                fail(x, new IOException(e.toString()));
+            }
+        }
+
+        protected void checkTimeouts(long now) {
+            List<Exchange> expired = null;
+            for (SelectionKey key : selector.keys()) {
+                Exchange x = (Exchange)key.attachment();
+                if (key.isValid() && x.isExpired(now)) {
+                    if (expired == null) {
+                        expired = new ArrayList<Exchange>();
+                    }
+                    expired.add(x);
+                }
+            }
+            if (expired == null) {
+                return;
+            }
+            for (Exchange x : expired) {
+                if (x.headDone || now - x.startTime > x.timeoutMs) {
+                    // as the recorder would report it on its next read;
+                    // a stalled body keeps what was read
+                    fail(x, new RecorderTimeoutException());
+                } else {
+                    fail(x, new SocketTimeoutException((x.channel
+                        .isConnected() ? "read" : "connect")
+                        + " timed out"));
+                }
+            }
+        }
+    }
+
+    /**
+     * One request and its response. Subclasses supply the handling of
+     * the response head and of completion.
+     */
+    public abstract static class Exchange {
+        /** lines tolerated before the status line, as HttpClient allows */
+        protected static final int STATUS_LINE_GARBAGE_LIMIT = 10;
+
+        protected final InetSocketAddress remote;
+        protected final InetAddress localAddress;
+        protected final ByteBuffer request;
+        protected final RecordingInputStream recordedInput;
+        protected final int soTimeoutMs;
+        protected final long timeoutMs;
+        protected final long maxLength;
+
+        /** source of the recorded input's reads */
+        protected final Feed feed = new Feed();
+        protected final byte[] drain = new byte[4 * 1024];
+
+        protected SocketChannel channel;
+        protected SelectionKey key;
+        protected long startTime;
+        protected long lastActivity;
+        protected final AtomicBoolean finished = new AtomicBoolean(false);
+
+        // response head scanning
+        protected byte[] head = new byte[1024];
+        protected int headLength = 0;
+        protected int lineLeadLength = 0;
+        protected char[] lineLead = new char[4];
+        protected boolean lineBlank = true;
+        protected boolean sawStatusLine = false;
+        protected int garbageLines = 0;
+
+        // response body accounting
+        protected long bodyExpected = -1;
+        protected long bodyRead = 0;
+        protected long fed = 0;
+
+        /** whether the whole request was written */
+        protected boolean requestSent = false;
+        /** whether the whole response head was read */
+        protected boolean headDone = false;
+        /** why the exchange failed before its head was done, if it did */
+        protected IOException failure = null;
+        /** why the body was cut short, if it was */
+        protected IOException truncation = null;
+
+        /**
+         * @param remote address to connect to
+         * @param localAddress local address to bind, or null
+         * @param request serialized request
+         * @param recordedInput stream, already opened on getFeed(),
+         * through which the response is to be recorded
+         * @param soTimeoutMs longest wait for connect or data (0 for
+         * none)
+         * @param timeoutMs longest the whole exchange may take (0 for
+         * none)
+         * @param maxLength byte limit set on recordedInput (0 for none)
+         */
+        public Exchange(InetSocketAddress remote, InetAddress localAddress,
+                byte[] request, RecordingInputStream recordedInput,
+                int soTimeoutMs, long timeoutMs, long maxLength) {
+            this.remote = remote;
+            this.localAddress = localAddress;
+            this.request = ByteBuffer.wrap(request);
+            this.recordedInput = recordedInput;
+            this.soTimeoutMs = (soTimeoutMs > 0)? soTimeoutMs:
+                Integer.MAX_VALUE;
+            this.timeoutMs = (timeoutMs > 0)? timeoutMs: Long.MAX_VALUE;
+            this.maxLength = (maxLength > 0)? maxLength: Long.MAX_VALUE;
+        }
+
+        /**
+         * @return stream to open the recorded input upon
+         */
+        public InputStream getFeed() {
+            return this.feed;
+        }
+
+        /**
+         * Called on the I/O thread when the response head has been read
+         * (and recorded, with the content begin marked).
+         *
+         * @param head buffer holding the response head
+         * @param length length of the head in the buffer
+         * @return number of body bytes to read, or -1 to read until the
+         * server closes the connection
+         * @throws IOException if the head is unusable
+         */
+        protected abstract long headerEnd(byte[] head, int length)
+        throws IOException;
+
+        /**
+         * Called once, on the I/O thread, when the exchange has ended
+         * for any reason. The connection is closed already; the
+         * recorded input is left open.
+         */
+        protected abstract void completed();
+
+        public boolean isRequestSent() {
+            return this.requestSent;
+        }
+
+        public boolean isHeadDone() {
+            return this.headDone;
+        }
+
+        public IOException getFailure() {
+            return this.failure;
+        }
+
+        public IOException getTruncation() {
+            return this.truncation;
+        }
+
+        protected boolean isExpired(long now) {
+            if (now - startTime > timeoutMs) {
+                return true;
+            }
+            return now - lastActivity > soTimeoutMs;
+        }
+
+        /**
+         * Take response bytes just read from the socket.
+         *
+         * @return true if the exchange is complete
+         * @throws IOException
+         */
+        protected boolean consume(byte[] b, int off, int len)
+        throws IOException {
+            int end = off + len;
+            if (!headDone) {
+                int headEnd = scanHead(b, off, end);
+                int upTo = (headEnd < 0)? end: headEnd;
+                record(b, off, upTo);
+                appendHead(b, off, upTo);
+                if (headEnd < 0) {
+                    return false;
+                }
+                recordedInput.markContentBegin();
+                headDone = true;
+                bodyExpected = headerEnd(head, headLength);
+                off = headEnd;
+            }
+            if (bodyExpected >= 0) {
+                end = (int)Math.min(end, off + (bodyExpected - bodyRead));
+            }
+            if (end > off) {
+                bodyRead += end - off;
+                record(b, off, end);
+            }
+            return bodyExpected >= 0 && bodyRead >= bodyExpected;
+        }
+
+        /**
+         * Find the end of the response head: the first blank line after
+         * the status line, where the status line is the first line
+         * beginning "HTTP" (after optional whitespace).
+         *
+         * @return index just past the end of the head, or -1 if the head
+         * does not end within the given bytes
+         * @throws IOException if too many lines precede the status line
+         */
+        protected int scanHead(byte[] b, int off, int end)
+        throws IOException {
+            for (int i = off; i < end; i++) {
+                int c = b[i] & 0xff;
+                if (c == '\n') {
+                    if (sawStatusLine) {
+                        if (lineBlank) {
+                            return i + 1;
+                        }
+                    } else if (lineLeadLength == 4 && lineLead[0] == 'H'
+                            && lineLead[1] == 'T' && lineLead[2] == 'T'
+                            && lineLead[3] == 'P') {
+                        sawStatusLine = true;
+                    } else if (++garbageLines > STATUS_LINE_GARBAGE_LIMIT) {
+                        throw new IOException("The server "
+                            + remote.getHostName() + " failed to respond"
+                            + " with a valid HTTP response");
+                    }
+                    lineLeadLength = 0;
+                    lineBlank = true;
+                    continue;
+                }
+                if (c > ' ') {
+                    lineBlank = false;
+                }
+                if (lineLeadLength < 4 && (lineLeadLength > 0
+                        || !isWhitespace(c))) {
+                    lineLead[lineLeadLength++] = (char)c;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * As Character.isWhitespace(), for the ASCII range.
+         */
+        protected static boolean isWhitespace(int c) {
+            return c == ' ' || (c >= 0x09 && c <= 0x0d)
+                || (c >= 0x1c && c <= 0x1f);
+        }
+
+        protected void appendHead(byte[] b, int from, int to) {
+            int len = to - from;
+            if (headLength + len > head.length) {
+                byte[] bigger =
+                    new byte[Math.max(head.length * 2, headLength + len)];
+                System.arraycopy(head, 0, bigger, 0, headLength);
+                head = bigger;
+            }
+            System.arraycopy(b, from, head, headLength, len);
+            headLength += len;
+        }
+
+        /**
+         * Pass bytes through the recorded input, no further than one
+         * byte past the length limit (enough for the recorder to notice
+         * it is exceeded).
+         */
+        protected void record(byte[] b, int from, int to) throws IOException {
+            if (maxLength < Long.MAX_VALUE) {
+                to = (int)Math.min(to, from + Math.max(0,
+                    maxLength + 1 - fed));
+            }
+            fed += to - from;
+            feed.set(b, from, to);
+            while (feed.available() > 0) {
+                recordedInput.read(drain, 0,
+                    Math.min(drain.length, feed.available()));
+            }
+        }
+
+        public String toString() {
+            return super.toString() + " " + remote;
+        }
+    }
+
+    /**
+     * InputStream over whichever bytes an exchange is currently
+     * recording.
+     */
+    protected static class Feed extends InputStream {
+        protected byte[] buffer;
+        protected int pos;
+        protected int end;
+
+        protected void set(byte[] b, int from, int to) {
+            this.buffer = b;
+            this.pos = from;
+            this.end = to;
+        }
+
+        public int available() {
+            return end - pos;
+        }
+
+        public int read() {
+            return (pos < end)? buffer[pos++] & 0xff: -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (pos >= end) {
+                return -1;
+            }
+            int n = Math.min(len, end - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.fetcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.archive.io.RecorderLengthExceededException;
+import org.archive.io.RecorderTimeoutException;
+import org.archive.util.HttpRecorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Test NioFetchEngine against a local socket server.
+ */
+public class NioFetchEngineTest extends TmpDirTestCase {
+    static final byte[] REQUEST =
+        "GET / HTTP/1.0\r\nHost: localhost\r\n\r\n".getBytes();
+
+    NioFetchEngine engine;
+    HttpRecorder rec;
+    ServerSocket server;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.engine = new NioFetchEngine("test I/O", 1);
+        this.rec = new HttpRecorder(getTmpDir(), "NioFetchEngineTest");
+        this.server = new ServerSocket(0, 5, InetAddress.getByName(null));
+    }
+
+    protected void tearDown() throws Exception {
+        this.server.close();
+        this.engine.shutdown();
+        this.rec.closeRecorders();
+        this.rec.cleanup();
+        super.tearDown();
+    }
+
+    /**
+     * Serve one connection: read the request head, write the response,
+     * then hold the connection open for the given time before closing.
+     */
+    void serve(final String response, final long holdMs) {
+        new Thread("NioFetchEngineTest server") {
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    InputStream in = s.getInputStream();
+                    int matched = 0;
+                    while (matched < 4) {
+                        int c = in.read();
+                        if (c < 0) {
+                            break;
+                        }
+                        matched = (c == "\r\n\r\n".charAt(matched))
+                            ? matched + 1 : (c == '\r' ? 1 : 0);
+                    }
+                    if (response != null) {
+                        OutputStream out = s.getOutputStream();
+                        out.write(response.getBytes("ISO-8859-1"));
+                        out.flush();
+                    }
+                    Thread.sleep(holdMs);
+                    s.close();
+                } catch (Exception e) {
+                    // test will notice
+                }
+            }
+        }.start();
+    }
+
+    TestExchange fetch(int port, int soTimeoutMs, long maxLength)
+    throws Exception {
+        TestExchange x = new TestExchange(
+            new InetSocketAddress(InetAddress.getByName(null), port),
+            rec, soTimeoutMs, maxLength);
+        rec.getRecordedInput().setLimits(maxLength, 0, 0);
+        rec.inputWrap(x.getFeed());
+        engine.submit(x);
+        x.await();
+        rec.close();
+        return x;
+    }
+
+    public void testContentLength() throws Exception {
+        String head = "garbage\r\nHTTP/1.0 200 OK\r\nContent-Length: 5\r\n\r\n";
+        // connection held open: end is found by the Content-Length
+        serve(head + "helloEXTRA", 5000);
+        TestExchange x = fetch(server.getLocalPort(), 2000, 0);
+        assertNull(x.getFailure());
+        assertNull(x.getTruncation());
+        assertTrue(x.isRequestSent());
+        assertEquals(head.length(), x.headLength);
+        assertEquals(head.length() + 5, rec.getRecordedInput().getSize());
+        assertEquals(head.length(),
+            rec.getRecordedInput().getContentBegin());
+    }
+
+    public void testReadToClose() throws Exception {
+        String head = "HTTP/1.0 200 OK\r\n\r\n";
+        serve(head + "until closed", 0);
+        TestExchange x = fetch(server.getLocalPort(), 2000, 0);
+        assertNull(x.getFailure());
+        assertEquals(head.length() + 12, rec.getRecordedInput().getSize());
+    }
+
+    public void testLengthTruncation() throws Exception {
+        String head = "HTTP/1.0 200 OK\r\n\r\n";
+        serve(head + "0123456789", 0);
+        TestExchange x = fetch(server.getLocalPort(), 2000,
+            head.length() + 3);
+        assertNull(x.getFailure());
+        assertTrue(x.getTruncation() instanceof
+            RecorderLengthExceededException);
+        assertEquals(head.length() + 4, rec.getRecordedInput().getSize());
+    }
+
+    public void testStalledBody() throws Exception {
+        String head = "HTTP/1.0 200 OK\r\nContent-Length: 10\r\n\r\n";
+        // body never completed, connection held open
+        serve(head + "01234", 5000);
+        long start = System.currentTimeMillis();
+        TestExchange x = fetch(server.getLocalPort(), 300, 0);
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        assertNull(x.getFailure());
+        assertTrue(x.getTruncation() instanceof RecorderTimeoutException);
+        assertEquals(head.length() + 5, rec.getRecordedInput().getSize());
+    }
+
+    public void testNoResponse() throws Exception {
+        serve(null, 5000);
+        TestExchange x = fetch(server.getLocalPort(), 300, 0);
+        assertTrue(x.getFailure() instanceof SocketTimeoutException);
+        assertTrue(x.isRequestSent());
+        assertFalse(x.isHeadDone());
+    }
+
+    public void testConnectFailure() throws Exception {
+        int port = server.getLocalPort();
+        server.close();
+        TestExchange x = fetch(port, 2000, 0);
+        assertNotNull(x.getFailure());
+        assertFalse(x.isRequestSent());
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    static class TestExchange extends NioFetchEngine.Exchange {
+        static final Pattern CONTENT_LENGTH =
+            Pattern.compile("(?im)^Content-Length:\\s*(\\d+)");
+        boolean done = false;
+
+        TestExchange(InetSocketAddress remote, HttpRecorder rec,
+                int soTimeoutMs, long maxLength) {
+            super(remote, null, REQUEST, rec.getRecordedInput(),
+                soTimeoutMs, 10000, maxLength);
+        }
+
+        protected long headerEnd(byte[] head, int length) throws IOException {
+            Matcher m = CONTENT_LENGTH.matcher(
+                new String(head, 0, length, "ISO-8859-1"));
+            return m.find() ? Long.parseLong(m.group(1)) : -1;
+        }
+
+        protected synchronized void completed() {
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void await() throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (!done && System.currentTimeMillis() < end) {
+                wait(1000);
+            }
+            assertTrue("exchange completed", done);
+        }
+    }
+}
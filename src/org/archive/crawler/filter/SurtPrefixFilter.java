@@ -28,10 +28,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 
+import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.crawler.deciderules.DecideRule;
 import org.archive.crawler.deciderules.DecidingFilter;
 import org.archive.crawler.framework.Filter;
 import org.archive.crawler.settings.SimpleType;
+import org.archive.net.UURI;
+import org.archive.util.PrefixTrie;
 import org.archive.util.SURT;
 import org.archive.util.SurtPrefixSet;
 /**
@@ -50,7 +53,7 @@ public class SurtPrefixFilter extends Filter {
     public static final String ATTR_SURTS_SOURCE_FILE = "surts-source-file";
     public static final String ATTR_MATCH_RETURN_VALUE = "if-match-return";
 
-    SurtPrefixSet surtPrefixes = null;
+    transient volatile PrefixTrie surtPrefixes = null;
     
     /**
      * @param name
@@ -73,21 +76,29 @@ public class SurtPrefixFilter extends Filter {
     /* (non-Javadoc)
      * @see org.archive.crawler.framework.Filter#accepts(java.lang.Object)
      */
-    protected synchronized boolean innerAccepts(Object o) {
-        if (surtPrefixes == null) {
-            readPrefixes();
+    protected boolean innerAccepts(Object o) {
+        PrefixTrie prefixes = surtPrefixes;
+        if (prefixes == null) {
+            synchronized (this) {
+                if (surtPrefixes == null) {
+                    readPrefixes();
+                }
+                prefixes = surtPrefixes;
+            }
         }
-        String s = SURT.fromURI(o.toString());
+        UURI u = (o instanceof UURI || o instanceof CandidateURI)?
+            UURI.from(o): null;
+        String s = (u != null)? u.getSurtForm(): SURT.fromURI(o.toString());
         // also want to treat https as http
         if(s.startsWith("https:")) {
             s = "http:"+s.substring(6);
         }
         // TODO: consider other cases of scheme-indifference?
-        return surtPrefixes.containsPrefixOf(s);
+        return prefixes.containsPrefixOf(s);
     }
 
     private void readPrefixes() {
-        surtPrefixes = new SurtPrefixSet(); 
+        SurtPrefixSet newSurtPrefixes = new SurtPrefixSet(); 
         String sourcePath = (String) getUncheckedAttribute(null,
                 ATTR_SURTS_SOURCE_FILE);
         File source = new File(sourcePath);
@@ -99,7 +110,7 @@ public class SurtPrefixFilter extends Filter {
         try {
             fr = new FileReader(source);
             try {
-                surtPrefixes.importFromMixed(fr,true);
+                newSurtPrefixes.importFromMixed(fr,true);
             } finally {
                 fr.close();
             }
@@ -107,6 +118,7 @@ public class SurtPrefixFilter extends Filter {
             e.printStackTrace();
             throw new RuntimeException(e);
         } 
+        surtPrefixes = PrefixTrie.build(newSurtPrefixes);
     }
     
     /**
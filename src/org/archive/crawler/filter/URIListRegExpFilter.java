@@ -24,7 +24,7 @@
  */
 package org.archive.crawler.filter;
 
-import java.util.Iterator;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,7 +36,7 @@ import org.archive.crawler.deciderules.DecidingFilter;
 import org.archive.crawler.framework.Filter;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.StringList;
-import org.archive.util.TextUtils;
+import org.archive.util.MultiRegexMatcher;
 
 
 /**
@@ -66,6 +66,9 @@ extends Filter {
    public static final String[] LEGAL_LIST_LOGIC = {"OR","AND"};
    public static final Boolean DEFAULT_MATCH_RETURN_VALUE = new Boolean(true);
 
+   /** matcher last built, for contexts whose settings can't hold one */
+   private transient volatile MultiRegexMatcher lastMatcher = null;
+
    /**
     * @param name Filter name.
     */
@@ -93,38 +96,19 @@ extends Filter {
            return false;
        }
        String str = o.toString();
-       Iterator it = regexps.iterator();
-       
-       boolean listLogicOR = isListLogicOR(o);
-       // Result is initialized so that if OR based the default assumption is
-       // false (find no matches) but if AND based the default assumption is
-       // true (finds no non-matches)
-       boolean result = listLogicOR == false;
-       
-       while(it.hasNext()){
-           String regexp = (String)it.next();
-           boolean matches = TextUtils.matches(regexp, str);
-
-           if (logger.isLoggable(Level.FINER)) {
+       MultiRegexMatcher matcher = getMatcher(o, regexps);
+       if (logger.isLoggable(Level.FINER)) {
+           BitSet matching = matcher.matching(str);
+           for (int i = 0; i < regexps.size(); i++) {
                logger.finer("Tested '" + str + "' match with regex '" +
-                   regexp + " and result was " + matches);
-           }
-           
-           if(matches){
-               if(listLogicOR){
-                   // OR based and we just got a match, done!
-                   result = true;
-                   break;
-               }
-           } else {
-               if(listLogicOR == false){
-                   // AND based and we just found a non-match, done!
-                   result = false;
-                   break;
-               }
+                   regexps.get(i) + " and result was " + matching.get(i));
            }
        }
        
+       // all expressions are tested in one pass over the string
+       boolean result = isListLogicOR(o)
+           ? matcher.matchesAny(str): matcher.matchesAll(str);
+       
        result = getMatchReturnValue(o) ? result : !result;
        
        if (logger.isLoggable(Level.FINE) && result){
@@ -134,6 +118,29 @@ extends Filter {
        return result;
    }
 
+   /**
+    * Get a matcher for the given expressions, reusing the one last built
+    * for the settings context if its expressions are unchanged (they can
+    * be edited in place without a settings change being noted).
+    *
+    * @param o the object for which the expressions should be matched.
+    * @param regexps the expressions.
+    * @return a matcher testing the expressions.
+    */
+   protected MultiRegexMatcher getMatcher(Object o, List regexps) {
+       MultiRegexMatcher matcher =
+           (MultiRegexMatcher)getDerivedValue(o, ATTR_REGEXP_LIST);
+       if (matcher == null || !matcher.isFor(regexps)) {
+           matcher = this.lastMatcher;
+           if (matcher == null || !matcher.isFor(regexps)) {
+               matcher = new MultiRegexMatcher(regexps);
+               this.lastMatcher = matcher;
+           }
+           putDerivedValue(o, ATTR_REGEXP_LIST, matcher);
+       }
+       return matcher;
+   }
+
    /** 
     * Get the regular expressions list to match the URI against.
     *
@@ -81,6 +81,7 @@ import org.archive.util.ArchiveUtils;
 import org.archive.util.CachedBdbMap;
 import org.archive.util.FileUtils;
 import org.archive.util.ObjectIdentityBdbCache;
+import org.archive.util.ObjectIdentityBoundedBdbCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.Reporter;
 import org.archive.util.bdbje.EnhancedEnvironment;
@@ -1941,6 +1942,16 @@ public class CrawlController implements Serializable, Reporter {
     /** controls which alternate ObjectIdentityCache implementation to use */
     private static boolean USE_OIBC = true;
 
+    /**
+     * System property naming, comma-separated, those big maps (for example
+     * 'allqueues', 'servers', 'hosts', 'hostsBytes') to be implemented
+     * with the explicitly size-bounded ObjectIdentityBoundedBdbCache,
+     * rather than the soft-reference based ObjectIdentityBdbCache; '*'
+     * selects all.
+     */
+    public static final String BOUNDED_BIGMAPS_KEY =
+        CrawlController.class.getName() + ".bounded-bigmaps";
+
     /**
      * Call this method to get instance of the crawler BigMap implementation.
      * A "BigMap" is a Map that knows how to manage ever-growing sets of
@@ -1957,7 +1968,9 @@ public class CrawlController implements Serializable, Reporter {
     public <V> ObjectIdentityCache<String,V> getBigMap(final String dbName, 
             final Class<? super V> valueClass)
     throws Exception {
-        if(USE_OIBC) {
+        if(isBoundedBigMap(dbName)) {
+            return getBoundedOIBC(dbName, valueClass);
+        } else if(USE_OIBC) {
             return getOIBC(dbName, valueClass);
         } else {
             return getCBM(dbName, valueClass);
@@ -1994,6 +2007,53 @@ public class CrawlController implements Serializable, Reporter {
         return result;
     }
     
+    /**
+     * @param dbName big map name
+     * @return true if the named big map should be size-bounded
+     */
+    protected boolean isBoundedBigMap(String dbName) {
+        String bounded = System.getProperty(BOUNDED_BIGMAPS_KEY);
+        if (bounded == null) {
+            return false;
+        }
+        for (String name : bounded.split(",")) {
+            name = name.trim();
+            if (name.equals("*") || name.equals(dbName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Implement 'big map' with ObjectIdentityBoundedBdbCache.
+     * 
+     * @param dbName Name to give any associated database.  Also used
+     * as part of name serializing out bigmap.  Needs to be unique to a crawl.
+     * @param valueClass Class of values we'll be using.
+     * @return size-bounded big map
+     * @throws Exception
+     */
+    protected <V> ObjectIdentityBoundedBdbCache<V> getBoundedOIBC(
+            final String dbName, final Class<? super V> valueClass)
+    throws Exception {
+        ObjectIdentityBoundedBdbCache<V> result =
+            new ObjectIdentityBoundedBdbCache<V>();
+        if (isCheckpointRecover()) {
+            File baseDir = getCheckpointRecover().getDirectory();
+            @SuppressWarnings("unchecked")
+            ObjectIdentityBoundedBdbCache<V> temp = CheckpointUtils.
+                readObjectFromFile(result.getClass(), dbName, baseDir);
+            result = temp;
+        }
+        result.initialize(getBdbEnvironment(), dbName, valueClass,
+                getBdbEnvironment().getClassCatalog());
+        // Save reference to all big maps made so can manage their
+        // checkpointing.
+        this.bigmaps.put(dbName, result);
+        return result;
+    }
+
     /**
      * Implement 'big map' with CachedBdbMap.
      * 
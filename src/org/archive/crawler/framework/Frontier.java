@@ -26,6 +26,7 @@ package org.archive.crawler.framework;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.crawler.datamodel.CrawlSubstats;
@@ -149,6 +150,21 @@ public interface Frontier extends Reporter {
      */
     CrawlURI next() throws InterruptedException, EndedException;
 
+    /**
+     * Get up to the given number of URIs that should be processed, in 
+     * order, by the calling thread. Frontiers may hand out several URIs 
+     * at once when doing so cannot violate politeness, amortizing the 
+     * cost of handout; otherwise a single URI is returned, as by 
+     * {@link #next()}. Each URI returned must be individually reported 
+     * via {@link #finished(CrawlURI)}.
+     *
+     * @param max the maximum number of URIs to return; at least 1
+     * @return nonempty list of the next URIs that should be processed.
+     * @throws InterruptedException
+     * @throws EndedException 
+     */
+    List<CrawlURI> next(int max) throws InterruptedException, EndedException;
+
     /**
      * Returns true if the frontier contains no more URIs to crawl.
      *
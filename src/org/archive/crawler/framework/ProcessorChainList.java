@@ -170,6 +170,17 @@ public class ProcessorChainList {
         return (ProcessorChain) chainMap.get(name);
     }
 
+    /** Get the chain of link extractors.
+     *
+     * When extractor threads are configured, URIs reaching this chain are
+     * handed from the fetching ToeThread to an extractor thread.
+     *
+     * @return the extract processor chain.
+     */
+    public ProcessorChain getExtractChain() {
+        return getProcessorChain(CrawlOrder.ATTR_EXTRACT_PROCESSORS);
+    }
+
     public void kickUpdate() {
         for (ProcessorChain chain : chainList) {
             chain.kickUpdate();
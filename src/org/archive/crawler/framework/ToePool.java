@@ -27,9 +27,18 @@ import java.io.PrintWriter;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.archive.crawler.datamodel.CrawlOrder;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.io.RecorderBufferPool;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.Histotable;
+import org.archive.util.HttpRecorder;
 import org.archive.util.Reporter;
 
 /**
@@ -49,6 +58,20 @@ public class ToePool extends ThreadGroup implements Reporter {
     protected CrawlController controller;
     protected int nextSerialNumber = 1;
     protected int targetSize = 0; 
+    /** shared recording buffers, or null if each thread has its own */
+    protected RecorderBufferPool recorderBufferPool = null;
+    /** number of extractor threads wanted; 0 if none */
+    protected int extractorThreads = 0;
+    /** URIs handed off by ToeThreads awaiting an extractor thread */
+    protected BlockingQueue<CrawlURI> extractionQueue = null;
+    /** most URIs ToeThreads may leave waiting in extractionQueue */
+    protected int extractionQueueCapacity = 0;
+    /** URIs handed off or suspended and not yet returned to the Frontier */
+    protected AtomicInteger handedOff = new AtomicInteger(0);
+    /** HttpRecorders free for a ToeThread whose own was handed off */
+    protected ConcurrentLinkedQueue<HttpRecorder> spareRecorders =
+        new ConcurrentLinkedQueue<HttpRecorder>();
+    protected int nextSpareRecorder = 1;
 
     /**
      * Constructor. Creates a pool of ToeThreads. 
@@ -59,18 +82,170 @@ public class ToePool extends ThreadGroup implements Reporter {
         super("ToeThreads");
         this.controller = c;
         setDaemon(true);
+        int inMemoryMax = ((Integer)c.getOrder().getUncheckedAttribute(null,
+            CrawlOrder.ATTR_RECORDER_IN_MEMORY_MAX)).intValue();
+        if (inMemoryMax > 0) {
+            int poolBytes = ((Integer)c.getOrder().getUncheckedAttribute(
+                null, CrawlOrder.ATTR_RECORDER_BUFFER_POOL)).intValue();
+            this.recorderBufferPool = new RecorderBufferPool(poolBytes);
+        }
+        this.extractorThreads = ((Integer)c.getOrder().getUncheckedAttribute(
+            null, CrawlOrder.ATTR_EXTRACTOR_THREADS)).intValue();
+        if (this.extractorThreads > 0) {
+            int capacity = ((Integer)c.getOrder().getUncheckedAttribute(null,
+                CrawlOrder.ATTR_EXTRACTOR_QUEUE_SIZE)).intValue();
+            this.extractionQueueCapacity = Math.max(1, capacity);
+            // unbounded, as resumed URIs must always be accepted
+            this.extractionQueue = new LinkedBlockingQueue<CrawlURI>();
+        }
+    }
+
+    /**
+     * @return pool from which ToeThreads draw recording buffers, or null
+     * if each ToeThread reserves its own
+     */
+    public RecorderBufferPool getRecorderBufferPool() {
+        return this.recorderBufferPool;
     }
     
+    /**
+     * Create an HttpRecorder as configured for this crawl.
+     *
+     * @param basename name prefix of the recorder's backing files
+     * @return new HttpRecorder
+     */
+    public HttpRecorder newHttpRecorder(String basename) {
+        int outBufferSize = ((Integer)controller.getOrder()
+            .getUncheckedAttribute(null, CrawlOrder.ATTR_RECORDER_OUT_BUFFER))
+            .intValue();
+        int inBufferSize = ((Integer)controller.getOrder()
+            .getUncheckedAttribute(null, CrawlOrder.ATTR_RECORDER_IN_BUFFER))
+            .intValue();
+        if (this.recorderBufferPool != null) {
+            int inMemoryMax = ((Integer)controller.getOrder()
+                .getUncheckedAttribute(null,
+                    CrawlOrder.ATTR_RECORDER_IN_MEMORY_MAX)).intValue();
+            return new HttpRecorder(controller.getScratchDisk(), basename,
+                outBufferSize, inBufferSize, this.recorderBufferPool,
+                inMemoryMax);
+        }
+        return new HttpRecorder(controller.getScratchDisk(), basename,
+            outBufferSize, inBufferSize);
+    }
+
+    /**
+     * @return whether ToeThreads hand fetched URIs to extractor threads
+     */
+    public boolean isHandingOff() {
+        return this.extractionQueue != null;
+    }
+
+    /**
+     * Offer a fetched URI, and the recording it holds, to the extractor
+     * threads. Refused if the extraction queue is full, or the crawl is
+     * ending, in which case the caller should finish the URI itself.
+     *
+     * @param curi URI ready for its extract chain
+     * @return true if an extractor thread will finish the URI
+     */
+    public boolean offerForExtraction(CrawlURI curi) {
+        if (isEnding()) {
+            return false;
+        }
+        synchronized (extractionQueue) {
+            if (extractionQueue.size() >= extractionQueueCapacity) {
+                return false;
+            }
+            handedOff.incrementAndGet();
+            extractionQueue.add(curi);
+        }
+        return true;
+    }
+
+    /**
+     * Note that a ToeThread has suspended its URI, to be resumed later
+     * with {@link #resume(CrawlURI)}. Until then it counts as handed off.
+     */
+    public void noteSuspended() {
+        handedOff.incrementAndGet();
+    }
+
+    /**
+     * Queue a suspended URI for an extractor thread to finish, regardless
+     * of the queue's capacity.
+     *
+     * @param curi URI previously suspended
+     */
+    public void resume(CrawlURI curi) {
+        extractionQueue.add(curi);
+    }
+
+    /**
+     * Take the next handed-off URI, waiting briefly if there is none.
+     *
+     * @return next URI for extraction, or null if none arrived
+     * @throws InterruptedException
+     */
+    public CrawlURI pollForExtraction() throws InterruptedException {
+        return extractionQueue.poll(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Note that a handed-off URI has been returned to the Frontier,
+     * possibly completing a crawl pause that was waiting on it.
+     */
+    public void extractionFinished() {
+        if (handedOff.decrementAndGet() == 0 && controller.isPausing()) {
+            controller.toePaused();
+        }
+    }
+
+    /**
+     * @return whether extractor threads may end, the crawl ending and
+     * every URI handed to them (or suspended) finished
+     */
+    public boolean isExtractionDone() {
+        return isEnding() && getToeCount() == 0 && handedOff.get() == 0;
+    }
+
+    private boolean isEnding() {
+        Object state = controller.getState();
+        return state == CrawlController.STOPPING
+            || state == CrawlController.FINISHED;
+    }
+
+    /**
+     * @return an HttpRecorder to replace one handed off with its URI
+     */
+    public HttpRecorder takeSpareRecorder() {
+        HttpRecorder recorder = spareRecorders.poll();
+        if (recorder != null) {
+            return recorder;
+        }
+        synchronized (this) {
+            return newHttpRecorder("xr" + (nextSpareRecorder++) + "http");
+        }
+    }
+
+    /**
+     * @param recorder HttpRecorder no longer needed by any URI
+     */
+    public void returnSpareRecorder(HttpRecorder recorder) {
+        spareRecorders.add(recorder);
+    }
+
     public void cleanup() {
         this.controller = null;
     }
 
     /**
      * @return The number of ToeThreads that are not available (Approximation).
+     * URIs handed off to extractor threads, even if not yet begun, count
+     * as active.
      */
     public int getActiveToeCount() {
         Thread[] toes = getToes();
-        int count = 0;
+        int count = handedOff.get();
         for (int i = 0; i < toes.length; i++) {
             if((toes[i] instanceof ToeThread) &&
                     ((ToeThread)toes[i]).isActive()) {
@@ -81,14 +256,30 @@ public class ToePool extends ThreadGroup implements Reporter {
     }
 
     /**
-     * @return The number of ToeThreads. This may include killed ToeThreads
-     *         that were not replaced.
+     * @return The number of ToeThreads, not counting extractor threads.
+     *         This may include killed ToeThreads that were not replaced.
      */
     public int getToeCount() {
         Thread[] toes = getToes();
         int count = 0;
         for (int i = 0; i<toes.length; i++) {
-            if((toes[i] instanceof ToeThread)) {
+            if((toes[i] instanceof ToeThread)
+                    && !((ToeThread)toes[i]).isExtractor()) {
+                count++;
+            }
+        }
+        return count; 
+    }
+
+    /**
+     * @return The number of extractor threads.
+     */
+    public int getExtractorCount() {
+        Thread[] toes = getToes();
+        int count = 0;
+        for (int i = 0; i<toes.length; i++) {
+            if((toes[i] instanceof ToeThread)
+                    && ((ToeThread)toes[i]).isExtractor()) {
                 count++;
             }
         }
@@ -102,25 +293,32 @@ public class ToePool extends ThreadGroup implements Reporter {
     }
 
     /**
-     * Change the number of ToeThreads.
+     * Change the number of ToeThreads. Also starts any configured extractor
+     * threads not yet running.
      *
      * @param newsize The new number of ToeThreads.
      */
     public void setSize(int newsize)
     {
+        if (isHandingOff()) {
+            for (int i = getExtractorCount(); i < extractorThreads; i++) {
+                startNewThread(true);
+            }
+        }
         targetSize = newsize;
         int difference = newsize - getToeCount(); 
         if (difference > 0) {
             // must create threads
             for(int i = 1; i <= difference; i++) {
-                startNewThread();
+                startNewThread(false);
             }
         } else {
             // must retire extra threads
             int retainedToes = targetSize; 
             Thread[] toes = this.getToes();
             for (int i = 0; i < toes.length ; i++) {
-                if(!(toes[i] instanceof ToeThread)) {
+                if(!(toes[i] instanceof ToeThread)
+                        || ((ToeThread)toes[i]).isExtractor()) {
                     continue;
                 }
                 retainedToes--;
@@ -149,24 +347,27 @@ public class ToePool extends ThreadGroup implements Reporter {
     public void killThread(int threadNumber, boolean replace){
 
         Thread[] toes = getToes();
+        boolean extractor = false;
         for (int i = 0; i< toes.length; i++) {
             if(! (toes[i] instanceof ToeThread)) {
                 continue;
             }
             ToeThread toe = (ToeThread) toes[i];
             if(toe.getSerialNumber()==threadNumber) {
+                extractor = toe.isExtractor();
                 toe.kill();
             }
         }
 
         if(replace){
             // Create a new toe thread to take its place. Replace toe
-            startNewThread();
+            startNewThread(extractor);
         }
     }
 
-    private synchronized void startNewThread() {
-        ToeThread newThread = new ToeThread(this, nextSerialNumber++);
+    private synchronized void startNewThread(boolean extractor) {
+        ToeThread newThread =
+            new ToeThread(this, nextSerialNumber++, extractor);
         newThread.setPriority(DEFAULT_TOE_PRIORITY);
         newThread.start();
     }
@@ -212,6 +413,15 @@ public class ToePool extends ThreadGroup implements Reporter {
                 + this.controller.getOrder().getCrawlOrderName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
                 + getActiveToeCount() + " active)\n");
+        if (isHandingOff()) {
+            writer.print(" Extractor threads: " + getExtractorCount()
+                + " (" + handedOff.get() + " URIs handed off, "
+                + extractionQueue.size() + " waiting)\n");
+        }
+        if (this.recorderBufferPool != null) {
+            writer.print(" Recorder buffers: "
+                + this.recorderBufferPool.singleLineReport() + "\n");
+        }
 
         Thread[] toes = this.getToes();
         synchronized (toes) {
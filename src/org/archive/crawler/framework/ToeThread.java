@@ -25,6 +25,8 @@ package org.archive.crawler.framework;
 
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +50,14 @@ import com.sleepycat.util.RuntimeExceptionWrapper;
  * One "worker thread"; asks for CrawlURIs, processes them,
  * repeats unless told otherwise.
  *
+ * <p>When the crawl configures extractor threads, these are ToeThreads
+ * too. Rather than asking the Frontier for URIs, they take URIs that
+ * other ToeThreads have fetched and handed off (along with the
+ * HttpRecorder holding the recording), run the remaining processor
+ * chains, and return the URIs to the Frontier. They also finish URIs
+ * whose processing a processor suspended, for example while awaiting
+ * network I/O, see {@link #suspendCurrentUri(Runnable)}.
+ *
  * @author Gordon Mohr
  */
 public class ToeThread extends Thread
@@ -67,12 +77,21 @@ Reporter, ProgressStatisticsReporter {
     private static final String STEP_ABOUT_TO_RETURN_URI =
         "ABOUT_TO_RETURN_URI";
     private static final String STEP_FINISHING_PROCESS = "FINISHING_PROCESS";
+    private static final String STEP_ABOUT_TO_TAKE_HANDOFF =
+        "ABOUT_TO_TAKE_HANDOFF";
 
     private static Logger logger =
         Logger.getLogger("org.archive.crawler.framework.ToeThread");
 
     private CrawlController controller;
+    private ToePool toePool;
     private int serialNumber;
+    /** whether this thread runs chains for URIs fetched by others */
+    private final boolean extractor;
+    /** chain at which URIs are handed to extractor threads, if any */
+    private ProcessorChain handoffChain = null;
+    /** action releasing the current URI, if a processor suspended it */
+    private Runnable suspension = null;
     
     /**
      * Each ToeThead has an instance of HttpRecord that gets used
@@ -88,6 +107,8 @@ Reporter, ProgressStatisticsReporter {
 
     private String coreName;
     private CrawlURI currentCuri;
+    /** URIs handed out to this thread along with currentCuri, not begun */
+    private LinkedList<CrawlURI> pendingCuris = new LinkedList<CrawlURI>();
     private long lastStartTime;
     private long lastFinishTime;
 
@@ -109,22 +130,34 @@ Reporter, ProgressStatisticsReporter {
      * @param sn serial number
      */
     public ToeThread(ToePool g, int sn) {
+        this(g, sn, false);
+    }
+
+    /**
+     * Create a ToeThread
+     * 
+     * @param g ToeThreadGroup
+     * @param sn serial number
+     * @param extractor if true, the thread processes URIs handed off by
+     * other ToeThreads rather than URIs from the Frontier
+     */
+    public ToeThread(ToePool g, int sn, boolean extractor) {
         // TODO: add crawl name?
-        super(g,"ToeThread #" + sn);
-        coreName="ToeThread #" + sn + ": ";
+        super(g,(extractor ? "ExtractorThread #" : "ToeThread #") + sn);
+        coreName=getName() + ": ";
         controller = g.getController();
+        toePool = g;
         serialNumber = sn;
+        this.extractor = extractor;
         setPriority(DEFAULT_PRIORITY);
-        int outBufferSize = ((Integer) controller
-                .getOrder()
-                .getUncheckedAttribute(null,CrawlOrder.ATTR_RECORDER_OUT_BUFFER))
-                        .intValue();
-        int inBufferSize = ((Integer) controller
-                .getOrder()
-                .getUncheckedAttribute(null, CrawlOrder.ATTR_RECORDER_IN_BUFFER))
-                .intValue();  
-        httpRecorder = new HttpRecorder(controller.getScratchDisk(),
-            "tt" + sn + "http", outBufferSize, inBufferSize);
+        // extractor threads use the recorders of handed-off URIs
+        if (!extractor) {
+            httpRecorder = g.newHttpRecorder("tt" + sn + "http");
+            if (g.isHandingOff()) {
+                handoffChain =
+                    controller.getProcessorChainList().getExtractChain();
+            }
+        }
         lastFinishTime = System.currentTimeMillis();
     }
 
@@ -138,34 +171,77 @@ Reporter, ProgressStatisticsReporter {
         try {
             controller.getLoopingToes().incrementAndGet();
             
-            while ( true ) {
-                // TODO check for thread-abort? or is waiting for interrupt enough?
+            while (extractor) {
                 continueCheck();
                 
-                setStep(STEP_ABOUT_TO_GET_URI);
+                setStep(STEP_ABOUT_TO_TAKE_HANDOFF);
                 
-                CrawlURI curi = controller.getFrontier().next();
+                CrawlURI curi = toePool.pollForExtraction();
+                if (curi == null) {
+                    if (toePool.isExtractionDone()) {
+                        break; // from while(extractor)
+                    }
+                    controller.releaseContinuePermission();
+                    continue;
+                }
                 
                 synchronized(this) {
-                    continueCheck();
                     setCurrentCuri(curi);
+                    // use, and later recycle, the recorder of the fetch
+                    httpRecorder = curi.getHttpRecorder();
                 }
-                
-                processCrawlUri();
-                
-                setStep(STEP_ABOUT_TO_RETURN_URI);
-                continueCheck();
-
-                synchronized(this) {
-                    controller.getFrontier().finished(currentCuri);
-                    setCurrentCuri(null);
+                lastStartTime = System.currentTimeMillis();
+                processChains();
+                finishCurrentCuri();
+                if (httpRecorder != null) {
+                    httpRecorder.releaseBuffers();
+                    toePool.returnSpareRecorder(httpRecorder);
+                    httpRecorder = null;
                 }
+                toePool.extractionFinished();
                 
                 setStep(STEP_FINISHING_PROCESS);
                 lastFinishTime = System.currentTimeMillis();
                 controller.releaseContinuePermission();
+            }
+            
+            while (!extractor) {
+                // TODO check for thread-abort? or is waiting for interrupt enough?
+                continueCheck();
+                
+                setStep(STEP_ABOUT_TO_GET_URI);
+                
+                List<CrawlURI> handout = 
+                    controller.getFrontier().next(maxUrisPerHandout());
+                
+                synchronized(this) {
+                    pendingCuris = new LinkedList<CrawlURI>(handout);
+                }
+                
+                while (true) {
+                    synchronized(this) {
+                        continueCheck();
+                        if (pendingCuris.isEmpty()) {
+                            break;
+                        }
+                        setCurrentCuri(pendingCuris.removeFirst());
+                    }
+                    
+                    if (processCrawlUri()) {
+                        // handed off or suspended; an extractor thread
+                        // will finish it
+                    } else {
+                        finishCurrentCuri();
+                        // recording no longer needed; free buffers for others
+                        httpRecorder.releaseBuffers();
+                    }
+                    
+                    setStep(STEP_FINISHING_PROCESS);
+                    lastFinishTime = System.currentTimeMillis();
+                    controller.releaseContinuePermission();
+                }
                 if(shouldRetire) {
-                    break; // from while(true)
+                    break; // from while(!extractor)
                 }
             }
         } catch (EndedException e) {
@@ -181,7 +257,9 @@ Reporter, ProgressStatisticsReporter {
         }
         setCurrentCuri(null);
         // Do cleanup so that objects can be GC.
-        this.httpRecorder.closeRecorders();
+        if (this.httpRecorder != null) {
+            this.httpRecorder.closeRecorders();
+        }
         this.httpRecorder = null;
         localProcessors = null;
 
@@ -191,6 +269,15 @@ Reporter, ProgressStatisticsReporter {
         controller = null;
     }
 
+    /**
+     * @return the most URIs to request from the Frontier at once
+     */
+    private int maxUrisPerHandout() {
+        int max = ((Integer) controller.getOrder().getUncheckedAttribute(
+                null, CrawlOrder.ATTR_MAX_URIS_PER_HANDOUT)).intValue();
+        return (max < 1) ? 1 : max;
+    }
+
     /**
      * Set currentCuri, updating thread name as appropriate
      * @param curi
@@ -280,23 +367,50 @@ Reporter, ProgressStatisticsReporter {
         controller.acquireContinuePermission();
     }
 
+    /**
+     * Return the current CrawlURI to the Frontier.
+     *
+     * @throws InterruptedException
+     */
+    private void finishCurrentCuri() throws InterruptedException {
+        setStep(STEP_ABOUT_TO_RETURN_URI);
+        continueCheck();
+
+        synchronized(this) {
+            controller.getFrontier().finished(currentCuri);
+            setCurrentCuri(null);
+        }
+    }
+
     /**
      * Pass the CrawlURI to all appropriate processors
      *
+     * @return true if the CrawlURI was handed off to an extractor thread,
+     * which will finish it
      * @throws InterruptedException
      */
-    private void processCrawlUri() throws InterruptedException {
+    private boolean processCrawlUri() throws InterruptedException {
         currentCuri.setThreadNumber(this.serialNumber);
+        currentCuri.setNextProcessor(null);
         currentCuri.setNextProcessorChain(controller.getFirstProcessorChain());
         lastStartTime = System.currentTimeMillis();
 //        System.out.println(currentCuri);
-        try {
-            while (currentCuri.nextProcessorChain() != null) {
-                setStep(STEP_ABOUT_TO_BEGIN_CHAIN);
-                // Starting on a new processor chain.
-                currentCuri.setNextProcessor(currentCuri.nextProcessorChain().getFirstProcessor());
-                currentCuri.setNextProcessorChain(currentCuri.nextProcessorChain().getNextProcessorChain());
+        return processChains();
+    }
 
+    /**
+     * Pass the CrawlURI to the rest of its current chain's processors and
+     * then to the processors of its remaining chains, or hand it off on
+     * reaching the handoff chain. A URI resumed after suspension carries
+     * on at the processor following the one that suspended it.
+     *
+     * @return true if the CrawlURI was handed off or suspended
+     * @throws InterruptedException
+     */
+    private boolean processChains() throws InterruptedException {
+        suspension = null;
+        try {
+            while (true) {
                 while (currentCuri.nextProcessor() != null) {
                     setStep(STEP_ABOUT_TO_BEGIN_PROCESSOR);
                     Processor currentProcessor = getProcessor(currentCuri.nextProcessor());
@@ -306,28 +420,135 @@ Reporter, ProgressStatisticsReporter {
                     currentProcessor.process(currentCuri);
 //                    long memAfter = (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/1024;
 //                    System.out.println((memAfter-memBefore)+"K in "+currentProcessorName);
+                    if (suspension != null) {
+                        suspendCurrentCuri();
+                        return true;
+                    }
+                }
+                if (currentCuri.nextProcessorChain() == null) {
+                    break;
+                }
+                if (currentCuri.nextProcessorChain() == handoffChain
+                        && handOff()) {
+                    return true;
                 }
+                setStep(STEP_ABOUT_TO_BEGIN_CHAIN);
+                // Starting on a new processor chain.
+                currentCuri.setNextProcessor(currentCuri.nextProcessorChain().getFirstProcessor());
+                currentCuri.setNextProcessorChain(currentCuri.nextProcessorChain().getNextProcessorChain());
             }
             setStep(STEP_DONE_WITH_PROCESSORS);
             currentProcessorName = "";
         } catch (RuntimeExceptionWrapper e) {
+            suspension = null;
             // Workaround to get cause from BDB
             if(e.getCause() == null) {
                 e.initCause(e.getCause());
             }
             recoverableProblem(e);
         } catch (AssertionError ae) {
+            suspension = null;
             // This risks leaving crawl in fatally inconsistent state, 
             // but is often reasonable for per-Processor assertion problems 
             recoverableProblem(ae);
         } catch (RuntimeException e) {
+            suspension = null;
             recoverableProblem(e);
         } catch (StackOverflowError err) {
+            suspension = null;
             recoverableProblem(err);
         } catch (Error err) {
+            suspension = null;
             // OutOfMemory and any others
             seriousError(err); 
         }
+        return false;
+    }
+
+    /**
+     * Offer the current CrawlURI to the extractor threads. If accepted,
+     * the recorder holding its content goes with it, and this thread
+     * takes a spare for its next fetch. If refused (because extraction
+     * is falling behind) this thread goes on to run the remaining chains
+     * itself, so at most the queue's capacity of recordings wait.
+     *
+     * @return true if handed off
+     */
+    private boolean handOff() {
+        HttpRecorder spare = toePool.takeSpareRecorder();
+        synchronized(this) {
+            // read before the offer: once taken, the URI may be finished
+            // (and its recorder cleared) at any moment
+            HttpRecorder used = currentCuri.getHttpRecorder();
+            if (!toePool.offerForExtraction(currentCuri)) {
+                toePool.returnSpareRecorder(spare);
+                return false;
+            }
+            releaseCurrentCuri(used, spare);
+        }
+        setStep(STEP_DONE_WITH_PROCESSORS);
+        currentProcessorName = "";
+        return true;
+    }
+
+    /**
+     * Let go of the current CrawlURI, suspended by the processor just
+     * run, then run the action that lets it proceed elsewhere. Once
+     * resumed, an extractor thread finishes it.
+     */
+    private void suspendCurrentCuri() {
+        Runnable release = suspension;
+        suspension = null;
+        HttpRecorder spare = toePool.takeSpareRecorder();
+        synchronized(this) {
+            HttpRecorder used = currentCuri.getHttpRecorder();
+            toePool.noteSuspended();
+            releaseCurrentCuri(used, spare);
+        }
+        setStep(STEP_DONE_WITH_PROCESSORS);
+        currentProcessorName = "";
+        release.run();
+    }
+
+    /**
+     * Clear the current CrawlURI, now in another thread's keeping. If it
+     * took this thread's recorder, the spare replaces it.
+     *
+     * @param used recorder of the departing CrawlURI
+     * @param spare recorder to use if used is this thread's
+     */
+    private void releaseCurrentCuri(HttpRecorder used, HttpRecorder spare) {
+        if (used == httpRecorder) {
+            httpRecorder = spare;
+        } else {
+            // recorder unused by this URI; keep it
+            toePool.returnSpareRecorder(spare);
+        }
+        setCurrentCuri(null);
+    }
+
+    /**
+     * Suspend processing of the current CrawlURI once the running
+     * processor returns, releasing this thread for other URIs. The
+     * processor must arrange for the URI, with the HttpRecorder it holds,
+     * to be passed to {@link ToePool#resume(CrawlURI)} once it may
+     * proceed; processing then continues on an extractor thread at the
+     * next processor. The given action is run after this thread has let
+     * go of the URI, so it may set the resumption in motion.
+     *
+     * <p>Only possible on a ToeThread that hands off to extractor
+     * threads; a processor told otherwise must complete its work before
+     * returning.
+     *
+     * @param release action run once the URI is suspended
+     * @return true if the URI will be suspended
+     */
+    public boolean suspendCurrentUri(Runnable release) {
+        if (extractor || handoffChain == null) {
+            return false;
+        }
+        this.suspension = release;
+        return true;
     }
 
 
@@ -374,6 +595,14 @@ Reporter, ProgressStatisticsReporter {
         return this.serialNumber;
     }
 
+    /**
+     * @return whether this thread processes URIs handed off by other
+     * ToeThreads, rather than URIs from the Frontier
+     */
+    public boolean isExtractor() {
+        return this.extractor;
+    }
+
     /**
      * Used to get current threads HttpRecorder instance.
      * Implementation of the HttpRecorderMarker interface.
@@ -413,7 +642,16 @@ Reporter, ProgressStatisticsReporter {
             if (currentCuri!=null) {
                 currentCuri.setFetchStatus(S_PROCESSING_THREAD_KILLED);
                 controller.getFrontier().finished(currentCuri);
+                if (extractor) {
+                    toePool.extractionFinished();
+                }
              }
+            // return, for retry, any URIs handed out but not yet begun
+            while (!pendingCuris.isEmpty()) {
+                CrawlURI pending = pendingCuris.removeFirst();
+                pending.setFetchStatus(S_DEFERRED);
+                controller.getFrontier().finished(pending);
+            }
         }
     }
 
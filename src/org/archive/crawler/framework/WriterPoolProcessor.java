@@ -66,6 +66,7 @@ import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.StringList;
 import org.archive.crawler.settings.Type;
 import org.archive.crawler.settings.XMLSettingsHandler;
+import org.archive.io.CompressionPipeline;
 import org.archive.io.ObjectPlusFilesInputStream;
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolMember;
@@ -124,6 +125,13 @@ implements CoreAttributeConstants, CrawlStatusListener, FetchStatusCodes {
      */
     public static final String ATTR_POOL_MAX_WAIT = "pool-max-wait";
 
+    /**
+     * Key for the number of threads compressing records, if not the
+     * threads writing them.
+     */
+    public static final String ATTR_COMPRESSION_THREADS =
+        "compression-threads";
+
     /**
      * Key for the maximum bytes to write attribute.
      */
@@ -231,6 +239,17 @@ implements CoreAttributeConstants, CrawlStatusListener, FetchStatusCodes {
             " of a crawl.",
             new Integer(WriterPool.DEFAULT_MAXIMUM_WAIT)));
         e.setOverrideable(false);
+        e = addElementToDefinition(new SimpleType(ATTR_COMPRESSION_THREADS,
+            "Number of threads to compress records on. If greater than " +
+            "zero, and compressing, records are compressed on these " +
+            "threads and appended to their files, in order, by a single " +
+            "I/O thread, freeing the threads writing records (and the " +
+            "pooled files) sooner; records over 1MB are still compressed " +
+            "by the writing thread. If zero, records are compressed " +
+            "by the thread writing them. This setting cannot be varied " +
+            "over the life of a crawl.", new Integer(0)));
+        e.setOverrideable(false);
+        e.setExpertSetting(true);
         e = addElementToDefinition(new SimpleType(ATTR_MAX_BYTES_WRITTEN,
             "Total file bytes to write to disk." +
             " Once the size of all files on disk has exceeded this " +
@@ -445,6 +464,15 @@ implements CoreAttributeConstants, CrawlStatusListener, FetchStatusCodes {
             ((Integer)obj).intValue();
     }
 
+    /**
+     * @return Number of threads to compress records on, or zero to compress
+     * on the writing threads.
+     */
+    public int getCompressionThreads() {
+        Object obj = getAttributeUnchecked(ATTR_COMPRESSION_THREADS);
+        return (obj == null)? 0: ((Integer)obj).intValue();
+    }
+
     private String getHostname() {
         String hostname = "localhost.localdomain";
         try {
@@ -552,6 +580,10 @@ implements CoreAttributeConstants, CrawlStatusListener, FetchStatusCodes {
 
 	protected void setPool(WriterPool pool) {
 		this.pool = pool;
+        int threads = getCompressionThreads();
+        if (threads > 0 && isCompressed()) {
+            pool.setCompressionPipeline(new CompressionPipeline(threads));
+        }
 	}
 
 	protected long getTotalBytesWritten() {
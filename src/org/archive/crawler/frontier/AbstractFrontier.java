@@ -774,6 +774,25 @@ implements CrawlStatusListener, Frontier, FetchStatusCodes,
             0; // no delay for most
     }
 
+    /**
+     * Whether politeness settings in effect for the given CrawlURI 
+     * guarantee a zero politeness delay after its fetch, regardless 
+     * of fetch duration, robots.txt Crawl-Delay, or bandwidth used. 
+     * Only then may several URIs of its queue be handed out at once.
+     * 
+     * @param curi
+     *            The CrawlURI
+     * @return true if no politeness delay can be imposed
+     */
+    protected boolean isPolitenessDelayFree(CrawlURI curi) {
+        return ((Integer)getUncheckedAttribute(curi, ATTR_MAX_DELAY))
+                    .intValue() <= 0
+            && ((Integer)getUncheckedAttribute(curi,
+                    ATTR_RESPECT_CRAWL_DELAY_UP_TO_SECS)).intValue() <= 0
+            && ((Integer)getUncheckedAttribute(curi,
+                    ATTR_MAX_HOST_BANDWIDTH_USAGE)).intValue() <= 0;
+    }
+
     /**
      * Update any scheduling structures with the new information in this
      * CrawlURI. Chiefly means make necessary arrangements for no other URIs at
@@ -143,6 +143,14 @@ implements Frontier, FetchStatusCodes, CoreAttributeConstants,
      */
     public final static String ATTR_USE_URI_UNIQ_FILTER = "use-uri-uniq-filter";
     protected final static Boolean DEFAULT_USE_URI_UNIQ_FILTER = new Boolean(false);
+
+    /** Should all host queues keep their URIs in one set of shared 
+     *  databases, rather than each opening its own.
+     */
+    public final static String ATTR_SHARED_QUEUE_DATABASES =
+        "shared-queue-databases";
+    protected final static Boolean DEFAULT_SHARED_QUEUE_DATABASES =
+        new Boolean(false);
     
     /** The Class to use for QueueAssignmentPolicy
      */
@@ -246,6 +254,17 @@ implements Frontier, FetchStatusCodes, CoreAttributeConstants,
                     DEFAULT_USE_URI_UNIQ_FILTER));
             t.setExpertSetting(true);
             t.setOverrideable(false);
+            t = addElementToDefinition(new SimpleType(
+                    ATTR_SHARED_QUEUE_DATABASES,
+                    "If true then all host queues keep their URIs in one " +
+                    "set of shared databases, with per-host counts kept " +
+                    "alongside, rather than each opening three databases " +
+                    "of its own. Recommended for crawls of very many " +
+                    "hosts. Changing this between restarts using the same " +
+                    "data directory will lose the queued URIs.",
+                    DEFAULT_SHARED_QUEUE_DATABASES));
+            t.setExpertSetting(true);
+            t.setOverrideable(false);
             // Read the list of permissible choices from heritrix.properties.
             // Its a list of space- or comma-separated values.
             String queueStr = System.getProperty(AbstractFrontier.class.getName() +
@@ -290,7 +309,9 @@ implements Frontier, FetchStatusCodes, CoreAttributeConstants,
 		}
         
         hostQueues = new AdaptiveRevisitQueueList(c.getBdbEnvironment(),
-            c.getBdbEnvironment().getClassCatalog());
+            c.getBdbEnvironment().getClassCatalog(),
+            ((Boolean)getUncheckedAttribute(
+                null,ATTR_SHARED_QUEUE_DATABASES)).booleanValue());
         
         if(((Boolean)getUncheckedAttribute(
                 null,ATTR_USE_URI_UNIQ_FILTER)).booleanValue()){
@@ -526,6 +547,19 @@ implements Frontier, FetchStatusCodes, CoreAttributeConstants,
         return this.controller.getServerCache().getServerFor(curi);
     }
 
+    /**
+     * Host queues of this frontier always enforce a wait between 
+     * URIs, so only a single URI is ever handed out.
+     * 
+     * @see org.archive.crawler.framework.Frontier#next(int)
+     */
+    public List<CrawlURI> next(int max)
+            throws InterruptedException, EndedException {
+        List<CrawlURI> handout = new ArrayList<CrawlURI>(1);
+        handout.add(next());
+        return handout;
+    }
+
     /* (non-Javadoc)
      * @see org.archive.crawler.framework.Frontier#next()
      */
@@ -37,7 +37,7 @@ import com.sleepycat.bind.serial.ClassCatalog;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.serial.TupleSerialKeyCreator;
-import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.bind.tuple.LongBinding;
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
@@ -68,6 +68,10 @@ import com.sleepycat.je.SecondaryDatabase;
  * methods. This includes preserving the original stacktrace, in favor of the
  * one created for the IOException, so that the true source of the exception
  * is not lost. 
+ * <p>
+ * By default each HQ opens its own three databases. An HQ may instead
+ * keep its URIs in {@link AdaptiveRevisitSharedDatabases databases shared}
+ * with all other HQs, which scales to many more hosts.
  *
  * @author Kristinn Sigurdsson
  */
@@ -156,6 +160,10 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
     protected EntryBinding primaryKeyBinding;
     /** A binding for the CrawlURIARWrapper object */
     protected EntryBinding crawlURIBinding;
+    /** Databases shared with other HQs, or null if this HQ has its own */
+    protected AdaptiveRevisitSharedDatabases sharedDatabases;
+    /** Leading key bytes of this HQ's entries in shared databases */
+    protected byte[] hostPrefix;
     // Cursors into databases
 
     
@@ -181,6 +189,29 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
      */
     public AdaptiveRevisitHostQueue(String hostName, Environment env,
             StoredClassCatalog catalog, int valence)
+    throws IOException {
+        this(hostName, env, catalog, valence, null);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param hostName Name of the host this queue represents. This name must
+     *                 be unique for all HQs in the same Environment.
+     * @param env Berkeley DB Environment. All BDB databases created will use 
+     *            it.
+     * @param catalog Db for bdb class serialization.
+     * @param valence The total number of simultanous URIs that the HQ can issue
+     *                for processing. 
+     * @param shared Databases shared with other HQs to hold this HQ's URIs,
+     *               or null to open databases for this HQ alone.
+     * 
+     * @throws IOException if an error occurs opening/creating the 
+     *         database
+     */
+    public AdaptiveRevisitHostQueue(String hostName, Environment env,
+            StoredClassCatalog catalog, int valence,
+            AdaptiveRevisitSharedDatabases shared)
     throws IOException {
         try{
             if(valence < 1) {
@@ -200,35 +231,24 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
             state = HQSTATE_EMPTY; //HQ is initially empty.
             nextReadyTime = Long.MAX_VALUE; //Empty and busy HQ get this value.
             
-            // Set up the primary URI database, it is indexed by URI names 
-            DatabaseConfig dbConfig = new DatabaseConfig();
-            dbConfig.setTransactional(false); 
-            dbConfig.setAllowCreate(true);
-            primaryUriDB = env.openDatabase(null, hostName, dbConfig);
-    
             this.classCatalog = catalog;
-            
-            // Set up a DB for storing URIs being processed
-            DatabaseConfig dbConfig2 = new DatabaseConfig();
-            dbConfig2.setTransactional(false); 
-            dbConfig2.setAllowCreate(true);
-            processingUriDB = env.openDatabase(null, 
-                    hostName + "/processing", dbConfig2);
-            
             // Create a primitive binding for the primary key (URI string) 
             primaryKeyBinding = TupleBinding.getPrimitiveBinding(String.class);
             // Create a serial binding for the CrawlURI object 
             crawlURIBinding = new SerialBinding(classCatalog, CrawlURI.class);
-    
-            // Open a secondary database to allow accessing the primary
-            // database by the secondary key value.
-            SecondaryConfig secConfig = new SecondaryConfig();
-            secConfig.setAllowCreate(true);
-            secConfig.setSortedDuplicates(true);
-            secConfig.setKeyCreator(
-                    new OrderOfProcessingKeyCreator(classCatalog,CrawlURI.class));
-            secondaryUriDB = env.openSecondaryDatabase(null, 
-                hostName+"/timeOfProcessing", primaryUriDB, secConfig);
+
+            if (shared != null) {
+                // All keys in the shared DBs lead with the host name
+                sharedDatabases = shared;
+                TupleOutput prefix = new TupleOutput();
+                prefix.writeString(hostName);
+                hostPrefix = prefix.toByteArray();
+                primaryUriDB = shared.primaryUriDB;
+                processingUriDB = shared.processingUriDB;
+                secondaryUriDB = shared.secondaryUriDB;
+            } else {
+                openDatabases(env);
+            }
             
             // Check if we are opening an existing DB...
             size = countCrawlURIs();
@@ -250,6 +270,122 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
         }
     }
     
+    /**
+     * Open the databases belonging to this HQ alone.
+     * 
+     * @param env Berkeley DB Environment.
+     * @throws DatabaseException
+     */
+    protected void openDatabases(Environment env) throws DatabaseException {
+        // Set up the primary URI database, it is indexed by URI names 
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(false); 
+        dbConfig.setAllowCreate(true);
+        primaryUriDB = env.openDatabase(null, hostName, dbConfig);
+
+        // Set up a DB for storing URIs being processed
+        DatabaseConfig dbConfig2 = new DatabaseConfig();
+        dbConfig2.setTransactional(false); 
+        dbConfig2.setAllowCreate(true);
+        processingUriDB = env.openDatabase(null, 
+                hostName + "/processing", dbConfig2);
+
+        // Open a secondary database to allow accessing the primary
+        // database by the secondary key value.
+        SecondaryConfig secConfig = new SecondaryConfig();
+        secConfig.setAllowCreate(true);
+        secConfig.setSortedDuplicates(true);
+        secConfig.setKeyCreator(new OrderOfProcessingKeyCreator(
+                classCatalog, CrawlURI.class, false));
+        secondaryUriDB = env.openSecondaryDatabase(null, 
+            hostName+"/timeOfProcessing", primaryUriDB, secConfig);
+    }
+
+    /**
+     * Set the key of this HQ's entry for the given URI. In shared
+     * databases the key leads with the host name.
+     * 
+     * @param uri URI string
+     * @param keyEntry entry to set
+     */
+    protected void uriToEntry(String uri, DatabaseEntry keyEntry) {
+        if (hostPrefix == null) {
+            primaryKeyBinding.objectToEntry(uri, keyEntry);
+            return;
+        }
+        TupleOutput out = new TupleOutput();
+        out.writeFast(hostPrefix);
+        out.writeString(uri);
+        keyEntry.setData(out.getBufferBytes(), 0, out.getBufferLength());
+    }
+
+    /**
+     * Position the cursor at this HQ's first entry.
+     * 
+     * @return SUCCESS, or NOTFOUND if this HQ has no entries in the 
+     *         cursor's database
+     * @throws DatabaseException
+     */
+    protected OperationStatus getFirst(Cursor cursor, DatabaseEntry keyEntry,
+            DatabaseEntry dataEntry) throws DatabaseException {
+        if (hostPrefix == null) {
+            return cursor.getFirst(keyEntry, dataEntry, LockMode.DEFAULT);
+        }
+        keyEntry.setData(hostPrefix);
+        return withinHost(cursor.getSearchKeyRange(keyEntry, dataEntry,
+            LockMode.DEFAULT), keyEntry);
+    }
+
+    /**
+     * Advance the cursor to this HQ's next entry.
+     * 
+     * @return SUCCESS, or NOTFOUND past this HQ's last entry
+     * @throws DatabaseException
+     */
+    protected OperationStatus getNext(Cursor cursor, DatabaseEntry keyEntry,
+            DatabaseEntry dataEntry) throws DatabaseException {
+        OperationStatus opStatus = 
+            cursor.getNext(keyEntry, dataEntry, LockMode.DEFAULT);
+        if (hostPrefix == null) {
+            return opStatus;
+        }
+        return withinHost(opStatus, keyEntry);
+    }
+
+    private OperationStatus withinHost(OperationStatus opStatus,
+            DatabaseEntry keyEntry) {
+        if (opStatus != OperationStatus.SUCCESS) {
+            return opStatus;
+        }
+        if (keyEntry.getSize() < hostPrefix.length) {
+            return OperationStatus.NOTFOUND;
+        }
+        byte[] key = keyEntry.getData();
+        int offset = keyEntry.getOffset();
+        for (int i = 0; i < hostPrefix.length; i++) {
+            if (key[offset + i] != hostPrefix[i]) {
+                return OperationStatus.NOTFOUND;
+            }
+        }
+        return opStatus;
+    }
+
+    /**
+     * Record the size of this HQ, if it shares databases, so that it
+     * need not be counted on reopening.
+     * 
+     * @throws DatabaseException
+     */
+    protected void storeSize() throws DatabaseException {
+        if (sharedDatabases == null) {
+            return;
+        }
+        DatabaseEntry keyEntry = new DatabaseEntry(hostPrefix);
+        DatabaseEntry dataEntry = new DatabaseEntry();
+        LongBinding.longToEntry(size, dataEntry);
+        sharedDatabases.countsDB.put(null, keyEntry, dataEntry);
+    }
+    
     /**
      * Returns the HQ's name
      * @return the HQ's name
@@ -328,6 +464,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
             } else if(opStatus == OperationStatus.SUCCESS) {
                 // Just inserted a brand new CrawlURI into the queue.
                 size++;
+                storeSize();
             }
     
             // Finally, check if insert (fresh add or override) into DB was 
@@ -373,7 +510,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
     throws DatabaseException{
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();
-        primaryKeyBinding.objectToEntry(curi.toString(), keyEntry);
+        uriToEntry(curi.toString(), keyEntry);
         crawlURIBinding.objectToEntry(curi, dataEntry);
         OperationStatus opStatus = null;
         if(overrideDuplicates){
@@ -400,8 +537,8 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
         DatabaseEntry dataEntry = new DatabaseEntry();
         
         while(true){
-            OperationStatus opStatus = processingCursor.getFirst(
-                    keyEntry, dataEntry, LockMode.DEFAULT);
+            OperationStatus opStatus = 
+                getFirst(processingCursor, keyEntry, dataEntry);
             
             if(opStatus == OperationStatus.SUCCESS){
                 // Got one!
@@ -433,18 +570,26 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
      * entries.
      * <p>
      * Note: This is an expensive operation, requires a loop through the entire
-     * queue!
+     * queue! HQs using shared databases instead read the count recorded by
+     * {@link #storeSize()}.
      * @return the number of distinct CrawlURIs in the HQ.
      * @throws DatabaseException
      */
     protected long countCrawlURIs() throws DatabaseException{
-        // TODO: Instead of all this, the value should be simply read from the
-        //       database.
         long count = 0;
         
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();        
         
+        if (sharedDatabases != null) {
+            keyEntry.setData(hostPrefix);
+            if (sharedDatabases.countsDB.get(null, keyEntry, dataEntry,
+                    LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                count = LongBinding.entryToLong(dataEntry);
+            }
+            return count;
+        }
+
         // Count URIs in the queue
         Cursor primaryCursor = primaryUriDB.openCursor(null,null);
         OperationStatus opStatus = primaryCursor.getFirst(keyEntry,
@@ -489,7 +634,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();
                 
-        StringBinding.stringToEntry(uri,keyEntry);
+        uriToEntry(uri, keyEntry);
         
         OperationStatus opStatus = processingUriDB.get(null,
                                                        keyEntry,
@@ -517,7 +662,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
     protected void deleteInProcessing(String uri) throws DatabaseException {
         DatabaseEntry keyEntry = new DatabaseEntry();
 
-        StringBinding.stringToEntry(uri, keyEntry);
+        uriToEntry(uri, keyEntry);
 
         OperationStatus opStatus = processingUriDB.delete(null, keyEntry);
 
@@ -550,7 +695,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();
 
-        StringBinding.stringToEntry(curi.toString(), keyEntry);
+        uriToEntry(curi.toString(), keyEntry);
         crawlURIBinding.objectToEntry(curi, dataEntry);
 
         OperationStatus opStatus = processingUriDB.putNoOverwrite(null,
@@ -587,7 +732,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();
         
-        primaryKeyBinding.objectToEntry(uri,keyEntry);
+        uriToEntry(uri, keyEntry);
         primaryUriDB.get(null,keyEntry,dataEntry,LockMode.DEFAULT);
         
         CrawlURI curi = (CrawlURI)crawlURIBinding.entryToObject(dataEntry);
@@ -676,6 +821,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
                 
             } else {
                 size--;
+                storeSize();
             }
             
             // Then remove from list of in processing URIs
@@ -728,7 +874,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
             addInProcessing(curi);
             
             // Delete it from the primaryUriDB
-            primaryKeyBinding.objectToEntry(curi.toString(),keyEntry);
+            uriToEntry(curi.toString(), keyEntry);
             OperationStatus opStatus = primaryUriDB.delete(null,keyEntry);
             
             if(opStatus != OperationStatus.SUCCESS){
@@ -782,7 +928,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
             Cursor secondaryCursor = secondaryUriDB.openCursor(null,null);
             
             OperationStatus opStatus = 
-                secondaryCursor.getFirst(keyEntry, dataEntry, LockMode.DEFAULT);
+                getFirst(secondaryCursor, keyEntry, dataEntry);
             
             if( opStatus == OperationStatus.SUCCESS){
                 curi = (CrawlURI)crawlURIBinding.entryToObject(dataEntry);
@@ -937,11 +1083,14 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
     /**
      * Cleanup all open Berkeley Database objects.
      * <p>
-     * Does <I>not</I> close the Environment.
+     * Does <I>not</I> close the Environment, nor any shared databases.
      * 
      * @throws IOException if an error occurs closing a database object
      */
     public void close() throws IOException{
+        if (sharedDatabases != null) {
+            return;
+        }
         try{
             secondaryUriDB.close();
             processingUriDB.close();
@@ -1060,8 +1209,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
             throws DatabaseException{
         DatabaseEntry keyEntry = new DatabaseEntry();
         DatabaseEntry dataEntry = new DatabaseEntry();
-        OperationStatus opStatus = 
-            cursor.getFirst(keyEntry,dataEntry,LockMode.DEFAULT);
+        OperationStatus opStatus = getFirst(cursor, keyEntry, dataEntry);
         if(max == 0){
         	// No limit on the number of values returned.
         	max = Integer.MAX_VALUE;
@@ -1108,7 +1256,7 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
                         A_NUMBER_OF_VERSIONS) + "\n");
             }
             
-            opStatus = cursor.getNext(keyEntry,dataEntry,LockMode.DEFAULT);
+            opStatus = getNext(cursor, keyEntry, dataEntry);
             i++;
         }
     }
@@ -1119,10 +1267,13 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
      * The secondary index is the scheduling directive (first sorting) and 
      * the time of next processing (sorted from earlies to latest within each
      * scheduling directive). If the scheduling directive is missing or 
-     * unknown NORMAL will be assumed.   
+     * unknown NORMAL will be assumed. In databases shared by several HQs
+     * the key is preceded by the host name, as read from the primary key.
      */
-    private static class OrderOfProcessingKeyCreator 
+    static class OrderOfProcessingKeyCreator 
             extends TupleSerialKeyCreator {
+        /** whether primary keys, and so index keys, lead with host name */
+        private final boolean hostPrefixed;
 
         /**
          * Constructor. Invokes parent constructor.
@@ -1131,10 +1282,12 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
          *                     and for a database should be a 
          *                     StoredClassCatalog.
          * @param dataClass is the CrawlURI class. 
+         * @param hostPrefixed whether primary keys lead with the host name
          */
         public OrderOfProcessingKeyCreator(ClassCatalog classCatalog, 
-                Class dataClass) {
+                Class dataClass, boolean hostPrefixed) {
             super(classCatalog, dataClass);
+            this.hostPrefixed = hostPrefixed;
         }
 
         /* (non-Javadoc)
@@ -1164,6 +1317,9 @@ implements AdaptiveRevisitAttributeConstants, FrontierGroup {
                 directive = 3; // If directive missing or unknown
             }
             
+            if (hostPrefixed) {
+                indexKeyOutput.writeString(primaryKeyInput.readString());
+            }
             indexKeyOutput.writeInt(directive);
             long timeOfNextProcessing =
                 curi.getLong(A_TIME_OF_NEXT_PROCESSING);
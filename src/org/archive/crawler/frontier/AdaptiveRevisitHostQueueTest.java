@@ -361,4 +361,70 @@ implements AdaptiveRevisitAttributeConstants {
         cleanUpOldFiles("AR");
     }
     
+    public void testSharedDatabases() throws Exception {
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);    
+        File envDir = new File(getTmpDir(), "ARShared");
+        if (envDir.exists()) {
+            FileUtils.deleteDir(envDir);
+        }
+        envDir.mkdirs();
+        Environment env = new Environment(envDir, envConfig);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        StoredClassCatalog catalog =
+            new StoredClassCatalog(env.openDatabase(null, "classes", dbConfig));
+        AdaptiveRevisitSharedDatabases shared =
+            new AdaptiveRevisitSharedDatabases(env, catalog);
+        // one host name a prefix of the other
+        String[] hosts = {"example.com", "example.com.au"};
+        AdaptiveRevisitHostQueue[] hqs = new AdaptiveRevisitHostQueue[2];
+        long now = System.currentTimeMillis();
+        for (int h = 0; h < hosts.length; h++) {
+            hqs[h] = new AdaptiveRevisitHostQueue(hosts[h], env, catalog, 1,
+                shared);
+            assertEquals("Initial size", 0, hqs[h].getSize());
+            assertNull("Initially empty", hqs[h].peek());
+            for (int i = 0; i < 3 + h; i++) {
+                CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://" + hosts[h] + "/" + i + ".html"));
+                curi.putLong(A_TIME_OF_NEXT_PROCESSING, now - 1000 + i);
+                hqs[h].add(curi, false);
+            }
+        }
+        assertEquals("Size of first HQ", 3, hqs[0].getSize());
+        assertEquals("Size of second HQ", 4, hqs[1].getSize());
+        assertEquals("http://example.com/0.html", hqs[0].peek().toString());
+        assertEquals("http://example.com.au/0.html",
+            hqs[1].peek().toString());
+
+        CrawlURI curi = hqs[0].next();
+        assertEquals("http://example.com/0.html", curi.toString());
+        hqs[0].update(curi, false, 0, true); // forget it
+        assertEquals("Size after forgetting", 2, hqs[0].getSize());
+        assertEquals("http://example.com/1.html", hqs[0].peek().toString());
+        curi = hqs[1].next();
+        assertEquals("http://example.com.au/0.html", curi.toString());
+        assertTrue("Report lists own URIs only", 
+            hqs[0].report(0).indexOf("example.com.au") < 0);
+
+        // Reopen, with one URI still being processed
+        shared.close();
+        shared = new AdaptiveRevisitSharedDatabases(env, catalog);
+        for (int h = 0; h < hosts.length; h++) {
+            hqs[h] = new AdaptiveRevisitHostQueue(hosts[h], env, catalog, 1,
+                shared);
+        }
+        assertEquals("Size of first HQ after reopening", 2, hqs[0].getSize());
+        assertEquals("Size of second HQ after reopening", 4, 
+            hqs[1].getSize());
+        assertEquals("CrawlURI 'in processing' before should be top",
+            "http://example.com.au/0.html", hqs[1].peek().toString());
+        assertEquals("http://example.com/1.html", hqs[0].peek().toString());
+
+        shared.close();
+        catalog.close();
+        env.close();
+        cleanUpOldFiles("ARShared");
+    }
 }
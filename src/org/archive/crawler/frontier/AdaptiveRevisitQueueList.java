@@ -59,6 +59,9 @@ import com.sleepycat.je.OperationStatus;
  * the list will create HQs for all the hostnames in the list, discarding 
  * those that turn out to be empty.
  * <p>
+ * The HQs either each open their own databases or all keep their URIs
+ * in one set of {@link AdaptiveRevisitSharedDatabases}.
+ * <p>
  * Any BDB DatabaseException will be converted to an IOException by public 
  * methods. This includes preserving the original stacktrace, in favor of the
  * one created for the IOException, so that the true source of the exception
@@ -73,6 +76,8 @@ public class AdaptiveRevisitQueueList implements Reporter {
     /** The Environment for the BerkleyDB databases in the HQs */
     private final Environment env;
     private final StoredClassCatalog catalog;
+    /** Databases shared by all HQs, or null if each HQ opens its own */
+    private AdaptiveRevisitSharedDatabases sharedDatabases;
     /** Contains host names for all HQs. Name is key, valence is value */
     private Database hostNamesDB;
     private EntryBinding keyBinding;
@@ -89,11 +94,29 @@ public class AdaptiveRevisitQueueList implements Reporter {
     
     public AdaptiveRevisitQueueList(Environment env,
             StoredClassCatalog catalog)
+    throws IOException {
+        this(env, catalog, false);
+    }
+
+    /**
+     * @param env Environment for the HQs' databases
+     * @param catalog Db for bdb class serialization
+     * @param sharedDatabases if true all HQs keep their URIs in one set of
+     *                        shared databases, rather than each opening 
+     *                        three databases of its own
+     * @throws IOException
+     */
+    public AdaptiveRevisitQueueList(Environment env,
+            StoredClassCatalog catalog, boolean sharedDatabases)
     throws IOException {
         Cursor cursor = null;
         try {
             this.env = env;
             this.catalog = catalog;
+            if (sharedDatabases) {
+                this.sharedDatabases =
+                    new AdaptiveRevisitSharedDatabases(env, catalog);
+            }
             keyBinding = new StringBinding();
             valueBinding = new IntegerBinding();
 
@@ -181,7 +204,8 @@ public class AdaptiveRevisitQueueList implements Reporter {
         AdaptiveRevisitHostQueue hq;
         // Ok, the HQ does not already exist. (Had to make sure) 
         // Create it, save it and return it.
-        hq = new AdaptiveRevisitHostQueue(hostName, env, catalog, valence);
+        hq = new AdaptiveRevisitHostQueue(hostName, env, catalog, valence,
+            sharedDatabases);
         hq.setOwner(this);
         
         try{
@@ -379,6 +403,14 @@ public class AdaptiveRevisitQueueList implements Reporter {
                         "\n" + e.getMessage());
             }
         }
+        if (sharedDatabases != null) {
+            try {
+                sharedDatabases.close();
+            } catch (IOException e) {
+                logger.severe("IOException while closing shared databases" +
+                        "\n" + e.getMessage());
+            }
+        }
         try {
             hostNamesDB.close();
         } catch (DatabaseException e) {
@@ -0,0 +1,118 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.io.IOException;
+
+import org.archive.crawler.datamodel.CrawlURI;
+
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.SecondaryConfig;
+import com.sleepycat.je.SecondaryDatabase;
+
+/**
+ * The Berkeley DB databases shared by all {@link AdaptiveRevisitHostQueue}s
+ * of an {@link AdaptiveRevisitQueueList} when it is not opening three
+ * databases per host.
+ * <p>
+ * Keys in the shared databases lead with the host name, so each host's
+ * URIs form one contiguous range: the primary database is keyed by
+ * (host, URI), the time-of-processing index by (host, scheduling
+ * directive, time of next processing), and the database of URIs being
+ * processed by (host, URI). A fourth database records each host's URI
+ * count, so reopening a host queue does not walk its URIs.
+ * <p>
+ * Any BDB DatabaseException will be converted to an IOException.
+ */
+public class AdaptiveRevisitSharedDatabases {
+    /** Prefix of the shared database names */
+    public static final String DB_NAME = "arHostQueues";
+
+    /** Queued URIs of all hosts, keyed by (host, URI) */
+    protected Database primaryUriDB;
+    /** Index of primaryUriDB by (host, directive, time of processing) */
+    protected SecondaryDatabase secondaryUriDB;
+    /** URIs being processed, keyed by (host, URI) */
+    protected Database processingUriDB;
+    /** Number of URIs (queued or processing) per host */
+    protected Database countsDB;
+    /** For BDB serialization of objects */
+    protected StoredClassCatalog classCatalog;
+
+    /**
+     * Open (or create) the shared databases.
+     * 
+     * @param env Berkeley DB Environment. All BDB databases created will use 
+     *            it.
+     * @param catalog Db for bdb class serialization.
+     * @throws IOException if an error occurs opening/creating the 
+     *         databases
+     */
+    public AdaptiveRevisitSharedDatabases(Environment env,
+            StoredClassCatalog catalog)
+    throws IOException {
+        this.classCatalog = catalog;
+        try {
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setTransactional(false); 
+            dbConfig.setAllowCreate(true);
+            primaryUriDB = env.openDatabase(null, DB_NAME, dbConfig);
+            processingUriDB = env.openDatabase(null,
+                DB_NAME + "/processing", dbConfig);
+            countsDB = env.openDatabase(null, DB_NAME + "/counts", dbConfig);
+
+            SecondaryConfig secConfig = new SecondaryConfig();
+            secConfig.setAllowCreate(true);
+            secConfig.setSortedDuplicates(true);
+            secConfig.setKeyCreator(
+                new AdaptiveRevisitHostQueue.OrderOfProcessingKeyCreator(
+                    classCatalog, CrawlURI.class, true));
+            secondaryUriDB = env.openSecondaryDatabase(null,
+                DB_NAME + "/timeOfProcessing", primaryUriDB, secConfig);
+        } catch (DatabaseException e) {
+            IOException e2 = new IOException(e.getMessage());
+            e2.setStackTrace(e.getStackTrace());
+            throw e2;
+        }
+    }
+
+    /**
+     * Close the shared databases. Host queues using them must not be
+     * used afterwards.
+     * 
+     * @throws IOException if an error occurs closing a database
+     */
+    public void close() throws IOException {
+        try {
+            secondaryUriDB.close();
+            processingUriDB.close();
+            countsDB.close();
+            primaryUriDB.close();
+        } catch (DatabaseException e) {
+            IOException e2 = new IOException(e.getMessage());
+            e2.setStackTrace(e.getStackTrace());
+            throw e2;
+        }
+    }
+}
@@ -30,11 +30,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.TreeSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -49,10 +47,12 @@ import org.archive.crawler.framework.FrontierMarker;
 import org.archive.crawler.framework.exceptions.FatalConfigurationException;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.Type;
+import org.archive.crawler.util.BdbBatchUriUniqFilter;
 import org.archive.crawler.util.BdbUriUniqFilter;
 import org.archive.crawler.util.BloomUriUniqFilter;
 import org.archive.crawler.util.CheckpointUtils;
 import org.archive.crawler.util.DiskFPMergeUriUniqFilter;
+import org.archive.crawler.util.MappedFPUriUniqFilter;
 import org.archive.crawler.util.MemFPMergeUriUniqFilter;
 import org.archive.queue.StoredQueue;
 import org.archive.util.ArchiveUtils;
@@ -81,10 +81,15 @@ public class BdbFrontier extends WorkQueueFrontier implements Serializable {
     /** all URI-already-included options available to be chosen */
     private String[] AVAILABLE_INCLUDED_OPTIONS = new String[] {
             BdbUriUniqFilter.class.getName(),
+            BdbBatchUriUniqFilter.class.getName(),
             BloomUriUniqFilter.class.getName(),
             MemFPMergeUriUniqFilter.class.getName(),
-            DiskFPMergeUriUniqFilter.class.getName()};
+            DiskFPMergeUriUniqFilter.class.getName(),
+            MappedFPUriUniqFilter.class.getName()};
     
+    /** state subdirectory for MappedFPUriUniqFilter tables */
+    protected final static String MAPPED_FP_DIR = "alreadyIncluded";
+
     /** URI-already-included to use (by class name) */
     public final static String ATTR_INCLUDED = "uri-included-structure";
     
@@ -172,7 +177,8 @@ public class BdbFrontier extends WorkQueueFrontier implements Serializable {
         // small risk of OutOfMemoryError: in large crawls with many 
         // unresponsive queues, an unbounded number of snoozed queues 
         // may exist
-        snoozedClassQueues = Collections.synchronizedSortedSet(new TreeSet<WorkQueue>());
+        snoozedClassQueues = createSnoozedQueues(concurrentDispatch);
+        inProcessQueues = createInProcessQueues(concurrentDispatch);
     }
 
     protected Queue<String> reinit(Queue<String> q, String name) {
@@ -225,6 +231,26 @@ public class BdbFrontier extends WorkQueueFrontier implements Serializable {
         } else if (c!=null && c.equals(DiskFPMergeUriUniqFilter.class.getName())) {
             // TODO: add checkpointing for DiskFPMergeUriUniqFilter
             uuf = new DiskFPMergeUriUniqFilter(controller.getScratchDisk());
+        } else if (c!=null && c.equals(MappedFPUriUniqFilter.class.getName())) {
+            File dir = new File(controller.getStateDisk(), MAPPED_FP_DIR);
+            if (this.controller.isCheckpointRecover()) {
+                MappedFPUriUniqFilter.restore(
+                    this.controller.getCheckpointRecover().getDirectory(), dir);
+            }
+            uuf = new MappedFPUriUniqFilter(dir);
+        } else if (c!=null && c.equals(BdbBatchUriUniqFilter.class.getName())) {
+            uuf = this.controller.isCheckpointRecover()?
+                deserializeAlreadySeen(BdbBatchUriUniqFilter.class,
+                    this.controller.getCheckpointRecover().getDirectory()):
+                new BdbBatchUriUniqFilter(this.controller.getBdbEnvironment());
+            if (this.controller.isCheckpointRecover()) {
+                try {
+                    ((BdbUriUniqFilter)uuf).
+                        reopen(this.controller.getBdbEnvironment());
+                } catch (DatabaseException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
         } else {
             // Assume its BdbUriUniqFilter.
             uuf = this.controller.isCheckpointRecover()?
@@ -429,12 +455,19 @@ public class BdbFrontier extends WorkQueueFrontier implements Serializable {
         super.crawlCheckpoint(checkpointDir);
         logger.fine("Started serializing already seen as part "
             + "of checkpoint. Can take some time.");
+        // Pass along any URIs a batching already-seen structure is still
+        // holding, so they are in the queues being checkpointed.
+        this.alreadyIncluded.requestFlush();
         // An explicit sync on the any deferred write dbs is needed to make the
         // db recoverable. Sync'ing the environment doesn't work.
         if (this.pendingUris != null) {
         	this.pendingUris.sync();
         }
         CheckpointUtils.writeObjectToFile(this.alreadyIncluded, checkpointDir);
+        if (this.alreadyIncluded instanceof MappedFPUriUniqFilter) {
+            ((MappedFPUriUniqFilter)this.alreadyIncluded).
+                checkpoint(checkpointDir);
+        }
         logger.fine("Finished serializing already seen as part "
             + "of checkpoint.");
         // Serialize ourselves.
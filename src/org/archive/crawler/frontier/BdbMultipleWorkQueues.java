@@ -35,6 +35,7 @@ import org.archive.crawler.datamodel.CrawlURI;
 import org.archive.crawler.framework.FrontierMarker;
 import org.archive.util.ArchiveUtils;
 
+import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
@@ -69,8 +70,15 @@ public class BdbMultipleWorkQueues {
     /** Database holding all pending URIs, grouped in virtual queues */
     private Database pendingUrisDB = null;
     
+    /**
+     * System property which, if true, stores CrawlURIs by Java 
+     * serialization rather than the default compact CrawlURIBinding.
+     */
+    public static final String JAVA_SERIALIZATION_KEY = 
+        BdbMultipleWorkQueues.class.getName() + ".java-serialization";
+
     /**  Supporting bdb serialization of CrawlURIs */
-    private RecyclingSerialBinding crawlUriBinding;
+    private EntryBinding crawlUriBinding;
 
     /**
      * Create the multi queue in the given environment. 
@@ -98,8 +106,19 @@ public class BdbMultipleWorkQueues {
         dbConfig.setDeferredWrite(true);
 
         this.pendingUrisDB = env.openDatabase(null, "pending", dbConfig);
-        crawlUriBinding =
-            new RecyclingSerialBinding(classCatalog, CrawlURI.class);
+        crawlUriBinding = createCrawlUriBinding(classCatalog);
+    }
+
+    /**
+     * @param classCatalog Class catalog to use.
+     * @return binding for storing CrawlURIs
+     */
+    protected static EntryBinding createCrawlUriBinding(
+            StoredClassCatalog classCatalog) {
+        if (Boolean.getBoolean(JAVA_SERIALIZATION_KEY)) {
+            return new RecyclingSerialBinding(classCatalog, CrawlURI.class);
+        }
+        return new CrawlURIBinding(classCatalog);
     }
 
     /**
@@ -280,6 +299,63 @@ public class BdbMultipleWorkQueues {
         return retVal;
     }
     
+    /**
+     * Get up to the given number of items which follow the given 
+     * item in its queue, using a single cursor pass. The given item
+     * must have been retrieved (eg via get()) so its key is known. 
+     * Items are not removed; each returned CrawlURI has its own 
+     * holder key, so may later be individually updated or deleted.
+     * 
+     * @param item CrawlURI after which to begin
+     * @param origin key prefix of the queue holding item
+     * @param max maximum number of items to return
+     * @return list of following items, possibly empty
+     * @throws DatabaseException
+     */
+    public List<CrawlURI> getFollowing(CrawlURI item, byte[] origin, int max)
+    throws DatabaseException {
+        ArrayList<CrawlURI> results = new ArrayList<CrawlURI>(max);
+        DatabaseEntry startKey = (DatabaseEntry) item.getHolderKey();
+        if (startKey == null || max <= 0) {
+            return results;
+        }
+        DatabaseEntry key = new DatabaseEntry(startKey.getData());
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = null;
+        try {
+            cursor = pendingUrisDB.openCursor(null, null);
+            OperationStatus status = cursor.getSearchKey(key, value, null);
+            if (status != OperationStatus.SUCCESS) {
+                return results;
+            }
+            while (results.size() < max) {
+                key = new DatabaseEntry();
+                status = cursor.getNext(key, value, null);
+                if (status != OperationStatus.SUCCESS
+                        || !ArchiveUtils.startsWith(key.getData(), origin)
+                        || value.getData().length == 0) {
+                    // end of database, or rolled into next queue
+                    break;
+                }
+                CrawlURI curi;
+                try {
+                    curi = (CrawlURI)crawlUriBinding.entryToObject(value);
+                } catch (RuntimeExceptionWrapper rw) {
+                    LOGGER.log(Level.SEVERE, "unreadable item in queue "
+                        + BdbWorkQueue.getPrefixClassKey(origin), rw);
+                    break;
+                }
+                curi.setHolderKey(key);
+                results.add(curi);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return results;
+    }
+    
     protected OperationStatus getNextNearestItem(DatabaseEntry headKey,
             DatabaseEntry result) throws DatabaseException {
         Cursor cursor = null;
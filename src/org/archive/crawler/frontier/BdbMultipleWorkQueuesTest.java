@@ -24,21 +24,29 @@
 */ 
 package org.archive.crawler.frontier;
 
+import java.io.File;
+import java.util.List;
+
 import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.crawler.datamodel.CrawlURI;
 import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+import org.archive.util.TmpDirTestCase;
 
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.tree.Key;
 
-import junit.framework.TestCase;
-
 /**
  * Unit tests for BdbMultipleWorkQueues functionality. 
  * 
  * @author gojomo
  */
-public class BdbMultipleWorkQueuesTest extends TestCase {
+public class BdbMultipleWorkQueuesTest extends TmpDirTestCase {
     
     /**
      * Basic sanity checks for calculateInsertKey() -- ensure ordinal, cost,
@@ -97,4 +105,70 @@ public class BdbMultipleWorkQueuesTest extends TestCase {
                     .compareKeys(key5, key4, null) < 0);
         }
     }
+
+    /**
+     * Ensure getFollowing() returns, in queue order, only the items after
+     * the given head item and within the same queue.
+     * 
+     * @throws Exception
+     */
+    public void testGetFollowing() throws Exception {
+        File envDir = new File(getTmpDir(), "BdbMultipleWorkQueuesTest");
+        if (envDir.exists()) {
+            FileUtils.deleteDir(envDir);
+        }
+        envDir.mkdirs();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        Environment env = new Environment(envDir, envConfig);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        StoredClassCatalog catalog =
+            new StoredClassCatalog(env.openDatabase(null, "classes", dbConfig));
+        BdbMultipleWorkQueues queues =
+            new BdbMultipleWorkQueues(env, catalog, false);
+        try {
+            byte[] fooOrigin = BdbMultipleWorkQueues.calculateOriginKey("foo");
+            byte[] foo1Origin = BdbMultipleWorkQueues.calculateOriginKey("foo1");
+            queues.addCap(fooOrigin);
+            queues.addCap(foo1Origin);
+            for (int i = 0; i < 5; i++) {
+                queues.put(makeCrawlURI("http://foo/" + i, "foo", i + 1),
+                    false);
+                queues.put(makeCrawlURI("http://foo1/" + i, "foo1", i + 10),
+                    false);
+            }
+            CrawlURI head = queues.get(new DatabaseEntry(fooOrigin));
+            assertEquals("http://foo/0", head.toString());
+
+            List<CrawlURI> following = queues.getFollowing(head, fooOrigin, 2);
+            assertEquals(2, following.size());
+            assertEquals("http://foo/1", following.get(0).toString());
+            assertEquals("http://foo/2", following.get(1).toString());
+
+            // asking for more than remain stops at end of queue
+            following = queues.getFollowing(head, fooOrigin, 10);
+            assertEquals(4, following.size());
+            assertEquals("http://foo/4", following.get(3).toString());
+
+            // each follower may be individually deleted by its own key
+            queues.delete(following.get(1));
+            following = queues.getFollowing(head, fooOrigin, 10);
+            assertEquals(3, following.size());
+            assertEquals("http://foo/3", following.get(1).toString());
+        } finally {
+            queues.close();
+            catalog.close();
+            env.close();
+        }
+    }
+
+    private CrawlURI makeCrawlURI(String uri, String classKey, long ordinal)
+    throws URIException {
+        CrawlURI curi = new CrawlURI(
+            new CandidateURI(UURIFactory.getInstance(uri)), ordinal);
+        curi.setClassKey(classKey);
+        curi.setHolderCost(1);
+        return curi;
+    }
 }
@@ -25,6 +25,7 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -140,6 +141,18 @@ implements Comparable, Serializable {
         return curi;
     }
 
+    protected List<CrawlURI> peekFollowingItems(
+            final WorkQueueFrontier frontier, final CrawlURI item, int max)
+    throws IOException {
+        try {
+            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+                .getWorkQueues();
+            return queues.getFollowing(item, origin, max);
+        } catch (DatabaseException e) {
+            throw IoUtils.wrapAsIOException(e);
+        }
+    }
+
     protected void insertItem(final WorkQueueFrontier frontier,
             final CrawlURI curi, boolean overwriteIfPresent) throws IOException {
         try {
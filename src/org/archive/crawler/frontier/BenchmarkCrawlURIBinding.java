@@ -0,0 +1,128 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.io.File;
+
+import org.archive.crawler.datamodel.CandidateURI;
+import org.archive.crawler.datamodel.CoreAttributeConstants;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Compare the stored size and encode/decode cost of CrawlURIs under
+ * CrawlURIBinding and under the Java-serialization RecyclingSerialBinding
+ * previously used by BdbMultipleWorkQueues.
+ *
+ * URIs are built as the frontier would typically hold them: a via in
+ * the same directory, a short discovery path, a class key and a few
+ * alist entries.
+ *
+ * Usage: BenchmarkCrawlURIBinding [count [envDir]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkCrawlURIBinding {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkCrawlURIBinding()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int count =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        File envDir = new File((args.length > 1) ? args[1]
+            : System.getProperty("java.io.tmpdir"),
+            "BenchmarkCrawlURIBinding");
+        FileUtils.deleteDir(envDir);
+        envDir.mkdirs();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        EnhancedEnvironment env = new EnhancedEnvironment(envDir, envConfig);
+        try {
+            CrawlURI[] curis = new CrawlURI[count];
+            for (int i = 0; i < count; i++) {
+                curis[i] = makeCrawlURI(i);
+            }
+            EntryBinding serial = new RecyclingSerialBinding(
+                env.getClassCatalog(), CrawlURI.class);
+            EntryBinding compact = new CrawlURIBinding(env.getClassCatalog());
+            for (int rep = 0; rep < 3; rep++) {
+                run("serial", serial, curis);
+                run("compact", compact, curis);
+            }
+        } finally {
+            env.close();
+            FileUtils.deleteDir(envDir);
+        }
+    }
+
+    protected CrawlURI makeCrawlURI(int i) throws Exception {
+        String host = "www" + (i % 1000) + ".example.com";
+        CandidateURI caUri = new CandidateURI(
+            UURIFactory.getInstance("http://" + host + "/section/"
+                + (i / 1000) + "/page" + i + ".html"),
+            "LLLE", UURIFactory.getInstance("http://" + host
+                + "/section/" + (i / 1000) + "/index.html"),
+            "a/@href");
+        CrawlURI curi = new CrawlURI(caUri, i);
+        curi.setClassKey(host + ":80");
+        curi.setSchedulingDirective(CandidateURI.NORMAL);
+        curi.putLong(CoreAttributeConstants.A_FETCH_BEGAN_TIME,
+            1234567890000L + i);
+        curi.putInt(CoreAttributeConstants.A_RETRY_DELAY, 900);
+        return curi;
+    }
+
+    protected void run(String name, EntryBinding binding, CrawlURI[] curis) {
+        DatabaseEntry[] entries = new DatabaseEntry[curis.length];
+        DatabaseEntry entry = new DatabaseEntry();
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < curis.length; i++) {
+            binding.objectToEntry(curis[i], entry);
+            // copy out, as a database put would; RecyclingSerialBinding
+            // reuses its buffer
+            byte[] copy = new byte[entry.getSize()];
+            System.arraycopy(entry.getData(), entry.getOffset(), copy, 0,
+                copy.length);
+            entries[i] = new DatabaseEntry(copy);
+            bytes += copy.length;
+        }
+        long encodeNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < entries.length; i++) {
+            binding.entryToObject(entries[i]);
+        }
+        long decodeNs = System.nanoTime() - start;
+        System.out.println(name
+            + ": bytes/uri=" + (bytes / curis.length)
+            + " encode/s=" + (curis.length * 1000000000L / Math.max(1, encodeNs))
+            + " decode/s=" + (curis.length * 1000000000L / Math.max(1, decodeNs)));
+    }
+}
@@ -0,0 +1,238 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.collections.Bag;
+import org.archive.crawler.datamodel.CrawlURI;
+
+/**
+ * Contention benchmark for the queue-dispatch structures of
+ * WorkQueueFrontier, comparing the default (globally synchronized)
+ * snoozed-set and in-process-bag against those used when
+ * 'concurrent-dispatch' is enabled.
+ *
+ * Each worker thread repeatedly performs the structure operations of a
+ * next()/finished() cycle -- take a ready queue, mark it in-process,
+ * unmark it, snooze it -- while a single waker thread returns due queues
+ * to the ready queue, as the frontier's WakeTask does. No URIs are
+ * fetched or stored, so results isolate dispatch overhead.
+ *
+ * Usage: BenchmarkFrontierDispatch [threads [queues [seconds [snoozeMs]]]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkFrontierDispatch {
+
+    public static void main(String[] args) throws InterruptedException {
+        (new BenchmarkFrontierDispatch()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws InterruptedException {
+        int threads =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int queues =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+        int seconds =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        long snoozeMs =
+            (args.length > 3) ? Long.parseLong(args[3]) : 1;
+
+        System.out.println("threads=" + threads + " queues=" + queues
+            + " seconds=" + seconds + " snoozeMs=" + snoozeMs);
+        for (int rep = 0; rep < 2; rep++) {
+            run(false, threads, queues, seconds, snoozeMs);
+            run(true, threads, queues, seconds, snoozeMs);
+        }
+    }
+
+    /**
+     * Run one timed trial.
+     *
+     * @param concurrent whether to use concurrent-dispatch structures
+     * @param threads number of worker threads
+     * @param queues number of distinct queues in rotation
+     * @param seconds trial duration
+     * @param snoozeMs politeness snooze applied after each cycle
+     * @throws InterruptedException
+     */
+    protected void run(final boolean concurrent, int threads, int queues,
+            int seconds, final long snoozeMs) throws InterruptedException {
+        final Dispatch d = new Dispatch(concurrent);
+        for (int i = 0; i < queues; i++) {
+            WorkQueue wq = new BenchmarkWorkQueue("q" + i);
+            d.allQueues.put(wq.getClassKey(), wq);
+            d.ready.add(wq.getClassKey());
+        }
+        final AtomicLong cycles = new AtomicLong(0);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread("worker" + t) {
+                public void run() {
+                    long local = 0;
+                    try {
+                        while (!d.stop) {
+                            String key = d.ready.poll(100,
+                                    TimeUnit.MILLISECONDS);
+                            if (key == null) {
+                                continue;
+                            }
+                            WorkQueue wq = d.allQueues.get(key);
+                            synchronized (wq) {
+                                d.inProcess.add(wq);
+                            }
+                            d.inProcess.remove(wq, 1);
+                            synchronized (wq) {
+                                d.snooze(wq, snoozeMs);
+                            }
+                            local++;
+                        }
+                    } catch (InterruptedException e) {
+                        // end of trial
+                    }
+                    cycles.addAndGet(local);
+                }
+            };
+        }
+        Thread waker = new Thread("waker") {
+            public void run() {
+                while (!d.stop) {
+                    d.wake();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        System.gc();
+        long start = System.currentTimeMillis();
+        waker.start();
+        for (int t = 0; t < threads; t++) {
+            workers[t].start();
+        }
+        Thread.sleep(seconds * 1000L);
+        d.stop = true;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        waker.join();
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println((concurrent ? "concurrent:   " : "synchronized: ")
+            + cycles.get() + " cycles in " + elapsed + "ms ("
+            + (cycles.get() * 1000 / Math.max(elapsed, 1)) + "/s)");
+    }
+
+    /**
+     * Holder of the dispatch structures for one trial, created exactly
+     * as WorkQueueFrontier creates them.
+     */
+    protected static class Dispatch {
+        final boolean concurrent;
+        final Map<String,WorkQueue> allQueues =
+            new HashMap<String,WorkQueue>();
+        final BlockingQueue<String> ready = new LinkedBlockingQueue<String>();
+        final SortedSet<WorkQueue> snoozed;
+        final Bag inProcess;
+        volatile long nextWakeTime = Long.MAX_VALUE;
+        volatile boolean stop = false;
+
+        Dispatch(boolean concurrent) {
+            this.concurrent = concurrent;
+            this.snoozed = WorkQueueFrontier.createSnoozedQueues(concurrent);
+            this.inProcess = 
+                WorkQueueFrontier.createInProcessQueues(concurrent);
+        }
+
+        /** as WorkQueueFrontier.snoozeQueue() */
+        void snooze(WorkQueue wq, long delay) {
+            long nextTime = System.currentTimeMillis() + delay;
+            wq.setWakeTime(nextTime);
+            if (concurrent) {
+                snoozed.add(wq);
+                if (nextTime < nextWakeTime) {
+                    synchronized (snoozed) {
+                        if (nextTime < nextWakeTime) {
+                            nextWakeTime = nextTime;
+                        }
+                    }
+                }
+            } else {
+                synchronized (snoozed) {
+                    snoozed.add(wq);
+                    if (wq == snoozed.first()) {
+                        nextWakeTime = nextTime;
+                    }
+                }
+            }
+        }
+
+        /** as WorkQueueFrontier.wakeQueues() */
+        void wake() {
+            synchronized (snoozed) {
+                long now = System.currentTimeMillis();
+                nextWakeTime = Long.MAX_VALUE;
+                while (!snoozed.isEmpty()) {
+                    WorkQueue peek = snoozed.first();
+                    if (peek.getWakeTime() > now) {
+                        nextWakeTime = peek.getWakeTime();
+                        break;
+                    }
+                    snoozed.remove(peek);
+                    peek.setWakeTime(0);
+                    ready.add(peek.getClassKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * WorkQueue with no backing storage, sufficient for exercising the
+     * dispatch structures.
+     */
+    @SuppressWarnings("serial")
+    protected static class BenchmarkWorkQueue extends WorkQueue {
+        BenchmarkWorkQueue(String key) {
+            super(key);
+        }
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean expectedPresent) {
+        }
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) {
+            return 0;
+        }
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+        }
+        protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+            return null;
+        }
+    }
+}
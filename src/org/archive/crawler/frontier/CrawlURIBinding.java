@@ -0,0 +1,92 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.archive.crawler.datamodel.CrawlURI;
+
+import com.sleepycat.bind.serial.ClassCatalog;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.util.RuntimeExceptionWrapper;
+
+/**
+ * Binding storing CrawlURIs in the compact binary form of
+ * {@link CrawlURI#writeCompactTo(java.io.DataOutput)}, behind a
+ * one-byte format version, rather than by Java serialization.
+ *
+ * Entries lacking the version byte are taken to be Java-serialized
+ * (as written by RecyclingSerialBinding before this binding existed)
+ * and read with that binding, so a frontier recovered from an older
+ * checkpoint remains readable.
+ */
+public class CrawlURIBinding extends TupleBinding {
+    /** leading byte of entries in the current compact format */
+    public static final byte FORMAT_VERSION = 1;
+
+    /** reader of entries in the older serialized format */
+    protected RecyclingSerialBinding serialBinding;
+
+    /**
+     * @param classCatalog catalog for reading Java-serialized entries
+     */
+    public CrawlURIBinding(ClassCatalog classCatalog) {
+        super();
+        this.serialBinding =
+            new RecyclingSerialBinding(classCatalog, CrawlURI.class);
+    }
+
+    public Object entryToObject(DatabaseEntry entry) {
+        if (entry.getSize() == 0
+                || entry.getData()[entry.getOffset()] != FORMAT_VERSION) {
+            return serialBinding.entryToObject(entry);
+        }
+        return super.entryToObject(entry);
+    }
+
+    public Object entryToObject(TupleInput input) {
+        try {
+            // raw byte; TupleInput.readByte() would flip the sign bit
+            int version = input.readFast();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unknown CrawlURI format " + version);
+            }
+            return CrawlURI.readCompact(new DataInputStream(input));
+        } catch (IOException e) {
+            throw new RuntimeExceptionWrapper(e);
+        }
+    }
+
+    public void objectToEntry(Object object, TupleOutput output) {
+        try {
+            output.writeFast(FORMAT_VERSION);
+            DataOutputStream out = new DataOutputStream(output);
+            ((CrawlURI)object).writeCompactTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeExceptionWrapper(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.util.HashSet;
+
+import org.archive.crawler.datamodel.CandidateURI;
+import org.archive.crawler.datamodel.CoreAttributeConstants;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Test CrawlURIBinding.
+ */
+public class CrawlURIBindingTest extends TmpDirTestCase {
+    File envDir;
+    EnhancedEnvironment env;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.envDir = new File(getTmpDir(), "CrawlURIBindingTest");
+        FileUtils.deleteDir(this.envDir);
+        this.envDir.mkdirs();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        this.env = new EnhancedEnvironment(this.envDir, envConfig);
+    }
+
+    protected void tearDown() throws Exception {
+        this.env.close();
+        FileUtils.deleteDir(this.envDir);
+        super.tearDown();
+    }
+
+    static CrawlURI makeCrawlURI(int i) throws Exception {
+        CandidateURI caUri = new CandidateURI(
+            UURIFactory.getInstance("http://www.example.com/dir/page" + i
+                + ".html"),
+            "LLE", UURIFactory.getInstance("http://www.example.com/dir/"),
+            "a/@href");
+        CrawlURI curi = new CrawlURI(caUri, 1000 + i);
+        curi.setClassKey("com,example,www,");
+        curi.setSchedulingDirective(CandidateURI.HIGH);
+        curi.putInt(CoreAttributeConstants.A_FETCH_BEGAN_TIME, 7);
+        curi.putLong(CoreAttributeConstants.A_FETCH_COMPLETED_TIME, -3L);
+        curi.putString("custom", "value" + i);
+        curi.putObject("set", new HashSet<String>());
+        curi.setHolderCost(2);
+        curi.setFetchStatus(-6);
+        curi.setContentDigest("sha1", new byte[] {1, 2, 3});
+        return curi;
+    }
+
+    public void testRoundTrip() throws Exception {
+        CrawlURIBinding binding = new CrawlURIBinding(env.getClassCatalog());
+        CrawlURI curi = makeCrawlURI(1);
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(curi, entry);
+        CrawlURI read = (CrawlURI)binding.entryToObject(entry);
+        assertEquals(curi.toString(), read.toString());
+        assertEquals(curi.getVia(), read.getVia());
+        assertEquals("LLE", read.getPathFromSeed());
+        assertEquals("a/@href", read.getViaContext().toString());
+        assertEquals("com,example,www,", read.getClassKey());
+        assertEquals(CandidateURI.HIGH, read.getSchedulingDirective());
+        assertEquals(1001, read.getOrdinal());
+        assertEquals(7,
+            read.getInt(CoreAttributeConstants.A_FETCH_BEGAN_TIME));
+        assertEquals(-3L,
+            read.getLong(CoreAttributeConstants.A_FETCH_COMPLETED_TIME));
+        assertEquals("value1", read.getString("custom"));
+        assertTrue(read.getObject("set") instanceof HashSet);
+        assertEquals(2, read.getHolderCost());
+        assertEquals(-6, read.getFetchStatus());
+        assertEquals(curi.getContentDigestSchemeString(),
+            read.getContentDigestSchemeString());
+    }
+
+    public void testReadsSerializedEntries() throws Exception {
+        RecyclingSerialBinding old =
+            new RecyclingSerialBinding(env.getClassCatalog(), CrawlURI.class);
+        CrawlURI curi = makeCrawlURI(2);
+        DatabaseEntry entry = new DatabaseEntry();
+        old.objectToEntry(curi, entry);
+        CrawlURIBinding binding = new CrawlURIBinding(env.getClassCatalog());
+        CrawlURI read = (CrawlURI)binding.entryToObject(entry);
+        assertEquals(curi.toString(), read.toString());
+        assertEquals("value2", read.getString("custom"));
+
+        DatabaseEntry compact = new DatabaseEntry();
+        binding.objectToEntry(curi, compact);
+        assertTrue("compact smaller: " + compact.getSize() + " vs "
+            + entry.getSize(), compact.getSize() < entry.getSize());
+    }
+}
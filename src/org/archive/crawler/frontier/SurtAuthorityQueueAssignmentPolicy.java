@@ -47,6 +47,9 @@ extends QueueAssignmentPolicy {
     
     private static final String DNS = "dns";
 
+    /** class declaring the getSurtAuthority(String) in effect */
+    private Class<?> surtStringHookDeclarer = null;
+
     public String getClassKey(CrawlController controller, CandidateURI cauri) {
         String scheme = cauri.getUURI().getScheme();
         String candidate = null;
@@ -67,9 +70,9 @@ extends QueueAssignmentPolicy {
                     effectiveuuri = UURIFactory.getInstance("http://" +
                         cauri.getUURI().getPath());
                 }
-                candidate = getSurtAuthority(effectiveuuri.getSurtForm());
+                candidate = getSurtAuthority(effectiveuuri);
             } else {
-                candidate = getSurtAuthority(cauri.getUURI().getSurtForm());
+                candidate = getSurtAuthority(cauri.getUURI());
             }
             
             if(candidate == null || candidate.length() == 0) {
@@ -84,6 +87,28 @@ extends QueueAssignmentPolicy {
         return candidate.replace(':','#');
     }
 
+    /**
+     * @param uuri URI to get a class key for.
+     * @return SURT authority of the URI, as cached on the UURI; or, if a
+     * subclass overrides {@link #getSurtAuthority(String)}, what that
+     * makes of the URI's SURT form.
+     */
+    protected String getSurtAuthority(UURI uuri) {
+        if (overridesSurtStringHook()) {
+            return getSurtAuthority(uuri.getSurtForm());
+        }
+        String authority = uuri.getSurtAuthority();
+        return (authority == null)? DEFAULT_CLASS_KEY: authority;
+    }
+
+    /**
+     * @param surt SURT form of a URI.
+     * @return SURT authority of the URI.
+     * @deprecated Override {@link #getSurtAuthority(UURI)} instead, which
+     * may use the authority cached on the UURI. An override of this
+     * method is still called, from there.
+     */
+    @Deprecated
     protected String getSurtAuthority(String surt) {
         int indexOfOpen = surt.indexOf("://(");
         int indexOfClose = surt.indexOf(")");
@@ -93,4 +118,28 @@ extends QueueAssignmentPolicy {
         }
         return surt.substring(indexOfOpen + 4, indexOfClose);
     }
+
+    /**
+     * @return true if a subclass overrides the deprecated
+     * {@link #getSurtAuthority(String)}
+     */
+    protected boolean overridesSurtStringHook() {
+        Class<?> declarer = this.surtStringHookDeclarer;
+        if (declarer == null) {
+            declarer = SurtAuthorityQueueAssignmentPolicy.class;
+            for (Class<?> c = getClass();
+                    c != SurtAuthorityQueueAssignmentPolicy.class;
+                    c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("getSurtAuthority", String.class);
+                    declarer = c;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // try superclass
+                }
+            }
+            this.surtStringHookDeclarer = declarer;
+        }
+        return declarer != SurtAuthorityQueueAssignmentPolicy.class;
+    }
 }
@@ -0,0 +1,57 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.datamodel.CandidateURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Test SurtAuthorityQueueAssignmentPolicy.
+ */
+public class SurtAuthorityQueueAssignmentPolicyTest extends TestCase {
+    public void testClassKey() throws Exception {
+        SurtAuthorityQueueAssignmentPolicy policy =
+            new SurtAuthorityQueueAssignmentPolicy();
+        assertFalse(policy.overridesSurtStringHook());
+        assertEquals("org,archive,www,#8080",
+            policy.getClassKey(null, candidate("http://www.archive.org:8080/")));
+        assertEquals("org,archive,www,",
+            policy.getClassKey(null, candidate("dns:www.archive.org")));
+    }
+
+    public void testDeprecatedStringHook() throws Exception {
+        SurtAuthorityQueueAssignmentPolicy policy =
+            new SurtAuthorityQueueAssignmentPolicy() {
+                @SuppressWarnings("deprecation")
+                protected String getSurtAuthority(String surt) {
+                    return "legacy:" + super.getSurtAuthority(surt);
+                }
+            };
+        assertTrue(policy.overridesSurtStringHook());
+        assertEquals("legacy#org,archive,www,",
+            policy.getClassKey(null, candidate("http://www.archive.org/")));
+    }
+
+    protected CandidateURI candidate(String uri) throws Exception {
+        return new CandidateURI(UURIFactory.getInstance(uri));
+    }
+}
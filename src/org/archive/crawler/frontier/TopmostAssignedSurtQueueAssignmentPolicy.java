@@ -24,9 +24,8 @@
  */
 package org.archive.crawler.frontier;
 
-import org.archive.crawler.datamodel.CandidateURI;
-import org.archive.crawler.framework.CrawlController;
 import org.archive.net.PublicSuffixes;
+import org.archive.net.UURI;
 
 /**
  * Create a queueKey based on the SURT authority, reduced to the 
@@ -38,10 +37,13 @@ public class TopmostAssignedSurtQueueAssignmentPolicy extends
         SurtAuthorityQueueAssignmentPolicy {
 
     @Override
-    public String getClassKey(CrawlController controller, CandidateURI cauri) {
-        String candidate =  super.getClassKey(controller, cauri);
-        candidate = PublicSuffixes.reduceSurtToTopmostAssigned(candidate); 
-        return candidate; 
+    protected String getSurtAuthority(UURI uuri) {
+        if (overridesSurtStringHook()) {
+            return PublicSuffixes.reduceSurtToTopmostAssigned(
+                super.getSurtAuthority(uuri));
+        }
+        String candidate = uuri.getTopmostAssignedSurt();
+        return (candidate == null)? super.getSurtAuthority(uuri): candidate;
     }
 
 }
@@ -3,6 +3,8 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,6 +88,15 @@ public abstract class WorkQueue implements Frontier.FrontierGroup, Comparable,
 
     private boolean retired;
     
+    /** Number of URIs handed out from this queue and not yet finished */
+    private int outstanding = 0;
+    
+    /** Latest wake time requested by any finished URI of current handout */
+    private long handoutWakeTime = 0;
+    
+    /** Whether any finished URI of current handout requested retirement */
+    private boolean handoutRetire = false;
+    
     public WorkQueue(final String pClassKey) {
         this.classKey = pClassKey;
     }
@@ -162,19 +173,134 @@ public abstract class WorkQueue implements Frontier.FrontierGroup, Comparable,
      * @param frontier  Work queues manager.
      */
     public synchronized void dequeue(final WorkQueueFrontier frontier) {
+        remove(frontier, peekItem);
+        unpeek();
+    }
+
+    /**
+     * Remove the given item -- which need not be the peekItem, but must
+     * have been obtained via peek() or peekFollowing() -- from the queue 
+     * and adjust the count.
+     * 
+     * @param frontier  Work queues manager.
+     * @param item item to remove
+     */
+    public synchronized void dequeue(final WorkQueueFrontier frontier,
+            CrawlURI item) {
+        if (item == peekItem) {
+            dequeue(frontier);
+            return;
+        }
+        remove(frontier, item);
+    }
+
+    /**
+     * Delete the given item from the queue's storage and adjust the
+     * count and pending expenditure.
+     */
+    private void remove(final WorkQueueFrontier frontier, CrawlURI item) {
         try {
-            deleteItem(frontier, peekItem);
+            deleteItem(frontier, item);
         } catch (IOException e) {
-            //FIXME better exception handling
-            e.printStackTrace();
+            logger.log(Level.SEVERE, "dequeue failure " + item, e);
             throw new RuntimeException(e);
         }
-        pendingExpenditure -= peekItem.getHolderCost();
-        unpeek();
+        pendingExpenditure -= item.getHolderCost();
         count--;
         lastDequeueTime = System.currentTimeMillis();
     }
 
+    /**
+     * Return up to the given number of items which immediately follow
+     * the current peekItem, without removing them or changing the 
+     * peekItem. Allows several URIs of one queue to be handed out 
+     * together. 
+     * 
+     * @param frontier Work queues manager
+     * @param max maximum number of items to return
+     * @return following items; empty if none or unsupported
+     */
+    public synchronized List<CrawlURI> peekFollowing(
+            final WorkQueueFrontier frontier, int max) {
+        if (peekItem == null || max <= 0 || count <= 1) {
+            return Collections.emptyList();
+        }
+        try {
+            return peekFollowingItems(frontier, peekItem, max);
+        } catch (IOException e) {
+            //FIXME better exception handling
+            logger.log(Level.SEVERE,"peekFollowing failure",e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Note that the given number of URIs have been handed out from 
+     * this queue, beginning a new handout. 
+     * 
+     * @param n number of URIs handed out
+     */
+    public void noteHandedOut(int n) {
+        if (outstanding == 0) {
+            handoutWakeTime = 0;
+            handoutRetire = false;
+        }
+        outstanding += n;
+    }
+
+    /**
+     * Note that one URI of the current handout has finished, along with 
+     * its requested effect on the queue. 
+     * 
+     * @param wakeTime earliest time queue may next hand out a URI
+     * @param retire whether the queue should be retired
+     * @return true if this was the last outstanding URI of the handout, 
+     * so the queue is now due to be rotated as requested
+     */
+    public boolean noteFinished(long wakeTime, boolean retire) {
+        if (wakeTime > handoutWakeTime) {
+            handoutWakeTime = wakeTime;
+        }
+        handoutRetire |= retire;
+        if (outstanding > 0) {
+            outstanding--;
+        }
+        return outstanding == 0;
+    }
+
+    /**
+     * Check, without touching the queue's storage or peekItem, that the
+     * given URI is one of the current handout. Safe to call in an
+     * assertion.
+     * 
+     * @param curi URI reported finished
+     * @return true if the URI is held by this queue, which has URIs out
+     */
+    boolean isHandedOut(CrawlURI curi) {
+        return outstanding >= 1 && curi.getHolder() == this;
+    }
+
+    /**
+     * @return number of URIs handed out and not yet finished
+     */
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * @return latest wake time requested during the current handout
+     */
+    public long getHandoutWakeTime() {
+        return handoutWakeTime;
+    }
+
+    /**
+     * @return whether retirement was requested during the current handout
+     */
+    public boolean isHandoutRetire() {
+        return handoutRetire;
+    }
+
     /**
      * Set the session 'activity budget balance' to the given value
      * 
@@ -443,6 +569,23 @@ public abstract class WorkQueue implements Frontier.FrontierGroup, Comparable,
     protected abstract CrawlURI peekItem(final WorkQueueFrontier frontier)
         throws IOException;
 
+    /**
+     * Returns items following the given item, without deleting them. 
+     * Hook for subclasses able to read several items cheaply; the 
+     * default supports no multiple-URI handout.
+     * 
+     * @param frontier Work queues manager
+     * @param item item after which to begin
+     * @param max maximum number of items to return
+     * @return following items, possibly empty
+     * @throws IOException if there was a problem while peeking
+     */
+    protected List<CrawlURI> peekFollowingItems(
+            final WorkQueueFrontier frontier, final CrawlURI item, int max)
+    throws IOException {
+        return Collections.emptyList();
+    }
+
     /**
      * Suspends this WorkQueue. Closes all connections to resources etc.
      * 
@@ -26,12 +26,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.SortedSet;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -56,6 +58,7 @@ import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.Type;
 import org.archive.net.UURI;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.ConcurrentHashBag;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.ObjectIdentityMemCache;
 
@@ -144,6 +147,12 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         "target-ready-backlog";
     protected final static Integer DEFAULT_TARGET_READY_QUEUES_BACKLOG =
         new Integer(50);
+
+    /** whether to use non-blocking structures for queue dispatch */
+    public final static String ATTR_CONCURRENT_DISPATCH =
+        "concurrent-dispatch";
+    protected final static Boolean DEFAULT_CONCURRENT_DISPATCH =
+        Boolean.FALSE;
     
     /** those UURIs which are already in-process (or processed), and
      thus should not be rescheduled */
@@ -193,6 +202,12 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
     /** Task for next wake */ 
     protected transient WakeTask nextWake; 
     
+    /** Time (in ms) at which nextWake will run; Long.MAX_VALUE if none */
+    protected transient volatile long nextWakeTime = Long.MAX_VALUE;
+    
+    /** whether concurrent (non-blocking) dispatch structures are in use */
+    protected transient boolean concurrentDispatch = false;
+    
     protected WorkQueue longestActiveQueue = null;
     
     /** how long to wait for a ready queue when there's nothing snoozed */
@@ -273,6 +288,15 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
                 "Default is 50.", DEFAULT_TARGET_READY_QUEUES_BACKLOG));
         t.setExpertSetting(true);
         t.setOverrideable(false);
+        t = addElementToDefinition(new SimpleType(ATTR_CONCURRENT_DISPATCH,
+                "Whether to track snoozed and in-process queues in " +
+                "non-blocking concurrent structures, rather than behind " +
+                "single global locks. Reduces contention among ToeThreads " +
+                "in next()/finished() when running many hundreds of " +
+                "threads. Takes effect only at crawl start. " +
+                "Default is false.", DEFAULT_CONCURRENT_DISPATCH));
+        t.setExpertSetting(true);
+        t.setOverrideable(false);
     }
 
     /**
@@ -286,6 +310,8 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         super.initialize(c);
         this.controller = c;
         
+        this.concurrentDispatch = ((Boolean)getUncheckedAttribute(null,
+            ATTR_CONCURRENT_DISPATCH)).booleanValue();
         initQueuesOfQueues();
         
         this.targetSizeForReadyQueues = (Integer)getUncheckedAttribute(null,
@@ -349,7 +375,35 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         // small risk of OutOfMemoryError: in large crawls with many 
         // unresponsive queues, an unbounded number of snoozed queues 
         // may exist
-        snoozedClassQueues = Collections.synchronizedSortedSet(new TreeSet<WorkQueue>());
+        snoozedClassQueues = createSnoozedQueues(concurrentDispatch);
+        inProcessQueues = createInProcessQueues(concurrentDispatch);
+    }
+    
+    /**
+     * Create the set which will hold snoozed queues, sorted by wake time.
+     * 
+     * @param concurrent whether concurrent dispatch is in effect
+     * @return empty SortedSet appropriate to the dispatch mode
+     */
+    protected static SortedSet<WorkQueue> createSnoozedQueues(
+            boolean concurrent) {
+        if (concurrent) {
+            return new ConcurrentSkipListSet<WorkQueue>();
+        }
+        return Collections.synchronizedSortedSet(new TreeSet<WorkQueue>());
+    }
+    
+    /**
+     * Create the Bag which will hold queues with a URI outstanding.
+     * 
+     * @param concurrent whether concurrent dispatch is in effect
+     * @return empty Bag appropriate to the dispatch mode
+     */
+    protected static Bag createInProcessQueues(boolean concurrent) {
+        if (concurrent) {
+            return new ConcurrentHashBag();
+        }
+        return BagUtils.synchronizedBag(new HashBag());
     }
 
     /**
@@ -619,6 +673,25 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
      * @see org.archive.crawler.framework.Frontier#next()
      */
     public CrawlURI next()
+    throws InterruptedException, EndedException {
+        return next(1).get(0);
+    }
+
+    /**
+     * Return up to max CrawlURIs, all from the same queue, to be 
+     * processed in order by a single worker thread. More than one URI
+     * is only handed out from queues which impose no politeness delay 
+     * between fetches; otherwise the list holds a single URI, as with 
+     * next(). Each URI must be separately passed to finished(); the 
+     * queue only becomes eligible to supply more URIs after all have
+     * been finished.
+     *
+     * @param max maximum number of URIs to return
+     * @return nonempty list of CrawlURIs from a single queue
+     *
+     * @see org.archive.crawler.framework.Frontier#next(int)
+     */
+    public List<CrawlURI> next(int max)
     throws InterruptedException, EndedException {
         while (true) { // loop left only by explicit return or exception
             long now = System.currentTimeMillis();
@@ -654,9 +727,16 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
                             String currentQueueKey = getClassKey(curi);
                             if (currentQueueKey.equals(curi.getClassKey())) {
                                 // curi was in right queue, emit
+                                List<CrawlURI> handout = 
+                                    new ArrayList<CrawlURI>(1);
                                 noteAboutToEmit(curi, readyQ);
-                                inProcessQueues.add(readyQ);
-                                return curi;
+                                handout.add(curi);
+                                if (max > 1 && isPolitenessDelayFree(curi)) {
+                                    addFollowers(readyQ, handout, max - 1);
+                                }
+                                readyQ.noteHandedOut(handout.size());
+                                inProcessQueues.add(readyQ, handout.size());
+                                return handout;
                             }
                             // URI's assigned queue has changed since it
                             // was queued (eg because its IP has become
@@ -701,6 +781,27 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         }
     }
 
+    /**
+     * Add to the handout those URIs immediately following its first 
+     * in the given queue, stopping at the first whose assigned queue 
+     * has changed since it was queued. Caller must hold the queue's 
+     * monitor.
+     * 
+     * @param wq queue handing out URIs
+     * @param handout list of URIs being handed out
+     * @param max maximum number of URIs to add
+     */
+    private void addFollowers(WorkQueue wq, List<CrawlURI> handout, int max) {
+        for (CrawlURI follower : wq.peekFollowing(this, max)) {
+            if (!getClassKey(follower).equals(follower.getClassKey())) {
+                // leave for requeuing when it reaches head of queue
+                break;
+            }
+            noteAboutToEmit(follower, wq);
+            handout.add(follower);
+        }
+    }
+
     private int targetSizeForReadyQueues() {
         return targetSizeForReadyQueues;
     }
@@ -801,6 +902,8 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
             long now = System.currentTimeMillis();
             long nextWakeDelay = 0;
             int wokenQueuesCount = 0;
+            // must be cleared before the emptiness check; see snoozeQueue()
+            this.nextWakeTime = Long.MAX_VALUE;
             while (true) {
                 if (snoozedClassQueues.isEmpty()) {
                     return;
@@ -816,10 +919,22 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
                     break;
                 }
             }
-            this.nextWake = new WakeTask();
-            this.wakeTimer.schedule(nextWake,nextWakeDelay);
+            scheduleWake(now, nextWakeDelay);
         }
     }
+    
+    /**
+     * Schedule a new WakeTask, superseding any previously scheduled. 
+     * Caller must hold the snoozedClassQueues monitor.
+     * 
+     * @param now time now in ms
+     * @param delay_ms time until wake in ms
+     */
+    private void scheduleWake(long now, long delay_ms) {
+        this.nextWake = new WakeTask();
+        this.wakeTimer.schedule(nextWake, delay_ms);
+        this.nextWakeTime = now + delay_ms;
+    }
 
     /**
      * Note that the previously emitted CrawlURI has completed
@@ -838,15 +953,17 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         curi.incrementFetchAttempts();
         logLocalizedErrors(curi);
         WorkQueue wq = (WorkQueue) curi.getHolder();
-        assert (wq.peek(this) == curi) : "unexpected peek " + wq;
+        assert wq.isHandedOut(curi) : "not outstanding from " + wq;
         inProcessQueues.remove(wq, 1);
 
         if(includesRetireDirective(curi)) {
             // CrawlURI is marked to trigger retirement of its queue
             curi.processingCleanup();
-            wq.unpeek();
-            wq.update(this, curi); // rewrite any changes
-            retireQueue(wq);
+            synchronized(wq) {
+                wq.unpeek();
+                wq.update(this, curi); // rewrite any changes
+                releaseQueue(wq, now, 0, true);
+            }
             return;
         }
         
@@ -861,12 +978,7 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
                 wq.unpeek();
                 // TODO: consider if this should happen automatically inside unpeek()
                 wq.update(this, curi); // rewrite any changes
-                if (delay_sec > 0) {
-                    long delay_ms = delay_sec * 1000;
-                    snoozeQueue(wq, now, delay_ms);
-                } else {
-                    reenqueueQueue(wq);
-                }
+                releaseQueue(wq, now, delay_sec * 1000, false);
             }
             // Let everyone interested know that it will be retried.
             controller.fireCrawledURINeedRetryEvent(curi);
@@ -875,7 +987,7 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
         }
 
         // Curi will definitely be disposed of without retry, so remove from queue
-        wq.dequeue(this);
+        wq.dequeue(this, curi);
         decrementQueuedCount(1);
         log(curi);
 
@@ -920,11 +1032,7 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
 
         long delay_ms = politenessDelayFor(curi);
         synchronized(wq) {
-            if (delay_ms > 0) {
-                snoozeQueue(wq,now,delay_ms);
-            } else {
-                reenqueueQueue(wq);
-            }
+            releaseQueue(wq, now, delay_ms, false);
         }
 
         curi.stripToMinimal();
@@ -932,6 +1040,36 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
 
     }
 
+    /**
+     * Note a URI handed out from the given queue is finished. If it was 
+     * the last outstanding, return the queue to rotation: retired if 
+     * any URI of the handout requested retirement, otherwise snoozed 
+     * for the longest delay requested, or made ready at once. Caller 
+     * must hold the queue's monitor.
+     * 
+     * @param wq queue from which a URI has finished
+     * @param now time now in ms
+     * @param delay_ms delay requested by the finished URI
+     * @param retire whether the finished URI requested queue retirement
+     */
+    private void releaseQueue(WorkQueue wq, long now, long delay_ms,
+            boolean retire) {
+        if (!wq.noteFinished(now + delay_ms, retire)) {
+            // others from the same handout still in process
+            return;
+        }
+        if (wq.isHandoutRetire()) {
+            retireQueue(wq);
+            return;
+        }
+        long wakeDelay = wq.getHandoutWakeTime() - now;
+        if (wakeDelay > 0) {
+            snoozeQueue(wq, now, wakeDelay);
+        } else {
+            reenqueueQueue(wq);
+        }
+    }
+
     private boolean includesRetireDirective(CrawlURI curi) {
         return curi.containsKey(A_FORCE_RETIRE) && (Boolean)curi.getObject(A_FORCE_RETIRE);
     }
@@ -951,12 +1089,26 @@ implements FetchStatusCodes, CoreAttributeConstants, HasUriReceiver,
                 ATTR_SNOOZE_DEACTIVATE_MS)).longValue();
         if (delay_ms > snoozeToInactiveDelayMs && !inactiveQueues.isEmpty()) {
             deactivateQueue(wq);
+        } else if (concurrentDispatch) {
+            // Only wakeQueues() removes from the set, always while holding
+            // its monitor; adds need no lock. The monitor is only taken
+            // when this queue must wake before the currently scheduled
+            // WakeTask. Because wakeQueues() resets nextWakeTime before
+            // testing for emptiness, a queue added concurrently is either
+            // seen by that pass or sees MAX_VALUE here and reschedules.
+            snoozedClassQueues.add(wq);
+            if (nextTime < nextWakeTime) {
+                synchronized(snoozedClassQueues) {
+                    if (nextTime < nextWakeTime) {
+                        scheduleWake(now, delay_ms);
+                    }
+                }
+            }
         } else {
             synchronized(snoozedClassQueues) {
                 snoozedClassQueues.add(wq);
                 if(wq == snoozedClassQueues.first()) {
-                    this.nextWake = new WakeTask();
-                    this.wakeTimer.schedule(nextWake, delay_ms);
+                    scheduleWake(now, delay_ms);
                 }
             }
         }
@@ -0,0 +1,121 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.frontier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Test WorkQueue handout bookkeeping, against an in-memory queue.
+ */
+public class WorkQueueTest extends TestCase {
+    public void testFinishHandoutHeadFirst() throws Exception {
+        MemWorkQueue wq = new MemWorkQueue();
+        for (int i = 0; i < 3; i++) {
+            wq.enqueue(null, new CrawlURI(UURIFactory.getInstance(
+                "http://www.archive.org/" + i)));
+        }
+        CrawlURI head = wq.peek(null);
+        List<CrawlURI> following = wq.peekFollowing(null, 1);
+        assertEquals(1, following.size());
+        CrawlURI follower = following.get(0);
+        head.setHolder(wq);
+        follower.setHolder(wq);
+        wq.noteHandedOut(2);
+        int loads = wq.loads;
+
+        // as WorkQueueFrontier.finished() does, with its assertion
+        assertTrue(wq.isHandedOut(head));
+        wq.dequeue(null, head);
+        assertFalse(wq.noteFinished(0, false));
+
+        assertTrue(wq.isHandedOut(follower));
+        wq.dequeue(null, follower);
+        assertTrue(wq.noteFinished(0, false));
+        assertEquals("no reloads while finishing", loads, wq.loads);
+
+        assertEquals(1, wq.getCount());
+        assertEquals("http://www.archive.org/2",
+            wq.peek(null).getUURI().toString());
+        assertFalse(wq.isHandedOut(follower));
+    }
+
+    /**
+     * WorkQueue holding its items in a list, handing out a fresh
+     * instance on each peek, as one backed by BDB would.
+     */
+    static class MemWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+        List<String> items = new ArrayList<String>();
+        int loads = 0;
+
+        MemWorkQueue() {
+            super("test");
+        }
+
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean expectedPresent) throws IOException {
+            items.add(curi.getUURI().toString());
+        }
+
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) throws IOException {
+            return 0;
+        }
+
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item)
+        throws IOException {
+            assertTrue("deleted " + item,
+                items.remove(item.getUURI().toString()));
+        }
+
+        protected CrawlURI peekItem(WorkQueueFrontier frontier)
+        throws IOException {
+            loads++;
+            return items.isEmpty() ? null : load(items.get(0));
+        }
+
+        protected List<CrawlURI> peekFollowingItems(
+                WorkQueueFrontier frontier, CrawlURI item, int max)
+        throws IOException {
+            int i = items.indexOf(item.getUURI().toString());
+            if (i < 0) {
+                return Collections.emptyList();
+            }
+            List<CrawlURI> following = new ArrayList<CrawlURI>();
+            for (int j = i + 1; j < items.size() && following.size() < max;
+                    j++) {
+                following.add(load(items.get(j)));
+            }
+            return following;
+        }
+
+        protected CrawlURI load(String uri) throws IOException {
+            return new CrawlURI(UURIFactory.getInstance(uri));
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.prefetch;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.crawler.datamodel.CrawlHost;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Resolves the names of {@link CrawlHost}s ahead of need, with
+ * non-blocking UDP queries to a DNS server, so that most URIs find their
+ * host's IP already set and need no 'dns:' prerequisite.
+ *
+ * One thread sends all queries and matches replies by message ID,
+ * keeping up to a set number in flight; further lookups wait their turn.
+ * Each query goes out from its own socket, bound to a random source
+ * port, so that a forged reply must guess the port as well as the ID.
+ * An unanswered query is sent again once, from a fresh port. An answer
+ * sets the address and TTL of its first A record on the CrawlHost. Any
+ * failure -- no answer, an error code, a truncated reply, no A record --
+ * leaves the host untouched, to be resolved by a 'dns:' URI through
+ * FetchDNS as before.
+ */
+public class DnsPrefetcher implements Runnable {
+    private static final Logger logger =
+        Logger.getLogger(DnsPrefetcher.class.getName());
+
+    public static final int DNS_PORT = 53;
+
+    /** times a query is sent before giving up */
+    protected static final int MAX_ATTEMPTS = 2;
+
+    /** ms between checks for unanswered queries */
+    protected static final long CHECK_INTERVAL_MS = 100;
+
+    /** source ports are chosen from this port up */
+    protected static final int EPHEMERAL_START = 1024;
+    protected static final int EPHEMERAL_RANGE = 0x10000 - EPHEMERAL_START;
+
+    /** random ports tried before leaving the choice to the system */
+    protected static final int BIND_ATTEMPTS = 3;
+
+    protected InetSocketAddress server;
+    protected Selector selector;
+    protected Thread thread;
+
+    /** most queries in flight at once */
+    protected int maxOutstanding;
+
+    /** ms to await an answer to each query sent */
+    protected long timeoutMs;
+
+    /** unfinished lookups, by hostname */
+    protected ConcurrentHashMap<String,Lookup> pending =
+        new ConcurrentHashMap<String,Lookup>();
+
+    /** lookups awaiting a query slot */
+    protected ConcurrentLinkedQueue<Lookup> waiting =
+        new ConcurrentLinkedQueue<Lookup>();
+
+    /** lookups with a query in flight, by message ID; I/O thread only */
+    protected Map<Integer,Lookup> outstanding = new HashMap<Integer,Lookup>();
+
+    /** room for the largest UDP reply, though only 512 bytes are asked */
+    protected ByteBuffer buffer = ByteBuffer.allocate(65536);
+
+    /** unpredictable message IDs and source ports */
+    protected Random random = new SecureRandom();
+
+    protected volatile boolean running = true;
+
+    protected AtomicLong resolved = new AtomicLong(0);
+    protected AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * @param server DNS server to query
+     * @param maxOutstanding most queries in flight at once
+     * @param timeoutMs ms to await an answer to each query sent
+     * @throws IOException
+     */
+    public DnsPrefetcher(InetSocketAddress server, int maxOutstanding,
+            long timeoutMs)
+    throws IOException {
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+        this.timeoutMs = timeoutMs;
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "DnsPrefetcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Start resolving the given host's name, unless it has already been
+     * looked up (or is an IP).
+     *
+     * @param host host to resolve
+     */
+    public void prefetch(CrawlHost host) {
+        if (!host.hasBeenLookedUp()) {
+            lookup(host);
+        }
+    }
+
+    /**
+     * Resolve the given host's name, joining any lookup already under
+     * way, and wait for the outcome.
+     *
+     * @param host host to resolve
+     * @return true if the host's IP was set; false if the lookup failed
+     * and the name is still to be resolved some other way
+     * @throws InterruptedException
+     */
+    public boolean resolve(CrawlHost host) throws InterruptedException {
+        Lookup lookup = lookup(host);
+        if (lookup == null) {
+            return false;
+        }
+        // every lookup finishes within its attempts' timeouts; the margin
+        // covers shutdown races
+        lookup.done.await(MAX_ATTEMPTS * (this.timeoutMs + CHECK_INTERVAL_MS)
+            + 1000, TimeUnit.MILLISECONDS);
+        return lookup.succeeded;
+    }
+
+    protected Lookup lookup(CrawlHost host) {
+        String name = host.getHostName();
+        if (!this.running || name == null || name.indexOf(':') >= 0) {
+            // not a hostname (e.g. the "dns:" pseudo-host)
+            return null;
+        }
+        Lookup lookup = this.pending.get(name);
+        if (lookup == null) {
+            Lookup created = new Lookup(host);
+            lookup = this.pending.putIfAbsent(name, created);
+            if (lookup == null) {
+                lookup = created;
+                this.waiting.add(created);
+                this.selector.wakeup();
+            }
+        }
+        return lookup;
+    }
+
+    public void run() {
+        try {
+            while (this.running) {
+                this.selector.select(CHECK_INTERVAL_MS);
+                for (Iterator<SelectionKey> i =
+                        this.selector.selectedKeys().iterator();
+                        i.hasNext();) {
+                    receive((Lookup)i.next().attachment());
+                    i.remove();
+                }
+                long now = System.currentTimeMillis();
+                expire(now);
+                send(now);
+            }
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "DNS prefetch stopped", t);
+            this.running = false;
+        }
+        // release anyone waiting
+        for (Iterator<Lookup> i = this.pending.values().iterator();
+                i.hasNext();) {
+            finish(i.next(), null);
+        }
+    }
+
+    /**
+     * Read all replies received on the given lookup's socket, finishing
+     * the lookup if one answers it.
+     */
+    protected void receive(Lookup lookup) {
+        while (lookup.channel != null) {
+            this.buffer.clear();
+            int length;
+            try {
+                length = lookup.channel.read(this.buffer);
+            } catch (IOException e) {
+                // e.g. ICMP port unreachable; unanswered queries will expire
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "DNS read", e);
+                }
+                return;
+            }
+            if (length <= 0) {
+                return;
+            }
+            byte[] reply = new byte[length];
+            System.arraycopy(this.buffer.array(), 0, reply, 0, length);
+            Message message;
+            try {
+                message = new Message(reply);
+            } catch (IOException e) {
+                continue; // garbled; ignore
+            }
+            Record question = message.getQuestion();
+            if (message.getHeader().getID() != lookup.id || question == null
+                    || !question.getName().equals(lookup.name)) {
+                continue; // stale or spurious
+            }
+            this.outstanding.remove(new Integer(lookup.id));
+            finish(lookup, firstARecord(message));
+        }
+    }
+
+    protected ARecord firstARecord(Message message) {
+        if (message.getRcode() != Rcode.NOERROR
+                || message.getHeader().getFlag(Flags.TC)) {
+            return null;
+        }
+        Record[] answers = message.getSectionArray(Section.ANSWER);
+        for (int i = 0; i < answers.length; i++) {
+            if (answers[i].getType() == Type.A) {
+                return (ARecord)answers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resend or give up on queries unanswered past their deadline.
+     */
+    protected void expire(long now) {
+        for (Iterator<Lookup> i = this.outstanding.values().iterator();
+                i.hasNext();) {
+            Lookup lookup = i.next();
+            if (now < lookup.deadline) {
+                continue;
+            }
+            i.remove();
+            lookup.close();
+            if (lookup.attempts < MAX_ATTEMPTS) {
+                this.waiting.add(lookup);
+            } else {
+                finish(lookup, null);
+            }
+        }
+    }
+
+    /**
+     * Send queries for waiting lookups while slots are free.
+     */
+    protected void send(long now) {
+        while (this.outstanding.size() < this.maxOutstanding) {
+            Lookup lookup = this.waiting.poll();
+            if (lookup == null) {
+                return;
+            }
+            try {
+                if (lookup.name == null) {
+                    lookup.name = Name.fromString(lookup.host.getHostName(),
+                        Name.root);
+                }
+                Message query = Message.newQuery(
+                    Record.newRecord(lookup.name, Type.A, DClass.IN));
+                Integer id;
+                do {
+                    id = new Integer(this.random.nextInt(0x10000));
+                } while (this.outstanding.containsKey(id));
+                query.getHeader().setID(id.intValue());
+                lookup.id = id.intValue();
+                lookup.channel = openChannel();
+                lookup.channel.register(this.selector, SelectionKey.OP_READ,
+                    lookup);
+                // a full socket buffer drops the query; it'll be resent
+                lookup.channel.write(ByteBuffer.wrap(query.toWire()));
+                lookup.attempts++;
+                lookup.deadline = now + this.timeoutMs;
+                this.outstanding.put(id, lookup);
+            } catch (TextParseException e) {
+                finish(lookup, null);
+            } catch (IOException e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "DNS send " + lookup.name, e);
+                }
+                finish(lookup, null);
+            }
+        }
+    }
+
+    /**
+     * @return a non-blocking socket connected to the server, bound to a
+     * random local port
+     * @throws IOException
+     */
+    protected DatagramChannel openChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            for (int i = 0; ; i++) {
+                int port = (i < BIND_ATTEMPTS)
+                    ? EPHEMERAL_START + this.random.nextInt(EPHEMERAL_RANGE)
+                    : 0;
+                try {
+                    channel.socket().bind(new InetSocketAddress(port));
+                    break;
+                } catch (BindException e) {
+                    if (port == 0) {
+                        throw e;
+                    }
+                    // in use; try another
+                }
+            }
+            channel.connect(this.server);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    protected void finish(Lookup lookup, ARecord answer) {
+        lookup.close();
+        if (answer != null) {
+            lookup.host.setIP(answer.getAddress(), answer.getTTL());
+            lookup.succeeded = true;
+            this.resolved.incrementAndGet();
+        } else {
+            this.failed.incrementAndGet();
+        }
+        this.pending.remove(lookup.host.getHostName(), lookup);
+        lookup.done.countDown();
+    }
+
+    /**
+     * Stop resolving; lookups under way fail.
+     */
+    public void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "DNS prefetch close", e);
+        }
+    }
+
+    /**
+     * @return count of names resolved
+     */
+    public long getResolvedCount() {
+        return this.resolved.get();
+    }
+
+    /**
+     * @return count of lookups failed, left to 'dns:' URIs
+     */
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * @return count of lookups under way
+     */
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * A name being resolved for a host.
+     */
+    protected static class Lookup {
+        final CrawlHost host;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean succeeded = false;
+        // remainder used by the I/O thread only
+        Name name;
+        int attempts = 0;
+        long deadline;
+        /** socket and message ID of the query in flight, if any */
+        DatagramChannel channel;
+        int id;
+
+        Lookup(CrawlHost host) {
+            this.host = host;
+        }
+
+        void close() {
+            if (this.channel == null) {
+                return;
+            }
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "DNS socket close", e);
+            }
+            this.channel = null;
+        }
+    }
+}
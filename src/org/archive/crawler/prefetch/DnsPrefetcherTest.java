@@ -0,0 +1,162 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.prefetch;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.datamodel.CrawlHost;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Section;
+
+/**
+ * Test DnsPrefetcher against a local UDP server.
+ */
+public class DnsPrefetcherTest extends TestCase {
+    DatagramSocket server;
+    AtomicInteger queries = new AtomicInteger(0);
+    Set<Integer> sourcePorts = new ConcurrentSkipListSet<Integer>();
+    DnsPrefetcher prefetcher;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.server = new DatagramSocket(0, InetAddress.getByName(null));
+        new Thread("DnsPrefetcherTest server") {
+            public void run() {
+                try {
+                    answer();
+                } catch (Exception e) {
+                    // socket closed
+                }
+            }
+        }.start();
+        this.prefetcher = new DnsPrefetcher(new InetSocketAddress(
+            InetAddress.getByName(null), this.server.getLocalPort()), 10, 200);
+    }
+
+    protected void tearDown() throws Exception {
+        this.prefetcher.shutdown();
+        this.server.close();
+        super.tearDown();
+    }
+
+    /**
+     * Answer queries: names under example.com. resolve to 10.0.0.1,
+     * names under silent. go unanswered, and all else are NXDOMAIN.
+     */
+    void answer() throws Exception {
+        byte[] buf = new byte[512];
+        while (true) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            this.server.receive(packet);
+            this.queries.incrementAndGet();
+            this.sourcePorts.add(new Integer(packet.getPort()));
+            byte[] wire = new byte[packet.getLength()];
+            System.arraycopy(buf, 0, wire, 0, wire.length);
+            Message query = new Message(wire);
+            Name name = query.getQuestion().getName();
+            if (name.subdomain(Name.fromString("silent."))) {
+                continue;
+            }
+            Message reply = new Message(query.getHeader().getID());
+            reply.getHeader().setFlag(Flags.QR);
+            reply.addRecord(query.getQuestion(), Section.QUESTION);
+            if (name.subdomain(Name.fromString("example.com."))) {
+                reply.addRecord(new ARecord(name, DClass.IN, 300,
+                    InetAddress.getByAddress(new byte[] {10, 0, 0, 1})),
+                    Section.ANSWER);
+            } else {
+                reply.getHeader().setRcode(Rcode.NXDOMAIN);
+            }
+            byte[] out = reply.toWire();
+            this.server.send(new DatagramPacket(out, out.length,
+                packet.getSocketAddress()));
+        }
+    }
+
+    public void testResolve() throws Exception {
+        CrawlHost host = new CrawlHost("www.example.com");
+        assertTrue(this.prefetcher.resolve(host));
+        assertTrue(host.hasBeenLookedUp());
+        assertEquals("10.0.0.1", host.getIP().getHostAddress());
+        assertEquals(300, host.getIpTTL());
+        assertEquals(1, this.prefetcher.getResolvedCount());
+        assertEquals(0, this.prefetcher.getPendingCount());
+    }
+
+    public void testPrefetchJoined() throws Exception {
+        CrawlHost host = new CrawlHost("a.example.com");
+        this.prefetcher.prefetch(host);
+        this.prefetcher.prefetch(host);
+        assertTrue(this.prefetcher.resolve(host));
+        assertEquals(1, this.queries.get());
+        // already looked up: no further query
+        this.prefetcher.prefetch(host);
+        Thread.sleep(100);
+        assertEquals(1, this.queries.get());
+    }
+
+    public void testNxdomain() throws Exception {
+        CrawlHost host = new CrawlHost("www.example.org");
+        assertFalse(this.prefetcher.resolve(host));
+        // left for a dns: URI to settle
+        assertFalse(host.hasBeenLookedUp());
+        assertEquals(1, this.prefetcher.getFailedCount());
+    }
+
+    public void testTimeout() throws Exception {
+        CrawlHost host = new CrawlHost("www.silent");
+        long start = System.currentTimeMillis();
+        assertFalse(this.prefetcher.resolve(host));
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(DnsPrefetcher.MAX_ATTEMPTS, this.queries.get());
+        assertFalse(host.hasBeenLookedUp());
+    }
+
+    public void testSourcePorts() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(this.prefetcher.resolve(
+                new CrawlHost("p" + i + ".example.com")));
+        }
+        // each query from its own random port, allowing one chance repeat
+        assertEquals(5, this.queries.get());
+        assertTrue(this.sourcePorts.size() >= 4);
+    }
+
+    public void testSkipped() throws Exception {
+        // IP hosts need no lookup; the dns: pseudo-host isn't a name
+        this.prefetcher.prefetch(new CrawlHost("192.168.1.1"));
+        assertFalse(this.prefetcher.resolve(new CrawlHost("dns:")));
+        Thread.sleep(100);
+        assertEquals(0, this.queries.get());
+    }
+}
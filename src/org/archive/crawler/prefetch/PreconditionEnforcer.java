@@ -23,6 +23,8 @@
  */
 package org.archive.crawler.prefetch;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.logging.Level;
@@ -30,6 +32,7 @@ import java.util.logging.Logger;
 
 import javax.management.AttributeNotFoundException;
 
+import org.apache.commons.collections.Closure;
 import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.datamodel.CoreAttributeConstants;
 import org.archive.crawler.datamodel.CrawlHost;
@@ -43,6 +46,7 @@ import org.archive.crawler.framework.Processor;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.Type;
 import org.archive.net.UURI;
+import org.xbill.DNS.ResolverConfig;
 
 /**
  * Ensures the preconditions for a fetch -- such as DNS lookup 
@@ -76,6 +80,23 @@ public class PreconditionEnforcer
     public final static Boolean DEFAULT_CALCULATE_ROBOTS_ONLY = Boolean.FALSE;
     public final static String ATTR_CALCULATE_ROBOTS_ONLY 
         = "calculate-robots-only";
+
+    /** whether to resolve hostnames ahead of need */
+    public final static String ATTR_DNS_PREFETCH = "dns-prefetch";
+    public final static Boolean DEFAULT_DNS_PREFETCH = Boolean.FALSE;
+    /** most prefetch DNS queries in flight */
+    public final static String ATTR_DNS_PREFETCH_MAX_QUERIES
+        = "dns-prefetch-max-queries";
+    public final static Integer DEFAULT_DNS_PREFETCH_MAX_QUERIES =
+        new Integer(100);
+    /** ms to await each prefetch DNS query's answer */
+    public final static String ATTR_DNS_PREFETCH_TIMEOUT_MS
+        = "dns-prefetch-timeout-ms";
+    public final static Integer DEFAULT_DNS_PREFETCH_TIMEOUT_MS =
+        new Integer(5000);
+
+    /** resolver of hostnames ahead of need, if prefetching */
+    private transient DnsPrefetcher dnsPrefetcher = null;
     
     public PreconditionEnforcer(String name) {
         super(name, "Precondition enforcer");
@@ -104,6 +125,92 @@ public class PreconditionEnforcer
                 "still fetched. Default is false. ",
                 DEFAULT_CALCULATE_ROBOTS_ONLY));
         e.setExpertSetting(true);
+
+        e = addElementToDefinition(new SimpleType(ATTR_DNS_PREFETCH,
+                "Whether to resolve the hostname of each newly discovered " +
+                "host in the background, with non-blocking queries to the " +
+                "system's DNS server, rather than by fetching a 'dns:' URI " +
+                "as a prerequisite of its first URI. Only lookups that " +
+                "fail fall back to 'dns:' URIs; successful ones leave no " +
+                "DNS record in the crawl log or archive files. Changes take " +
+                "effect when the crawl is next started.",
+                DEFAULT_DNS_PREFETCH));
+        e.setExpertSetting(true);
+        e.setOverrideable(false);
+
+        e = addElementToDefinition(new SimpleType(
+                ATTR_DNS_PREFETCH_MAX_QUERIES,
+                "Most DNS prefetch queries to have in flight at once. " +
+                "Only pertinent if " + ATTR_DNS_PREFETCH + " is true.",
+                DEFAULT_DNS_PREFETCH_MAX_QUERIES));
+        e.setExpertSetting(true);
+        e.setOverrideable(false);
+
+        e = addElementToDefinition(new SimpleType(
+                ATTR_DNS_PREFETCH_TIMEOUT_MS,
+                "Milliseconds to await the answer to a DNS prefetch query. " +
+                "An unanswered query is sent once more before the lookup " +
+                "is left to a 'dns:' URI. Only pertinent if " +
+                ATTR_DNS_PREFETCH + " is true.",
+                DEFAULT_DNS_PREFETCH_TIMEOUT_MS));
+        e.setExpertSetting(true);
+        e.setOverrideable(false);
+    }
+
+    protected void initialTasks() {
+        super.initialTasks();
+        if (!((Boolean)getUncheckedAttribute(null, ATTR_DNS_PREFETCH))
+                .booleanValue()) {
+            return;
+        }
+        String server = ResolverConfig.getCurrentConfig().server();
+        if (server == null) {
+            logger.warning("No DNS server configured; not prefetching");
+            return;
+        }
+        try {
+            this.dnsPrefetcher = new DnsPrefetcher(
+                new InetSocketAddress(server, DnsPrefetcher.DNS_PORT),
+                ((Integer)getUncheckedAttribute(null,
+                    ATTR_DNS_PREFETCH_MAX_QUERIES)).intValue(),
+                ((Integer)getUncheckedAttribute(null,
+                    ATTR_DNS_PREFETCH_TIMEOUT_MS)).intValue());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed start of DNS prefetch", e);
+            return;
+        }
+        final DnsPrefetcher prefetcher = this.dnsPrefetcher;
+        getController().getServerCache().setNewHostClosure(new Closure() {
+            public void execute(Object host) {
+                prefetcher.prefetch((CrawlHost)host);
+            }
+        });
+    }
+
+    protected void finalTasks() {
+        if (this.dnsPrefetcher != null) {
+            if (getController().getServerCache() != null) {
+                getController().getServerCache().setNewHostClosure(null);
+            }
+            this.dnsPrefetcher.shutdown();
+        }
+        super.finalTasks();
+    }
+
+    public String report() {
+        if (this.dnsPrefetcher == null) {
+            return super.report();
+        }
+        StringBuffer ret = new StringBuffer();
+        ret.append("Processor: " + getClass().getName() + "\n");
+        ret.append("  Function:          Enforce fetch preconditions\n");
+        ret.append("  DNS prefetched:    " +
+            this.dnsPrefetcher.getResolvedCount() + "\n");
+        ret.append("  DNS prefetch failures: " +
+            this.dnsPrefetcher.getFailedCount() + "\n");
+        ret.append("  DNS prefetch pending:  " +
+            this.dnsPrefetcher.getPendingCount() + "\n\n");
+        return ret.toString();
     }
 
     protected void innerProcess(CrawlURI curi) {
@@ -247,7 +354,8 @@ public class PreconditionEnforcer
 
         // If we haven't done a dns lookup  and this isn't a dns uri
         // shoot that off and defer further processing
-        if (isIpExpired(curi) && !curi.getUURI().getScheme().equals("dns")) {
+        if (isIpExpired(curi) && !curi.getUURI().getScheme().equals("dns")
+                && !resolveAsync(ch)) {
             logger.fine("Deferring processing of CrawlURI " + curi.toString()
                 + " for dns lookup.");
             String preq = "dns:" + ch.getHostName();
@@ -264,6 +372,26 @@ public class PreconditionEnforcer
         return false;
     }
 
+    /**
+     * Resolve the host by DNS prefetch, if enabled, awaiting any lookup
+     * already under way.
+     *
+     * @param host host needing its IP
+     * @return true if resolved; false if a 'dns:' URI is still needed
+     */
+    private boolean resolveAsync(CrawlHost host) {
+        DnsPrefetcher prefetcher = this.dnsPrefetcher;
+        if (prefetcher == null) {
+            return false;
+        }
+        try {
+            return prefetcher.resolve(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Get the maximum time a dns-record is valid.
      *
@@ -34,6 +34,7 @@ import org.archive.crawler.deciderules.DecidingScope;
 import org.archive.crawler.framework.CrawlController;
 import org.archive.crawler.settings.SimpleType;
 import org.archive.crawler.settings.Type;
+import org.archive.util.PrefixTrie;
 import org.archive.util.SurtPrefixSet;
 
 /**
@@ -69,7 +70,7 @@ public class SurtPrefixScope extends RefinedScope {
     public static final Boolean
         DEFAULT_ALSO_CHECK_VIA = Boolean.FALSE;
     
-    SurtPrefixSet surtPrefixes = null;
+    transient volatile PrefixTrie surtPrefixes = null;
 
     public SurtPrefixScope(String name) {
         super(name);
@@ -124,10 +125,16 @@ public class SurtPrefixScope extends RefinedScope {
      *            An instance of UURI or of CandidateURI.
      * @return True if focus filter accepts passed object.
      */
-    protected synchronized boolean focusAccepts(Object object) {
+    protected boolean focusAccepts(Object object) {
         // TODO: eliminate duplication wrt/SurtPrefixedDecideRule.evaluate
-        if (surtPrefixes == null) {
-            readPrefixes();
+        PrefixTrie prefixes = surtPrefixes;
+        if (prefixes == null) {
+            synchronized (this) {
+                if (surtPrefixes == null) {
+                    readPrefixes();
+                }
+                prefixes = surtPrefixes;
+            }
         }
         if ( (object instanceof CandidateURI) && 
                 ((Boolean) getUncheckedAttribute(null, ATTR_ALSO_CHECK_VIA))
@@ -140,11 +147,11 @@ public class SurtPrefixScope extends RefinedScope {
         if(candidateSurt == null) {
             return false; 
         }
-        return surtPrefixes.containsPrefixOf(candidateSurt);
+        return prefixes.containsPrefixOf(candidateSurt);
     }
     
     private void readPrefixes() {
-        surtPrefixes = new SurtPrefixSet(); 
+        SurtPrefixSet newSurtPrefixes = new SurtPrefixSet(); 
         FileReader fr = null;
         
         // read SURTs from file, if appropriate 
@@ -159,7 +166,7 @@ public class SurtPrefixScope extends RefinedScope {
             try {
                 fr = new FileReader(source);
                 try {
-                    surtPrefixes.importFromMixed(fr,true);
+                    newSurtPrefixes.importFromMixed(fr,true);
                 } finally {
                     fr.close();
                 }
@@ -177,7 +184,7 @@ public class SurtPrefixScope extends RefinedScope {
         try {
             fr = new FileReader(getSeedfile());
             try {
-                surtPrefixes.importFromMixed(fr,deduceFromSeeds);
+                newSurtPrefixes.importFromMixed(fr,deduceFromSeeds);
             } finally {
                 fr.close();
             }
@@ -199,7 +206,7 @@ public class SurtPrefixScope extends RefinedScope {
                 OutputStreamWriter fw = new OutputStreamWriter(
                         new FileOutputStream(dump),"UTF-8");
                 try {
-                    surtPrefixes.exportTo(fw);
+                    newSurtPrefixes.exportTo(fw);
                 } finally {
                     fw.close();
                 }
@@ -208,6 +215,7 @@ public class SurtPrefixScope extends RefinedScope {
                 throw new RuntimeException(e);
             }
         }
+        surtPrefixes = PrefixTrie.build(newSurtPrefixes);
     }
 
     /**
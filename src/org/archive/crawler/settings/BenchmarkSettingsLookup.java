@@ -0,0 +1,105 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.settings;
+
+import java.io.File;
+
+import javax.management.Attribute;
+
+import org.archive.crawler.datamodel.CrawlOrder;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+
+/**
+ * Compare per-URI attribute lookups through ComplexType.getAttribute
+ * when resolved values are reused against when every lookup walks the
+ * settings hierarchy (forced by bumping the settings version before
+ * each call).
+ *
+ * Lookups go through per-domain and per-host overrides, as a processor
+ * reading its settings for each URI would.
+ *
+ * Usage: BenchmarkSettingsLookup [lookups [dir]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkSettingsLookup {
+    static final String ATTR = "benchmark-attr";
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkSettingsLookup()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int lookups =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        File dir = new File((args.length > 1) ? args[1]
+            : System.getProperty("java.io.tmpdir"),
+            "BenchmarkSettingsLookup");
+        FileUtils.deleteDir(dir);
+        dir.mkdirs();
+        try {
+            XMLSettingsHandler handler =
+                new XMLSettingsHandler(new File(dir, "order.xml"));
+            handler.initialize();
+            MapType headers = (MapType)handler.getOrder()
+                .getAttribute(CrawlOrder.ATTR_HTTP_HEADERS);
+            headers.addElement(handler.getSettingsObject(null),
+                new SimpleType(ATTR, "benchmark attribute", "global"));
+            headers.setAttribute(
+                handler.getOrCreateSettingsObject("example.com"),
+                new Attribute(ATTR, "domain"));
+            handler.getOrCreateSettingsObject("www.example.com");
+            CrawlURI[] curis = new CrawlURI[64];
+            for (int i = 0; i < curis.length; i++) {
+                curis[i] = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.example.com/page" + i + ".html"));
+            }
+            for (int rep = 0; rep < 3; rep++) {
+                run(handler, headers, curis, lookups / 10, false);
+                run(handler, headers, curis, lookups, true);
+            }
+        } finally {
+            FileUtils.deleteDir(dir);
+        }
+    }
+
+    protected void run(SettingsHandler handler, ComplexType module,
+            CrawlURI[] curis, int lookups, boolean reuse) {
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            if (!reuse) {
+                handler.settingsChanged();
+            }
+            if ("domain".equals(module.getUncheckedAttribute(
+                    curis[i & (curis.length - 1)], ATTR))) {
+                hits++;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println((reuse ? "resolved" : "walked")
+            + ": lookups/s=" + (lookups * 1000000000L / Math.max(1, ns))
+            + " (" + (hits == lookups) + ")");
+    }
+}
@@ -325,15 +325,30 @@ public abstract class ComplexType extends Type implements DynamicMBean {
             // Try to get settings for URI that has no references to a
             // CrawlServer [SIC - CrawlURI may have CrawlServer -gjm]
             context = new Context();
-            context.uri = (o instanceof CandidateURI)?
-                ((CandidateURI) o).getUURI(): (UURI)o;
-            try {
-               context.settings = getSettingsHandler().
-                   getSettings(context.uri.getReferencedHost(),
-                       context.uri);
+            CandidateURI caUri = (o instanceof CandidateURI)?
+                (CandidateURI) o: null;
+            context.uri = (caUri != null)? caUri.getUURI(): (UURI)o;
+            SettingsHandler handler = getSettingsHandler();
+            if (caUri != null) {
+                context.settings = caUri.getResolvedSettings(handler);
             }
-            catch (URIException e1) {
-                logger.severe("Failed to get host");
+            if (context.settings == null) {
+                int version = handler.getSettingsVersion();
+                try {
+                    context.settings = handler.
+                        getSettings(context.uri.getReferencedHost(),
+                            context.uri);
+                }
+                catch (URIException e1) {
+                    logger.severe("Failed to get host");
+                }
+                // Only remember settings whose selection did not involve
+                // refinements, which may depend on more than the URI.
+                if (caUri != null && context.settings != null
+                        && !context.settings.isRefinement()
+                        && !context.settings.hasRefinements()) {
+                    caUri.setResolvedSettings(context.settings, version);
+                }
             }
 
             if (attributeName != null) {
@@ -458,7 +473,70 @@ public abstract class ComplexType extends Type implements DynamicMBean {
             }
         }
 
-        return getDataContainerRecursive(ctxt, name).get(name);
+        // Reuse a value already resolved from this settings object
+        ResolvedSettings resolved = ctxt.settings.getResolvedSettings();
+        if (resolved != null) {
+            Object value = resolved.get(this, name);
+            if (value != null) {
+                return value;
+            }
+        }
+        Object value = getDataContainerRecursive(ctxt, name).get(name);
+        if (resolved != null && value != null) {
+            resolved.put(this, name, value);
+        }
+        return value;
+    }
+
+    /**
+     * Get a value this module derived from its settings as they apply to the
+     * given context -- a compiled form of them, say -- as saved by
+     * {@link #putDerivedValue(Object, String, Object)} since settings last
+     * changed.
+     *
+     * @param context the object to get the settings from.
+     * @param key the module's name for the value.
+     * @return the saved value, or null if none.
+     */
+    protected Object getDerivedValue(Object context, String key) {
+        ResolvedSettings resolved = getResolvedSettings(context);
+        return (resolved == null) ? null : resolved.getDerived(this, key);
+    }
+
+    /**
+     * Save a value derived from this module's settings as they apply to the
+     * given context, until settings change. Does nothing if values for the
+     * context cannot be cached; see {@link #isDerivedValueCacheable(Object)}.
+     *
+     * @param context the object to get the settings from.
+     * @param key the module's name for the value.
+     * @param value the value.
+     */
+    protected void putDerivedValue(Object context, String key, Object value) {
+        ResolvedSettings resolved = getResolvedSettings(context);
+        if (resolved != null) {
+            resolved.putDerived(this, key, value);
+        }
+    }
+
+    /**
+     * Whether values derived from settings as they apply to the given
+     * context can be saved. They cannot when the settings that apply
+     * depend on more than the context's settings object, as when
+     * refinements are involved.
+     *
+     * @param context the object to get the settings from.
+     * @return true if {@link #putDerivedValue(Object, String, Object)} will
+     * save values for this context.
+     */
+    protected boolean isDerivedValueCacheable(Object context) {
+        return getResolvedSettings(context) != null;
+    }
+
+    private ResolvedSettings getResolvedSettings(Object context) {
+        Context ctxt = getSettingsFromObject(context);
+        return (ctxt.settings == null)
+            ? null : ctxt.settings.getResolvedSettings();
     }
 
     /**
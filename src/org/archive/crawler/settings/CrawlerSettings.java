@@ -106,6 +106,9 @@ public class CrawlerSettings {
     /** Time when this collection was last saved to persistent storage */
     private Date lastSaved = null;
 
+    /** Attribute values resolved starting from this settings object */
+    private volatile ResolvedSettings resolvedSettings = null;
+
     /**
      * Constructs a new CrawlerSettings object.
      *
@@ -276,6 +279,7 @@ public class CrawlerSettings {
         if (type instanceof ModuleType) {
             localModules.put(type.getName(), type);
         }
+        settingsHandler.settingsChanged();
         return data;
     }
 
@@ -323,6 +327,52 @@ public class CrawlerSettings {
                     getSettings(settingsHandler.getParentScope(scope), uri);
     }
 
+    /**
+     * Get the snapshot of attribute values resolved starting from this
+     * settings object, replacing it if settings have changed since it
+     * was made.
+     *
+     * @return the current snapshot, or null if values resolved from here
+     *         cannot be cached because they depend on the URI.
+     */
+    ResolvedSettings getResolvedSettings() {
+        int version = settingsHandler.getSettingsVersion();
+        ResolvedSettings resolved = this.resolvedSettings;
+        if (resolved == null || resolved.getVersion() != version) {
+            resolved = new ResolvedSettings(version, !hasRefinedAncestor());
+            this.resolvedSettings = resolved;
+        }
+        return resolved.isCacheable() ? resolved : null;
+    }
+
+    /**
+     * Whether the chain of parents of this settings object passes
+     * through a settings object with refinements, so that which parent
+     * applies varies by URI.
+     *
+     * @return true if any ancestor has refinements.
+     */
+    private boolean hasRefinedAncestor() {
+        CrawlerSettings s = this;
+        while (s != null) {
+            CrawlerSettings parent;
+            if (s.isRefinement()) {
+                // parent is the unrefined settings for the same scope
+                parent = settingsHandler.getSettingsForHost(s.scope);
+            } else if (s.scope == null || s.scope.equals("")) {
+                return false;
+            } else {
+                parent = settingsHandler.getSettingsForHost(
+                    settingsHandler.getParentScope(s.scope));
+                if (parent != null && parent.hasRefinements()) {
+                    return true;
+                }
+            }
+            s = parent;
+        }
+        return false;
+    }
+
     /** Get the SettingHandler this CrawlerSettings object belongs to.
      *
      * @return the SettingHandler this CrawlerSettings object belongs to.
@@ -355,6 +405,7 @@ public class CrawlerSettings {
         }
         this.refinements.remove(refinement);
         this.refinements.add(refinement);
+        settingsHandler.settingsChanged();
     }
 
     /**
@@ -369,6 +420,7 @@ public class CrawlerSettings {
             for(Iterator it = refinements.iterator(); it.hasNext();) {
                 if (((Refinement) it.next()).getReference().equals(reference)) {
                     it.remove();
+                    settingsHandler.settingsChanged();
                     return true;
                 }
             }
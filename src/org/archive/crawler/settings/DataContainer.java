@@ -182,7 +182,9 @@ public class DataContainer extends HashMap<String,Object> {
     protected Object put(String key, MBeanAttributeInfo info, Object value)
         throws InvalidAttributeValueException, AttributeNotFoundException {
         attributeNames.put(key, info);
-        return super.put(key, value);
+        Object old = super.put(key, value);
+        settingsChanged();
+        return old;
     }
 
     /* (non-Javadoc)
@@ -218,6 +220,8 @@ public class DataContainer extends HashMap<String,Object> {
 
         attributes.remove(prevIndex);
         attributes.add(prevIndex-1, element);
+        // order matters to values derived from a map, such as rule plans
+        settingsChanged();
 
         return true;
     }
@@ -240,6 +244,7 @@ public class DataContainer extends HashMap<String,Object> {
 
         attributes.remove(prevIndex);
         attributes.add(prevIndex + 1, element);
+        settingsChanged();
 
         return true;
     }
@@ -260,7 +265,19 @@ public class DataContainer extends HashMap<String,Object> {
 
         attributes.remove(element);
         attributeNames.remove(element.getName());
-        return super.remove(element.getName());
+        Object old = super.remove(element.getName());
+        settingsChanged();
+        return old;
+    }
+
+    /**
+     * Invalidate attribute values resolved through this container.
+     */
+    private void settingsChanged() {
+        CrawlerSettings s = getSettings();
+        if (s != null && s.getSettingsHandler() != null) {
+            s.getSettingsHandler().settingsChanged();
+        }
     }
 
     /** Get the ComplexType for which this DataContainer keeps data.
@@ -0,0 +1,104 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.settings;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of attribute values already resolved, through the settings
+ * hierarchy, starting from one CrawlerSettings object.
+ *
+ * Values are kept per module (by the ComplexType's absolute name) so
+ * that a repeat lookup is two hash probes instead of a walk up the
+ * scopes and their refinements. A snapshot is only valid for the
+ * {@link SettingsHandler#getSettingsVersion()} it was created at; any
+ * change to settings makes CrawlerSettings discard it.
+ *
+ * Modules may also keep values they derive from their settings, such as
+ * compiled forms of them, alongside; these are discarded with the rest.
+ *
+ * A snapshot is marked not cacheable when some ancestor settings object
+ * has refinements, since resolution through it then depends on the URI
+ * (or time) being looked up.
+ */
+class ResolvedSettings {
+    private final int version;
+    private final boolean cacheable;
+    private final ConcurrentHashMap<String,ConcurrentHashMap<String,Object>>
+        modules;
+    private final ConcurrentHashMap<String,Object> derived;
+
+    ResolvedSettings(int version, boolean cacheable) {
+        this.version = version;
+        this.cacheable = cacheable;
+        this.modules = cacheable
+            ? new ConcurrentHashMap<String,ConcurrentHashMap<String,Object>>()
+            : null;
+        this.derived = cacheable
+            ? new ConcurrentHashMap<String,Object>()
+            : null;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @param complex module the attribute belongs to
+     * @param name attribute name
+     * @return resolved value, or null if not yet resolved
+     */
+    Object get(ComplexType complex, String name) {
+        ConcurrentHashMap<String,Object> values =
+            modules.get(complex.getAbsoluteName());
+        return (values == null) ? null : values.get(name);
+    }
+
+    void put(ComplexType complex, String name, Object value) {
+        String key = complex.getAbsoluteName();
+        ConcurrentHashMap<String,Object> values = modules.get(key);
+        if (values == null) {
+            values = new ConcurrentHashMap<String,Object>();
+            ConcurrentHashMap<String,Object> prior =
+                modules.putIfAbsent(key, values);
+            if (prior != null) {
+                values = prior;
+            }
+        }
+        values.put(name, value);
+    }
+
+    /**
+     * @param complex module that derived the value
+     * @param key module's name for the value
+     * @return derived value, or null if none saved
+     */
+    Object getDerived(ComplexType complex, String key) {
+        return derived.get(complex.getAbsoluteName() + '#' + key);
+    }
+
+    void putDerived(ComplexType complex, String key, Object value) {
+        derived.put(complex.getAbsoluteName() + '#' + key, value);
+    }
+}
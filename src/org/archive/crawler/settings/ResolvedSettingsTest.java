@@ -0,0 +1,100 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.settings;
+
+import javax.management.Attribute;
+
+import org.archive.crawler.datamodel.CrawlOrder;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.crawler.settings.refinements.Refinement;
+import org.archive.crawler.settings.refinements.RegularExpressionCriteria;
+import org.archive.net.UURIFactory;
+
+/**
+ * Test that attribute values resolved per settings object and per URI
+ * are reused, and are discarded when settings change.
+ */
+public class ResolvedSettingsTest extends SettingsFrameworkTestCase {
+    static final String ATTR = "resolved-test";
+
+    MapType headers;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        headers = (MapType)getSettingsHandler().getOrder()
+            .getAttribute(CrawlOrder.ATTR_HTTP_HEADERS);
+        headers.addElement(getGlobalSettings(),
+            new SimpleType(ATTR, "test attribute", "global"));
+    }
+
+    public void testInvalidatedOnChange() throws Exception {
+        CrawlURI curi = getMatchHostURI();
+        assertEquals("global", headers.getAttribute(curi, ATTR));
+        assertEquals("global", headers.getAttribute(curi, ATTR));
+        assertSame("settings remembered on uri", getPerHostSettings(),
+            curi.getResolvedSettings(getSettingsHandler()));
+
+        headers.setAttribute(getPerDomainSettings(),
+            new Attribute(ATTR, "domain"));
+        assertNull("uri memo invalidated",
+            curi.getResolvedSettings(getSettingsHandler()));
+        assertEquals("domain", headers.getAttribute(curi, ATTR));
+        assertEquals("domain",
+            headers.getAttribute(getMatchDomainURI(), ATTR));
+        assertEquals("global",
+            headers.getAttribute(getUnMatchedURI(), ATTR));
+
+        headers.setAttribute(getPerHostSettings(),
+            new Attribute(ATTR, "host"));
+        assertEquals("host", headers.getAttribute(curi, ATTR));
+        assertEquals("domain",
+            headers.getAttribute(getMatchDomainURI(), ATTR));
+
+        headers.unsetAttribute(getPerHostSettings(), ATTR);
+        assertEquals("domain", headers.getAttribute(curi, ATTR));
+
+        headers.setAttribute(getGlobalSettings(),
+            new Attribute(ATTR, "global2"));
+        assertEquals("global2",
+            headers.getAttribute(getUnMatchedURI(), ATTR));
+    }
+
+    public void testRefinedAncestorNotCached() throws Exception {
+        CrawlerSettings refined = getSettingsHandler()
+            .getOrCreateSettingsObject("archive.org", "audio");
+        Refinement refinement = new Refinement(getPerDomainSettings(),
+            "audio");
+        refinement.addCriteria(new RegularExpressionCriteria(".*\\.mp3$"));
+        headers.setAttribute(refined, new Attribute(ATTR, "refined"));
+
+        CrawlURI plain = new CrawlURI(
+            UURIFactory.getInstance("http://www.archive.org/a.html"));
+        CrawlURI audio = new CrawlURI(
+            UURIFactory.getInstance("http://www.archive.org/a.mp3"));
+        for (int i = 0; i < 3; i++) {
+            // both resolve through www.archive.org's settings; the parent
+            // then differs by URI
+            assertEquals("global", headers.getAttribute(plain, ATTR));
+            assertEquals("refined", headers.getAttribute(audio, ATTR));
+        }
+        assertNull("no snapshot below refined scope",
+            getPerHostSettings().getResolvedSettings());
+    }
+}
@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import javax.management.AttributeNotFoundException;
@@ -58,6 +59,12 @@ import org.archive.util.ArchiveUtils;
  * @author John Erik Halse
  */
 public abstract class SettingsHandler {
+    /**
+     * Count of changes to any settings. Attribute values resolved and
+     * cached under an older count are stale.
+     */
+    private final AtomicInteger settingsVersion = new AtomicInteger(0);
+
     /** Cached CrawlerSettings objects */
     private SettingsCache settingsCache =
         new SettingsCache(new CrawlerSettings(this, null));
@@ -375,6 +382,7 @@ public abstract class SettingsHandler {
             settings = new CrawlerSettings(this, scope, refinement);
             settingsCache.refreshHostToSettings();
             settingsCache.putSettings(scope, settings);
+            settingsChanged();
         }
         return settings;
     }
@@ -400,6 +408,22 @@ public abstract class SettingsHandler {
      */
     public void deleteSettingsObject(CrawlerSettings settings) {
         settingsCache.deleteSettingsObject(settings);
+        settingsChanged();
+    }
+
+    /**
+     * @return count of changes made to settings so far
+     */
+    public int getSettingsVersion() {
+        return settingsVersion.get();
+    }
+
+    /**
+     * Note a change to settings, discarding all attribute values
+     * resolved so far. Call after the change has been made.
+     */
+    public void settingsChanged() {
+        settingsVersion.incrementAndGet();
     }
 
     /** Get the CrawlOrder.
@@ -553,6 +577,7 @@ public abstract class SettingsHandler {
      */
     public void clearPerHostSettingsCache() {
         settingsCache.clear();
+        settingsChanged();
     }
 
     static ThreadLocal<SettingsHandler> threadContextSettingsHandler = 
@@ -0,0 +1,182 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.url;
+
+import java.util.Random;
+
+import org.archive.crawler.url.canonicalize.BaseRule;
+import org.archive.crawler.url.canonicalize.FixupQueryStr;
+import org.archive.crawler.url.canonicalize.LowercaseRule;
+import org.archive.crawler.url.canonicalize.StripExtraSlashes;
+import org.archive.crawler.url.canonicalize.StripSessionCFIDs;
+import org.archive.crawler.url.canonicalize.StripSessionIDs;
+import org.archive.crawler.url.canonicalize.StripUserinfoRule;
+import org.archive.crawler.url.canonicalize.StripWWWNRule;
+import org.archive.crawler.url.canonicalize.StripWWWRule;
+
+/**
+ * Check that the built-in canonicalization rules give the same results
+ * editing a {@link CanonicalizationBuffer} in place as they do on
+ * Strings, over URLs like those of the rules' unit tests and random
+ * combinations of their parts, then compare the time each way takes.
+ *
+ * Usage: BenchmarkCanonicalizer [urls [seed]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkCanonicalizer {
+    static final String ID32 = "0123456789abcdefghijklemopqrstuv";
+    static final String[] SCHEMES = {"http://", "https://", "HTTP://",
+        "hTtPs://", "ftp://", "FTPS://", "mailto:", "dns:", "http:/"};
+    static final String[] USERINFO = {"", "", "", "stack:psswrd@",
+        "user@", "@", "a@b@", "x/y@"};
+    static final String[] HOSTS = {"archive.org", "www.archive.org",
+        "WWW.archive.org", "www0001.archive.org", "www1.", "wwwx.org",
+        "www.", "www", "ex\u00e9mple.com"};
+    static final String[] PATHS = {"", "/", "/index.html", "//A//B/i.html",
+        "///", "/a\nb", "/p@q", "/ABC/D", "/\u0130x", "/x?y/z"};
+    static final String[] QUERIES = {"", "?", "?&", "?&x=y", "?x=y&",
+        "?one=two&", "&", "?jsessionid=" + ID32,
+        "?JSESSIONID=" + ID32.toUpperCase() + "&x=y",
+        "?one=two&phpsessid=" + ID32 + "&x=y", "?sid=" + ID32,
+        "?jsessionid=" + ID32 + "0", "&sid=" + ID32 + "&",
+        "?aspsessionidABCDEFGH=ABCDEFGHIJKLMNOPQRSTUVWX&x=y",
+        "?ASPSESSIONIDAQBSDSRT=EOHBLBDDPFCLHKPGGKLILNAM",
+        "?CFID=1169580&CFTOKEN=48630702&dtstamp=22%2F08%2F2006",
+        "?cfid=3304324&cftoken=57491900&jsessionid=a63098d96360$B0$D9$A",
+        "?CFID=&CFTOKEN=1", "?CFID=1&CFTOKEN=", "?cfid=1&cftoken=2\n&x",
+        "?x=1\n", "?a=b&&"};
+
+    public static void main(String[] args) {
+        (new BenchmarkCanonicalizer()).instanceMain(args);
+    }
+
+    /**
+     * @return One instance of each built-in rule, each enabled.
+     */
+    public static BaseRule[] builtInRules() {
+        return new BaseRule[] {
+            new LowercaseRule("lowercase"),
+            new StripUserinfoRule("userinfo"),
+            new StripWWWNRule("wwwn"),
+            new StripWWWRule("www"),
+            new StripSessionIDs("ids"),
+            new StripSessionCFIDs("cfids"),
+            new StripExtraSlashes("slashes"),
+            new FixupQueryStr("querystr"),
+        };
+    }
+
+    /**
+     * @param random Source of randomness.
+     * @return A URL made of parts like those the rules look for.
+     */
+    public static String randomUrl(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pick(random, SCHEMES));
+        sb.append(pick(random, USERINFO));
+        sb.append(pick(random, HOSTS));
+        sb.append(pick(random, PATHS));
+        for (int i = random.nextInt(3); i > 0; i--) {
+            sb.append(pick(random, QUERIES));
+        }
+        return sb.toString();
+    }
+
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    /**
+     * Run the URL through each rule alone, then through all in turn,
+     * both on Strings and in place.
+     *
+     * @param rules Rules to check.
+     * @param url URL to canonicalize.
+     * @param buffer Buffer to use.
+     * @throws IllegalStateException if results differ.
+     */
+    public static void check(BaseRule[] rules, String url,
+            CanonicalizationBuffer buffer) {
+        String expected = url;
+        for (BaseRule rule: rules) {
+            buffer.set(url);
+            rule.canonicalize(buffer, null);
+            compare(rule.getName(), rule.canonicalize(url, null), buffer, url);
+            expected = rule.canonicalize(expected, null);
+        }
+        buffer.set(url);
+        for (BaseRule rule: rules) {
+            rule.canonicalize(buffer, null);
+        }
+        compare("all", expected, buffer, url);
+    }
+
+    private static void compare(String name, String expected,
+            CanonicalizationBuffer buffer, String url) {
+        if (!expected.equals(buffer.toString())) {
+            throw new IllegalStateException(name + " gave '" + buffer +
+                "' in place but '" + expected + "' on '" + url + "'");
+        }
+    }
+
+    public void instanceMain(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        Random random =
+            new Random((args.length > 1) ? Long.parseLong(args[1]) : 0);
+        String[] urls = new String[count];
+        for (int i = 0; i < count; i++) {
+            urls[i] = randomUrl(random);
+        }
+        BaseRule[] rules = builtInRules();
+        CanonicalizationBuffer buffer = new CanonicalizationBuffer();
+        for (String url: urls) {
+            check(rules, url, buffer);
+        }
+        System.out.println(count + " urls: same results");
+        for (int rep = 0; rep < 3; rep++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (String url: urls) {
+                for (BaseRule rule: rules) {
+                    url = rule.canonicalize(url, null);
+                }
+                length += url.length();
+            }
+            long strings = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String url: urls) {
+                buffer.set(url);
+                for (BaseRule rule: rules) {
+                    rule.canonicalize(buffer, null);
+                }
+                length -= buffer.length();
+            }
+            long inPlace = System.nanoTime() - start;
+            System.out.println("strings: urls/s="
+                + (count * 1000000000L / Math.max(1, strings))
+                + " in place: urls/s="
+                + (count * 1000000000L / Math.max(1, inPlace))
+                + " (" + (length == 0) + ")");
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.url;
+
+/**
+ * Reusable, mutable holder of a URL being canonicalized, so that rules
+ * can edit it in place rather than each producing a new String.
+ *
+ * Until it is edited, {@link #toString()} returns the very String it
+ * was last {@link #set(String)} to; a URL no rule changes therefore
+ * costs no copies at all.
+ *
+ * Not safe for use by concurrent threads.
+ */
+public class CanonicalizationBuffer implements CharSequence {
+    private char[] chars = new char[256];
+    private int length = 0;
+    /** current content as a String, if known */
+    private String string = null;
+    private boolean modified = false;
+
+    /**
+     * @param s New content.
+     */
+    public void set(String s) {
+        int len = s.length();
+        if (len > this.chars.length) {
+            this.chars = new char[Math.max(len, this.chars.length * 2)];
+        }
+        s.getChars(0, len, this.chars, 0);
+        this.length = len;
+        this.string = s;
+        this.modified = false;
+    }
+
+    /**
+     * Replace the content with the result of a rule working on Strings.
+     *
+     * @param s New content; the String this buffer's content was taken
+     * from if unchanged.
+     */
+    public void replace(String s) {
+        if (s != this.string) {
+            set(s);
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Forget the content.
+     */
+    public void clear() {
+        this.length = 0;
+        this.string = null;
+        this.modified = false;
+    }
+
+    /**
+     * @return True if edited since last {@link #set(String)}.
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public char charAt(int index) {
+        if (index >= this.length) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return this.chars[index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    public String toString() {
+        if (this.string == null) {
+            this.string = new String(this.chars, 0, this.length);
+        }
+        return this.string;
+    }
+
+    /**
+     * @param index Index of char to replace.
+     * @param c New char.
+     */
+    public void setCharAt(int index, char c) {
+        if (index >= this.length) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        if (this.chars[index] != c) {
+            this.chars[index] = c;
+            edited();
+        }
+    }
+
+    /**
+     * @param start Index of first char to remove.
+     * @param end Index after last char to remove.
+     */
+    public void delete(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException(start + "-" + end);
+        }
+        if (start < end) {
+            System.arraycopy(this.chars, end, this.chars, start,
+                this.length - end);
+            this.length -= end - start;
+            edited();
+        }
+    }
+
+    /**
+     * Lowercase all ASCII letters, if there are no other chars.
+     *
+     * @return False, having changed nothing, if there are non-ASCII chars.
+     */
+    public boolean toLowerCaseAscii() {
+        boolean changed = false;
+        for (int i = 0; i < this.length; i++) {
+            char c = this.chars[i];
+            if (c >= 0x80) {
+                return false;
+            }
+            changed |= c >= 'A' && c <= 'Z';
+        }
+        if (changed) {
+            for (int i = 0; i < this.length; i++) {
+                char c = this.chars[i];
+                if (c >= 'A' && c <= 'Z') {
+                    this.chars[i] = (char)(c + ('a' - 'A'));
+                }
+            }
+            edited();
+        }
+        return true;
+    }
+
+    private void edited() {
+        this.string = null;
+        this.modified = true;
+    }
+
+    /**
+     * @param c Char to look for.
+     * @param from Index to start at.
+     * @return Index of first occurrence at or after <code>from</code>,
+     * or -1.
+     */
+    public int indexOf(char c, int from) {
+        for (int i = Math.max(from, 0); i < this.length; i++) {
+            if (this.chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param c Char to look for.
+     * @param from Index to start at, going backwards.
+     * @return Index of last occurrence at or before <code>from</code>,
+     * or -1.
+     */
+    public int lastIndexOf(char c, int from) {
+        for (int i = Math.min(from, this.length - 1); i >= 0; i--) {
+            if (this.chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the given lowercase ASCII string appears at an index,
+     * ignoring case the way java.util.regex's CASE_INSENSITIVE flag does
+     * (US-ASCII letters only).
+     *
+     * @param at Index to look at.
+     * @param lower Lowercase ASCII string to look for.
+     * @return True if found.
+     */
+    public boolean regionMatchesIgnoreCase(int at, String lower) {
+        int len = lower.length();
+        if (at < 0 || at + len > this.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = this.chars[at + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param from Index to start at.
+     * @return Index of the first char at or after <code>from</code> that
+     * java.util.regex's '.' would not match (a line terminator), or -1.
+     */
+    public int indexOfLineTerminator(int from) {
+        for (int i = Math.max(from, 0); i < this.length; i++) {
+            if (isLineTerminator(this.chars[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the last line terminator, or -1.
+     */
+    public int lastIndexOfLineTerminator() {
+        for (int i = this.length - 1; i >= 0; i--) {
+            if (isLineTerminator(this.chars[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
+}
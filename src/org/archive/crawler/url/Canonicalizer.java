@@ -30,6 +30,7 @@ import javax.management.AttributeNotFoundException;
 
 import org.archive.crawler.datamodel.CrawlOrder;
 import org.archive.crawler.settings.MapType;
+import org.archive.crawler.url.canonicalize.BaseRule;
 import org.archive.net.UURI;
 
 /**
@@ -40,6 +41,17 @@ import org.archive.net.UURI;
 public class Canonicalizer {
     private static Logger logger =
         Logger.getLogger(Canonicalizer.class.getName());
+
+    /**
+     * Buffer each thread canonicalizes in, edited in place by rules that
+     * can.
+     */
+    private static final ThreadLocal<CanonicalizationBuffer> buffers =
+        new ThreadLocal<CanonicalizationBuffer>() {
+            protected CanonicalizationBuffer initialValue() {
+                return new CanonicalizationBuffer();
+            }
+        };
     
     /**
      * Constructor.
@@ -80,28 +92,32 @@ public class Canonicalizer {
      */
     public static String canonicalize(UURI uuri, Iterator rules) {
         String before = uuri.toString();
-        //String beforeRule = null;
-        String canonical = before;
+        CanonicalizationBuffer canonical = buffers.get();
+        canonical.set(before);
         for (; rules.hasNext();) {
             CanonicalizationRule r = (CanonicalizationRule)rules.next();
-            //if (logger.isLoggable(Level.FINER)) {
-            //    beforeRule = canonical;
-            //}
             if (!r.isEnabled(uuri)) {
                 if (logger.isLoggable(Level.FINER)) {
                     logger.finer("Rule " + r.getName() + " is disabled.");
                 }
                 continue;
             }
-            canonical = r.canonicalize(canonical, uuri);
+            if (r instanceof BaseRule) {
+                ((BaseRule)r).canonicalize(canonical, uuri);
+            } else {
+                canonical.replace(r.canonicalize(canonical.toString(), uuri));
+            }
             if (logger.isLoggable(Level.FINER)) {
                 logger.finer("Rule " + r.getName() + " " + before + " => " +
                         canonical);
             }
         }
-        if (logger.isLoggable(Level.INFO)) {
-            logger.fine(before + " => " + canonical);
+        // the very String passed in, if no rule changed it
+        String result = canonical.toString();
+        canonical.clear();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(before + " => " + result);
         }
-        return canonical;
+        return result;
     }
 }
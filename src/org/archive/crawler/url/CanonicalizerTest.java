@@ -23,16 +23,19 @@
 package org.archive.crawler.url;
 
 import java.io.File;
+import java.util.Random;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.datamodel.CrawlOrder;
 import org.archive.crawler.settings.MapType;
 import org.archive.crawler.settings.XMLSettingsHandler;
+import org.archive.crawler.url.canonicalize.BaseRule;
 import org.archive.crawler.url.canonicalize.FixupQueryStr;
 import org.archive.crawler.url.canonicalize.LowercaseRule;
 import org.archive.crawler.url.canonicalize.StripSessionIDs;
 import org.archive.crawler.url.canonicalize.StripUserinfoRule;
 import org.archive.crawler.url.canonicalize.StripWWWRule;
+import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.TmpDirTestCase;
 
@@ -86,4 +89,20 @@ public class CanonicalizerTest extends TmpDirTestCase {
              Canonicalizer.canonicalize(UURIFactory.getInstance(tmp),
                    this.rules.iterator(UURIFactory.getInstance(result)))));       
     }
+
+    public void testUnchangedIsSame() throws URIException {
+        UURI uuri = UURIFactory.getInstance("http://archive.org/index.html");
+        assertSame("Copied unchanged", uuri.toString(),
+            Canonicalizer.canonicalize(uuri, this.rules.iterator(uuri)));
+    }
+
+    public void testInPlaceEquivalence() {
+        BaseRule[] rules = BenchmarkCanonicalizer.builtInRules();
+        CanonicalizationBuffer buffer = new CanonicalizationBuffer();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            BenchmarkCanonicalizer.check(rules,
+                BenchmarkCanonicalizer.randomUrl(random), buffer);
+        }
+    }
 }
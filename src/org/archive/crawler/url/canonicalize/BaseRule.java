@@ -29,6 +29,7 @@ import javax.management.AttributeNotFoundException;
 
 import org.archive.crawler.settings.ModuleType;
 import org.archive.crawler.settings.SimpleType;
+import org.archive.crawler.url.CanonicalizationBuffer;
 import org.archive.crawler.url.CanonicalizationRule;
 
 /**
@@ -37,6 +38,10 @@ import org.archive.crawler.url.CanonicalizationRule;
  * 
  * This base class is abstact.  Subclasses must implement the
  * {@link CanonicalizationRule#canonicalize(String, Object)} method.
+ * Those that can also edit a {@link CanonicalizationBuffer} in place
+ * should override {@link #canonicalize(CanonicalizationBuffer, Object)}
+ * to do so, with the same result; a subclass of such a rule changing
+ * what its String method does must override both.
  * 
  * @author stack
  * @version $Date: 2005-11-04 23:00:23 +0000 (Fri, 04 Nov 2005) $, $Revision: 3932 $
@@ -76,6 +81,118 @@ implements CanonicalizationRule {
         return result;
     }
     
+    /**
+     * Canonicalize the URL held in the buffer. This implementation passes
+     * the buffer's content through
+     * {@link #canonicalize(String, Object)}.
+     *
+     * @param url Buffer holding the URL to canonicalize, changed in place.
+     * @param context Context to use when canonicalizing.
+     */
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        url.replace(canonicalize(url.toString(), context));
+    }
+
+    /**
+     * @param url URL to look at.
+     * @param ignoreCase True to ignore the case of ASCII letters.
+     * @return Index following a leading 'http://' or 'https://', or -1
+     * if there is none.
+     */
+    protected static int httpSchemeEnd(CanonicalizationBuffer url,
+            boolean ignoreCase) {
+        int i = 4;
+        if (!(ignoreCase ? url.regionMatchesIgnoreCase(0, "http")
+                : startsWith(url, 0, "http"))) {
+            return -1;
+        }
+        if (i < url.length() && (url.charAt(i) == 's'
+                || (ignoreCase && url.charAt(i) == 'S'))) {
+            i++;
+        }
+        return startsWith(url, i, "://") ? i + 3 : -1;
+    }
+
+    /**
+     * @return True if <code>s</code> appears in <code>url</code> at index
+     * <code>at</code>.
+     */
+    protected static boolean startsWith(CanonicalizationBuffer url, int at,
+            String s) {
+        if (at + s.length() > url.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (url.charAt(at + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In-place equivalent of {@link #doStripRegexMatch(String, Matcher)}
+     * for an expression of the form <code>^(.+)X(?:&amp;(.*))?$</code>:
+     * strips the last element X (and any '&amp;' following) that has
+     * something before it and is followed by either the end of the URL or
+     * an '&amp;'.
+     *
+     * @param url URL to strip.
+     * @param kind Kind of element X, passed to
+     * {@link #elementEnd(CanonicalizationBuffer, int, int)}.
+     * @param firstChars Lowercase chars X may start with, ignoring case.
+     * @return True if an element was stripped.
+     */
+    protected boolean stripLastElement(CanonicalizationBuffer url,
+            int kind, String firstChars) {
+        int length = url.length();
+        // the '.' groups may not span line terminators
+        int first = -2;
+        int last = -2;
+        for (int i = length - 1; i >= 1; i--) {
+            char c = url.charAt(i);
+            if (firstChars.indexOf((c >= 'A' && c <= 'Z')
+                    ? (char)(c + ('a' - 'A')) : c) < 0) {
+                continue;
+            }
+            int end = elementEnd(url, i, kind);
+            if (end < 0) {
+                continue;
+            }
+            if (first == -2) {
+                first = url.indexOfLineTerminator(0);
+                last = url.lastIndexOfLineTerminator();
+            }
+            if (first >= 0 && first < i) {
+                continue;
+            }
+            if (end == length) {
+                url.delete(i, length);
+                return true;
+            }
+            if (url.charAt(end) == '&' && last <= end) {
+                url.delete(i, end + 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match an element for
+     * {@link #stripLastElement(CanonicalizationBuffer, int, String)}. This
+     * implementation matches nothing.
+     *
+     * @param url URL to look in.
+     * @param at Index to look at.
+     * @param kind Kind of element.
+     * @return Index following the element, or -1 if there is none at
+     * <code>at</code>.
+     */
+    protected int elementEnd(CanonicalizationBuffer url, int at, int kind) {
+        return -1;
+    }
+
     /**
      * Run a regex that strips elements of a string.
      * 
@@ -22,7 +22,7 @@
  */
 package org.archive.crawler.url.canonicalize;
 
-
+import org.archive.crawler.url.CanonicalizationBuffer;
 
 
 /**
@@ -78,4 +78,22 @@ extends BaseRule {
         }
         return url;
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        int length = url.length();
+        int index = url.lastIndexOf('?', length - 1);
+        if (index > 0) {
+            if (index == (length - 1)) {
+                url.delete(index, length);
+            } else if (url.charAt(index + 1) == '&') {
+                if (length == (index + 2)) {
+                    url.delete(index, length);
+                } else {
+                    url.delete(index + 1, index + 2);
+                }
+            } else if (url.charAt(length - 1) == '&') {
+                url.delete(length - 1, length);
+            }
+        }
+    }
 }
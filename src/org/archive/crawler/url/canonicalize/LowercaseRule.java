@@ -22,7 +22,9 @@
  */
 package org.archive.crawler.url.canonicalize;
 
+import java.util.Locale;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
 
 
 /**
@@ -45,4 +47,17 @@ extends BaseRule {
     public String canonicalize(String url, Object context) {
         return url.toLowerCase();
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        String language = Locale.getDefault().getLanguage();
+        if (language.equals("tr") || language.equals("az")
+                || language.equals("lt")) {
+            // these lowercase even ASCII 'I' specially
+            super.canonicalize(url, context);
+            return;
+        }
+        if (!url.toLowerCaseAscii()) {
+            super.canonicalize(url, context);
+        }
+    }
 }
@@ -22,6 +22,8 @@ package org.archive.crawler.url.canonicalize;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 public class StripExtraSlashes extends BaseRule {
 
     private static final String DESCRIPTION = 
@@ -43,4 +45,21 @@ public class StripExtraSlashes extends BaseRule {
         }
         return url;
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        int start = httpSchemeEnd(url, false);
+        if (start < 0 || url.indexOfLineTerminator(0) >= 0) {
+            return;
+        }
+        // collapse each run of slashes after the scheme's to one
+        for (int i = start; i < url.length() - 1; i++) {
+            if (url.charAt(i) == '/' && url.charAt(i + 1) == '/') {
+                int end = i + 2;
+                while (end < url.length() && url.charAt(end) == '/') {
+                    end++;
+                }
+                url.delete(i + 1, end);
+            }
+        }
+    }
 }
@@ -24,6 +24,8 @@ package org.archive.crawler.url.canonicalize;
 
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 
 /**
  * Strip cold fusion session ids.
@@ -66,4 +68,26 @@ extends BaseRule {
     public String canonicalize(String url, Object context) {
         return doStripRegexMatch(url, COLDFUSION_PATTERN.matcher(url));
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        stripLastElement(url, 0, "c");
+    }
+
+    protected int elementEnd(CanonicalizationBuffer url, int at, int kind) {
+        if (!url.regionMatchesIgnoreCase(at, "cfid=")) {
+            return -1;
+        }
+        int amp = url.indexOf('&', at + 5);
+        if (amp <= at + 5
+                || !url.regionMatchesIgnoreCase(amp + 1, "cftoken=")) {
+            return -1;
+        }
+        // the token, and any jsession, run to the next '&'
+        int token = amp + 9;
+        int end = url.indexOf('&', token);
+        if (end < 0) {
+            end = url.length();
+        }
+        return (end > token) ? end : -1;
+    }
 }
\ No newline at end of file
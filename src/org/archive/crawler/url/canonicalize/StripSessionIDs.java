@@ -24,6 +24,8 @@ package org.archive.crawler.url.canonicalize;
 
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 
 /**
  * Strip known session ids.
@@ -72,6 +74,11 @@ extends BaseRule {
                 Pattern.CASE_INSENSITIVE);
     
 
+    /** kinds of element stripped in place, one per pattern above */
+    private static final int BASE = 0;
+    private static final int SID = 1;
+    private static final int ASPSESSION = 2;
+
     public StripSessionIDs(String name) {
         super(name, DESCRIPTION);
     }
@@ -82,4 +89,54 @@ extends BaseRule {
         url = doStripRegexMatch(url, ASPSESSION_PATTERN.matcher(url));
         return url;
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        stripLastElement(url, BASE, "jp");
+        stripLastElement(url, SID, "s");
+        stripLastElement(url, ASPSESSION, "a");
+    }
+
+    protected int elementEnd(CanonicalizationBuffer url, int at, int kind) {
+        switch (kind) {
+            case BASE:
+                if (url.regionMatchesIgnoreCase(at, "jsessionid=")) {
+                    return letters(url, at + 11, 32, true);
+                }
+                if (url.regionMatchesIgnoreCase(at, "phpsessid=")) {
+                    return letters(url, at + 10, 32, true);
+                }
+                return -1;
+            case SID:
+                return url.regionMatchesIgnoreCase(at, "sid=")
+                    ? letters(url, at + 4, 32, true) : -1;
+            default:
+                if (!url.regionMatchesIgnoreCase(at, "aspsessionid")) {
+                    return -1;
+                }
+                int eq = letters(url, at + 12, 8, false);
+                if (eq < 0 || eq >= url.length() || url.charAt(eq) != '=') {
+                    return -1;
+                }
+                return letters(url, eq + 1, 24, false);
+        }
+    }
+
+    /**
+     * @return Index after <code>count</code> ASCII letters (or digits) at
+     * <code>at</code>, or -1 if there aren't that many.
+     */
+    private int letters(CanonicalizationBuffer url, int at, int count,
+            boolean digits) {
+        if (at + count > url.length()) {
+            return -1;
+        }
+        for (int i = at; i < at + count; i++) {
+            char c = url.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (digits && c >= '0' && c <= '9'))) {
+                return -1;
+            }
+        }
+        return at + count;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,8 @@ package org.archive.crawler.url.canonicalize;
 
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 
 
 /**
@@ -55,4 +57,30 @@ public class StripUserinfoRule extends BaseRule {
     public String canonicalize(String url, Object context) {
         return doStripRegexMatch(url, REGEX.matcher(url));
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        int start;
+        if (url.regionMatchesIgnoreCase(0, "http")) {
+            start = 4;
+        } else if (url.regionMatchesIgnoreCase(0, "ftp")) {
+            start = 3;
+        } else {
+            return;
+        }
+        if (url.regionMatchesIgnoreCase(start, "s")) {
+            start++;
+        }
+        if (!startsWith(url, start, "://")) {
+            return;
+        }
+        start += 3;
+        // the last '@' before any '/', with something before it
+        int slash = url.indexOf('/', start);
+        int at = url.lastIndexOf('@',
+            ((slash < 0) ? url.length() : slash) - 1);
+        if (at <= start || url.indexOfLineTerminator(at + 1) >= 0) {
+            return;
+        }
+        url.delete(start, at + 1);
+    }
 }
@@ -24,6 +24,8 @@ package org.archive.crawler.url.canonicalize;
 
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 
 
 /**
@@ -62,4 +64,36 @@ public class StripWWWNRule extends BaseRule {
     public String canonicalize(String url, Object context) {
         return doStripRegexMatch(url, REGEX.matcher(url));
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        stripWWW(url, true);
+    }
+
+    /**
+     * In-place equivalent of this rule and of {@link StripWWWRule}.
+     *
+     * @param url URL to strip.
+     * @param digits True to also strip 'www' followed by digits.
+     */
+    static void stripWWW(CanonicalizationBuffer url, boolean digits) {
+        int start = httpSchemeEnd(url, true);
+        if (start < 0 || !url.regionMatchesIgnoreCase(start, "www")) {
+            return;
+        }
+        int dot = start + 3;
+        while (digits && dot < url.length() && url.charAt(dot) >= '0'
+                && url.charAt(dot) <= '9') {
+            dot++;
+        }
+        if (dot >= url.length() || url.charAt(dot) != '.') {
+            return;
+        }
+        // host must be followed by a path of no line terminators
+        int slash = url.indexOf('/', dot + 1);
+        if (slash < 0 || slash == url.length() - 1
+                || url.indexOfLineTerminator(slash + 1) >= 0) {
+            return;
+        }
+        url.delete(start, dot + 1);
+    }
 }
\ No newline at end of file
@@ -24,6 +24,8 @@ package org.archive.crawler.url.canonicalize;
 
 import java.util.regex.Pattern;
 
+import org.archive.crawler.url.CanonicalizationBuffer;
+
 
 
 /**
@@ -58,4 +60,8 @@ public class StripWWWRule extends BaseRule {
     public String canonicalize(String url, Object context) {
         return doStripRegexMatch(url, REGEX.matcher(url));
     }
+
+    public void canonicalize(CanonicalizationBuffer url, Object context) {
+        StripWWWNRule.stripWWW(url, false);
+    }
 }
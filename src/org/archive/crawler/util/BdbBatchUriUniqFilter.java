@@ -0,0 +1,251 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.crawler.datamodel.CandidateURI;
+
+import com.sleepycat.bind.tuple.LongBinding;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * A BdbUriUniqFilter which, rather than probing the already-seen
+ * database once per discovered URI, buffers candidates in a pending
+ * set sorted by key and merges them into the database in batches.
+ *
+ * Each batch is written by a single cursor pass in ascending key order.
+ * Because keys group URIs by host (see {@link BdbUriUniqFilter#createKey}),
+ * the pass visits each btree leaf node at most once per batch, so when
+ * the database no longer fits in the JE cache, random reads are
+ * replaced by a mostly-sequential sweep -- the approach of
+ * FPMergeUriUniqFilter, applied to the BDB store.
+ *
+ * A batch is merged when the pending set reaches its maximum size, or
+ * whenever the frontier calls {@link #requestFlush()} (as when it has
+ * no other URIs ready, or before a checkpoint). Pending URIs are not
+ * yet in the frontier, so they count as {@link #pending()} work.
+ *
+ * The maximum pending size may be set with the system property
+ *
+ *  org.archive.crawler.util.BdbBatchUriUniqFilter.max-pending (default 10000)
+ */
+public class BdbBatchUriUniqFilter extends BdbUriUniqFilter {
+    private static final long serialVersionUID = 2861040371569472950L;
+
+    private static Logger logger =
+        Logger.getLogger(BdbBatchUriUniqFilter.class.getName());
+
+    protected static final String MAX_PENDING_KEY = ".max-pending";
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    /**
+     * Keys awaiting merge, in database order, each with the CandidateURI
+     * to pass along if the key proves new (or null, if none).
+     */
+    protected transient TreeMap<Long,CandidateURI> pendingItems =
+        new TreeMap<Long,CandidateURI>();
+
+    /** size at which to force a merge of pending items */
+    protected int maxPending = Integer.getInteger(
+        BdbBatchUriUniqFilter.class.getName() + MAX_PENDING_KEY,
+        DEFAULT_MAX_PENDING);
+
+    protected long pendDuplicateCount = 0;
+    protected long mergeDuplicateCount = 0;
+
+    /**
+     * Constructor.
+     * @param environment A bdb environment ready-configured.
+     * @throws IOException
+     */
+    public BdbBatchUriUniqFilter(Environment environment)
+    throws IOException {
+        super(environment);
+    }
+
+    /**
+     * Constructor.
+     * @param bdbEnv The directory that holds the bdb environment.
+     * @param cacheSizePercentage Percentage of JVM bdb allocates as
+     * its cache.  Pass -1 to get default cache size.
+     * @throws IOException
+     */
+    public BdbBatchUriUniqFilter(File bdbEnv, final int cacheSizePercentage)
+    throws IOException {
+        super(bdbEnv, cacheSizePercentage);
+    }
+
+    public void setMaxPending(int max) {
+        this.maxPending = max;
+    }
+
+    public synchronized long pending() {
+        return pendingItems.size();
+    }
+
+    public void add(String key, CandidateURI value) {
+        profileLog(key);
+        pend(key, value, false);
+    }
+
+    public void addNow(String key, CandidateURI value) {
+        add(key, value);
+        requestFlush();
+    }
+
+    public void addForce(String key, CandidateURI value) {
+        profileLog(key);
+        // the URI goes out now; only its key need be merged
+        pend(key, null, true);
+        this.receiver.receive(value);
+    }
+
+    public void note(String key) {
+        profileLog(key);
+        pend(key, null, false);
+    }
+
+    public synchronized void forget(String key, CandidateURI value) {
+        pendingItems.remove(createKey(key));
+        setRemove(key);
+    }
+
+    /**
+     * Place the given key into the pending set, merging if the set is
+     * then full.
+     *
+     * @param key URI to pend
+     * @param value CandidateURI to receive if new, or null
+     * @param replace whether to replace any CandidateURI already pending
+     * for the same key
+     */
+    protected synchronized void pend(String key, CandidateURI value,
+            boolean replace) {
+        Long k = createKey(key);
+        if (replace) {
+            pendingItems.put(k, value);
+        } else if (pendingItems.containsKey(k)) {
+            pendDuplicateCount++;
+            duplicateCount++;
+        } else {
+            pendingItems.put(k, value);
+        }
+        if (pendingItems.size() >= maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * Merge all pending items; there is no throttle, as the cost of a
+     * merge is proportional to the number of items pending.
+     *
+     * @return number of pending items actually added
+     */
+    public synchronized long requestFlush() {
+        return flush();
+    }
+
+    /**
+     * Merge all pending keys into the database in a single ordered
+     * cursor pass, passing along to the receiver the CandidateURIs of
+     * those keys which were new. If the pass fails, keys not yet merged
+     * stay pending, to be retried by the next flush.
+     *
+     * @return number of CandidateURIs passed along
+     */
+    public synchronized long flush() {
+        if (pendingItems.isEmpty()) {
+            return 0;
+        }
+        long flushStartTime = System.currentTimeMillis();
+        long adds = 0;
+        long keyOnlyAdds = 0;
+        long mergeDups = 0;
+        List<CandidateURI> added = new ArrayList<CandidateURI>();
+        DatabaseEntry key = new DatabaseEntry();
+        Cursor cursor = null;
+        try {
+            cursor = alreadySeen.openCursor(null, null);
+            Iterator<Map.Entry<Long,CandidateURI>> iter =
+                pendingItems.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Long,CandidateURI> entry = iter.next();
+                LongBinding.longToEntry(entry.getKey().longValue(), key);
+                OperationStatus status =
+                    cursor.putNoOverwrite(key, ZERO_LENGTH_ENTRY);
+                if (status == OperationStatus.KEYEXIST) {
+                    mergeDups++;
+                } else {
+                    count++;
+                    if (entry.getValue() != null) {
+                        added.add(entry.getValue());
+                    } else {
+                        keyOnlyAdds++;
+                    }
+                }
+                iter.remove();
+            }
+        } catch (DatabaseException e) {
+            logger.severe(e.getMessage() + "; " + pendingItems.size()
+                + " items left pending");
+        } finally {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (DatabaseException e) {
+                    logger.severe(e.getMessage());
+                }
+            }
+        }
+        for (CandidateURI caUri : added) {
+            adds++;
+            this.receiver.receive(caUri);
+        }
+        mergeDuplicateCount += mergeDups;
+        duplicateCount += mergeDups;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("flush took "
+                + (System.currentTimeMillis() - flushStartTime) + "ms: "
+                + adds + " adds, " + keyOnlyAdds + " keyOnlyAdds, "
+                + mergeDups + " mergeDups, count " + count);
+        }
+        return adds;
+    }
+
+    private void readObject(ObjectInputStream ois)
+    throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        pendingItems = new TreeMap<Long,CandidateURI>();
+    }
+}
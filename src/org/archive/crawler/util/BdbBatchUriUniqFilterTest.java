@@ -0,0 +1,114 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.datamodel.CandidateURI;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.net.UURIFactory;
+import org.archive.util.FileUtils;
+import org.archive.util.TmpDirTestCase;
+
+import com.sleepycat.je.Environment;
+
+/**
+ * Test BdbBatchUriUniqFilter.
+ */
+public class BdbBatchUriUniqFilterTest extends TmpDirTestCase
+implements UriUniqFilter.HasUriReceiver {
+    private BdbBatchUriUniqFilter filter = null;
+    private File bdbDir = null;
+    private List<CandidateURI> received = new ArrayList<CandidateURI>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.bdbDir = new File(getTmpDir(), this.getClass().getName());
+        if (this.bdbDir.exists()) {
+            FileUtils.deleteDir(bdbDir);
+        }
+        this.filter = new BdbBatchUriUniqFilter(bdbDir, 50);
+        this.filter.setMaxPending(100);
+        this.filter.setDestination(this);
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.filter.close();
+    }
+
+    public void testBatching() throws URIException {
+        for (int i = 0; i < 50; i++) {
+            add("http://www" + i + ".archive.org/");
+            add("http://www" + i + ".archive.org/");
+        }
+        assertEquals("received before flush", 0, received.size());
+        assertEquals("pending", 50, filter.pending());
+        assertEquals("flushed", 50, filter.requestFlush());
+        assertEquals("received after flush", 50, received.size());
+        assertEquals("count", 50, filter.count());
+
+        // half already seen; reaching max-pending merges without request
+        for (int i = 25; i < 125; i++) {
+            add("http://www" + i + ".archive.org/");
+        }
+        assertEquals("pending after auto-merge", 0, filter.pending());
+        assertEquals("received after auto-merge", 125, received.size());
+        assertEquals("count after auto-merge", 125, filter.count());
+    }
+
+    public void testNoteAndForce() throws URIException {
+        filter.note("http://www.archive.org/noted");
+        add("http://www.archive.org/noted");
+        filter.addForce("http://www.archive.org/forced",
+            new CandidateURI(UURIFactory.getInstance(
+                "http://www.archive.org/forced")));
+        assertEquals("forced received at once", 1, received.size());
+        filter.requestFlush();
+        assertEquals("noted not received", 1, received.size());
+        assertEquals("count", 2, filter.count());
+    }
+
+    public void testFailedMergeRetained() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            add("http://www" + i + ".archive.org/");
+        }
+        Environment env = filter.alreadySeen.getEnvironment();
+        filter.alreadySeen.close();
+        assertEquals("flushed while closed", 0, filter.requestFlush());
+        assertEquals("received while closed", 0, received.size());
+        assertEquals("pending while closed", 50, filter.pending());
+        filter.reopen(env);
+        assertEquals("flushed after reopen", 50, filter.requestFlush());
+        assertEquals("received after reopen", 50, received.size());
+        assertEquals("pending after reopen", 0, filter.pending());
+    }
+
+    protected void add(String uri) throws URIException {
+        filter.add(uri, new CandidateURI(UURIFactory.getInstance(uri)));
+    }
+
+    public void receive(CandidateURI item) {
+        received.add(item);
+    }
+}
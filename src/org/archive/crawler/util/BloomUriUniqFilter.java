@@ -30,6 +30,7 @@ import java.util.logging.Logger;
 import org.archive.crawler.datamodel.CandidateURI;
 import org.archive.util.BloomFilter;
 import org.archive.util.BloomFilter32bitSplit;
+import org.archive.util.ConcurrentBloomFilter64bit;
 
 
 /**
@@ -64,6 +65,19 @@ import org.archive.util.BloomFilter32bitSplit;
  * If you need a larger filter, you should edit the initialize 
  * method to intantiate a BloomFilter64bit instead.  
  * 
+ * The default filter is not safe for concurrent adds, which ToeThreads
+ * scheduling discovered links will perform. Setting
+ * 
+ *  org.archive.crawler.util.BloomUriUniqFilter.concurrent (default false)
+ * 
+ * ...to true uses a ConcurrentBloomFilter64bit instead, whose bits are 
+ * set by lock-free compare-and-swap. Additionally setting
+ * 
+ *  org.archive.crawler.util.BloomUriUniqFilter.blocked (default false)
+ * 
+ * ...to true confines each URI's bits to a single cache line, trading a
+ * slightly higher false-positive rate for fewer memory accesses.
+ * 
  * @author gojomo
  * @version $Date: 2006-09-22 18:39:39 +0000 (Fri, 22 Sep 2006) $, $Revision: 4647 $
  */
@@ -79,6 +93,8 @@ implements Serializable {
 
     protected static final String EXPECTED_SIZE_KEY = ".expected-size";
     protected static final String HASH_COUNT_KEY = ".hash-count";
+    protected static final String CONCURRENT_KEY = ".concurrent";
+    protected static final String BLOCKED_KEY = ".blocked";
 
     // these defaults create a bloom filter that is
     // 1.44*125mil*22/8 ~= 495MB in size, and at full
@@ -122,7 +138,13 @@ implements Serializable {
      */
     protected void initialize(final int n, final int d) {
         this.expected_n = n;
-        bloom = new BloomFilter32bitSplit(n,d);
+        String prefix = this.getClass().getName();
+        if (Boolean.getBoolean(prefix + CONCURRENT_KEY)) {
+            bloom = new ConcurrentBloomFilter64bit(n, d,
+                Boolean.getBoolean(prefix + BLOCKED_KEY));
+        } else {
+            bloom = new BloomFilter32bitSplit(n,d);
+        }
     }
 
     public void forget(String canonical, CandidateURI item) {
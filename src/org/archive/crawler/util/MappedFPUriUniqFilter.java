@@ -0,0 +1,143 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.FileUtils;
+import org.archive.util.fingerprint.MappedLongFPSet;
+
+/**
+ * FPUriUniqFilter whose 64-bit fingerprints are kept off-heap, in a
+ * MappedLongFPSet of memory-mapped files. Lookups cost a single memory
+ * access in the common case, with no BDB-JE btree traversal and no
+ * heap (and thus GC) cost, while the set can grow to billions of
+ * fingerprints bounded only by disk and address space.
+ *
+ * The fingerprint tables persist in the given directory. At checkpoint
+ * they are forced to disk and copied into the checkpoint directory; at
+ * checkpoint-recover those copies replace the working tables.
+ *
+ * You may use the following system properties to tune the table:
+ *
+ *  org.archive.crawler.util.MappedFPUriUniqFilter.segment-bits (default 8)
+ *  org.archive.crawler.util.MappedFPUriUniqFilter.initial-capacity-power-of-two (default 14)
+ *  org.archive.crawler.util.MappedFPUriUniqFilter.load-factor (default 0.75)
+ *
+ * With the defaults, 256 segment files are created, each initially
+ * 128KB, and each able to grow to 1GB (about 100 million fingerprints).
+ */
+public class MappedFPUriUniqFilter extends FPUriUniqFilter
+implements Serializable {
+    private static final long serialVersionUID = -3702471290958476261L;
+
+    private static Logger LOGGER =
+        Logger.getLogger(MappedFPUriUniqFilter.class.getName());
+
+    protected static final String SEGMENT_BITS_KEY = ".segment-bits";
+    protected static final String INITIAL_CAPACITY_KEY =
+        ".initial-capacity-power-of-two";
+    protected static final String LOAD_FACTOR_KEY = ".load-factor";
+
+    private static final int DEFAULT_SEGMENT_BITS = 8;
+    private static final int DEFAULT_INITIAL_CAPACITY_POWER_OF_TWO = 14;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    protected MappedLongFPSet mappedSet;
+
+    /**
+     * Create or reopen a filter whose tables live in the given directory,
+     * configured from system properties.
+     *
+     * @param dir directory for fingerprint tables
+     * @throws IOException
+     */
+    public MappedFPUriUniqFilter(File dir) throws IOException {
+        this(new MappedLongFPSet(dir,
+            Integer.getInteger(MappedFPUriUniqFilter.class.getName()
+                + SEGMENT_BITS_KEY, DEFAULT_SEGMENT_BITS),
+            Integer.getInteger(MappedFPUriUniqFilter.class.getName()
+                + INITIAL_CAPACITY_KEY, DEFAULT_INITIAL_CAPACITY_POWER_OF_TWO),
+            getFloatProperty(MappedFPUriUniqFilter.class.getName()
+                + LOAD_FACTOR_KEY, DEFAULT_LOAD_FACTOR)));
+    }
+
+    /**
+     * Create a filter wrapping the given set.
+     *
+     * @param set mapped fingerprint set
+     */
+    public MappedFPUriUniqFilter(MappedLongFPSet set) {
+        super(set);
+        this.mappedSet = set;
+    }
+
+    private static float getFloatProperty(String key, float defaultValue) {
+        String s = System.getProperty(key);
+        return (s == null) ? defaultValue : Float.parseFloat(s);
+    }
+
+    /**
+     * Force tables to disk, then copy them into the given checkpoint
+     * directory.
+     *
+     * @param checkpointDir directory of the checkpoint in progress
+     * @throws IOException
+     */
+    public void checkpoint(File checkpointDir) throws IOException {
+        mappedSet.sync();
+        FileUtils.copyFiles(mappedSet.getDirectory(),
+            new File(checkpointDir, mappedSet.getDirectory().getName()));
+    }
+
+    /**
+     * Replace any tables in the given working directory with those saved
+     * by {@link #checkpoint(File)} in the given checkpoint directory. Must
+     * be called before a filter is opened over the working directory.
+     *
+     * @param checkpointDir directory of the checkpoint being recovered
+     * @param dir working directory for fingerprint tables
+     * @throws IOException
+     */
+    public static void restore(File checkpointDir, File dir)
+    throws IOException {
+        File saved = new File(checkpointDir, dir.getName());
+        if (!saved.isDirectory()) {
+            throw new IOException("No fingerprint tables in " + saved);
+        }
+        if (dir.exists()) {
+            FileUtils.deleteDir(dir);
+        }
+        FileUtils.copyFiles(saved, dir);
+    }
+
+    public void close() {
+        super.close();
+        try {
+            mappedSet.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "closing " + mappedSet.getDirectory(), e);
+        }
+    }
+}
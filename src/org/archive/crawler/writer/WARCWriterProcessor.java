@@ -203,19 +203,10 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
     throws IOException {
         logger.info("writing warc record for " + curi);
         WriterPoolMember writer = getPool().borrowFile();
-        long position = writer.getPosition();
         // See if we need to open a new file because we've exceeed maxBytes.
         // Call to checkFileSize will open new file if we're at maximum for
         // current file.
         writer.checkSize();
-        if (writer.getPosition() != position) {
-            // We just closed the file because it was larger than maxBytes.
-            // Add to the totalBytesWritten the size of the first record
-            // in the file, if any.
-            setTotalBytesWritten(getTotalBytesWritten() +
-            	(writer.getPosition() - position));
-            position = writer.getPosition();
-        }
         
         WARCWriter w = (WARCWriter)writer;
         try {
@@ -243,8 +234,10 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
             throw e;
         } finally {
             if (writer != null) {
+                // Bytes of records still being compressed are counted
+                // by a later write.
             	setTotalBytesWritten(getTotalBytesWritten() +
-            	     (writer.getPosition() - position));
+            	     writer.takeBytesWritten());
                 getPool().returnFile(writer);
             }
         }
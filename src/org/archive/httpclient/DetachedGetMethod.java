@@ -0,0 +1,131 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpParser;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.apache.commons.httpclient.ProtocolException;
+import org.apache.commons.httpclient.StatusLine;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+/**
+ * GetMethod whose request and response head are handled apart from any
+ * HttpClient connection, for fetchers doing their own I/O.
+ *
+ * The request head is generated as bytes to be sent by the caller, and
+ * the response head, once the caller has collected it, is parsed into
+ * this method so status, headers and cookies are available as after
+ * <code>HttpClient.executeMethod()</code>. The response body is
+ * never read through this method.
+ *
+ * The passed HttpConnection is never opened; it only supplies the host,
+ * port and protocol that Host headers and cookie matching consult.
+ */
+public class DetachedGetMethod extends GetMethod {
+    private StatusLine statusLine = null;
+
+    public DetachedGetMethod(String uri) {
+        super(uri);
+    }
+
+    /**
+     * Generate the request head, as HttpMethodBase would write it to
+     * the given connection, adding User-Agent, Host and Cookie headers.
+     *
+     * @param state state supplying cookies
+     * @param conn unopened connection naming the target host
+     * @return request line and headers, ending with the empty line
+     * @throws IOException
+     */
+    public String generateRequest(HttpState state, HttpConnection conn)
+    throws IOException {
+        addRequestHeaders(state, conn);
+        StringBuffer request = new StringBuffer(
+            generateRequestLine(conn, getName(), getPath(), getQueryString(),
+                getParams().getVersion().toString()));
+        Header[] headers = getRequestHeaders();
+        for (int i = 0; i < headers.length; i++) {
+            request.append(headers[i].toExternalForm());
+        }
+        request.append("\r\n");
+        return request.toString();
+    }
+
+    /**
+     * Parse a response head collected by the caller: status line
+     * (after at most STATUS_LINE_GARBAGE_LIMIT lines of garbage) and
+     * headers. Any cookies set are added to the given state.
+     *
+     * @param head bytes of the response head
+     * @param length number of bytes of head to use
+     * @param state state to receive cookies
+     * @param conn unopened connection naming the target host
+     * @throws IOException if no valid status line is found
+     */
+    public void readResponseHead(byte[] head, int length, HttpState state,
+            HttpConnection conn)
+    throws IOException {
+        InputStream in = new ByteArrayInputStream(head, 0, length);
+        String charset = getParams().getHttpElementCharset();
+        int maxGarbageLines = getParams().getIntParameter(
+            HttpMethodParams.STATUS_LINE_GARBAGE_LIMIT, Integer.MAX_VALUE);
+        int count = 0;
+        String s;
+        while (true) {
+            s = HttpParser.readLine(in, charset);
+            if (s == null && count == 0) {
+                throw new NoHttpResponseException("The server "
+                    + conn.getHost() + " failed to respond");
+            }
+            if (s != null && StatusLine.startsWithHTTP(s)) {
+                break;
+            } else if (s == null || count >= maxGarbageLines) {
+                throw new ProtocolException("The server " + conn.getHost()
+                    + " failed to respond with a valid HTTP response");
+            }
+            count++;
+        }
+        this.statusLine = new StatusLine(s);
+        getResponseHeaderGroup().setHeaders(
+            HttpParser.parseHeaders(in, charset));
+        processResponseHeaders(state, conn);
+    }
+
+    public StatusLine getStatusLine() {
+        return this.statusLine;
+    }
+
+    public int getStatusCode() {
+        return (this.statusLine == null)? 0: this.statusLine.getStatusCode();
+    }
+
+    public String getStatusText() {
+        return (this.statusLine == null)? null:
+            this.statusLine.getReasonPhrase();
+    }
+}
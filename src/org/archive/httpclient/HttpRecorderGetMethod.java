@@ -25,6 +25,7 @@ package org.archive.httpclient;
 import java.io.IOException;
 import java.util.logging.Logger;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpState;
@@ -34,7 +35,8 @@ import org.archive.util.HttpRecorder;
 
 /**
  * Override of GetMethod that marks the passed HttpRecorder w/ the transition
- * from HTTP head to body and that forces a close on the http connection.
+ * from HTTP head to body and that forces a close on the http connection
+ * (unless {@link #setKeepAlive(boolean)} allows its reuse).
  *
  * The actions done in this subclass used to be done by copying
  * org.apache.commons.HttpMethodBase, overlaying our version in place of the
@@ -84,6 +86,16 @@ public class HttpRecorderGetMethod extends GetMethod {
      * Instance of http recorder method.
      */
     protected HttpRecorderMethod httpRecorderMethod = null;
+
+    /**
+     * Whether the connection may outlive this method.
+     */
+    private boolean keepAlive = false;
+
+    /**
+     * Whether the response was read to its end.
+     */
+    private boolean responseConsumed = false;
     
 
 	public HttpRecorderGetMethod(String uri, HttpRecorder recorder) {
@@ -99,10 +111,63 @@ public class HttpRecorderGetMethod extends GetMethod {
 	}
 
     protected boolean shouldCloseConnection(HttpConnection conn) {
-        // Always close connection after each request. As best I can tell, this
-        // is superfluous -- we've set our client to be HTTP/1.0.  Doing this
-        // out of paranoia.
-        return true;
+        // Unless asked to keep it alive, always close connection after each
+        // request. As best I can tell, this is superfluous -- we've set our
+        // client to be HTTP/1.0.  Doing this out of paranoia.
+        if (!this.keepAlive || super.shouldCloseConnection(conn)) {
+            return true;
+        }
+        // Our requests are HTTP/1.0: keep only what the server agreed to keep.
+        Header connection = getResponseHeader("Connection");
+        return connection == null
+            || !"keep-alive".equalsIgnoreCase(connection.getValue().trim());
+    }
+
+    /**
+     * @param keepAlive true if the connection may be kept for reuse once
+     * this method's response has been read
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isKeepAlive() {
+        return this.keepAlive;
+    }
+
+    public void releaseConnection() {
+        if (this.keepAlive && !this.responseConsumed) {
+            // The body was read through the recorder, not the response
+            // stream; hand back a connection only if it's positioned at the
+            // end of a complete body. Anything else is closed here, before
+            // super tries to exhaust the response stream.
+            if (getResponseStream() != null && isResponseRecorded()) {
+                responseBodyConsumed();
+            } else {
+                HttpConnection conn = this.httpRecorderMethod.getConnection();
+                if (conn != null) {
+                    conn.close();
+                }
+            }
+        }
+        super.releaseConnection();
+    }
+
+    protected void responseBodyConsumed() {
+        this.responseConsumed = true;
+        super.responseBodyConsumed();
+    }
+
+    /**
+     * @return true if the recorder holds exactly the body the response
+     * head promised
+     */
+    protected boolean isResponseRecorded() {
+        long expected = getResponseContentLength();
+        return expected >= 0
+            && getResponseHeader("Transfer-Encoding") == null
+            && this.httpRecorderMethod.getHttpRecorder().getRecordedInput()
+                .getResponseContentLength() == expected;
     }
 
     public int execute(HttpState state, HttpConnection conn)
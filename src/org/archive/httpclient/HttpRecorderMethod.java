@@ -27,6 +27,8 @@ import java.util.logging.Logger;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
 import org.archive.util.HttpRecorder;
 
 
@@ -108,4 +110,19 @@ public class HttpRecorderMethod {
             method.setRequestHeader(h);
         }
     }
+
+    /**
+     * @param method Method whose response head has been read.
+     * @return Length of the response body: 0 for statuses that never
+     * have one (1xx, 204, 304), whatever their headers say; otherwise
+     * the declared content length, or -1 if none.
+     */
+    public static long getResponseBodyLength(HttpMethodBase method) {
+        int status = method.getStatusCode();
+        if (status < HttpStatus.SC_OK || status == HttpStatus.SC_NO_CONTENT
+                || status == HttpStatus.SC_NOT_MODIFIED) {
+            return 0;
+        }
+        return method.getResponseContentLength();
+    }
 }
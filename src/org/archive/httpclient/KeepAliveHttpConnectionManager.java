@@ -0,0 +1,225 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.httpclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
+import org.archive.util.HttpRecorder;
+
+/**
+ * An HttpClient-compatible HttpConnection manager that keeps a connection
+ * open after a response the server agreed to keep alive, and hands it to
+ * the next request for the same server instead of opening a new one.
+ *
+ * At most one idle connection is held per server (scheme, host, port and
+ * local address); a crawler politely fetches from a server one request at
+ * a time, so more would go unused. Idle connections are closed once they
+ * have sat unused longer than the idle timeout, or when more than the
+ * maximum are held, oldest first. Connections through a proxy are never
+ * kept.
+ *
+ * A reused connection's streams are rewrapped by the current thread's
+ * {@link HttpRecorder}, as a fresh connection's are when opened.
+ */
+public class KeepAliveHttpConnectionManager
+extends SimpleHttpConnectionManager {
+    /** idle connections, by server key, least recently released first */
+    protected LinkedHashMap<String,IdleConnection> idle =
+        new LinkedHashMap<String,IdleConnection>();
+
+    /** ms after which an unused connection is closed */
+    protected long idleTimeoutMs;
+
+    /** most idle connections held at once */
+    protected int maxIdle;
+
+    protected long opened = 0;
+    protected long reused = 0;
+
+    /**
+     * @param idleTimeoutMs ms after which an unused connection is closed
+     * @param maxIdle most idle connections held at once
+     */
+    public KeepAliveHttpConnectionManager(long idleTimeoutMs, int maxIdle) {
+        super();
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxIdle = maxIdle;
+    }
+
+    public HttpConnection getConnectionWithTimeout(
+            HostConfiguration hostConfiguration, long timeout) {
+        if (hostConfiguration.getProxyHost() == null) {
+            HttpConnection conn = takeIdle(key(hostConfiguration));
+            if (conn != null) {
+                HttpRecorder recorder = HttpRecorder.getHttpRecorder();
+                try {
+                    if (recorder != null) {
+                        conn.recordStreams(recorder);
+                    }
+                    synchronized (this) {
+                        this.reused++;
+                    }
+                    return conn;
+                } catch (IOException e) {
+                    // closed under us; fall through to a fresh connection
+                    conn.close();
+                }
+            }
+        }
+        HttpConnection conn = new HttpConnection(hostConfiguration);
+        conn.setHttpConnectionManager(this);
+        conn.getParams().setDefaults(this.getParams());
+        synchronized (this) {
+            this.opened++;
+        }
+        return conn;
+    }
+
+    public void releaseConnection(HttpConnection conn) {
+        if (!conn.isOpen() || conn.isProxied()
+                || conn.getLastResponseInputStream() != null) {
+            // unfinished or unkeepable; ensure connection is closed
+            conn.close();
+            SingleHttpConnectionManager.finishLast(conn);
+            return;
+        }
+        conn.unrecordStreams();
+        HttpConnection displaced;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            IdleConnection previous =
+                this.idle.put(key(conn), new IdleConnection(conn, now));
+            displaced = (previous == null) ? null : previous.conn;
+            evict(now);
+        }
+        if (displaced != null) {
+            displaced.close();
+        }
+    }
+
+    /**
+     * Remove and return the idle connection for the given server, if any
+     * that hasn't timed out.
+     */
+    protected synchronized HttpConnection takeIdle(String key) {
+        evict(System.currentTimeMillis());
+        IdleConnection held = this.idle.remove(key);
+        return (held == null) ? null : held.conn;
+    }
+
+    /**
+     * Close connections idle past the timeout, and the oldest beyond the
+     * maximum held. Caller holds the lock.
+     */
+    protected void evict(long now) {
+        for (Iterator<IdleConnection> i = this.idle.values().iterator();
+                i.hasNext();) {
+            IdleConnection held = i.next();
+            if (this.idle.size() <= this.maxIdle
+                    && now - held.since < this.idleTimeoutMs) {
+                // the rest are younger
+                break;
+            }
+            i.remove();
+            held.conn.close();
+        }
+    }
+
+    public void closeIdleConnections(long idleTimeout) {
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        synchronized (this) {
+            for (Iterator<IdleConnection> i = this.idle.values().iterator();
+                    i.hasNext();) {
+                IdleConnection held = i.next();
+                if (held.since <= cutoff) {
+                    i.remove();
+                    held.conn.close();
+                }
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        for (IdleConnection held: this.idle.values()) {
+            held.conn.close();
+        }
+        this.idle.clear();
+    }
+
+    /**
+     * @return count of connections opened
+     */
+    public synchronized long getOpenedCount() {
+        return this.opened;
+    }
+
+    /**
+     * @return count of requests sent over a kept-alive connection
+     */
+    public synchronized long getReusedCount() {
+        return this.reused;
+    }
+
+    /**
+     * @return count of connections currently held idle
+     */
+    public synchronized int getIdleCount() {
+        return this.idle.size();
+    }
+
+    protected static String key(HostConfiguration config) {
+        return key(config.getProtocol().getScheme(), config.getHost(),
+            config.getPort(), config.getLocalAddress());
+    }
+
+    protected static String key(HttpConnection conn) {
+        return key(conn.getProtocol().getScheme(), conn.getHost(),
+            conn.getPort(), conn.getLocalAddress());
+    }
+
+    protected static String key(String scheme, String host, int port,
+            InetAddress local) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(scheme).append("://").append(host).append(':').append(port);
+        if (local != null) {
+            key.append('@').append(local.getHostAddress());
+        }
+        return key.toString();
+    }
+
+    /**
+     * An open connection awaiting reuse, and when it was released.
+     */
+    protected static class IdleConnection {
+        final HttpConnection conn;
+        final long since;
+
+        IdleConnection(HttpConnection conn, long since) {
+            this.conn = conn;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.httpclient;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.archive.io.ReplayInputStream;
+import org.archive.util.HttpRecorder;
+import org.archive.util.HttpRecorderMarker;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Test KeepAliveHttpConnectionManager against a local socket server.
+ */
+public class KeepAliveHttpConnectionManagerTest extends TmpDirTestCase {
+    ServerSocket server;
+    AtomicInteger accepted = new AtomicInteger(0);
+    String url;
+    int expectedStatus = 200;
+    String expectedBody = "hello";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.server = new ServerSocket(0, 5, InetAddress.getByName(null));
+        this.url = "http://127.0.0.1:" + this.server.getLocalPort() + "/";
+    }
+
+    protected void tearDown() throws Exception {
+        this.server.close();
+        super.tearDown();
+    }
+
+    void serve(String response) {
+        serve(response, false);
+    }
+
+    /**
+     * Accept connections, answering every request on each with the
+     * given response until the client closes, or after the first
+     * response if closeAfter is set.
+     */
+    void serve(final String response, final boolean closeAfter) {
+        new Thread("KeepAliveHttpConnectionManagerTest server") {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = server.accept();
+                        accepted.incrementAndGet();
+                        new Thread(getName() + " connection") {
+                            public void run() {
+                                try {
+                                    converse(s, response, closeAfter);
+                                } catch (Exception e) {
+                                    // test will notice
+                                }
+                            }
+                        }.start();
+                    }
+                } catch (Exception e) {
+                    // server closed
+                }
+            }
+        }.start();
+    }
+
+    static void converse(Socket s, String response, boolean closeAfter)
+    throws Exception {
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        int matched = 0;
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            matched = (c == "\r\n\r\n".charAt(matched))
+                ? matched + 1 : (c == '\r' ? 1 : 0);
+            if (matched == 4) {
+                out.write(response.getBytes("ISO-8859-1"));
+                out.flush();
+                if (closeAfter) {
+                    break;
+                }
+                matched = 0;
+            }
+        }
+        s.close();
+    }
+
+    /**
+     * Fetch the url the given number of times, each recorded by a fresh
+     * recorder on a recording thread, as FetchHTTP does.
+     */
+    void fetch(final HttpClient client, final int times, final long pauseMs)
+    throws Exception {
+        final Exception[] failure = new Exception[1];
+        RecordingThread t = new RecordingThread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < times; i++) {
+                        Thread.sleep(pauseMs);
+                        fetchOnce(client, this);
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join(10000);
+        assertFalse("fetch hung", t.isAlive());
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    void fetchOnce(HttpClient client, RecordingThread thread)
+    throws Exception {
+        HttpRecorder rec = new HttpRecorder(getTmpDir(), "KeepAliveTest");
+        thread.recorder = rec;
+        HttpRecorderGetMethod method = new HttpRecorderGetMethod(url, rec);
+        method.setRequestHeader("Connection", "keep-alive");
+        method.setKeepAlive(true);
+        client.executeMethod(method);
+        long length = HttpRecorderMethod.getResponseBodyLength(method);
+        if (length != 0) {
+            rec.getRecordedInput().readFullyOrUntil(length);
+        }
+        rec.closeRecorders();
+        method.releaseConnection();
+        assertEquals(expectedStatus, method.getStatusCode());
+        ReplayInputStream replay =
+            rec.getRecordedInput().getContentReplayInputStream();
+        StringBuilder body = new StringBuilder();
+        for (int c = replay.read(); c >= 0; c = replay.read()) {
+            body.append((char)c);
+        }
+        replay.close();
+        assertEquals(expectedBody, body.toString());
+        rec.close();
+        rec.cleanup();
+    }
+
+    public void testReuse() throws Exception {
+        serve("HTTP/1.0 200 OK\r\nConnection: keep-alive\r\n" +
+            "Content-Length: 5\r\n\r\nhello");
+        KeepAliveHttpConnectionManager cm =
+            new KeepAliveHttpConnectionManager(10000, 10);
+        fetch(new HttpClient(cm), 3, 0);
+        assertEquals(1, accepted.get());
+        assertEquals(1, cm.getOpenedCount());
+        assertEquals(2, cm.getReusedCount());
+        assertEquals(1, cm.getIdleCount());
+        cm.shutdown();
+        assertEquals(0, cm.getIdleCount());
+    }
+
+    public void testNoKeepAliveFromServer() throws Exception {
+        serve("HTTP/1.0 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        KeepAliveHttpConnectionManager cm =
+            new KeepAliveHttpConnectionManager(10000, 10);
+        fetch(new HttpClient(cm), 3, 0);
+        assertEquals(3, accepted.get());
+        assertEquals(0, cm.getReusedCount());
+        assertEquals(0, cm.getIdleCount());
+    }
+
+    public void testUnknownLength() throws Exception {
+        // body runs to close, despite the keep-alive
+        serve("HTTP/1.0 200 OK\r\nConnection: keep-alive\r\n\r\nhello",
+            true);
+        KeepAliveHttpConnectionManager cm =
+            new KeepAliveHttpConnectionManager(10000, 10);
+        fetch(new HttpClient(cm), 2, 0);
+        assertEquals(2, accepted.get());
+        assertEquals(0, cm.getReusedCount());
+        assertEquals(0, cm.getIdleCount());
+    }
+
+    public void testNotModified() throws Exception {
+        // no body and no length, yet the connection stays open
+        serve("HTTP/1.1 304 Not Modified\r\nConnection: keep-alive\r\n\r\n");
+        this.expectedStatus = 304;
+        this.expectedBody = "";
+        KeepAliveHttpConnectionManager cm =
+            new KeepAliveHttpConnectionManager(10000, 10);
+        fetch(new HttpClient(cm), 2, 0);
+        assertEquals(1, accepted.get());
+        assertEquals(1, cm.getReusedCount());
+        cm.shutdown();
+    }
+
+    public void testIdleTimeout() throws Exception {
+        serve("HTTP/1.0 200 OK\r\nConnection: keep-alive\r\n" +
+            "Content-Length: 5\r\n\r\nhello");
+        KeepAliveHttpConnectionManager cm =
+            new KeepAliveHttpConnectionManager(100, 10);
+        fetch(new HttpClient(cm), 2, 300);
+        assertEquals(2, accepted.get());
+        assertEquals(0, cm.getReusedCount());
+    }
+
+    static class RecordingThread extends Thread implements HttpRecorderMarker {
+        HttpRecorder recorder;
+
+        public HttpRecorder getHttpRecorder() {
+            return this.recorder;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compare time to construct and scan a ReplayCharSequence over a large
+ * UTF-8 recording that overflows to disk: GenericReplayCharSequence,
+ * which writes a decoded file, versus WindowedReplayCharSequence.
+ *
+ * Usage: BenchmarkReplayCharSequence [kilobytes [iterations]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkReplayCharSequence {
+
+    public static void main(String[] args) throws IOException {
+        (new BenchmarkReplayCharSequence()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws IOException {
+        int kb = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        File backing = File.createTempFile("BenchmarkReplayCharSequence", 
+            ".ros");
+        backing.deleteOnExit();
+        RecordingOutputStream ros = new RecordingOutputStream(
+            64 * 1024, backing.getAbsolutePath());
+        ros.open();
+        ros.markContentBegin();
+        byte[] unit = "<p>Gr\u00fc\u00dfe, \u65e5\u672c\u8a9e text</p>\n"
+            .getBytes("UTF-8");
+        for (long written = 0; written < kb * 1024L; written += unit.length) {
+            ros.write(unit);
+        }
+        ros.close();
+        for (int rep = 0; rep < 3; rep++) {
+            run(ros, backing, false, iterations);
+            run(ros, backing, true, iterations);
+        }
+        backing.delete();
+    }
+
+    protected void run(RecordingOutputStream ros, File backing,
+            boolean windowed, int iterations) throws IOException {
+        long sum = 0;
+        long tempBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ReplayCharSequence rcs;
+            if (windowed) {
+                rcs = ros.getReplayCharSequence("UTF-8");
+            } else {
+                ReplayInputStream ris = ros.getReplayInputStream(0);
+                rcs = new GenericReplayCharSequence(ris,
+                    backing.getAbsolutePath(), "UTF-8");
+                ris.close();
+                // decoded file is written as UTF-16
+                tempBytes += 2L * rcs.length();
+            }
+            int length = rcs.length();
+            for (int j = 0; j < length; j++) {
+                sum += rcs.charAt(j);
+            }
+            rcs.close();
+        }
+        long ms = (System.nanoTime() - start) / 1000000;
+        System.out.println((windowed ? "windowed" : "generic") + ": "
+            + (ms / iterations) + "ms/scan, temp bytes written/scan="
+            + (tempBytes / iterations) + " (" + sum % 7 + ")");
+    }
+}
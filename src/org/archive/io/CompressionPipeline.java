@@ -0,0 +1,180 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses records into independent gzip members on a pool of threads,
+ * then appends them to their files, in the order submitted, from a single
+ * I/O thread. Shared by the members of a {@link WriterPool} so a writer
+ * can be returned to the pool, and the thread that wrote the record can
+ * go on to other work, before the record is compressed.
+ *
+ * At most <code>maxPending</code> records wait to be compressed or
+ * written at once; submitters block beyond that. Records larger than
+ * {@link #getMaxRecordSize()} should be compressed by the submitting
+ * thread instead, so as not to hold large buffers.
+ */
+public class CompressionPipeline {
+    private static final Logger logger =
+        Logger.getLogger(CompressionPipeline.class.getName());
+
+    /** default largest record to buffer for the pipeline */
+    public static final int DEFAULT_MAX_RECORD_SIZE = 1024 * 1024;
+
+    private final ExecutorService compressors;
+    private final ExecutorService appender;
+    private final Semaphore pending;
+    private final int maxRecordSize;
+
+    /**
+     * @param threads Number of compression threads.
+     * @param maxPending Most records to hold awaiting compression or
+     * writing.
+     * @param maxRecordSize Largest record to buffer for the pipeline.
+     */
+    public CompressionPipeline(int threads, int maxPending,
+            int maxRecordSize) {
+        this.compressors = Executors.newFixedThreadPool(threads,
+            new DaemonThreadFactory("CompressionPipeline compressor"));
+        this.appender = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("CompressionPipeline appender"));
+        this.pending = new Semaphore(maxPending);
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    /**
+     * @param threads Number of compression threads.
+     */
+    public CompressionPipeline(int threads) {
+        this(threads, threads * 4, DEFAULT_MAX_RECORD_SIZE);
+    }
+
+    public int getMaxRecordSize() {
+        return this.maxRecordSize;
+    }
+
+    /**
+     * Queue a record to be compressed as a gzip member and appended to
+     * <code>out</code> after any records queued before it.
+     *
+     * @param record Uncompressed record; not to be modified afterward.
+     * @param length Length of the record in <code>record</code>.
+     * @param out Stream to append to; flushed after the append.
+     * @param member Writer to tell of any failure.
+     * @return Future done when the record has been appended.
+     * @throws IOException If interrupted waiting for room in the pipeline.
+     */
+    public Future<?> submit(final byte[] record, final int length,
+            final OutputStream out, final WriterPoolMember member)
+    throws IOException {
+        try {
+            this.pending.acquire();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted awaiting compression");
+        }
+        final Future<ByteArrayOutputStream> compressed;
+        try {
+            compressed = this.compressors.submit(
+                new Callable<ByteArrayOutputStream>() {
+                    public ByteArrayOutputStream call() throws IOException {
+                        return compress(record, length);
+                    }
+                });
+            return this.appender.submit(new Runnable() {
+                public void run() {
+                    try {
+                        compressed.get().writeTo(out);
+                        out.flush();
+                    } catch (Exception e) {
+                        member.pipelineFailed(e);
+                    } finally {
+                        member.pipelineAppended(length);
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected: shut down
+            this.pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return <code>record</code> as a gzip member
+     */
+    protected static ByteArrayOutputStream compress(byte[] record,
+            int length)
+    throws IOException {
+        // deflated text is seldom more than a third of its source
+        ByteArrayOutputStream baos =
+            new ByteArrayOutputStream(Math.max(length / 3, 64));
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(record, 0, length);
+        // also ends the deflater
+        gzip.close();
+        return baos;
+    }
+
+    /**
+     * Stop the pipeline, first completing any queued records.
+     */
+    public void shutdown() {
+        this.compressors.shutdown();
+        this.appender.shutdown();
+        try {
+            if (!this.appender.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warning("pending records not written");
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "interrupted awaiting appender", e);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + " #" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -75,6 +75,10 @@ import org.archive.util.FileUtils;
  * decoded file.  We'd have to do the latter for files that are
  * > Integer.MAX_VALUE.
  *
+ * <p>{@link WindowedReplayCharSequence} now does something like this for
+ * encodings without shift states, and is used in place of the decoded
+ * file for such content.
+ *
  * @author stack
  * @version $Revision: 6090 $, $Date: 2008-12-09 23:36:27 +0000 (Tue, 09 Dec 2008) $
  */
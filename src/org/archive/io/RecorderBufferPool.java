@@ -0,0 +1,169 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of recording buffers shared by many {@link RecordingOutputStream}s,
+ * so that buffers are held only while a recording is in use rather than
+ * for the life of each recording thread, and a recording may grow its
+ * in-memory buffer before spilling to its backing file.
+ *
+ * <p>Buffers come in power-of-two size classes. Released buffers are kept
+ * for reuse until the pool holds its maximum of idle bytes; beyond that
+ * they are left to the garbage collector.
+ *
+ * <p>Also tallies how many recordings spilled to disk.
+ */
+public class RecorderBufferPool {
+    /** smallest buffer handed out */
+    protected static final int MIN_BUFFER_SIZE = 1024;
+    protected static final int MIN_SHIFT = 10;
+    /** size classes 1KiB .. 1GiB */
+    protected static final int CLASSES = 21;
+
+    /** idle buffers, by size class */
+    protected final ConcurrentLinkedQueue<byte[]>[] idle;
+    /** most idle bytes to keep */
+    protected final long maxIdleBytes;
+    protected final AtomicLong idleBytes = new AtomicLong(0);
+
+    protected final AtomicLong acquired = new AtomicLong(0);
+    protected final AtomicLong reused = new AtomicLong(0);
+    protected final AtomicLong recordings = new AtomicLong(0);
+    protected final AtomicLong grown = new AtomicLong(0);
+    protected final AtomicLong spilled = new AtomicLong(0);
+
+    /**
+     * @param maxIdleBytes most bytes of released buffers to keep for reuse
+     */
+    @SuppressWarnings("unchecked")
+    public RecorderBufferPool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+        this.idle = new ConcurrentLinkedQueue[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            this.idle[i] = new ConcurrentLinkedQueue<byte[]>();
+        }
+    }
+
+    /**
+     * @param size bytes wanted
+     * @return a buffer of at least the given size, rounded up to a power
+     * of two; contents are undefined
+     */
+    public byte[] acquire(int size) {
+        int sizeClass = sizeClass(size);
+        acquired.incrementAndGet();
+        byte[] buffer = idle[sizeClass].poll();
+        if (buffer != null) {
+            idleBytes.addAndGet(-buffer.length);
+            reused.incrementAndGet();
+            return buffer;
+        }
+        return new byte[MIN_BUFFER_SIZE << sizeClass];
+    }
+
+    /**
+     * Return a buffer got from {@link #acquire(int)}. The caller must hold
+     * no further references to it.
+     *
+     * @param buffer buffer to return
+     */
+    public void release(byte[] buffer) {
+        int sizeClass = sizeClass(buffer.length);
+        if ((MIN_BUFFER_SIZE << sizeClass) != buffer.length) {
+            // not one of ours
+            return;
+        }
+        if (idleBytes.addAndGet(buffer.length) > maxIdleBytes) {
+            idleBytes.addAndGet(-buffer.length);
+            return;
+        }
+        idle[sizeClass].offer(buffer);
+    }
+
+    protected static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(size - 1)
+            - MIN_SHIFT;
+        if (sizeClass >= CLASSES) {
+            throw new IllegalArgumentException("buffer too large: " + size);
+        }
+        return sizeClass;
+    }
+
+    /** Note a recording begun on a pooled buffer. */
+    protected void noteRecording() {
+        recordings.incrementAndGet();
+    }
+
+    /** Note a recording moved to a larger buffer. */
+    protected void noteGrown() {
+        grown.incrementAndGet();
+    }
+
+    /** Note a recording overflowed its buffer to its backing file. */
+    protected void noteSpilled() {
+        spilled.incrementAndGet();
+    }
+
+    public long getRecordingCount() {
+        return recordings.get();
+    }
+
+    public long getSpillCount() {
+        return spilled.get();
+    }
+
+    public long getGrowCount() {
+        return grown.get();
+    }
+
+    /**
+     * @return fraction of recordings which spilled to disk
+     */
+    public float getSpillRate() {
+        long count = recordings.get();
+        return (count == 0) ? 0f : (float)spilled.get() / count;
+    }
+
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * @return fraction of acquisitions satisfied by a released buffer
+     */
+    public float getReuseRate() {
+        long count = acquired.get();
+        return (count == 0) ? 0f : (float)reused.get() / count;
+    }
+
+    public String singleLineReport() {
+        return recordings.get() + " recordings, " + spilled.get()
+            + " spilled (" + (int)(getSpillRate() * 100) + "%), "
+            + grown.get() + " grown; " + (int)(getReuseRate() * 100)
+            + "% buffers reused, " + idleBytes.get() + " bytes idle";
+    }
+}
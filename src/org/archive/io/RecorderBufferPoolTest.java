@@ -0,0 +1,61 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.io;
+
+import junit.framework.TestCase;
+
+/**
+ * Test RecorderBufferPool.
+ */
+public class RecorderBufferPoolTest extends TestCase {
+    public void testSizeClasses() {
+        RecorderBufferPool pool = new RecorderBufferPool(1024 * 1024);
+        assertEquals(1024, pool.acquire(1).length);
+        assertEquals(1024, pool.acquire(1024).length);
+        assertEquals(2048, pool.acquire(1025).length);
+        assertEquals(65536, pool.acquire(65536).length);
+        assertEquals(131072, pool.acquire(100000).length);
+    }
+
+    public void testReuse() {
+        RecorderBufferPool pool = new RecorderBufferPool(1024 * 1024);
+        byte[] buffer = pool.acquire(5000);
+        pool.release(buffer);
+        assertEquals(8192, pool.getIdleBytes());
+        assertSame(buffer, pool.acquire(8000));
+        assertEquals(0, pool.getIdleBytes());
+        assertNotSame(buffer, pool.acquire(8000));
+        assertEquals(1f / 3, pool.getReuseRate(), 0.001f);
+        // foreign sizes are not pooled
+        pool.release(new byte[1000]);
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    public void testIdleBound() {
+        RecorderBufferPool pool = new RecorderBufferPool(10000);
+        byte[] a = pool.acquire(4096);
+        byte[] b = pool.acquire(4096);
+        byte[] c = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(8192, pool.getIdleBytes());
+    }
+}
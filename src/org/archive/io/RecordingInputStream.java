@@ -79,6 +79,25 @@ public class RecordingInputStream
             backingFilename);
     }
 
+    /**
+     * Create a new RecordingInputStream recording to a buffer drawn from
+     * a pool.
+     *
+     * @param bufferSize Size of buffer to start with.
+     * @param backingFilename Name of backing file.
+     * @param pool Pool to draw buffers from.
+     * @param maxBufferSize Largest buffer to grow to before using the
+     * backing file.
+     * @see RecordingOutputStream#RecordingOutputStream(int, String,
+     * RecorderBufferPool, int)
+     */
+    public RecordingInputStream(int bufferSize, String backingFilename,
+            RecorderBufferPool pool, int maxBufferSize)
+    {
+        this.recordingOutputStream = new RecordingOutputStream(bufferSize,
+            backingFilename, pool, maxBufferSize);
+    }
+
     public void open(InputStream wrappedStream) throws IOException {
         logger.fine(Thread.currentThread().getName() + " opening " +
             wrappedStream + ", " + Thread.currentThread().getName());
@@ -299,6 +318,27 @@ public class RecordingInputStream
         return this.recordingOutputStream.getDigestValue();
     }
 
+    /**
+     * Sets digests to compute over the recorded data, in the same pass,
+     * in addition to the one set by setDigest().
+     *
+     * @param algorithms
+     */
+    public void setAdditionalDigests(String[] algorithms) {
+        this.recordingOutputStream.setAdditionalDigests(algorithms);
+    }
+
+    /**
+     * Return the value of the digest of the given algorithm, set either
+     * by setDigest() or setAdditionalDigests().
+     *
+     * @param algorithm
+     * @return the digest final value, or null if no such digest is set
+     */
+    public byte[] getDigestValue(String algorithm) {
+        return this.recordingOutputStream.getDigestValue(algorithm);
+    }
+
     public ReplayCharSequence getReplayCharSequence() throws IOException {
         return getReplayCharSequence(null);
     }
@@ -323,6 +363,13 @@ public class RecordingInputStream
         this.recordingOutputStream.closeRecorder();
     }
 
+    /**
+     * @see RecordingOutputStream#releaseBuffer()
+     */
+    public void releaseBuffer() {
+        this.recordingOutputStream.releaseBuffer();
+    }
+
     /**
      * @param tempFile
      * @throws IOException
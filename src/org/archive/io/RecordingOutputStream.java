@@ -35,6 +35,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.util.MurmurHash3Digest;
+
 
 /**
  * An output stream that records all writes to wrapped output
@@ -89,6 +91,17 @@ public class RecordingOutputStream extends OutputStream {
      */
     private byte[] buffer;
 
+    /**
+     * Pool from which buffer is drawn, or null if buffer is our own.
+     */
+    protected RecorderBufferPool pool = null;
+
+    /** Size of buffer to draw from pool on open */
+    protected int initialBufferSize;
+
+    /** Largest buffer to grow to before writing the backing file */
+    protected int maxBufferSize;
+
     /** current virtual position in the recording */
     private long position;
     
@@ -111,6 +124,21 @@ public class RecordingOutputStream extends OutputStream {
      */
     private MessageDigest digest = null;
 
+    /**
+     * Further digests computed over the same data, e.g. a fast
+     * non-cryptographic hash kept as a duplicate-detection key.
+     */
+    private MessageDigest[] additionalDigests = new MessageDigest[0];
+
+    /**
+     * Position up to which recorded data has been fed to the digests.
+     * Data recorded into the in-memory buffer is digested lazily, in as
+     * few large updates as possible, rather than as each small write
+     * arrives: a large update lets the digest run its block loop (and
+     * any intrinsic the JVM has for it) over many blocks at a time.
+     */
+    private long digestPosition;
+
     /**
      * Define for SHA1 alogarithm.
      */
@@ -161,6 +189,27 @@ public class RecordingOutputStream extends OutputStream {
         recording = true;
     }
 
+    /**
+     * Create a new RecordingOutputStream drawing its buffer from a pool on
+     * open. Until its content overflows to the backing file, the buffer
+     * is swapped for larger ones from the pool as needed, up to
+     * <code>maxBufferSize</code>. Call {@link #releaseBuffer()} when done
+     * with the recording.
+     *
+     * @param bufferSize Buffer size to start with.
+     * @param backingFilename Name of backing file to use.
+     * @param pool Pool to draw buffers from.
+     * @param maxBufferSize Largest buffer to grow to.
+     */
+    public RecordingOutputStream(int bufferSize, String backingFilename,
+            RecorderBufferPool pool, int maxBufferSize) {
+        this.backingFilename = backingFilename;
+        this.pool = pool;
+        this.initialBufferSize = bufferSize;
+        this.maxBufferSize = Math.max(bufferSize, maxBufferSize);
+        recording = true;
+    }
+
     /**
      * Wrap the given stream, both recording and passing along any data written
      * to this RecordingOutputStream.
@@ -200,13 +249,61 @@ public class RecordingOutputStream extends OutputStream {
         if (this.diskStream != null) {
             closeDiskStream();
         }
+        // backing file is only (re)written if the buffer overflows
+        if (this.pool != null) {
+            if (this.buffer == null) {
+                this.buffer = this.pool.acquire(this.initialBufferSize);
+            }
+            this.pool.noteRecording();
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Make room to record at the current position: true if there is room
+     * in the buffer, growing a pooled buffer if possible, else false with
+     * the disk stream ready for writing.
+     *
+     * @return True if position is within buffer.
+     * @throws IOException Failed creation of backing file.
+     */
+    private boolean roomInBuffer() throws IOException {
+        if (this.position < this.buffer.length) {
+            return true;
+        }
+        if (this.pool != null && this.position == this.buffer.length
+                && this.buffer.length < this.maxBufferSize) {
+            // nothing on disk yet; move to a larger buffer
+            byte[] larger = this.pool.acquire(
+                (int)Math.min(this.buffer.length * 2L, this.maxBufferSize));
+            System.arraycopy(this.buffer, 0, larger, 0, this.buffer.length);
+            this.pool.release(this.buffer);
+            this.buffer = larger;
+            this.pool.noteGrown();
+            return true;
+        }
         if (this.diskStream == null) {
-            // TODO: Fix so we only make file when its actually needed.
+            // overwrites (truncates) any previous recording's file
             FileOutputStream fis = new FileOutputStream(this.backingFilename);
-            
-            this.diskStream = new RecyclingFastBufferedOutputStream(fis, bufStreamBuf);
+            this.diskStream =
+                new RecyclingFastBufferedOutputStream(fis, bufStreamBuf);
+            if (this.pool != null) {
+                this.pool.noteSpilled();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return a pooled buffer to its pool. The recording, and any replay
+     * of it, must no longer be used; a later open() draws a new buffer.
+     * Does nothing if the buffer is not pooled or the stream is open.
+     */
+    public void releaseBuffer() {
+        if (this.pool != null && this.buffer != null && !isOpen()) {
+            this.pool.release(this.buffer);
+            this.buffer = null;
         }
-        startTime = System.currentTimeMillis();
     }
 
     public void write(int b) throws IOException {
@@ -287,13 +384,11 @@ public class RecordingOutputStream extends OutputStream {
      * @exception IOException Failed write to backing file.
      */
     private void record(int b) throws IOException {
-        if (this.shouldDigest) {
-            this.digest.update((byte)b);
-        }
-        if (this.position >= this.buffer.length) {
-            // TODO: Its possible to call write w/o having first opened a
-            // stream.  Protect ourselves against this.
-            assert this.diskStream != null: "Diskstream is null";
+        if (!roomInBuffer()) {
+            if (this.shouldDigest) {
+                digestBuffered();
+                updateDigests(b);
+            }
             this.diskStream.write(b);
         } else {
             this.buffer[(int) this.position] = (byte) b;
@@ -311,28 +406,10 @@ public class RecordingOutputStream extends OutputStream {
      * @exception IOException Failed write to backing file.
      */
     private void record(byte[] b, int off, int len) throws IOException {
-        if(this.shouldDigest) {
-            assert this.digest != null: "Digest is null.";
-            this.digest.update(b, off, len);
-        }
-        tailRecord(b, off, len);
-    }
-
-    /**
-     * Record without digesting.
-     * 
-     * @param b Buffer to record.
-     * @param off Offset into buffer at which to start recording.
-     * @param len Length of buffer to record.
-     *
-     * @exception IOException Failed write to backing file.
-     */
-    private void tailRecord(byte[] b, int off, int len) throws IOException {
-        if(this.position >= this.buffer.length){
-            // TODO: Its possible to call write w/o having first opened a
-            // stream.  Lets protect ourselves against this.
-            if (this.diskStream == null) {
-                throw new IOException("diskstream is null");
+        if (!roomInBuffer()) {
+            if (this.shouldDigest) {
+                digestBuffered();
+                updateDigests(b, off, len);
             }
             this.diskStream.write(b, off, len);
             this.position += len;
@@ -344,11 +421,53 @@ public class RecordingOutputStream extends OutputStream {
             this.position += toCopy;
             // TODO verify these are +1 -1 right
             if (toCopy < len) {
-                tailRecord(b, off + toCopy, len - toCopy);
+                record(b, off + toCopy, len - toCopy);
             }
         }
     }
 
+    /**
+     * Feed the digests any recorded data still only in the buffer.
+     */
+    private void digestBuffered() {
+        if (!this.shouldDigest || this.buffer == null) {
+            return;
+        }
+        long end = Math.min(Math.max(this.position, this.maxPosition),
+            this.buffer.length);
+        if (this.digestPosition < end) {
+            int off = (int)this.digestPosition;
+            int len = (int)(end - this.digestPosition);
+            if (this.digest != null) {
+                this.digest.update(this.buffer, off, len);
+            }
+            for (int i = 0; i < this.additionalDigests.length; i++) {
+                this.additionalDigests[i].update(this.buffer, off, len);
+            }
+            this.digestPosition = end;
+        }
+    }
+
+    private void updateDigests(int b) {
+        if (this.digest != null) {
+            this.digest.update((byte)b);
+        }
+        for (int i = 0; i < this.additionalDigests.length; i++) {
+            this.additionalDigests[i].update((byte)b);
+        }
+        this.digestPosition++;
+    }
+
+    private void updateDigests(byte[] b, int off, int len) {
+        if (this.digest != null) {
+            this.digest.update(b, off, len);
+        }
+        for (int i = 0; i < this.additionalDigests.length; i++) {
+            this.additionalDigests[i].update(b, off, len);
+        }
+        this.digestPosition += len;
+    }
+
     public void close() throws IOException {
         if(contentBeginMark<0) {
             // if unset, consider 0 posn as content-start
@@ -443,8 +562,15 @@ public class RecordingOutputStream extends OutputStream {
      * set.
      */
     public void startDigest() {
-        if (this.digest != null) {
-            this.digest.reset();
+        if (this.digest != null || this.additionalDigests.length > 0) {
+            if (this.digest != null) {
+                this.digest.reset();
+            }
+            for (int i = 0; i < this.additionalDigests.length; i++) {
+                this.additionalDigests[i].reset();
+            }
+            // content already recorded (before a reset()) is not digested
+            this.digestPosition = Math.max(this.position, this.maxPosition);
             this.shouldDigest = true;
         }
     }
@@ -471,7 +597,7 @@ public class RecordingOutputStream extends OutputStream {
             // Reuse extant digest if its sha1 algorithm.
             if (this.digest == null ||
                     !this.digest.getAlgorithm().equals(algorithm)) {
-                setDigest(MessageDigest.getInstance(algorithm));
+                setDigest(newDigest(algorithm));
             }
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
@@ -502,9 +628,78 @@ public class RecordingOutputStream extends OutputStream {
         if(this.digest == null) {
             return null;
         }
+        digestBuffered();
         return this.digest.digest();
     }
 
+    /**
+     * Sets digests to compute over the recorded data in addition to the
+     * one given by {@link #setDigest(String)}, in the same pass. As with
+     * setDigest(String), instances of unchanged algorithms are reused.
+     *
+     * @param algorithms Message digest algorithms to use; may be empty.
+     */
+    public void setAdditionalDigests(String[] algorithms) {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            for (int j = 0; j < this.additionalDigests.length; j++) {
+                if (this.additionalDigests[j].getAlgorithm()
+                        .equals(algorithms[i])) {
+                    digests[i] = this.additionalDigests[j];
+                    break;
+                }
+            }
+            if (digests[i] == null) {
+                try {
+                    digests[i] = newDigest(algorithms[i]);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+        }
+        this.additionalDigests = digests;
+    }
+
+    /**
+     * Return the value of the digest of the given algorithm, whether
+     * set by {@link #setDigest(String)} or
+     * {@link #setAdditionalDigests(String[])}. As with
+     * {@link #getDigestValue()}, call only after all data has been
+     * recorded.
+     *
+     * @param algorithm Message digest algorithm.
+     * @return the digest final value, or null if no such digest is set
+     */
+    public byte[] getDigestValue(String algorithm) {
+        digestBuffered();
+        if (this.digest != null
+                && this.digest.getAlgorithm().equals(algorithm)) {
+            return this.digest.digest();
+        }
+        for (int i = 0; i < this.additionalDigests.length; i++) {
+            if (this.additionalDigests[i].getAlgorithm().equals(algorithm)) {
+                return this.additionalDigests[i].digest();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a digest of the given algorithm: any the JDK provides, or
+     * {@link MurmurHash3Digest#ALGORITHM}.
+     *
+     * @param algorithm Message digest algorithm.
+     * @return a new digest
+     * @throws NoSuchAlgorithmException if the algorithm is unknown
+     */
+    public static MessageDigest newDigest(String algorithm)
+    throws NoSuchAlgorithmException {
+        if (MurmurHash3Digest.ALGORITHM.equals(algorithm)) {
+            return new MurmurHash3Digest();
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+
     public ReplayCharSequence getReplayCharSequence() throws IOException {
         return getReplayCharSequence(null);
     }
@@ -552,8 +747,18 @@ public class RecordingOutputStream extends OutputStream {
                         startOffset,
                         characterEncoding);
                 
+            } else if (WindowedReplayCharSequence.canDecodeInWindows(
+                    characterEncoding)) {
+                // raw data overflows to disk; decode windows on demand
+                return new WindowedReplayCharSequence(
+                        this.buffer, 
+                        this.size, 
+                        startOffset,
+                        this.backingFilename,
+                        characterEncoding);
             } else {
-                // raw data overflows to disk; use temp file
+                // raw data overflows to disk, in an encoding with shift
+                // states; use temp file
                 ReplayInputStream ris = getReplayInputStream(startOffset);
                 ReplayCharSequence rcs = new GenericReplayCharSequence(
                         ris, 
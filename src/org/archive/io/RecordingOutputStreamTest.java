@@ -24,11 +24,15 @@
  */
 package org.archive.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
+import org.archive.util.MurmurHash3Digest;
 import org.archive.util.TmpDirTestCase;
 
 
@@ -163,6 +167,102 @@ public class RecordingOutputStreamTest extends TmpDirTestCase
         assertEquals("Reset to zero char 3", ris.read(), 3);
     }
 
+    /**
+     * Test a pooled buffer grows before spilling to the backing file, and
+     * that the backing file is only created on spill.
+     * @throws IOException
+     */
+    public void testPooledGrowthAndSpill() throws IOException
+    {
+        final String BASENAME = "testPooledGrowthAndSpill";
+        cleanUpOldFiles(BASENAME);
+        File backing = new File(getTmpDir(), BASENAME + "Backing.txt");
+        RecorderBufferPool pool = new RecorderBufferPool(1024 * 1024);
+        RecordingOutputStream ros = new RecordingOutputStream(1024,
+            backing.getAbsolutePath(), pool, 4096);
+
+        pooledRecord(ros, 3000);
+        assertFalse("backing file made", backing.exists());
+        assertEquals("grown", 2, pool.getGrowCount());
+        assertEquals("spilled", 0, pool.getSpillCount());
+        ros.releaseBuffer();
+        // outgrown buffers were released too
+        assertEquals("idle", 1024 + 2048 + 4096, pool.getIdleBytes());
+
+        pooledRecord(ros, 10000);
+        assertTrue("backing file made", backing.exists());
+        assertEquals("spilled", 1, pool.getSpillCount());
+        assertEquals("recordings", 2, pool.getRecordingCount());
+        ros.releaseBuffer();
+    }
+
+    /**
+     * Test the content digest and an additional digest both equal digests
+     * of the content-body computed directly, whether the recording stays
+     * in the buffer or spills to the backing file, and across a reset().
+     * @throws Exception
+     */
+    public void testDigests() throws Exception
+    {
+        final String BASENAME = "testDigests";
+        cleanUpOldFiles(BASENAME);
+        RecordingOutputStream ros = new RecordingOutputStream(1024,
+            (new File(getTmpDir(), BASENAME + "Bkg.txt")).getAbsolutePath());
+        ros.setSha1Digest();
+        ros.setAdditionalDigests(
+            new String[] {MurmurHash3Digest.ALGORITHM});
+        int[] sizes = {0, 100, 1000, 3000};
+        for (int s = 0; s < sizes.length; s++) {
+            byte[] content = new byte[sizes[s]];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte)(i * 13);
+            }
+            ros.open(new ByteArrayOutputStream());
+            ros.write("HEAD\r\n\r\n".getBytes("ISO-8859-1"));
+            ros.markContentBegin();
+            ros.mark();
+            ros.write(content, 0, content.length / 2);
+            ros.reset();
+            ros.write(content, 0, content.length / 3);
+            for (int i = content.length / 3; i < content.length / 2; i++) {
+                ros.write(content[i]);
+            }
+            ros.write(content, content.length / 2,
+                content.length - content.length / 2);
+            ros.close();
+            assertTrue("sha1 " + sizes[s], Arrays.equals(
+                MessageDigest.getInstance("SHA1").digest(content),
+                ros.getDigestValue()));
+            assertTrue("murmur3 " + sizes[s], Arrays.equals(
+                new MurmurHash3Digest().digest(content),
+                ros.getDigestValue(MurmurHash3Digest.ALGORITHM)));
+        }
+    }
+
+    private void pooledRecord(RecordingOutputStream ros, int size)
+        throws IOException
+    {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte)(i * 31);
+        }
+        ros.open(new ByteArrayOutputStream());
+        ros.write(content, 0, 700);
+        for (int i = 700; i < 1500 && i < size; i++) {
+            ros.write(content[i]);
+        }
+        if (size > 1500) {
+            ros.write(content, 1500, size - 1500);
+        }
+        ros.close();
+        ReplayInputStream ris = ros.getReplayInputStream();
+        for (int i = 0; i < size; i++) {
+            assertEquals("byte " + i, content[i] & 0xff, ris.read());
+        }
+        assertEquals("end", -1, ris.read());
+        ris.close();
+    }
+
     /**
      * Record a file write.
      *
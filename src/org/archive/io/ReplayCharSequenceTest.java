@@ -23,8 +23,10 @@
 package org.archive.io;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Random;
 import java.util.logging.Logger;
 
 import org.archive.util.FileUtils;
@@ -246,6 +248,78 @@ public class ReplayCharSequenceTest extends TmpDirTestCase
         }
     }
     
+    public void testWindowedMultiByteOverflow() throws IOException {
+        // 1-, 2-, 3- and 4-byte (surrogate pair) characters, then a
+        // malformed byte
+        String unit = "a\u00e9\u65e5\ud834\udd1e";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(unit);
+        }
+        byte[] good = sb.toString().getBytes("UTF-8");
+        byte[] content = new byte[good.length + 2];
+        System.arraycopy(good, 0, content, 0, good.length);
+        content[good.length] = (byte)0xE6;
+        content[good.length + 1] = (byte)'z';
+        String expected = new String(content, "UTF-8");
+        File backing = new File(getTmpDir(), "testWindowedMultiByteOverflow");
+        Random random = new Random(0);
+        // vary where the prefix buffer ends, relative to character bytes
+        for (int prefix = 1; prefix < 12; prefix++) {
+            FileOutputStream out = new FileOutputStream(backing);
+            out.write(content, prefix, content.length - prefix);
+            out.close();
+            for (int window = 3; window < 9; window += 5) {
+                byte[] buffer = new byte[prefix];
+                System.arraycopy(content, 0, buffer, 0, prefix);
+                WindowedReplayCharSequence rcs =
+                    new WindowedReplayCharSequence(buffer, content.length, 0,
+                        backing.getAbsolutePath(), "UTF-8", window);
+                assertEquals("prefix " + prefix + " window " + window,
+                    expected, rcs.toString());
+                for (int i = 0; i < 200; i++) {
+                    int index = random.nextInt(expected.length());
+                    assertEquals("char " + index, expected.charAt(index),
+                        rcs.charAt(index));
+                }
+                rcs.close();
+            }
+        }
+        backing.delete();
+    }
+
+    public void testStatefulEncodingOverflow() throws IOException {
+        String[] stateful = {"x-windows-iso2022jp", "x-windows-50220",
+            "x-windows-50221", "ISO-2022-JP"};
+        for (int i = 0; i < stateful.length; i++) {
+            assertFalse(stateful[i],
+                WindowedReplayCharSequence.canDecodeInWindows(stateful[i]));
+        }
+        assertTrue(WindowedReplayCharSequence.canDecodeInWindows(
+            "x-windows-949"));
+        assertTrue(WindowedReplayCharSequence.canDecodeInWindows(
+            "windows-1252"));
+
+        String expected = "\u65e5\u672c\u8a9e abc \u65e5\u672c";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.append(expected);
+        }
+        expected = sb.toString();
+        byte[] content = expected.getBytes("x-windows-iso2022jp");
+        RecordingOutputStream ros = new RecordingOutputStream(16,
+            new File(getTmpDir(), "testStatefulEncodingOverflow")
+                .getAbsolutePath());
+        ros.open();
+        ros.write(content);
+        ros.close();
+        ReplayCharSequence rcs =
+            ros.getReplayCharSequence("x-windows-iso2022jp");
+        assertTrue(rcs instanceof GenericReplayCharSequence);
+        assertEquals(expected, rcs.toString());
+        rcs.close();
+    }
+
     /**
      * Accessing characters test.
      *
@@ -0,0 +1,391 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a (Replay)CharSequence view on recorded streams (a prefix
+ * buffer and overflow backing file) of multibyte characters, decoding
+ * windows of characters on demand rather than writing the whole
+ * decoding out to a file as {@link GenericReplayCharSequence} does.
+ *
+ * <p>On construction the content is decoded once, discarding the
+ * characters, to learn its length and to record, for the start of each
+ * window of characters, the offset of the bytes it decodes from. A
+ * character is then found by decoding its window afresh from the prefix
+ * buffer or a read-only memory-mapped view of the backing file. The two
+ * most recently used windows are kept, so the sequential-with-some-
+ * backtracking access of regular expressions mostly hits memory.
+ *
+ * <p>Restarting decoding at a window start is only correct for
+ * encodings without shift states; see {@link #canDecodeInWindows(String)}.
+ *
+ * <p>Call close on this class when done so can clean up resources.
+ */
+class WindowedReplayCharSequence implements ReplayCharSequence {
+
+    protected static Logger logger =
+        Logger.getLogger(WindowedReplayCharSequence.class.getName());
+
+    /** Default number of characters decoded at a time */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Prefixes of canonical names of encoding families none of whose
+     * members has a shift state.
+     */
+    private static final String[] RESTARTABLE_FAMILIES = {
+        "ISO-8859-", "windows-125", "KOI8-"
+    };
+
+    /**
+     * Canonical names of other encodings with no shift state, whose
+     * decoding may restart at any character boundary. Listed exactly,
+     * as some names sharing their prefixes (x-windows-iso2022jp,
+     * x-windows-50220, x-windows-50221) are stateful.
+     */
+    private static final String[] RESTARTABLE_ENCODINGS = {
+        "UTF-8", "US-ASCII", "Shift_JIS", "windows-31j", "EUC-JP", "EUC-KR",
+        "GBK", "GB2312", "GB18030", "Big5", "Big5-HKSCS", "TIS-620",
+        "x-windows-874", "x-windows-949", "x-windows-950"
+    };
+
+    private final Charset charset;
+
+    /** In-memory prefix of the recording */
+    private byte[] prefixBuffer;
+    /** Offset into prefix buffer at which content begins */
+    private final int contentOffset;
+    /** Content bytes held in the prefix buffer */
+    private final int prefixLength;
+    /** Mapped view of the backing file, or null if none */
+    private ByteBuffer mapped;
+    /** Total content bytes, prefix buffer and backing file */
+    private final long byteLength;
+
+    /** Number of characters */
+    private final int length;
+    /** Characters per window */
+    private final int windowSize;
+    /** Per window: content byte offset at which its decoding starts */
+    private long[] windowBytes;
+    /** Per window: index of its first character */
+    private int[] windowChars;
+
+    /** Most recently used decoded window, and its index */
+    private CharBuffer current;
+    private int currentWindow = -1;
+    /** Previously used decoded window, and its index */
+    private CharBuffer previous;
+    private int previousWindow = -1;
+    /** Characters of the current window, and the index range they hold */
+    private char[] currentChars;
+    private int currentStart = 0;
+    private int currentEnd = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer In-memory buffer of recordings prefix.
+     * @param size Total size of stream to replay in bytes, including
+     * any HTTP headers.
+     * @param responseBodyStart Where the response body starts in bytes.
+     * @param backingFilename Path to backing file with content in excess of
+     * whats in <code>buffer</code>.
+     * @param encoding Canonical name of the encoding, one for which
+     * {@link #canDecodeInWindows(String)} is true.
+     * @throws IOException
+     */
+    public WindowedReplayCharSequence(byte[] buffer, long size,
+            long responseBodyStart, String backingFilename, String encoding)
+    throws IOException {
+        this(buffer, size, responseBodyStart, backingFilename, encoding,
+            DEFAULT_WINDOW_SIZE);
+    }
+
+    WindowedReplayCharSequence(byte[] buffer, long size,
+            long responseBodyStart, String backingFilename, String encoding,
+            int windowSize)
+    throws IOException {
+        super();
+        this.charset = Charset.forName(encoding);
+        this.prefixBuffer = buffer;
+        this.contentOffset = (int)responseBodyStart;
+        this.prefixLength = (int)(Math.min(size, buffer.length)
+            - responseBodyStart);
+        if (size > buffer.length) {
+            this.mapped = map(backingFilename, size - buffer.length);
+            this.byteLength = prefixLength + (long)this.mapped.limit();
+        } else {
+            this.byteLength = prefixLength;
+        }
+        this.windowSize = windowSize;
+        this.length = index();
+    }
+
+    /**
+     * @param encoding Canonical encoding name
+     * @return true if the encoding has no shift state, so may be decoded
+     * by this class
+     */
+    public static boolean canDecodeInWindows(String encoding) {
+        for (int i = 0; i < RESTARTABLE_ENCODINGS.length; i++) {
+            if (encoding.equals(RESTARTABLE_ENCODINGS[i])) {
+                return true;
+            }
+        }
+        for (int i = 0; i < RESTARTABLE_FAMILIES.length; i++) {
+            if (encoding.startsWith(RESTARTABLE_FAMILIES[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer map(String backingFilename, long size)
+    throws IOException {
+        FileInputStream in = new FileInputStream(backingFilename);
+        try {
+            FileChannel c = in.getChannel();
+            long mapSize = Math.min(Math.min(size, c.size()),
+                (long)Integer.MAX_VALUE);
+            if (mapSize < size) {
+                logger.log(Level.WARNING, "only first " + mapSize
+                    + " bytes of backing file mapped, thread="
+                    + Thread.currentThread().getName() + " file="
+                    + backingFilename);
+            }
+            return c.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
+        } finally {
+            // mapping remains valid after the channel is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Decode all content once, noting where each window starts.
+     *
+     * @return number of characters
+     */
+    private int index() {
+        int capacity = 16;
+        long[] bytes = new long[capacity];
+        int[] chars = new int[capacity];
+        CharBuffer scratch = CharBuffer.allocate(windowSize);
+        long pos = 0;
+        long total = 0;
+        int windows = 0;
+        while (pos < byteLength || windows == 0) {
+            if (windows == capacity) {
+                capacity *= 2;
+                long[] newBytes = new long[capacity];
+                System.arraycopy(bytes, 0, newBytes, 0, windows);
+                bytes = newBytes;
+                int[] newChars = new int[capacity];
+                System.arraycopy(chars, 0, newChars, 0, windows);
+                chars = newChars;
+            }
+            bytes[windows] = pos;
+            chars[windows] = (int)total;
+            windows++;
+            scratch.clear();
+            long next = decodeWindow(pos, scratch);
+            total += scratch.position();
+            if (next == pos) {
+                // nothing decodable remains
+                break;
+            }
+            pos = next;
+        }
+        if (total > Integer.MAX_VALUE) {
+            logger.log(Level.WARNING, "only first " + Integer.MAX_VALUE
+                + " chars accessible, thread="
+                + Thread.currentThread().getName());
+        }
+        this.windowBytes = bytes;
+        this.windowChars = new int[windows];
+        System.arraycopy(chars, 0, this.windowChars, 0, windows);
+        return (int)Math.min(total, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decode from the given content byte offset until the output is full
+     * or the content ends.
+     *
+     * @param pos content byte offset to start from
+     * @param out buffer to decode into
+     * @return content byte offset following the last byte decoded
+     */
+    private long decodeWindow(long pos, CharBuffer out) {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        while (out.hasRemaining() && pos < byteLength) {
+            ByteBuffer in = bytesFrom(pos);
+            boolean endOfInput = (pos + in.remaining() == byteLength);
+            int start = in.position();
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            pos += in.position() - start;
+            if (result.isOverflow() || endOfInput) {
+                break;
+            }
+            if (in.hasRemaining()) {
+                // a character split between prefix buffer and backing file
+                ByteBuffer join = ByteBuffer.allocate(in.remaining() + 16);
+                join.put(in);
+                ByteBuffer rest = bytesFrom(pos + join.position());
+                if (rest.remaining() > 16) {
+                    rest.limit(rest.position() + 16);
+                }
+                join.put(rest);
+                join.flip();
+                endOfInput = (pos + join.remaining() == byteLength);
+                decoder.decode(join, out, endOfInput);
+                if (join.position() == 0) {
+                    break;
+                }
+                pos += join.position();
+            }
+        }
+        if (pos == byteLength) {
+            decoder.flush(out);
+        }
+        return pos;
+    }
+
+    /**
+     * @param pos content byte offset
+     * @return buffer positioned at the offset, limited to the end of the
+     * prefix buffer or backing file holding it
+     */
+    private ByteBuffer bytesFrom(long pos) {
+        if (pos < prefixLength) {
+            return ByteBuffer.wrap(prefixBuffer, contentOffset + (int)pos,
+                prefixLength - (int)pos);
+        }
+        ByteBuffer bb = mapped.duplicate();
+        bb.position((int)(pos - prefixLength));
+        return bb;
+    }
+
+    /**
+     * @param index character index
+     * @return decoded window holding the character
+     */
+    private CharBuffer windowFor(int index) {
+        if (!inCurrent(index)) {
+            // swap in the previous window, or decode over it
+            CharBuffer tmp = previous;
+            int tmpWindow = previousWindow;
+            previous = current;
+            previousWindow = currentWindow;
+            current = tmp;
+            currentWindow = tmpWindow;
+            if (!inCurrent(index)) {
+                int window = findWindow(index);
+                if (current == null) {
+                    current = CharBuffer.allocate(windowSize);
+                }
+                current.clear();
+                decodeWindow(windowBytes[window], current);
+                current.flip();
+                currentWindow = window;
+            }
+            currentChars = current.array();
+            currentStart = windowChars[currentWindow];
+            currentEnd = currentStart + current.limit();
+        }
+        return current;
+    }
+
+    private boolean inCurrent(int index) {
+        return currentWindow >= 0 && index >= windowChars[currentWindow]
+            && index - windowChars[currentWindow] < current.limit();
+    }
+
+    private int findWindow(int index) {
+        int lo = 0;
+        int hi = windowChars.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (windowChars[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public char charAt(int index) {
+        if (index >= currentStart && index < currentEnd) {
+            return currentChars[index - currentStart];
+        }
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index
+                + " not in 0-" + length);
+        }
+        CharBuffer window = windowFor(index);
+        return window.get(index - windowChars[currentWindow]);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return new CharSubSequence(this, start, end);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        int i = 0;
+        while (i < length) {
+            CharBuffer window = windowFor(i);
+            int offset = i - windowChars[currentWindow];
+            sb.append(window.array(), offset, window.limit() - offset);
+            i += window.limit() - offset;
+        }
+        return sb.toString();
+    }
+
+    public void close() {
+        this.prefixBuffer = null;
+        this.mapped = null;
+        this.current = null;
+        this.previous = null;
+        this.currentChars = null;
+        this.currentStart = 0;
+        this.currentEnd = 0;
+        this.currentWindow = -1;
+        this.previousWindow = -1;
+    }
+}
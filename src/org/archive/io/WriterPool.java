@@ -84,6 +84,12 @@ public abstract class WriterPool {
      * Keep in data structure rather than as individual values.
      */
     private final WriterPoolSettings settings;
+
+    /**
+     * Pipeline compressing members' records off the writing threads, if
+     * any.
+     */
+    private CompressionPipeline compressionPipeline = null;
     
     /**
      * Shutdown default constructor.
@@ -160,6 +166,7 @@ public abstract class WriterPool {
                     e.getMessage());
             }
         }
+        f.setCompressionPipeline(this.compressionPipeline);
         return f;
     }
 
@@ -220,6 +227,27 @@ public abstract class WriterPool {
 	 */
     public void close() {
         this.pool.clear();
+        if (this.compressionPipeline != null) {
+            this.compressionPipeline.shutdown();
+        }
+    }
+
+    /**
+     * Have members compress records with the given pipeline rather than on
+     * the threads writing them. Only takes effect if the files written are
+     * compressed. The pipeline is shut down on {@link #close()}.
+     * 
+     * @param pipeline Pipeline for compressing records.
+     */
+    public void setCompressionPipeline(CompressionPipeline pipeline) {
+        this.compressionPipeline = pipeline;
+    }
+
+    /**
+     * @return Pipeline compressing members' records, or null.
+     */
+    public CompressionPipeline getCompressionPipeline() {
+        return this.compressionPipeline;
     }
 
 	/**
@@ -24,8 +24,10 @@ package org.archive.io;
 
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,7 +35,10 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
 
@@ -128,6 +133,34 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      * Buffer to reuse writing streams.
      */
     private final byte [] scratchbuffer = new byte[4 * 1024];
+
+    /**
+     * Pipeline to compress records on other threads, or null to compress
+     * them on the writing thread.
+     */
+    private CompressionPipeline pipeline = null;
+
+    /**
+     * Completion of the last record handed to the pipeline.
+     */
+    private Future<?> lastPipelined = null;
+
+    /**
+     * First failure of the pipeline writing a record, reported on the
+     * next use of this writer.
+     */
+    private volatile Exception pipelineFailure = null;
+
+    /**
+     * Bytes written to files not yet claimed by {@link #takeBytesWritten()}.
+     */
+    private final AtomicLong unclaimedBytes = new AtomicLong();
+
+    /**
+     * Uncompressed length of records handed to the pipeline and not yet
+     * appended to the file.
+     */
+    private final AtomicLong pipelinedBytes = new AtomicLong();
  
     
     /**
@@ -196,7 +229,8 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
 	 *
 	 * Call at the end of the writing of a record or just before we start
 	 * writing a new record.  Will close current file and open a new file
-	 * if file size has passed out maxSize.
+	 * if file size has passed out maxSize.  Records still in a compression
+	 * pipeline, not yet in the file, count at their uncompressed length.
 	 * 
 	 * <p>Creates and opens a file if none already open.  One use of this method
 	 * then is after construction, call this method to add the metadata, then
@@ -206,7 +240,8 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
 	 */
     public void checkSize() throws IOException {
         if (this.out == null ||
-                (this.maxSize != -1 && (this.f.length() > this.maxSize))) {
+                (this.maxSize != -1 && (this.f.length()
+                    + this.pipelinedBytes.get() > this.maxSize))) {
             createFile();
         }
     }
@@ -234,7 +269,7 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
     	close();
         this.f = file;
         this.fos = new FileOutputStream(this.f);
-        this.out = new FastBufferedOutputStream(this.fos);
+        this.out = new FastBufferedOutputStream(new CountingStream(this.fos));
         logger.info("Opened " + this.f.getAbsolutePath());
         return this.f.getName();
     }
@@ -364,8 +399,11 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected void preWriteRecordTasks()
     throws IOException {
+        checkPipeline();
         checkSize();
-        if (this.compressed) {
+        if (this.compressed && this.pipeline != null) {
+            this.out = new PipelinedRecord(this.out);
+        } else if (this.compressed) {
             // Wrap stream in GZIP Writer.
             // The below construction immediately writes the GZIP 'default'
             // header out on the underlying stream.
@@ -382,7 +420,11 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected void postWriteRecordTasks()
     throws IOException {
-        if (this.compressed) {
+        if (this.out instanceof PipelinedRecord) {
+            PipelinedRecord o = (PipelinedRecord)this.out;
+            this.out = o.getWrappedStream();
+            o.finish();
+        } else if (this.compressed) {
             CompressedStream o = (CompressedStream)this.out;
             o.finish();
             o.flush();
@@ -399,6 +441,7 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
 	 * @throws IOException
 	 */
     public long getPosition() throws IOException {
+        drainPipeline();
         long position = 0;
         if (this.out != null) {
             this.out.flush();
@@ -415,6 +458,87 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
     public boolean isCompressed() {
         return compressed;
     }
+
+    /**
+     * Have compressed records compressed, and written, by the given
+     * pipeline rather than by the thread writing them.
+     * 
+     * @param pipeline Pipeline to use, or null to compress on the writing
+     * thread.
+     * @throws IOException If a record already in a pipeline failed.
+     */
+    public void setCompressionPipeline(CompressionPipeline pipeline)
+    throws IOException {
+        if (pipeline != this.pipeline) {
+            drainPipeline();
+            this.pipeline = pipeline;
+        }
+    }
+
+    /**
+     * Return the number of bytes written to this writer's files, compressed
+     * or otherwise, since the last call. Unlike differences between
+     * {@link #getPosition()}s, this does not wait on records still in a
+     * compression pipeline: they are counted by some later call.
+     * 
+     * @return Bytes written since the last call.
+     */
+    public long takeBytesWritten() {
+        return this.unclaimedBytes.getAndSet(0);
+    }
+
+    /**
+     * Called by a {@link CompressionPipeline} failing to write a record.
+     * @param e Failure.
+     */
+    void pipelineFailed(Exception e) {
+        if (this.pipelineFailure == null) {
+            this.pipelineFailure = e;
+        }
+    }
+
+    /**
+     * Called by a {@link CompressionPipeline} done with a record, whether
+     * or not it was appended.
+     * @param length Uncompressed length of the record.
+     */
+    void pipelineAppended(int length) {
+        this.pipelinedBytes.addAndGet(-length);
+    }
+
+    /**
+     * Throw any failure of the pipeline writing earlier records.
+     * @throws IOException
+     */
+    protected void checkPipeline() throws IOException {
+        Exception e = this.pipelineFailure;
+        if (e != null) {
+            this.pipelineFailure = null;
+            IOException ioe = new IOException("Failed pipelined write to " +
+                this.f + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Wait until all records handed to the pipeline are in the file.
+     * @throws IOException If writing any of them failed.
+     */
+    protected void drainPipeline() throws IOException {
+        Future<?> last = this.lastPipelined;
+        if (last != null) {
+            try {
+                last.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted draining pipeline");
+            } catch (ExecutionException e) {
+                pipelineFailed(e);
+            }
+            this.lastPipelined = null;
+        }
+        checkPipeline();
+    }
     
     protected void write(final byte [] b) throws IOException {
     	this.out.write(b);
@@ -486,6 +610,14 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
         if (this.out == null) {
             return;
         }
+        try {
+            drainPipeline();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void closeFile() throws IOException {
         this.out.close();
         this.out = null;
         this.fos = null;
@@ -545,4 +677,113 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
         
         
     }
+
+    /**
+     * Buffers a record to hand to the {@link CompressionPipeline}. Should
+     * the record outgrow the pipeline's limit, waits for the pipeline to
+     * empty and compresses the record on this thread instead.
+     */
+    private class PipelinedRecord extends OutputStream {
+        private final OutputStream wrapped;
+        private RecordBuffer buffer = new RecordBuffer();
+        private CompressedStream inline = null;
+
+        public PipelinedRecord(OutputStream wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        OutputStream getWrappedStream() {
+            return this.wrapped;
+        }
+
+        public void write(int b) throws IOException {
+            checkRoom(1);
+            if (this.inline != null) {
+                this.inline.write(b);
+            } else {
+                this.buffer.write(b);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkRoom(len);
+            if (this.inline != null) {
+                this.inline.write(b, off, len);
+            } else {
+                this.buffer.write(b, off, len);
+            }
+        }
+
+        /**
+         * Switch to inline compression if buffering <code>len</code> more
+         * bytes would pass the pipeline's limit.
+         */
+        private void checkRoom(int len) throws IOException {
+            if (this.inline == null && this.buffer.size() + len
+                    > pipeline.getMaxRecordSize()) {
+                drainPipeline();
+                this.inline = new CompressedStream(this.wrapped);
+                this.buffer.writeTo(this.inline);
+                this.buffer = null;
+            }
+        }
+
+        /**
+         * Finish the record: complete inline compression, or hand the
+         * buffered record to the pipeline.
+         * @throws IOException
+         */
+        void finish() throws IOException {
+            if (this.inline != null) {
+                this.inline.finish();
+                this.inline.flush();
+                this.inline.end();
+            } else {
+                int length = this.buffer.size();
+                pipelinedBytes.addAndGet(length);
+                try {
+                    lastPipelined = pipeline.submit(this.buffer.getBuffer(),
+                        length, this.wrapped, WriterPoolMember.this);
+                } catch (IOException e) {
+                    pipelinedBytes.addAndGet(-length);
+                    throw e;
+                } catch (RuntimeException e) {
+                    pipelinedBytes.addAndGet(-length);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream whose buffer may be handed off without copying.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(16 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return this.buf;
+        }
+    }
+
+    /**
+     * Counts bytes reaching the file, for {@link #takeBytesWritten()}.
+     */
+    private class CountingStream extends FilterOutputStream {
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            unclaimedBytes.incrementAndGet();
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            unclaimedBytes.addAndGet(len);
+        }
+    }
 }
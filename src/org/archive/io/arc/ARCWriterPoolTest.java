@@ -24,13 +24,21 @@
  */
 package org.archive.io.arc;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+import org.apache.commons.io.FileUtils;
+
+import org.archive.io.CompressionPipeline;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolSettings;
@@ -131,10 +139,127 @@ public class ARCWriterPoolTest extends TmpDirTestCase {
         pool.close();
     }
     
+    public void testCompressionPipeline() throws Exception {
+        cleanUpOldFiles(PREFIX);
+        WriterPool pool = new ARCWriterPool(getSettings(true), 2, 100);
+        // small record limit so some records are compressed inline
+        pool.setCompressionPipeline(new CompressionPipeline(2, 3, 3000));
+        final int RECORDS = 60;
+        long written = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] content = new byte[1 + (i * 97) % 5000];
+            for (int j = 0; j < content.length; j++) {
+                content[j] = (byte)('a' + (j * i) % 26);
+            }
+            WriterPoolMember w = pool.borrowFile();
+            ((ARCWriter)w).write("http://one.two.three/" + i, "no-type",
+                "0.0.0.0", 1234567890, content.length,
+                new ByteArrayInputStream(content));
+            written += w.takeBytesWritten();
+            pool.returnFile(w);
+        }
+        // draining includes the remaining records
+        WriterPoolMember w = pool.borrowFile();
+        w.getPosition();
+        written += w.takeBytesWritten();
+        pool.returnFile(w);
+        pool.close();
+
+        File [] files = getTmpDir().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX);
+            }
+        });
+        assertEquals("files", 1, files.length);
+        assertTrue(files[0].getName(), files[0].getName().endsWith(".arc.gz"));
+        byte[] gz = FileUtils.readFileToByteArray(files[0]);
+        assertEquals("bytes counted", gz.length, written);
+        // every record, and the file header record, its own gzip member
+        ByteArrayOutputStream arc = new ByteArrayOutputStream();
+        assertEquals("members", RECORDS + 1, inflateMembers(gz, arc));
+        String text = arc.toString("ISO-8859-1");
+        int at = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            at = text.indexOf("\nhttp://one.two.three/" + i + " ", at);
+            assertTrue("record " + i + " in order", at >= 0);
+        }
+    }
+
+    public void testCompressionPipelineRotation() throws Exception {
+        cleanUpOldFiles(PREFIX);
+        final long MAX_SIZE = 20000;
+        WriterPool pool = new ARCWriterPool(getSettings(true, MAX_SIZE),
+            1, 100);
+        // many records may wait in the pipeline between size checks
+        pool.setCompressionPipeline(new CompressionPipeline(1, 20, 3000));
+        Random random = new Random(0);
+        byte[] content = new byte[2000];
+        for (int i = 0; i < 100; i++) {
+            // incompressible, so each record is ~2000 bytes in the file
+            random.nextBytes(content);
+            WriterPoolMember w = pool.borrowFile();
+            ((ARCWriter)w).write("http://one.two.three/" + i, "no-type",
+                "0.0.0.0", 1234567890, content.length,
+                new ByteArrayInputStream(content));
+            pool.returnFile(w);
+        }
+        pool.close();
+
+        File [] files = getTmpDir().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX);
+            }
+        });
+        assertTrue("files " + files.length, files.length >= 10);
+        for (int i = 0; i < files.length; i++) {
+            // past max size by no more than the record that crossed it
+            assertTrue(files[i].getName() + " " + files[i].length(),
+                files[i].length() < MAX_SIZE + 2 * content.length);
+        }
+    }
+
+    /**
+     * Inflate the concatenated gzip members of <code>gz</code>.
+     * @return count of members
+     */
+    private int inflateMembers(byte[] gz, ByteArrayOutputStream out)
+    throws DataFormatException {
+        byte[] buf = new byte[4096];
+        int members = 0;
+        int pos = 0;
+        while (pos < gz.length) {
+            assertEquals("gzip magic", 0x1f, gz[pos] & 0xff);
+            assertEquals("gzip magic", 0x8b, gz[pos + 1] & 0xff);
+            int flags = gz[pos + 3];
+            int start = pos + 10;
+            if ((flags & 4) != 0) {
+                // FEXTRA, as on the ARC file header record
+                start += 2 + (gz[start] & 0xff) + ((gz[start + 1] & 0xff) << 8);
+            }
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(gz, start, gz.length - start);
+            while (!inflater.finished()) {
+                out.write(buf, 0, inflater.inflate(buf));
+            }
+            // past the CRC32 and ISIZE trailer
+            pos = gz.length - inflater.getRemaining() + 8;
+            inflater.end();
+            members++;
+        }
+        assertEquals("end", gz.length, pos);
+        return members;
+    }
+
     private WriterPoolSettings getSettings(final boolean isCompressed) {
+        return getSettings(isCompressed,
+            ARCConstants.DEFAULT_MAX_ARC_FILE_SIZE);
+    }
+
+    private WriterPoolSettings getSettings(final boolean isCompressed,
+            final long maxSize) {
         return new WriterPoolSettings() {
             public long getMaxSize() {
-                return ARCConstants.DEFAULT_MAX_ARC_FILE_SIZE;
+                return maxSize;
             }
             
             public String getPrefix() {
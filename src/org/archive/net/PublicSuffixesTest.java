@@ -29,6 +29,8 @@ import java.util.regex.Matcher;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.httpclient.URIException;
+
 /**
  * Test cases for PublicSuffixes utility. Confirm expected matches/nonmatches
  * from constructed regex.
@@ -110,4 +112,13 @@ public class PublicSuffixesTest extends TestCase {
         assertEquals("expected match not found", expectedAssignedPrefix, m
                 .group());
     }
+    
+    public void testUURITopmostAssigned() throws URIException {
+        UURI uuri = UURIFactory.getInstance("http://www.example.co.uk:8080/");
+        assertEquals("uk,co,example,", uuri.getTopmostAssignedSurt());
+        assertEquals(PublicSuffixes.reduceSurtToTopmostAssigned(
+            uuri.getSurtAuthority()), uuri.getTopmostAssignedSurt());
+        assertNull(UURIFactory.getInstance("dns:www.example.co.uk")
+            .getTopmostAssignedSurt());
+    }
 }
@@ -107,6 +107,17 @@ implements CharSequence, Serializable {
      * Cache of this uuri in SURT format
      */
     private transient String surtForm = null;
+
+    /**
+     * Cache of the authority of this uuri's SURT form, or the empty
+     * string if it has none.
+     */
+    private transient String surtAuthority = null;
+
+    /**
+     * Cache of the SURT authority reduced to its topmost assigned domain.
+     */
+    private transient String topmostAssignedSurt = null;
     
     // Technically, underscores are disallowed in the domainlabel
     // portion of hostname according to rfc2396 but we'll be more
@@ -343,6 +354,43 @@ implements CharSequence, Serializable {
         }
         return surtForm;
     }
+
+    /**
+     * Return the transformed authority of the 'SURT' format of this UURI:
+     * what's between its "://(" and ")", as in "org,archive,www,:8080".
+     * 
+     * @return SURT authority, or null if there is none (as for dns: URIs)
+     */
+    public String getSurtAuthority() {
+        if (surtAuthority == null) {
+            String surt = getSurtForm();
+            int indexOfOpen = surt.indexOf("://(");
+            int indexOfClose = surt.indexOf(')');
+            surtAuthority = (indexOfOpen == -1 || indexOfClose == -1
+                    || indexOfOpen + 4 >= indexOfClose)?
+                "": surt.substring(indexOfOpen + 4, indexOfClose);
+        }
+        return (surtAuthority.length() == 0)? null: surtAuthority;
+    }
+
+    /**
+     * Return the SURT authority reduced to the public suffix plus one
+     * segment, as in "org,archive,".
+     * 
+     * @return topmost assigned SURT, or null if there is no SURT authority
+     * @see PublicSuffixes#reduceSurtToTopmostAssigned(String)
+     */
+    public String getTopmostAssignedSurt() {
+        if (topmostAssignedSurt == null) {
+            String authority = getSurtAuthority();
+            if (authority == null) {
+                return null;
+            }
+            topmostAssignedSurt =
+                PublicSuffixes.reduceSurtToTopmostAssigned(authority);
+        }
+        return topmostAssignedSurt;
+    }
     
     /**
      * Return the authority minus userinfo (if any).
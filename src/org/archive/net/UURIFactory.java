@@ -31,9 +31,10 @@ import it.unimi.dsi.mg4j.util.MutableString;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.URI;
@@ -128,9 +129,13 @@ public class UURIFactory extends URI {
      * (2) we allow a URI made of a fragment only (Added extra
      * group so indexing is off by one after scheme).
      * (3) scheme is limited to legal scheme characters 
+     *
+     * <p>No longer compiled: {@link #fixup(String, URI, String)} splits
+     * URIs into these same groups with a hand-written scanner. Kept as the
+     * reference grammar for that scanner.
      */
-    final static Pattern RFC2396REGEX = Pattern.compile(
-        "^(([a-zA-Z][a-zA-Z\\+\\-\\.]*):)?((//([^/?#]*))?([^?#]*)(\\?([^#]*))?)?(#(.*))?");
+    final static String RFC2396REGEX =
+        "^(([a-zA-Z][a-zA-Z\\+\\-\\.]*):)?((//([^/?#]*))?([^?#]*)(\\?([^#]*))?)?(#(.*))?";
     //    12                             34  5          6       7   8          9 A
     //                                2 1             54        6          87 3      A9
     // 1: scheme
@@ -197,11 +202,6 @@ public class UURIFactory extends URI {
     public static final String URI_HEX_ENCODING =
         "^[^%]*%[\\p{XDigit}][\\p{XDigit}].*";
     
-    /**
-     * Authority port number regex.
-     */
-    final static Pattern PORTREGEX = Pattern.compile("(.*:)([0-9]+)$");
-    
     /**
      * Characters we'll accept in the domain label part of a URI
      * authority: ASCII letters-digits-hyphen (LDH) plus underscore,
@@ -214,13 +214,6 @@ public class UURIFactory extends URI {
     final static String ACCEPTABLE_ASCII_DOMAIN =
         "^(?:[a-zA-Z0-9_-]++(?:\\.)?)++$";
     
-    /**
-     * Pattern that looks for case of three or more slashes after the 
-     * scheme.  If found, we replace them with two only as mozilla does.
-     */
-    final static Pattern HTTP_SCHEME_SLASHES =
-        Pattern.compile("^(https?://)/+(.*)");
-    
     /**
      * Pattern that looks for case of two or more slashes in a path.
      */
@@ -240,6 +233,50 @@ public class UURIFactory extends URI {
     private String[] ignoredSchemes = null;
 
     public static final int IGNORED_SCHEME = 9999999;
+
+    /**
+     * Per-thread buffer {@link #fixup(String, URI, String)} works in.
+     */
+    private static final ThreadLocal<MutableString> FIXUP_BUFFER =
+        new ThreadLocal<MutableString>() {
+            protected MutableString initialValue() {
+                return new MutableString(UURI.MAX_URL_LENGTH);
+            }
+        };
+
+    /**
+     * Most domain label fixups to remember per thread.
+     */
+    private static final int MAX_RECENT_DOMAINLABELS = 1000;
+
+    /**
+     * Per-thread memory of recent domain label fixups, so IDN-punycoding
+     * and lowercasing of a host is done once rather than for every URI
+     * naming it. Emptied when full.
+     */
+    private static final ThreadLocal<Map<String,String>> RECENT_DOMAINLABELS =
+        new ThreadLocal<Map<String,String>>() {
+            protected Map<String,String> initialValue() {
+                return new HashMap<String,String>();
+            }
+        };
+
+    /**
+     * Most relative URIs to remember per thread for one base.
+     */
+    private static final int MAX_RECENT_RELATIVES = 256;
+
+    /**
+     * Per-thread memory of relative URIs recently resolved against the
+     * same base, as when extracting the many (often repeated) links of one
+     * page.
+     */
+    private static final ThreadLocal<RecentRelatives> RECENT_RELATIVES =
+        new ThreadLocal<RecentRelatives>() {
+            protected RecentRelatives initialValue() {
+                return new RecentRelatives();
+            }
+        };
     
     /**
      * Protected constructor.
@@ -337,7 +374,12 @@ public class UURIFactory extends URI {
      * @throws URIException
      */
     private UURI create(UURI base, String relative) throws URIException {
-        UURI uuri = new UURI(base, new UURI(fixup(relative, base, base.getProtocolCharset()),
+        RecentRelatives recent = RECENT_RELATIVES.get();
+        UURI uuri = recent.get(base, relative);
+        if (uuri != null) {
+            return uuri;
+        }
+        uuri = new UURI(base, new UURI(fixup(relative, base, base.getProtocolCharset()),
             true, base.getProtocolCharset()));
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(" URI " + relative +
@@ -345,7 +387,37 @@ public class UURIFactory extends URI {
                 " CHARSET " + base.getProtocolCharset() +
                 " BASE " + base);
         }
-        return validityCheck(uuri);
+        validityCheck(uuri);
+        recent.put(base, relative, uuri);
+        return uuri;
+    }
+
+    /**
+     * UURIs recently made from relative URIs against one base UURI.
+     * Forgets them all whenever a different base (by identity) is used.
+     */
+    private static class RecentRelatives {
+        private UURI base = null;
+        private final Map<String,UURI> resolved = new HashMap<String,UURI>();
+
+        UURI get(UURI base, String relative) {
+            if (base != this.base) {
+                this.base = base;
+                this.resolved.clear();
+                return null;
+            }
+            return this.resolved.get(relative);
+        }
+
+        void put(UURI base, String relative, UURI uuri) {
+            if (base != this.base) {
+                return;
+            }
+            if (this.resolved.size() >= MAX_RECENT_RELATIVES) {
+                this.resolved.clear();
+            }
+            this.resolved.put(relative, uuri);
+        }
     }
 
     /**
@@ -397,49 +469,76 @@ public class UURIFactory extends URI {
         }
         
         // Replace nbsp with normal spaces (so that they get stripped if at
-        // ends, or encoded if in middle)
-        if (uri.indexOf(NBSP) >= 0) {
-            uri = TextUtils.replaceAll(NBSP, uri, SPACE);
-        }
-        
-        // Get rid of any trailing spaces or new-lines. 
-        uri = uri.trim();
-        
-        // IE actually converts backslashes to slashes rather than to %5C.
-        // Since URIs that have backslashes usually work only with IE, we will
-        // convert backslashes to slashes as well.
-        // TODO: Maybe we can first convert backslashes by specs and than by IE
-        // so that we fetch both versions.
-        if (uri.indexOf(BACKSLASH) >= 0) {
-            uri = TextUtils.replaceAll(BACKSLASH_PATTERN, uri, SLASH);
-        }
-        
-        // Remove stray TAB/CR/LF
-        uri = TextUtils.replaceAll(STRAY_SPACING, uri, EMPTY_STRING);
+        // ends, or encoded if in middle), get rid of any leading or trailing
+        // spaces or new-lines, convert backslashes to slashes as IE does,
+        // remove stray TAB/CR/LF and minimally escape any other whitespace,
+        // all in one pass into a per-thread buffer.
+        MutableString buffer = FIXUP_BUFFER.get();
+        boolean lineTerminator = cleanup(uri, buffer);
+        char [] chars = buffer.array();
+        int length = buffer.length();
         
         // Test for the case of more than two slashes after the http(s) scheme.
         // Replace with two slashes as mozilla does if found.
         // See [ 788219 ] URI Syntax Errors stop page parsing.
-        Matcher matcher = HTTP_SCHEME_SLASHES.matcher(uri);
-        if (matcher.matches()) {
-            uri = matcher.group(1) + matcher.group(2);
+        // (Like the "^(https?://)/+(.*)" regex this replaces, leave alone
+        // anything that had a line terminator before escaping.)
+        if (!lineTerminator) {
+            int slashes = httpSchemeSlashesEnd(chars, length);
+            if (slashes > 0) {
+                int extra = slashes;
+                while (extra < length && chars[extra] == '/') {
+                    extra++;
+                }
+                buffer.delete(slashes, extra);
+                chars = buffer.array();
+                length = buffer.length();
+            }
         }
-
-        // now, minimally escape any whitespace
-        uri = escapeWhitespace(uri);
         
         // For further processing, get uri elements.  See the RFC2396REGEX
-        // comment above for explaination of group indices used in the below.
-        matcher = RFC2396REGEX.matcher(uri);
-        if (!matcher.matches()) {
-            throw new URIException("Failed parse of " + uri);
-        }
-        String uriScheme = checkUriElementAndLowerCase(matcher.group(2));
-        String uriSchemeSpecificPart = checkUriElement(matcher.group(3));
-        String uriAuthority = checkUriElement(matcher.group(5));
-        String uriPath = checkUriElement(matcher.group(6));
-        String uriQuery = checkUriElement(matcher.group(8));
-        // UNUSED String uriFragment = checkUriElement(matcher.group(10));
+        // comment above for the grammar scanned for below.
+        String uriScheme = null;
+        int schemeSpecificPartStart = 0;
+        if (length > 0 && isAsciiLetter(chars[0])) {
+            int i = 1;
+            while (i < length && isSchemeChar(chars[i])) {
+                i++;
+            }
+            if (i < length && chars[i] == COLON) {
+                uriScheme = lowerCaseScheme(chars, i);
+                schemeSpecificPartStart = i + 1;
+            }
+        }
+        int fragmentStart = indexOf(chars, '#', schemeSpecificPartStart,
+            length);
+        for (int i = fragmentStart + 1; i < length; i++) {
+            if (isLineTerminator(chars[i])) {
+                // The regex's fragment group '(.*)' cannot span these.
+                throw new URIException("Failed parse of " + buffer);
+            }
+        }
+        int pathStart = schemeSpecificPartStart;
+        int authorityStart = -1;
+        if (fragmentStart - schemeSpecificPartStart >= 2
+                && chars[schemeSpecificPartStart] == '/'
+                && chars[schemeSpecificPartStart + 1] == '/') {
+            authorityStart = schemeSpecificPartStart + 2;
+            pathStart = authorityStart;
+            while (pathStart < fragmentStart && chars[pathStart] != '/'
+                    && chars[pathStart] != '?') {
+                pathStart++;
+            }
+        }
+        int queryStart = indexOf(chars, '?', pathStart, fragmentStart);
+        boolean absolutePath = schemeSpecificPartStart < fragmentStart
+            && chars[schemeSpecificPartStart] == '/';
+        String uriAuthority = (authorityStart < 0)? null:
+            element(chars, authorityStart, pathStart);
+        String uriPath = element(chars, pathStart, queryStart);
+        String uriQuery = (queryStart == fragmentStart)? null:
+            element(chars, queryStart + 1, fragmentStart);
+        // UNUSED fragment: chars from fragmentStart + 1 to length
         
         // If a scheme, is it a supported scheme?
         if (uriScheme != null && uriScheme.length() > 0 &&
@@ -458,11 +557,11 @@ public class UURIFactory extends URI {
         // Test if relative URI. If so, need a base to resolve against.
         if (uriScheme == null || uriScheme.length() <= 0) {
             if (base == null) {
-                throw new URIException("Relative URI but no base: " + uri);
+                throw new URIException("Relative URI but no base: " + buffer);
             }
         } else {
         	checkHttpSchemeSpecificPartSlashPrefix(base, uriScheme,
-        		uriSchemeSpecificPart);
+        		element(chars, schemeSpecificPartStart, fragmentStart));
         }
         
         // fixup authority portion: lowercase/IDN-punycode any domain; 
@@ -470,12 +569,10 @@ public class UURIFactory extends URI {
         uriAuthority = fixupAuthority(uriAuthority, charset);
 
         // Do some checks if absolute path.
-        if (uriSchemeSpecificPart != null &&
-                uriSchemeSpecificPart.startsWith(SLASH)) {
+        if (absolutePath) {
             if (uriPath != null) {
                 // Eliminate '..' if its first thing in the path.  IE does this.
-                uriPath = TextUtils.replaceFirst(SLASHDOTDOTSLASH, uriPath,
-                    SLASH);
+                uriPath = stripLeadingDotDots(uriPath);
             }
             // Ensure root URLs end with '/': browsers always send "/"
             // on the request-line, so we should consider "http://host"
@@ -639,10 +736,14 @@ public class UURIFactory extends URI {
     private String fixupDomainlabel(String label)
     throws URIException {
         
+        Map<String,String> recent = RECENT_DOMAINLABELS.get();
+        String fixed = recent.get(label);
+        if (fixed != null) {
+            return fixed;
+        }
+        String original = label;
         // apply IDN-punycoding, as necessary
         try {
-            // TODO: optimize: only apply when necessary, or
-            // keep cache of recent encodings
             label = IDNA.toASCII(label);
         } catch (IDNAException e) {
             if(TextUtils.matches(ACCEPTABLE_ASCII_DOMAIN,label)) {
@@ -660,6 +761,10 @@ public class UURIFactory extends URI {
             }
         }
         label = label.toLowerCase();
+        if (recent.size() >= MAX_RECENT_DOMAINLABELS) {
+            recent.clear();
+        }
+        recent.put(original, label);
         return label;
     }
     
@@ -734,13 +839,7 @@ public class UURIFactory extends URI {
                         2 /*If space, two extra characters (at least)*/);
                     buffer.append(uri.substring(0, i));
                 }
-                buffer.append("%");
-                String hexStr = Integer.toHexString(c);
-                if ((hexStr.length() % 2) > 0) {
-                    buffer.append("0");
-                }
-                buffer.append(hexStr);
-                
+                appendEscaped(buffer, c);
             } else {
                 if (buffer != null) {
                     buffer.append(c);
@@ -750,6 +849,185 @@ public class UURIFactory extends URI {
         return (buffer !=  null)? buffer.toString(): uri;
     }
 
+    /**
+     * Append passed whitespace character escaped, as
+     * {@link #escapeWhitespace(String)} does.
+     * @param buffer Buffer to append to.
+     * @param c Character to escape.
+     */
+    private static void appendEscaped(MutableString buffer, char c) {
+        buffer.append(PERCENT_SIGN);
+        String hexStr = Integer.toHexString(c);
+        if ((hexStr.length() % 2) > 0) {
+            buffer.append('0');
+        }
+        buffer.append(hexStr);
+    }
+
+    /**
+     * Copy passed uri into <code>buffer</code> with the character-level
+     * cleanup {@link #fixup(String, URI, String)} starts with: nbsp made a
+     * space, leading and trailing spaces and controls trimmed, backslashes
+     * made slashes, stray TAB/CR/LF dropped and remaining whitespace
+     * escaped. Same result as doing each in turn over the whole string.
+     * @param uri URI string to clean up.
+     * @param buffer Buffer to clean into; emptied first.
+     * @return True if the trimmed uri had any line terminator other than
+     * CR or LF.
+     */
+    private static boolean cleanup(String uri, MutableString buffer) {
+        buffer.length(0);
+        int start = 0;
+        int end = uri.length();
+        while (start < end && isTrimmable(uri.charAt(start))) {
+            start++;
+        }
+        while (end > start && isTrimmable(uri.charAt(end - 1))) {
+            end--;
+        }
+        boolean lineTerminator = false;
+        for (int i = start; i < end; i++) {
+            char c = uri.charAt(i);
+            switch (c) {
+                case '\n':
+                case '\r':
+                case '\t':
+                    continue;
+                case '\\':
+                    c = '/';
+                    break;
+                case '\u00A0':
+                    c = ' ';
+                    break;
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    lineTerminator = true;
+                    break;
+            }
+            if (Character.isWhitespace(c)) {
+                appendEscaped(buffer, c);
+            } else {
+                buffer.append(c);
+            }
+        }
+        return lineTerminator;
+    }
+
+    /**
+     * @param c Character to examine.
+     * @return True if {@link String#trim()} would trim <code>c</code> once
+     * any nbsp is replaced by a space.
+     */
+    private static boolean isTrimmable(char c) {
+        return c <= ' ' || c == '\u00A0';
+    }
+
+    /**
+     * @param c Character to examine.
+     * @return True if <code>c</code> ends a line for java.util.regex, so
+     * that '.' will not match it.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
+
+    /**
+     * @param chars Characters to examine.
+     * @param length Count of characters to examine.
+     * @return Offset just past "http://" or "https://" if the characters
+     * start with either and have more slashes after it, else -1.
+     */
+    private static int httpSchemeSlashesEnd(char [] chars, int length) {
+        int i = 0;
+        for (; i < HTTP.length(); i++) {
+            if (i >= length || chars[i] != HTTP.charAt(i)) {
+                return -1;
+            }
+        }
+        if (i < length && chars[i] == 's') {
+            i++;
+        }
+        if (i + 3 < length && chars[i] == COLON && chars[i + 1] == '/'
+                && chars[i + 2] == '/' && chars[i + 3] == '/') {
+            return i + 3;
+        }
+        return -1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSchemeChar(char c) {
+        return isAsciiLetter(c) || c == '+' || c == '-' || c == '.';
+    }
+
+    /**
+     * @param chars Characters holding the scheme.
+     * @param length Length of the scheme.
+     * @return Scheme lowercased; the shared constant if http or https.
+     */
+    private static String lowerCaseScheme(char [] chars, int length) {
+        if (regionEqualsIgnoreCase(chars, length, HTTP)) {
+            return HTTP;
+        }
+        if (regionEqualsIgnoreCase(chars, length, HTTPS)) {
+            return HTTPS;
+        }
+        return new String(chars, 0, length).toLowerCase();
+    }
+
+    private static boolean regionEqualsIgnoreCase(char [] chars, int length,
+            String lower) {
+        if (length != lower.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c != lower.charAt(i) && (char)(c + ('a' - 'A')) !=
+                    lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Offset of first <code>c</code> in <code>chars</code> from
+     * <code>start</code> up to <code>end</code>, or <code>end</code> if
+     * none.
+     */
+    private static int indexOf(char [] chars, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return Null if the range is empty, otherwise its characters.
+     */
+    private static String element(char [] chars, int start, int end) {
+        return (start >= end)? null: new String(chars, start, end - start);
+    }
+
+    /**
+     * Same as replacing {@link #SLASHDOTDOTSLASH} with a slash.
+     * @param path Path to strip.
+     * @return Path without a leading run of "/../".
+     */
+    private static String stripLeadingDotDots(String path) {
+        int i = 0;
+        while (path.startsWith("/../", i)) {
+            i += 4;
+        }
+        return (i == 0)? path: path.substring(i - 1);
+    }
+
     /**
      * Check port on passed http authority.  Make sure the size is not larger
      * than allowed: See the 'port' definition on this
@@ -763,31 +1041,46 @@ public class UURIFactory extends URI {
      */
     private String checkPort(String uriAuthority)
     throws URIException {
-        Matcher m = PORTREGEX.matcher(uriAuthority);
-        if (m.matches()) {
-            String no = m.group(2);
-            if (no != null && no.length() > 0) {
-                // First check if the port has leading zeros
-                // as in '0080'.  Strip them if it has and
-                // then reconstitute the uriAuthority.  Be careful
-                // of cases where port is '0' or '000'.
-                while (no.charAt(0) == '0' && no.length() > 1) {
-                    no = no.substring(1);
-                }
-                uriAuthority = m.group(1) + no;
-                // Now makesure the number is legit.
-                int portNo = 0;
-                try {
-                    portNo = Integer.parseInt(no);
-                } catch (NumberFormatException nfe) {
-                    // just catch and leave portNo at illegal 0
-                }
-                if (portNo <= 0 || portNo > 65535) {
-                    throw new URIException("Port out of bounds: " +
-                        uriAuthority);
-                }
+        // Hand-coded equivalent of matching "(.*:)([0-9]+)$".
+        int colon = uriAuthority.lastIndexOf(COLON);
+        if (colon < 0 || colon == uriAuthority.length() - 1) {
+            return uriAuthority;
+        }
+        for (int i = colon + 1; i < uriAuthority.length(); i++) {
+            char c = uriAuthority.charAt(i);
+            if (c < '0' || c > '9') {
+                return uriAuthority;
+            }
+        }
+        for (int i = 0; i < colon; i++) {
+            if (isLineTerminator(uriAuthority.charAt(i))) {
+                return uriAuthority;
             }
         }
+        // First check if the port has leading zeros
+        // as in '0080'.  Strip them if it has and
+        // then reconstitute the uriAuthority.  Be careful
+        // of cases where port is '0' or '000'.
+        int start = colon + 1;
+        while (uriAuthority.charAt(start) == '0'
+                && start < uriAuthority.length() - 1) {
+            start++;
+        }
+        if (start > colon + 1) {
+            uriAuthority = uriAuthority.substring(0, colon + 1)
+                + uriAuthority.substring(start);
+        }
+        // Now makesure the number is legit.
+        int portNo = 0;
+        try {
+            portNo = Integer.parseInt(uriAuthority.substring(colon + 1));
+        } catch (NumberFormatException nfe) {
+            // just catch and leave portNo at illegal 0
+        }
+        if (portNo <= 0 || portNo > 65535) {
+            throw new URIException("Port out of bounds: " +
+                uriAuthority);
+        }
         return uriAuthority;
     }
 
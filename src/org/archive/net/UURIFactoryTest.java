@@ -1100,4 +1100,54 @@ public class UURIFactoryTest extends TestCase {
             // expected
         }
     }
+    
+    /**
+     * Resolving the same relative URI against the same base again gives
+     * the same result; against another base, its own result.
+     * 
+     * @throws URIException
+     */
+    public void testRepeatedRelative() throws URIException {
+        UURI base = UURIFactory.getInstance("http://www.example.com/a/b.html");
+        UURI other = UURIFactory.getInstance("http://www.example.org/c/");
+        UURI first = UURIFactory.getInstance(base, "../img/x.gif");
+        assertEquals("http://www.example.com/img/x.gif", first.toString());
+        assertSame(first, UURIFactory.getInstance(base, "../img/x.gif"));
+        assertEquals("http://www.example.org/img/x.gif",
+            UURIFactory.getInstance(other, "../img/x.gif").toString());
+        assertEquals(first,
+            UURIFactory.getInstance(base, "../img/x.gif"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                UURIFactory.getInstance(base, "http://host:99999/");
+                fail("expected exception not thrown");
+            } catch (URIException ue) {
+                // expected, every time
+            }
+        }
+    }
+    
+    /**
+     * Corner cases of the single-pass fixup, pinned to what the
+     * regex-based fixup it replaced produced.
+     * 
+     * @throws URIException
+     */
+    public void testFixupCornerCases() throws URIException {
+        assertEquals("http://example.com/x",
+            UURIFactory.getInstance("http:////example.com/x").toString());
+        assertEquals("http://example.com:8080/x",
+            UURIFactory.getInstance(" \u00A0http://EXAMPLE.com:008080\\x\n")
+                .toString());
+        assertEquals("http://example.com/a%20%0bb",
+            UURIFactory.getInstance("http://example.com/a \u000Bb").toString());
+        assertEquals("http://example.com/x",
+            UURIFactory.getInstance("HTTP://example.com/../x").toString());
+        try {
+            UURIFactory.getInstance("http://example.com/x#a\u0085b");
+            fail("expected exception not thrown");
+        } catch (URIException ue) {
+            // expected: fragment with a line terminator fails the parse
+        }
+    }
 }
@@ -24,10 +24,18 @@
 */
 package org.archive.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Simple benchmarking of different BloomFilter
  * implementations.
  * 
+ * After the single-threaded comparison, the thread-safe options --
+ * BloomFilter64bit behind a lock, and ConcurrentBloomFilter64bit in
+ * flat and blocked layouts -- are compared with 1, 2, 4... up to the
+ * given maximum number of threads adding concurrently, reporting
+ * throughput and false-positive rates.
+ * 
  * Take care when interpreting results; the effect of GC,
  * dynamic compilation, and any other activity on test 
  * machine may affect relative time tallies in unpredictable
@@ -52,10 +60,13 @@ public class BenchmarkBlooms {
 		    	(args.length > 3) ? Integer.parseInt(args[3]) : 5000000;
 	    String prefix = 
 	    	(args.length > 4) ? args[4] : "http://www.archive.org/";
+	    int max_threads = 
+	    	(args.length > 5) ? Integer.parseInt(args[5]) : 8;
 	    
 	    System.out.println(
 	    		"reps="+reps+" n_expected="+n_expected+
-				" d_hashes="+d_hashes+" adds="+adds+" prefix="+prefix);
+				" d_hashes="+d_hashes+" adds="+adds+" prefix="+prefix+
+				" max_threads="+max_threads);
 	    
 	    BloomFilter bloom64;
 	    BloomFilter bloom32;
@@ -79,6 +90,20 @@ public class BenchmarkBlooms {
             testBloom(bloom32p2split,adds,prefix);
             bloom32p2split=null;
 		}
+		for (int r=0;r<reps;r++) {
+			for (int threads=1;threads<=max_threads;threads*=2) {
+				testBloomThreaded(
+						new LockedBloomFilter(
+								new BloomFilter64bit(n_expected,d_hashes)),
+						threads,adds,prefix);
+				testBloomThreaded(
+						new ConcurrentBloomFilter64bit(n_expected,d_hashes),
+						threads,adds,prefix);
+				testBloomThreaded(
+						new ConcurrentBloomFilter64bit(n_expected,d_hashes,true),
+						threads,adds,prefix);
+			}
+		}
 	}
 	
 	/**
@@ -102,4 +127,91 @@ public class BenchmarkBlooms {
 				+bloom.getSizeBytes()+"bytes "
 				+falsePositives+"false");
 	}
+
+	/**
+	 * Add distinct strings from several threads at once, then probe
+	 * with as many never-added strings to measure the false-positive
+	 * rate.
+	 * 
+	 * @param bloom thread-safe filter to test
+	 * @param threads number of concurrent adding threads
+	 * @param adds total adds, divided among threads
+	 * @param prefix string prefix
+	 */
+	private void testBloomThreaded(final BloomFilter bloom, int threads,
+			int adds, final String prefix) {
+		System.gc();
+		final AtomicLong falseOnAdd = new AtomicLong(0);
+		final int perThread = adds / threads;
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int base = t * perThread;
+			workers[t] = new Thread() {
+				public void run() {
+					long local = 0;
+					for (int i = base; i < base + perThread; i++) {
+						if (!bloom.add(prefix+Integer.toString(i))) {
+							local++;
+						}
+					}
+					falseOnAdd.addAndGet(local);
+				}
+			};
+		}
+		long startTime = System.currentTimeMillis();
+		for (int t = 0; t < threads; t++) {
+			workers[t].start();
+		}
+		for (int t = 0; t < threads; t++) {
+			try {
+				workers[t].join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		long finishTime = System.currentTimeMillis();
+		int total = perThread * threads;
+		long falseOnProbe = 0;
+		for (int i = 0; i < total; i++) {
+			if (bloom.contains(prefix+"x"+Integer.toString(i))) {
+				falseOnProbe++;
+			}
+		}
+		String name = (bloom instanceof LockedBloomFilter)
+			? "locked "+((LockedBloomFilter)bloom).inner.getClass().getName()
+			: bloom.getClass().getName();
+		if (bloom instanceof ConcurrentBloomFilter64bit
+				&& ((ConcurrentBloomFilter64bit)bloom).blocked) {
+			name += " (blocked)";
+		}
+		System.out.println(name+" threads="+threads+": "
+				+(finishTime-startTime)+"ms "
+				+(total*1000L/Math.max(finishTime-startTime,1))+"adds/s "
+				+bloom.getSizeBytes()+"bytes "
+				+falseOnAdd.get()+"false "
+				+falseOnProbe+"/"+total+"probe-false");
+	}
+
+	/**
+	 * Wrapper making any BloomFilter thread-safe by external locking,
+	 * as a baseline.
+	 */
+	protected static class LockedBloomFilter implements BloomFilter {
+		final BloomFilter inner;
+		LockedBloomFilter(BloomFilter inner) {
+			this.inner = inner;
+		}
+		public synchronized int size() {
+			return inner.size();
+		}
+		public synchronized boolean contains(CharSequence s) {
+			return inner.contains(s);
+		}
+		public synchronized boolean add(CharSequence s) {
+			return inner.add(s);
+		}
+		public long getSizeBytes() {
+			return inner.getSizeBytes();
+		}
+	}
 }
@@ -0,0 +1,121 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compare retained memory and lookup throughput of a TreeSet-backed
+ * SurtPrefixSet, the equivalent PrefixTrie, and that trie mapped from
+ * a file, over synthetic host and path SURT prefixes.
+ *
+ * Usage: BenchmarkPrefixSet [prefixes [lookups]]
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkPrefixSet {
+
+    public static void main(String[] args) throws IOException {
+        (new BenchmarkPrefixSet()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int lookups =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 2000000;
+        String[] candidates = candidates(lookups);
+
+        long before = usedMemory();
+        SurtPrefixSet set = new SurtPrefixSet();
+        Random random = new Random(0);
+        for (int i = 0; i < count; i++) {
+            set.add(prefix(random));
+        }
+        long afterSet = usedMemory();
+        PrefixTrie trie = PrefixTrie.build(set);
+        long afterTrie = usedMemory();
+        System.out.println("prefixes=" + set.size());
+        System.out.println("treeset: heap bytes=" + (afterSet - before));
+        System.out.println("trie: heap bytes=" + (afterTrie - afterSet)
+            + " nodes=" + trie.getNodeCount());
+
+        File file = File.createTempFile("BenchmarkPrefixSet", ".trie");
+        file.deleteOnExit();
+        trie.writeTo(file);
+        PrefixTrie mapped = PrefixTrie.map(file);
+
+        for (int rep = 0; rep < 3; rep++) {
+            lookups("treeset", set, null, candidates);
+            lookups("trie", null, trie, candidates);
+            lookups("mapped", null, mapped, candidates);
+        }
+        file.delete();
+    }
+
+    protected String prefix(Random random) {
+        StringBuilder sb = new StringBuilder("http://(");
+        sb.append(TLDS[random.nextInt(TLDS.length)]).append(',');
+        sb.append("host").append(random.nextInt(200000)).append(',');
+        if (random.nextInt(4) == 0) {
+            sb.append("www,)/dir").append(random.nextInt(50)).append('/');
+        }
+        return sb.toString();
+    }
+
+    protected String[] candidates(int lookups) {
+        Random random = new Random(1);
+        String[] candidates = new String[Math.min(lookups, 100000)];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = prefix(random) + "www,)/page" + i + ".html";
+        }
+        return candidates;
+    }
+
+    protected void lookups(String label, PrefixSet set, PrefixTrie trie,
+            String[] candidates) {
+        int found = 0;
+        int lookups = candidates.length * 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            String s = candidates[i % candidates.length];
+            if ((set != null) ? set.containsPrefixOf(s)
+                    : trie.containsPrefixOf(s)) {
+                found++;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(label + ": lookups/s="
+            + (lookups * 1000000000L / Math.max(1, ns)) + " (" + found + ")");
+    }
+
+    protected static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static final String[] TLDS = {"com", "org", "net", "uk,co", "de", "edu"};
+}
@@ -0,0 +1,233 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Check that the hand-coded {@link SURT#fromURI(String, boolean)} gives
+ * the same results as matching {@link SURT#URI_SPLITTER}, then compare
+ * the time each takes, and the time taken by the several SURT lookups a
+ * crawl makes per URI (scope, queue assignment) with the forms cached on
+ * the UURI.
+ *
+ * Usage: BenchmarkSURT [urls-file | count [seed]]
+ *
+ * A file is read as one URL per line; otherwise count random URLs are
+ * made up.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkSURT {
+    static final String[] SCHEMES = {"http://", "http://", "https://",
+        "HTTP://", "ftp://", "dns:"};
+    static final String[] USERINFO = {"", "", "", "", "user@",
+        "user:pass@"};
+    static final String[] HOSTS = {"archive.org", "www.archive.org",
+        "WWW.Example.co.uk", "crawler.archive.org", "127.0.0.1",
+        "1.2.3.4567", "a.b.c.d.e.example.com", "localhost"};
+    static final String[] PORTS = {"", "", "", ":8080", ":80x", ":0080"};
+    static final String[] PATHS = {"", "/", "/index.html",
+        "/movies/movies.php?id=12&x=y", "/a/b/c/d/e/f.gif", "/foo@bar",
+        "/a b", "/x:1"};
+
+    /**
+     * Times each URI's SURT is looked up in a crawl, roughly: scope
+     * rules, queue assignment, and filters.
+     */
+    static final int LOOKUPS_PER_URI = 4;
+
+    public static void main(String[] args) throws IOException {
+        (new BenchmarkSURT()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws IOException {
+        List<String> urls = new ArrayList<String>();
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            BufferedReader reader =
+                new BufferedReader(new FileReader(args[0]));
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                urls.add(line.trim());
+            }
+            reader.close();
+        } else {
+            int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+            Random random =
+                new Random((args.length > 1) ? Long.parseLong(args[1]) : 0);
+            for (int i = 0; i < count; i++) {
+                urls.add(randomUrl(random));
+            }
+        }
+        for (String url: urls) {
+            for (int i = 0; i < 2; i++) {
+                boolean preserveCase = (i == 1);
+                String expected = regexFromURI(url, preserveCase);
+                String actual = SURT.fromURI(url, preserveCase);
+                if (!expected.equals(actual)) {
+                    throw new IllegalStateException("got '" + actual
+                        + "' but regex gave '" + expected + "' for '" + url
+                        + "'");
+                }
+            }
+        }
+        System.out.println(urls.size() + " urls: same results");
+
+        List<String> uuriStrings = new ArrayList<String>();
+        for (String url: urls) {
+            try {
+                uuriStrings.add(UURIFactory.getInstance(url).toString());
+            } catch (URIException e) {
+                // skip
+            }
+        }
+        for (int rep = 0; rep < 3; rep++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (String url: urls) {
+                length += regexFromURI(url, false).length();
+            }
+            long regex = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String url: urls) {
+                length -= SURT.fromURI(url).length();
+            }
+            long handCoded = System.nanoTime() - start;
+            System.out.println("regex: urls/s=" + rate(urls.size(), regex)
+                + " hand-coded: urls/s=" + rate(urls.size(), handCoded)
+                + " (" + (length == 0) + ")");
+
+            // per URI, LOOKUPS_PER_URI SURT (and authority) lookups, first
+            // recomputed each time, then cached on a fresh UURI
+            List<UURI> uuris = new ArrayList<UURI>();
+            for (String s: uuriStrings) {
+                uuris.add(UURIFactory.getInstance(s));
+            }
+            start = System.nanoTime();
+            for (UURI uuri: uuris) {
+                for (int i = 0; i < LOOKUPS_PER_URI; i++) {
+                    String surt = regexFromURI(uuri.toString(), false);
+                    length += surt.length();
+                    length += surt.replaceFirst(".*://\\((.*?)\\).*", "$1")
+                        .length();
+                }
+            }
+            long recomputed = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (UURI uuri: uuris) {
+                for (int i = 0; i < LOOKUPS_PER_URI; i++) {
+                    String surt = uuri.getSurtForm();
+                    length -= surt.length();
+                    String authority = uuri.getSurtAuthority();
+                    length -= (authority == null)? surt.length():
+                        authority.length();
+                }
+            }
+            long cached = System.nanoTime() - start;
+            System.out.println("recomputed: uuris/s="
+                + rate(uuris.size(), recomputed) + " cached: uuris/s="
+                + rate(uuris.size(), cached) + " (" + (length == 0) + ")");
+        }
+    }
+
+    private static long rate(int count, long nanos) {
+        return count * 1000000000L / Math.max(1, nanos);
+    }
+
+    /**
+     * @param random Source of randomness.
+     * @return A URL made of assorted SURT-relevant parts.
+     */
+    public static String randomUrl(Random random) {
+        return pick(random, SCHEMES) + pick(random, USERINFO)
+            + pick(random, HOSTS) + pick(random, PORTS)
+            + pick(random, PATHS);
+    }
+
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    /**
+     * SURT form as found by matching {@link SURT#URI_SPLITTER}, the way
+     * SURT did before it was hand-coded; for comparison.
+     *
+     * @param s String URI to be converted to SURT form
+     * @param preserveCase whether original case should be preserved
+     * @return SURT form
+     */
+    public static String regexFromURI(String s, boolean preserveCase) {
+        Matcher m = TextUtils.getMatcher(SURT.URI_SPLITTER, s);
+        if (!m.matches()) {
+            TextUtils.recycleMatcher(m);
+            return s;
+        }
+        StringBuffer builder = new StringBuffer(s.length() + 3);
+        append(builder, s, m.start(1), m.end(1));
+        builder.append(SURT.BEGIN_TRANSFORMED_AUTHORITY);
+        if (m.start(4) > -1) {
+            append(builder, s, m.start(4), m.end(4));
+        } else {
+            int hostSegEnd = m.end(5);
+            int hostStart = m.start(5);
+            for (int i = m.end(5) - 1; i >= hostStart; i--) {
+                if (s.charAt(i - 1) != SURT.DOT && i > hostStart) {
+                    continue;
+                }
+                append(builder, s, i, hostSegEnd);
+                builder.append(SURT.TRANSFORMED_HOST_DELIM);
+                hostSegEnd = i - 1;
+            }
+        }
+        append(builder, s, m.start(6), m.end(6));
+        append(builder, s, m.start(3), m.end(3));
+        append(builder, s, m.start(2), m.end(2));
+        builder.append(SURT.END_TRANSFORMED_AUTHORITY);
+        append(builder, s, m.start(7), m.end(7));
+        if (!preserveCase) {
+            for (int i = 0; i < builder.length(); i++) {
+                builder.setCharAt(i,
+                    Character.toLowerCase(builder.charAt(i)));
+            }
+        }
+        TextUtils.recycleMatcher(m);
+        return builder.toString();
+    }
+
+    private static void append(StringBuffer b, CharSequence cs, int start,
+            int end) {
+        if (start < 0) {
+            return;
+        }
+        b.append(cs, start, end);
+    }
+}
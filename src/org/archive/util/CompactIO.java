@@ -0,0 +1,130 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Static helpers for compact binary encodings: variable-length
+ * integers (7 bits per byte, low-order group first), zigzag-encoded
+ * signed integers, and nullable length-prefixed UTF-8 strings and
+ * byte arrays.
+ */
+public class CompactIO {
+
+    private CompactIO() {
+        super();
+    }
+
+    /**
+     * Write a non-negative long in 1-10 bytes; small values are short.
+     */
+    public static void writeVarLong(DataOutput out, long value)
+    throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public static void writeVarInt(DataOutput out, int value)
+    throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        return (int)readVarLong(in);
+    }
+
+    /**
+     * Write a signed long so that values near zero, of either sign,
+     * are short.
+     */
+    public static void writeSignedVarLong(DataOutput out, long value)
+    throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long v = readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public static void writeSignedVarInt(DataOutput out, int value)
+    throws IOException {
+        writeSignedVarLong(out, value);
+    }
+
+    public static int readSignedVarInt(DataInput in) throws IOException {
+        return (int)readSignedVarLong(in);
+    }
+
+    /**
+     * Write a possibly-null byte array, prefixed by its length + 1
+     * (0 meaning null).
+     */
+    public static void writeBytes(DataOutput out, byte[] bytes)
+    throws IOException {
+        if (bytes == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int len = readVarInt(in) - 1;
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Write a possibly-null String as UTF-8 bytes.
+     */
+    public static void writeString(DataOutput out, String s)
+    throws IOException {
+        writeBytes(out, (s == null) ? null : s.getBytes("UTF-8"));
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return (bytes == null) ? null : new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,216 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter safe for concurrent add() and contains() from many
+ * threads without external locking.
+ *
+ * Hashing is as in {@link BloomFilter64bit}, but bits are set by
+ * compare-and-swap on the words of an AtomicLongArray, so concurrent
+ * adds never lose each other's bits. A word is only written if the bit
+ * is not already set, so adds of already-present items are read-only.
+ *
+ * Optionally, a blocked layout may be used: the first hash chooses a
+ * 512-bit (one 64-byte cache line) block, and all of an item's bits are
+ * placed within that block. Each add or contains then touches a single
+ * cache line rather than <var>d</var> scattered ones, at the cost of a
+ * somewhat higher false-positive rate than the flat layout for the same
+ * size; see BenchmarkBlooms to compare.
+ *
+ * add() returns true if any of the item's bits were newly set by this
+ * call. If two threads add the same previously-absent item at the same
+ * moment, both may return true; callers deduplicating URIs will then
+ * at most schedule that URI twice.
+ */
+public class ConcurrentBloomFilter64bit implements Serializable, BloomFilter {
+    private static final long serialVersionUID = -4153290981457701236L;
+
+    /** The number of weights used to create hash functions. */
+    final public static int NUMBER_OF_WEIGHTS =
+        BloomFilter64bit.NUMBER_OF_WEIGHTS;
+    /** Bits per block in the blocked layout: one 64-byte cache line. */
+    final public static int BLOCK_BITS = 512;
+    /** The number of bits in this filter. */
+    final public long m;
+    /** The number of hash functions used by this filter. */
+    final public int d;
+    /** Whether all of an item's bits fall within one block. */
+    final public boolean blocked;
+    /** The number of blocks, in the blocked layout. */
+    final protected long blocks;
+    /** The underlying bit vector. */
+    final protected AtomicLongArray bits;
+    /** The random integers used to generate the hash functions. */
+    final protected long[][] weight;
+    /** The number of elements currently in the filter. */
+    final protected AtomicInteger size = new AtomicInteger(0);
+
+    private final static double NATURAL_LOG_OF_2 = Math.log( 2 );
+
+    protected final static long ADDRESS_BITS_PER_UNIT = 6; // 64=2^6
+    protected final static long BIT_INDEX_MASK = 63; // = BITS_PER_UNIT - 1;
+
+    /**
+     * Creates a new flat-layout Bloom filter with given number of hash
+     * functions and expected number of elements.
+     *
+     * @param n the expected number of elements.
+     * @param d the number of hash functions; if the filter add not more
+     * than <code>n</code> elements, false positives will happen with
+     * probability 2<sup>-<var>d</var></sup>.
+     */
+    public ConcurrentBloomFilter64bit( final int n, final int d ) {
+        this(n, d, false);
+    }
+
+    /**
+     * Creates a new Bloom filter with given number of hash functions and
+     * expected number of elements.
+     *
+     * @param n the expected number of elements.
+     * @param d the number of hash functions.
+     * @param blocked whether to confine each item's bits to one
+     * cache-line-sized block
+     */
+    public ConcurrentBloomFilter64bit( final int n, final int d,
+            final boolean blocked ) {
+        this.d = d;
+        this.blocked = blocked;
+        long len = (long)Math.ceil( ( (long)n * (long)d / NATURAL_LOG_OF_2 ) / 64L );
+        if ( blocked ) {
+            // round up to whole blocks
+            long wordsPerBlock = BLOCK_BITS / 64;
+            len = ( ( len + wordsPerBlock - 1 ) / wordsPerBlock ) * wordsPerBlock;
+        }
+        if ( len > Integer.MAX_VALUE ) throw new IllegalArgumentException( "This filter would require " + len * 64L + " bits" );
+        bits = new AtomicLongArray( (int)len );
+        m = len * 64L;
+        blocks = m / BLOCK_BITS;
+
+        // same seed as BloomFilter64bit
+        final SecureRandom random = new SecureRandom(new byte[] {19,96});
+        weight = new long[ d ][];
+        for( int i = 0; i < d; i++ ) {
+            weight[ i ] = new long[ NUMBER_OF_WEIGHTS ];
+            for( int j = 0; j < NUMBER_OF_WEIGHTS; j++ )
+                 weight[ i ][ j ] = random.nextLong();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Hashes the given sequence with the given hash function.
+     *
+     * @param s a character sequence.
+     * @param l the length of <code>s</code>.
+     * @param k a hash function index (smaller than {@link #d}).
+     * @return non-negative hash
+     */
+    protected long hash( final CharSequence s, final int l, final int k ) {
+        final long[] w = weight[ k ];
+        long h = 0;
+        int i = l;
+        while( i-- != 0 ) h ^= s.charAt( i ) * w[ i % NUMBER_OF_WEIGHTS ];
+        return h & 0x7FFFFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Compute the bit indices for the given sequence, one per hash
+     * function.
+     *
+     * @param s a character sequence.
+     * @return bit indices
+     */
+    protected long[] bitIndices( final CharSequence s ) {
+        final int l = s.length();
+        final long[] indices = new long[ d ];
+        if ( blocked ) {
+            long h0 = hash( s, l, 0 );
+            long base = ( h0 % blocks ) * BLOCK_BITS;
+            // within-block offsets come from high bits, which the block
+            // choice (for any practical block count) leaves independent
+            indices[ 0 ] = base + ( h0 >>> 54 );
+            for( int i = 1; i < d; i++ ) {
+                indices[ i ] = base + ( hash( s, l, i ) >>> 54 );
+            }
+        } else {
+            for( int i = 0; i < d; i++ ) {
+                indices[ i ] = hash( s, l, i ) % m;
+            }
+        }
+        return indices;
+    }
+
+    public boolean contains( final CharSequence s ) {
+        final long[] indices = bitIndices( s );
+        for( int i = 0; i < indices.length; i++ ) {
+            if ( ! getBit( indices[ i ] ) ) return false;
+        }
+        return true;
+    }
+
+    public boolean add( final CharSequence s ) {
+        boolean result = false;
+        final long[] indices = bitIndices( s );
+        for( int i = 0; i < indices.length; i++ ) {
+            if ( setBit( indices[ i ] ) ) result = true;
+        }
+        if ( result ) size.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * @param bitIndex the bit index.
+     * @return the value of the bit with the specified index.
+     */
+    protected boolean getBit( long bitIndex ) {
+        return ( bits.get( (int)( bitIndex >> ADDRESS_BITS_PER_UNIT ) )
+                & ( 1L << ( bitIndex & BIT_INDEX_MASK ) ) ) != 0;
+    }
+
+    /**
+     * Atomically set the bit with the specified index.
+     *
+     * @param bitIndex the index of the bit to be set.
+     * @return true if this call changed the bit from clear to set
+     */
+    protected boolean setBit( long bitIndex ) {
+        final int word = (int)( bitIndex >> ADDRESS_BITS_PER_UNIT );
+        final long mask = 1L << ( bitIndex & BIT_INDEX_MASK );
+        while( true ) {
+            long old = bits.get( word );
+            if ( ( old & mask ) != 0 ) return false;
+            if ( bits.compareAndSet( word, old, old | mask ) ) return true;
+        }
+    }
+
+    public long getSizeBytes() {
+        return bits.length() * 8L;
+    }
+}
@@ -0,0 +1,70 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test ConcurrentBloomFilter64bit.
+ */
+public class ConcurrentBloomFilter64bitTest extends TestCase {
+
+    public void testFlat() throws InterruptedException {
+        checkConcurrentAdds(new ConcurrentBloomFilter64bit(20000, 16));
+    }
+
+    public void testBlocked() throws InterruptedException {
+        checkConcurrentAdds(new ConcurrentBloomFilter64bit(20000, 16, true));
+    }
+
+    /**
+     * Add disjoint ranges from several threads; every added item must
+     * then be contained, and no bits may have been lost.
+     */
+    protected void checkConcurrentAdds(final ConcurrentBloomFilter64bit bloom)
+    throws InterruptedException {
+        final int perThread = 5000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t * perThread;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = base; i < base + perThread; i++) {
+                        bloom.add("http://www.archive.org/" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        for (int i = 0; i < perThread * threads.length; i++) {
+            assertTrue("missing " + i,
+                bloom.contains("http://www.archive.org/" + i));
+        }
+        assertFalse("re-add reported new",
+            bloom.add("http://www.archive.org/0"));
+        // false positives at 2^-16 should leave size near the add count
+        assertTrue("size " + bloom.size(),
+            bloom.size() > perThread * threads.length - 10);
+        assertFalse(bloom.contains("http://www.example.com/"));
+    }
+}
@@ -0,0 +1,228 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.collections.Bag;
+
+/**
+ * A commons-collections Bag safe for concurrent use without external
+ * locking, backed by a ConcurrentHashMap of per-item AtomicInteger counts.
+ *
+ * Unlike BagUtils.synchronizedBag(), add/remove of distinct items never
+ * contend on a single monitor. Iteration is weakly consistent, in the
+ * manner of the java.util.concurrent collections: it never throws
+ * ConcurrentModificationException, but may or may not reflect
+ * modifications made after the iterator was created.
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentHashBag extends AbstractCollection
+implements Bag, Serializable {
+    private static final long serialVersionUID = -2813924751706528453L;
+
+    /** item -> count; entries with count 0 are removed */
+    protected ConcurrentHashMap<Object,AtomicInteger> counts =
+        new ConcurrentHashMap<Object,AtomicInteger>();
+
+    /** running total of all counts */
+    protected AtomicInteger size = new AtomicInteger(0);
+
+    public ConcurrentHashBag() {
+        super();
+    }
+
+    public int getCount(Object object) {
+        AtomicInteger count = counts.get(object);
+        return (count == null) ? 0 : count.get();
+    }
+
+    public boolean add(Object object) {
+        return add(object, 1);
+    }
+
+    public boolean add(Object object, int nCopies) {
+        if (nCopies <= 0) {
+            return false;
+        }
+        while (true) {
+            AtomicInteger count = counts.get(object);
+            if (count == null) {
+                AtomicInteger fresh = new AtomicInteger(nCopies);
+                if (counts.putIfAbsent(object, fresh) == null) {
+                    size.addAndGet(nCopies);
+                    return true;
+                }
+                continue;
+            }
+            int prev = count.get();
+            if (prev <= 0) {
+                // a concurrent remover is retiring this entry; help it along
+                counts.remove(object, count);
+                continue;
+            }
+            if (count.compareAndSet(prev, prev + nCopies)) {
+                size.addAndGet(nCopies);
+                return false;
+            }
+        }
+    }
+
+    public boolean remove(Object object) {
+        return removeCopies(object, Integer.MAX_VALUE) > 0;
+    }
+
+    public boolean remove(Object object, int nCopies) {
+        if (nCopies <= 0) {
+            return false;
+        }
+        return removeCopies(object, nCopies) > 0;
+    }
+
+    /**
+     * Remove up to the given number of copies of the given object.
+     *
+     * @param object item to remove
+     * @param nCopies maximum copies to remove
+     * @return number of copies actually removed
+     */
+    protected int removeCopies(Object object, int nCopies) {
+        while (true) {
+            AtomicInteger count = counts.get(object);
+            if (count == null) {
+                return 0;
+            }
+            int prev = count.get();
+            if (prev <= 0) {
+                counts.remove(object, count);
+                continue;
+            }
+            int removed = Math.min(prev, nCopies);
+            if (count.compareAndSet(prev, prev - removed)) {
+                if (prev - removed == 0) {
+                    counts.remove(object, count);
+                }
+                size.addAndGet(-removed);
+                return removed;
+            }
+        }
+    }
+
+    public Set uniqueSet() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean contains(Object object) {
+        return getCount(object) > 0;
+    }
+
+    public boolean containsAll(Collection coll) {
+        if (coll instanceof Bag) {
+            Bag other = (Bag) coll;
+            for (Object o : other.uniqueSet()) {
+                if (getCount(o) < other.getCount(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.containsAll(coll);
+    }
+
+    public boolean removeAll(Collection coll) {
+        boolean changed = false;
+        for (Object o : coll) {
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    public boolean retainAll(Collection coll) {
+        boolean changed = false;
+        for (Object o : counts.keySet()) {
+            if (!coll.contains(o)) {
+                changed |= remove(o);
+            }
+        }
+        return changed;
+    }
+
+    public void clear() {
+        for (Object o : counts.keySet()) {
+            remove(o);
+        }
+    }
+
+    /**
+     * Iterate over all items, each repeated according to its count at
+     * the moment the iterator reaches it.
+     */
+    public Iterator iterator() {
+        final Iterator<Map.Entry<Object,AtomicInteger>> entries =
+            counts.entrySet().iterator();
+        return new Iterator() {
+            Object current = null;
+            int remaining = 0;
+            Object last = null;
+
+            public boolean hasNext() {
+                while (remaining <= 0) {
+                    if (!entries.hasNext()) {
+                        return false;
+                    }
+                    Map.Entry<Object,AtomicInteger> e = entries.next();
+                    current = e.getKey();
+                    remaining = e.getValue().get();
+                }
+                return true;
+            }
+
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                last = current;
+                return current;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentHashBag.this.remove(last, 1);
+                last = null;
+            }
+        };
+    }
+}
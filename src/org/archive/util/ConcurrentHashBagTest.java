@@ -0,0 +1,92 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ConcurrentHashBag.
+ */
+public class ConcurrentHashBagTest extends TestCase {
+
+    public void testCounts() {
+        ConcurrentHashBag bag = new ConcurrentHashBag();
+        assertTrue(bag.add("a"));
+        assertFalse(bag.add("a"));
+        bag.add("b", 3);
+        assertEquals(2, bag.getCount("a"));
+        assertEquals(3, bag.getCount("b"));
+        assertEquals(5, bag.size());
+        assertEquals(2, bag.uniqueSet().size());
+
+        assertTrue(bag.remove("b", 1));
+        assertEquals(2, bag.getCount("b"));
+        assertTrue(bag.remove("b"));
+        assertEquals(0, bag.getCount("b"));
+        assertFalse(bag.contains("b"));
+        assertFalse(bag.remove("b", 1));
+        assertEquals(2, bag.size());
+        assertEquals(1, bag.uniqueSet().size());
+    }
+
+    public void testIterator() {
+        ConcurrentHashBag bag = new ConcurrentHashBag();
+        bag.add("a", 2);
+        bag.add("b", 1);
+        int seen = 0;
+        for (Iterator i = bag.iterator(); i.hasNext();) {
+            i.next();
+            seen++;
+        }
+        assertEquals(3, seen);
+        Iterator i = bag.iterator();
+        while (i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+        assertTrue(bag.isEmpty());
+    }
+
+    public void testConcurrentAddRemove() throws InterruptedException {
+        final ConcurrentHashBag bag = new ConcurrentHashBag();
+        final String[] keys = {"a", "b", "c", "d"};
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        String key = keys[(i + offset) % keys.length];
+                        bag.add(key);
+                        bag.remove(key, 1);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(0, bag.size());
+        assertTrue(bag.uniqueSet().isEmpty());
+    }
+}
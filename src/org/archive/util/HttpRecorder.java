@@ -32,6 +32,7 @@ import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.io.RecorderBufferPool;
 import org.archive.io.RecordingInputStream;
 import org.archive.io.RecordingOutputStream;
 import org.archive.io.ReplayCharSequence;
@@ -114,6 +115,38 @@ public class HttpRecorder {
             this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX);
     }
 
+    /**
+     * Create an HttpRecorder whose recording buffers are drawn from a
+     * shared pool while in use. Call {@link #releaseBuffers()} once done
+     * with each recording.
+     *
+     * @param tempDir Directory into which we drop backing files for
+     * recorded input and output.
+     * @param backingFilenameBase Backing filename base to which we'll append
+     * suffices <code>ris</code> for recorded input stream and
+     * <code>ros</code> for recorded output stream.
+     * @param outBufferSize Size of output buffer to use.
+     * @param inBufferSize Size of input buffer to start with.
+     * @param pool Pool to draw buffers from.
+     * @param maxInMemory Largest input buffer to grow to before recording
+     * to the backing file.
+     */
+    public HttpRecorder(File tempDir, String backingFilenameBase, 
+            int outBufferSize, int inBufferSize, RecorderBufferPool pool,
+            int maxInMemory) {
+        super();
+        tempDir.mkdirs();
+        this.backingFileBasename =
+            (new File(tempDir.getPath(), backingFilenameBase))
+                .getAbsolutePath();
+        this.ris = new RecordingInputStream(inBufferSize,
+            this.backingFileBasename + RECORDING_INPUT_STREAM_SUFFIX,
+            pool, maxInMemory);
+        this.ros = new RecordingOutputStream(outBufferSize,
+            this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX,
+            pool, outBufferSize);
+    }
+
     /**
      * Create an HttpRecorder.
      * 
@@ -231,6 +264,15 @@ public class HttpRecorder {
         }
     }
 
+    /**
+     * Return pooled recording buffers, if any, to their pool. Neither
+     * recording, nor anything replaying them, may be used afterward.
+     */
+    public void releaseBuffers() {
+        this.ris.releaseBuffer();
+        this.ros.releaseBuffer();
+    }
+
     /**
      * Cleanup backing files.
      *
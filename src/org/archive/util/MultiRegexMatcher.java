@@ -0,0 +1,913 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests a string against a list of regular expressions at once, each
+ * with the full-match semantics of {@link TextUtils#matches(String,
+ * CharSequence)}.
+ *
+ * Expressions using only the regular subset of java.util.regex syntax
+ * -- literals, escapes, character classes, '.', groups, alternation,
+ * greedy or reluctant quantifiers, an optional leading '(?i)', and
+ * '^'/'$' at the ends of top-level alternatives -- are combined into a
+ * single automaton. The automaton runs over the string once, however
+ * many expressions it holds, and reports which of them matched. Its
+ * deterministic states are built lazily as input is seen, and
+ * discarded and rebuilt if they grow too many.
+ *
+ * Any other expression (with backreferences, lookaround, boundaries,
+ * possessive quantifiers, other flags, ...) is tested separately with
+ * java.util.regex, as are all expressions if the string holds surrogate
+ * characters. Results are the same either way.
+ *
+ * Instances are safe for use by concurrent threads.
+ */
+public class MultiRegexMatcher {
+    /** deterministic states to keep before starting over */
+    protected static final int MAX_DFA_STATES = 10000;
+    /** automaton states one expression may take */
+    protected static final int MAX_NFA_STATES = 5000;
+
+    private static final byte CHARS = 0;
+    private static final byte SPLIT = 1;
+    private static final byte MATCH = 2;
+
+    private final String[] regexps;
+    /** indexes of expressions tested with java.util.regex */
+    private final int[] fallback;
+    private final BitSet compiled = new BitSet();
+    private final int compiledCount;
+
+    // automaton states, by index
+    private final byte[] kind;
+    private final CharClass[] classes;
+    private final int[] next;
+    private final int[][] splits;
+    /** index of expression each state belongs to */
+    private final int[] owner;
+    private final int startState;
+
+    private volatile ConcurrentHashMap<Key,DfaState> dfaStates;
+    private volatile DfaState dfaStart;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        protected Scratch initialValue() {
+            return new Scratch(kind.length);
+        }
+    };
+
+    /**
+     * @param regexps Regular expressions to test, as Strings.
+     */
+    public MultiRegexMatcher(List<?> regexps) {
+        this.regexps = new String[regexps.size()];
+        Builder builder = new Builder();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < this.regexps.length; i++) {
+            this.regexps[i] = (String)regexps.get(i);
+            int mark = builder.size();
+            try {
+                Node n = new Parser(this.regexps[i]).parse();
+                int match = builder.add(MATCH, null, -1, null, i);
+                starts.add(n.compile(builder, match, i));
+                this.compiled.set(i);
+            } catch (Unsupported e) {
+                builder.truncate(mark);
+                others.add(i);
+            }
+        }
+        int[] outs = new int[starts.size()];
+        for (int i = 0; i < outs.length; i++) {
+            outs[i] = starts.get(i);
+        }
+        this.startState = builder.add(SPLIT, null, -1, outs, -1);
+        this.kind = builder.kinds();
+        this.classes = builder.classes.toArray(new CharClass[0]);
+        this.next = builder.ints(builder.next);
+        this.splits = builder.splits.toArray(new int[0][]);
+        this.owner = builder.ints(builder.owner);
+        this.compiledCount = starts.size();
+        this.fallback = new int[others.size()];
+        for (int i = 0; i < this.fallback.length; i++) {
+            this.fallback[i] = others.get(i);
+        }
+        reset();
+    }
+
+    /**
+     * @return Number of expressions.
+     */
+    public int size() {
+        return this.regexps.length;
+    }
+
+    /**
+     * @param i Index of an expression.
+     * @return True if the expression is tested by the combined automaton
+     * rather than by java.util.regex.
+     */
+    public boolean isCompiled(int i) {
+        return this.compiled.get(i);
+    }
+
+    /**
+     * @param list List of regular expressions.
+     * @return True if this matcher tests exactly the given expressions,
+     * in order.
+     */
+    public boolean isFor(List<?> list) {
+        if (list == null || list.size() != this.regexps.length) {
+            return false;
+        }
+        for (int i = 0; i < this.regexps.length; i++) {
+            if (!this.regexps[i].equals(list.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param input String to test.
+     * @return Indexes of all expressions matching the whole input.
+     */
+    public BitSet matching(CharSequence input) {
+        BitSet result = new BitSet();
+        DfaState s = run(input, false);
+        if (s == null) {
+            for (int i = 0; i < this.regexps.length; i++) {
+                if (TextUtils.matches(this.regexps[i], input)) {
+                    result.set(i);
+                }
+            }
+            return result;
+        }
+        result.or(s.accepts);
+        for (int i: this.fallback) {
+            if (TextUtils.matches(this.regexps[i], input)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param input String to test.
+     * @return True if any expression matches the whole input.
+     */
+    public boolean matchesAny(CharSequence input) {
+        DfaState s = run(input, false);
+        if (s == null) {
+            return !matching(input).isEmpty();
+        }
+        if (!s.accepts.isEmpty()) {
+            return true;
+        }
+        for (int i: this.fallback) {
+            if (TextUtils.matches(this.regexps[i], input)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param input String to test.
+     * @return True if every expression matches the whole input.
+     */
+    public boolean matchesAll(CharSequence input) {
+        DfaState s = run(input, true);
+        if (s == null) {
+            return matching(input).cardinality() == this.regexps.length;
+        }
+        if (s.accepts.cardinality() != this.compiledCount) {
+            return false;
+        }
+        for (int i: this.fallback) {
+            if (!TextUtils.matches(this.regexps[i], input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the automaton over the input.
+     *
+     * @param input String to test.
+     * @param all True to stop as soon as any expression can no longer
+     * match, otherwise only once none can.
+     * @return State after the input, or one from which no (for
+     * <code>all</code>, not every) expression can match; null if the
+     * input holds surrogates.
+     */
+    private DfaState run(CharSequence input, boolean all) {
+        DfaState s = this.dfaStart;
+        for (int i = 0, n = input.length(); i < n; i++) {
+            char c = input.charAt(i);
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // java.util.regex works on code points; leave it to that
+                return null;
+            }
+            DfaState t = s.get(c);
+            if (t == null) {
+                t = step(s, c);
+            }
+            s = t;
+            if (s.dead || (all && !s.allLive)) {
+                break;
+            }
+        }
+        return s;
+    }
+
+    private void reset() {
+        this.dfaStates = new ConcurrentHashMap<Key,DfaState>();
+        Scratch sc = this.scratch.get();
+        sc.begin();
+        sc.push(this.startState);
+        this.dfaStart = intern(closure(sc));
+    }
+
+    private DfaState step(DfaState from, char c) {
+        Scratch sc = this.scratch.get();
+        sc.begin();
+        for (int st: from.states) {
+            if (this.kind[st] == CHARS && this.classes[st].contains(c)) {
+                sc.push(this.next[st]);
+            }
+        }
+        DfaState to = intern(closure(sc));
+        from.put(c, to);
+        return to;
+    }
+
+    /**
+     * Follow splits from the pushed states.
+     *
+     * @return Sorted indexes of the character-testing and matching states
+     * reached.
+     */
+    private int[] closure(Scratch sc) {
+        while (sc.depth > 0) {
+            int st = sc.stack[--sc.depth];
+            if (sc.seen[st] == sc.stamp) {
+                continue;
+            }
+            sc.seen[st] = sc.stamp;
+            if (this.kind[st] == SPLIT) {
+                int[] outs = this.splits[st];
+                for (int i = outs.length - 1; i >= 0; i--) {
+                    sc.push(outs[i]);
+                }
+            } else {
+                sc.found(st);
+            }
+        }
+        int[] states = Arrays.copyOf(sc.found, sc.count);
+        Arrays.sort(states);
+        return states;
+    }
+
+    private DfaState intern(int[] states) {
+        if (this.dfaStates.size() >= MAX_DFA_STATES) {
+            // too many to keep: let the old states go
+            reset();
+        }
+        ConcurrentHashMap<Key,DfaState> map = this.dfaStates;
+        Key key = new Key(states);
+        DfaState s = map.get(key);
+        if (s == null) {
+            s = new DfaState(states);
+            DfaState prior = map.putIfAbsent(key, s);
+            if (prior != null) {
+                s = prior;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * A deterministic state: the set of automaton states reachable after
+     * some input. Transitions are filled in as they are first taken.
+     */
+    private class DfaState {
+        final int[] states;
+        final BitSet accepts = new BitSet();
+        final boolean dead;
+        final boolean allLive;
+        final DfaState[] ascii = new DfaState[128];
+        volatile ConcurrentHashMap<Character,DfaState> other;
+
+        DfaState(int[] states) {
+            this.states = states;
+            BitSet live = new BitSet();
+            for (int st: states) {
+                live.set(owner[st]);
+                if (kind[st] == MATCH) {
+                    this.accepts.set(owner[st]);
+                }
+            }
+            this.dead = states.length == 0;
+            this.allLive = live.cardinality() == compiledCount;
+        }
+
+        DfaState get(char c) {
+            if (c < 128) {
+                return this.ascii[c];
+            }
+            ConcurrentHashMap<Character,DfaState> m = this.other;
+            return (m == null) ? null : m.get(c);
+        }
+
+        void put(char c, DfaState s) {
+            if (c < 128) {
+                this.ascii[c] = s;
+                return;
+            }
+            ConcurrentHashMap<Character,DfaState> m = this.other;
+            if (m == null) {
+                m = new ConcurrentHashMap<Character,DfaState>();
+                this.other = m;
+            }
+            m.put(c, s);
+        }
+    }
+
+    private static class Key {
+        final int[] states;
+        final int hash;
+
+        Key(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(this.states,
+                ((Key)o).states);
+        }
+    }
+
+    /**
+     * Per-thread work space for following automaton splits.
+     */
+    private static class Scratch {
+        final int[] seen;
+        int stamp = 0;
+        int[] stack = new int[16];
+        int depth;
+        int[] found = new int[16];
+        int count;
+
+        Scratch(int size) {
+            this.seen = new int[size];
+        }
+
+        void begin() {
+            if (++this.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(this.seen, 0);
+                this.stamp = 1;
+            }
+            this.depth = 0;
+            this.count = 0;
+        }
+
+        void push(int st) {
+            if (this.depth == this.stack.length) {
+                this.stack = Arrays.copyOf(this.stack, this.depth * 2);
+            }
+            this.stack[this.depth++] = st;
+        }
+
+        void found(int st) {
+            if (this.count == this.found.length) {
+                this.found = Arrays.copyOf(this.found, this.count * 2);
+            }
+            this.found[this.count++] = st;
+        }
+    }
+
+    /**
+     * Set of chars, as sorted inclusive ranges.
+     */
+    private static class CharClass {
+        final char[] ranges;
+
+        CharClass(BitSet bits) {
+            StringBuilder sb = new StringBuilder();
+            for (int lo = bits.nextSetBit(0); lo >= 0;
+                    lo = bits.nextSetBit(lo)) {
+                int end = bits.nextClearBit(lo);
+                sb.append((char)lo).append((char)(end - 1));
+                lo = end;
+            }
+            this.ranges = sb.toString().toCharArray();
+        }
+
+        boolean contains(char c) {
+            int lo = 0;
+            int hi = this.ranges.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (c < this.ranges[2 * mid]) {
+                    hi = mid - 1;
+                } else if (c > this.ranges[2 * mid + 1]) {
+                    lo = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Thrown for expressions the automaton cannot take.
+     */
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    /**
+     * Growing automaton, states appended as expressions are compiled.
+     */
+    private static class Builder {
+        final List<Byte> kind = new ArrayList<Byte>();
+        final List<CharClass> classes = new ArrayList<CharClass>();
+        final List<Integer> next = new ArrayList<Integer>();
+        final List<int[]> splits = new ArrayList<int[]>();
+        final List<Integer> owner = new ArrayList<Integer>();
+        /** first state of the expression being compiled */
+        int base = 0;
+
+        int size() {
+            return this.kind.size();
+        }
+
+        int add(byte k, CharClass cls, int nxt, int[] outs, int own) {
+            if (size() - this.base >= MAX_NFA_STATES) {
+                throw UNSUPPORTED;
+            }
+            this.kind.add(k);
+            this.classes.add(cls);
+            this.next.add(nxt);
+            this.splits.add(outs);
+            this.owner.add(own);
+            return size() - 1;
+        }
+
+        void truncate(int size) {
+            while (size() > size) {
+                int last = size() - 1;
+                this.kind.remove(last);
+                this.classes.remove(last);
+                this.next.remove(last);
+                this.splits.remove(last);
+                this.owner.remove(last);
+            }
+        }
+
+        byte[] kinds() {
+            byte[] result = new byte[this.kind.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = this.kind.get(i);
+            }
+            return result;
+        }
+
+        int[] ints(List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parsed expression. Compiles back to front: each node is given the
+     * state to continue with and returns the state it starts at.
+     */
+    private static abstract class Node {
+        abstract int compile(Builder b, int next, int owner);
+    }
+
+    private static class Chars extends Node {
+        final CharClass cls;
+
+        Chars(BitSet bits) {
+            this.cls = new CharClass(bits);
+        }
+
+        int compile(Builder b, int next, int owner) {
+            return b.add(CHARS, this.cls, next, null, owner);
+        }
+    }
+
+    private static class Sequence extends Node {
+        final List<Node> items;
+
+        Sequence(List<Node> items) {
+            this.items = items;
+        }
+
+        int compile(Builder b, int next, int owner) {
+            for (int i = this.items.size() - 1; i >= 0; i--) {
+                next = this.items.get(i).compile(b, next, owner);
+            }
+            return next;
+        }
+    }
+
+    private static class Alternation extends Node {
+        final List<Node> alternatives;
+
+        Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        int compile(Builder b, int next, int owner) {
+            int[] outs = new int[this.alternatives.size()];
+            for (int i = 0; i < outs.length; i++) {
+                outs[i] = this.alternatives.get(i).compile(b, next, owner);
+            }
+            return b.add(SPLIT, null, -1, outs, owner);
+        }
+    }
+
+    private static class Repeat extends Node {
+        final Node node;
+        final int min;
+        /** maximum count, or -1 for no limit */
+        final int max;
+
+        Repeat(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        int compile(Builder b, int next, int owner) {
+            if (this.max < 0) {
+                int loop = b.add(SPLIT, null, -1, null, owner);
+                int body = this.node.compile(b, loop, owner);
+                b.splits.set(loop, new int[] {body, next});
+                next = loop;
+            } else {
+                for (int i = this.min; i < this.max; i++) {
+                    int body = this.node.compile(b, next, owner);
+                    next = b.add(SPLIT, null, -1, new int[] {body, next},
+                        owner);
+                }
+            }
+            for (int i = 0; i < this.min; i++) {
+                next = this.node.compile(b, next, owner);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Parser for the supported subset of java.util.regex syntax. Throws
+     * {@link #UNSUPPORTED} at anything else, including anything
+     * java.util.regex would reject.
+     */
+    private static class Parser {
+        private static final int MAX_COUNT = 1000;
+        private static final BitSet DIGIT = new BitSet();
+        private static final BitSet WORD = new BitSet();
+        private static final BitSet SPACE = new BitSet();
+        private static final BitSet DOT = new BitSet();
+        static {
+            DIGIT.set('0', '9' + 1);
+            WORD.or(DIGIT);
+            WORD.set('a', 'z' + 1);
+            WORD.set('A', 'Z' + 1);
+            WORD.set('_');
+            for (char c: " \t\n\u000B\f\r".toCharArray()) {
+                SPACE.set(c);
+            }
+            DOT.set(0, 0x10000);
+            for (char c: "\n\r\u0085\u2028\u2029".toCharArray()) {
+                DOT.clear(c);
+            }
+        }
+
+        private final String p;
+        private int pos = 0;
+        private boolean caseInsensitive = false;
+
+        Parser(String p) {
+            this.p = p;
+        }
+
+        Node parse() {
+            for (int i = 0; i < this.p.length(); i++) {
+                char c = this.p.charAt(i);
+                if (c >= Character.MIN_SURROGATE
+                        && c <= Character.MAX_SURROGATE) {
+                    throw UNSUPPORTED;
+                }
+            }
+            if (this.p.startsWith("(?i)")) {
+                this.caseInsensitive = true;
+                this.pos = 4;
+            }
+            Node n = alternation(true);
+            if (this.pos < this.p.length()) {
+                throw UNSUPPORTED;
+            }
+            return n;
+        }
+
+        private boolean at(char c) {
+            return this.pos < this.p.length() && this.p.charAt(this.pos) == c;
+        }
+
+        private char take() {
+            if (this.pos >= this.p.length()) {
+                throw UNSUPPORTED;
+            }
+            return this.p.charAt(this.pos++);
+        }
+
+        /**
+         * @param top True if not within a group, where '^' and '$' may
+         * stand at the start and end of an alternative.
+         */
+        private Node alternation(boolean top) {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(sequence(top));
+            while (at('|')) {
+                this.pos++;
+                alternatives.add(sequence(top));
+            }
+            return (alternatives.size() == 1)
+                ? alternatives.get(0): new Alternation(alternatives);
+        }
+
+        private Node sequence(boolean top) {
+            List<Node> items = new ArrayList<Node>();
+            boolean anchored = false;
+            while (this.pos < this.p.length() && !at('|') && !at(')')) {
+                if (at('^')) {
+                    if (!top || anchored || !items.isEmpty()) {
+                        throw UNSUPPORTED;
+                    }
+                    anchored = true;
+                    this.pos++;
+                } else if (at('$')) {
+                    this.pos++;
+                    if (!top || (this.pos < this.p.length() && !at('|'))) {
+                        throw UNSUPPORTED;
+                    }
+                } else {
+                    items.add(quantified(atom()));
+                }
+            }
+            return (items.size() == 1) ? items.get(0): new Sequence(items);
+        }
+
+        private Node quantified(Node atom) {
+            int min;
+            int max;
+            if (at('*')) {
+                min = 0;
+                max = -1;
+            } else if (at('+')) {
+                min = 1;
+                max = -1;
+            } else if (at('?')) {
+                min = 0;
+                max = 1;
+            } else if (at('{')) {
+                this.pos++;
+                min = count();
+                max = min;
+                if (at(',')) {
+                    this.pos++;
+                    max = at('}') ? -1: count();
+                }
+                if (!at('}') || (max >= 0 && max < min)) {
+                    throw UNSUPPORTED;
+                }
+            } else {
+                return atom;
+            }
+            this.pos++;
+            if (at('?')) {
+                // reluctance doesn't change what matches the whole input
+                this.pos++;
+            }
+            if (at('+') || at('*') || at('?') || at('{')) {
+                throw UNSUPPORTED;
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        private int count() {
+            int start = this.pos;
+            while (this.pos < this.p.length()
+                    && Character.isDigit(this.p.charAt(this.pos))
+                    && this.pos - start < 4) {
+                this.pos++;
+            }
+            if (this.pos == start || this.pos - start > 3) {
+                throw UNSUPPORTED;
+            }
+            int n = Integer.parseInt(this.p.substring(start, this.pos));
+            if (n > MAX_COUNT) {
+                throw UNSUPPORTED;
+            }
+            return n;
+        }
+
+        private Node atom() {
+            char c = take();
+            switch (c) {
+                case '(':
+                    if (at('?')) {
+                        this.pos++;
+                        if (take() != ':') {
+                            throw UNSUPPORTED;
+                        }
+                    }
+                    Node n = alternation(false);
+                    if (take() != ')') {
+                        throw UNSUPPORTED;
+                    }
+                    return n;
+                case '[':
+                    return new Chars(charClass());
+                case '.':
+                    return new Chars(DOT);
+                case '\\':
+                    return new Chars(fold(escape()));
+                case '*': case '+': case '?': case '{': case '}': case ']':
+                    throw UNSUPPORTED;
+                default:
+                    BitSet bits = new BitSet();
+                    bits.set(c);
+                    return new Chars(fold(bits));
+            }
+        }
+
+        /**
+         * @return Chars matched by the escape following a backslash.
+         */
+        private BitSet escape() {
+            char c = take();
+            BitSet bits = new BitSet();
+            switch (c) {
+                case 'd': bits.or(DIGIT); break;
+                case 'w': bits.or(WORD); break;
+                case 's': bits.or(SPACE); break;
+                case 'D': bits.or(DIGIT); bits.flip(0, 0x10000); break;
+                case 'W': bits.or(WORD); bits.flip(0, 0x10000); break;
+                case 'S': bits.or(SPACE); bits.flip(0, 0x10000); break;
+                case 't': bits.set('\t'); break;
+                case 'n': bits.set('\n'); break;
+                case 'r': bits.set('\r'); break;
+                case 'f': bits.set('\f'); break;
+                case 'a': bits.set('\u0007'); break;
+                case 'e': bits.set('\u001B'); break;
+                case 'x': bits.set(hex(2)); break;
+                case 'u': bits.set(hex(4)); break;
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        // backreferences, boundaries, properties, quoting...
+                        throw UNSUPPORTED;
+                    }
+                    bits.set(c);
+            }
+            return bits;
+        }
+
+        private int hex(int digits) {
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int d = Character.digit(take(), 16);
+                if (d < 0) {
+                    throw UNSUPPORTED;
+                }
+                value = value * 16 + d;
+            }
+            if (value >= Character.MIN_SURROGATE
+                    && value <= Character.MAX_SURROGATE) {
+                throw UNSUPPORTED;
+            }
+            return value;
+        }
+
+        /**
+         * @return Chars matched by the class following a '['.
+         */
+        private BitSet charClass() {
+            boolean negated = false;
+            if (at('^')) {
+                negated = true;
+                this.pos++;
+            }
+            BitSet bits = new BitSet();
+            for (boolean first = true; ; first = false) {
+                char c = take();
+                if (c == ']' && !first) {
+                    break;
+                }
+                if (c == ']' || c == '[' || (c == '&' && at('&'))) {
+                    throw UNSUPPORTED;
+                }
+                int lo = c;
+                BitSet item = null;
+                if (c == '\\') {
+                    item = escape();
+                    lo = single(item);
+                } else if (c == '-' && !first && !at(']')) {
+                    throw UNSUPPORTED;
+                }
+                if (lo >= 0 && c != '-' && at('-')
+                        && this.pos + 1 < this.p.length()
+                        && this.p.charAt(this.pos + 1) != ']') {
+                    this.pos++;
+                    char d = take();
+                    int hi = d;
+                    if (d == '\\') {
+                        hi = single(escape());
+                    } else if (d == '[' || d == '-' || d == '&') {
+                        throw UNSUPPORTED;
+                    }
+                    if (hi < lo) {
+                        throw UNSUPPORTED;
+                    }
+                    bits.set(lo, hi + 1);
+                } else if (item != null) {
+                    bits.or(item);
+                } else {
+                    bits.set(c);
+                }
+            }
+            fold(bits);
+            if (negated) {
+                bits.flip(0, 0x10000);
+            }
+            return bits;
+        }
+
+        private int single(BitSet bits) {
+            return (bits.cardinality() == 1) ? bits.nextSetBit(0): -1;
+        }
+
+        /**
+         * Add the other case of any ASCII letters, if case-insensitive
+         * (java.util.regex only folds ASCII by default).
+         */
+        private BitSet fold(BitSet bits) {
+            if (this.caseInsensitive) {
+                for (char c = 'a'; c <= 'z'; c++) {
+                    char u = Character.toUpperCase(c);
+                    if (bits.get(c) || bits.get(u)) {
+                        bits.set(c);
+                        bits.set(u);
+                    }
+                }
+            }
+            return bits;
+        }
+    }
+}
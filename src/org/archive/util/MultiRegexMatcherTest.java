@@ -0,0 +1,173 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Test MultiRegexMatcher against java.util.regex.
+ */
+public class MultiRegexMatcherTest extends TestCase {
+    protected static final String[] PATTERNS = {
+        "",
+        "abc",
+        "^.*\\.archive\\.org/.*$",
+        "(?i)^https?://[^/]*EXAMPLE\\.(com|net)(/.*)?",
+        ".*/(calendar|cal)/\\d{4}[-/]\\d{1,2}.*",
+        ".*\\.(gif|jpe?g|png)",
+        "[^\\s]*\\W[a-c-]+",
+        "(ab|a)*b+?",
+        "(a*)*c",
+        "x{2,}y{0,1}z{3}",
+        "[\\x41-\\u005a_]+",
+        "a.b",
+        "a$",
+        "^a|b$",
+        "(?:[\\d\\w]|\\.)+\\t?",
+        "[-a]|[a-]",
+        // not for the automaton
+        ".*(/[^/]+)\\1{2,}.*",
+        "(?i).*\\bcal\\b.*",
+        "a*+b",
+        "(?=a)a",
+        "\\p{Lower}+",
+        "(a^)|b",
+    };
+
+    protected static final String[] INPUTS = {
+        "", "abc", "ABC", "a", "b", "c", "ab", "aab", "abab", "abbb",
+        "a\n", "a\nb", "a\u2028b", "axb", "aaac", "xxzzz", "xxyzzz",
+        "xxxxxyzzz", "AZ_Q", "a-b", " ab-c", "foo:a-b",
+        "http://www.archive.org/", "http://crawler.archive.org/x.gif",
+        "https://foo.example.COM/a", "HTTP://example.net",
+        "http://example.org/", "http://x.com/calendar/2009-10/",
+        "http://x.com/cal/2009/1", "http://x.com/a/b/b/b/c",
+        "http://x.com/Cal/", "img.JPG", "img.jpeg", "word.\t",
+        "a\uD83D\uDE00b", "\u00e9t\u00e9",
+    };
+
+    public void testAgainstJavaRegex() {
+        MultiRegexMatcher m = new MultiRegexMatcher(Arrays.asList(PATTERNS));
+        for (int i = 0; i < PATTERNS.length; i++) {
+            assertEquals(PATTERNS[i], i < 16, m.isCompiled(i));
+        }
+        assertEquivalent(PATTERNS, m, INPUTS);
+    }
+
+    public void testLogic() {
+        List<String> list = Arrays.asList(new String[] {
+            ".*a.*", ".*b.*", ".*(.)\\1.*"});
+        MultiRegexMatcher m = new MultiRegexMatcher(list);
+        assertTrue(m.isFor(new ArrayList<String>(list)));
+        assertFalse(m.isFor(list.subList(0, 2)));
+        assertTrue(m.matchesAny("xa"));
+        assertFalse(m.matchesAny("xy"));
+        assertTrue(m.matchesAny("xx"));
+        assertTrue(m.matchesAll("abb"));
+        assertFalse(m.matchesAll("ab"));
+        assertFalse(m.matchesAll("bb"));
+        MultiRegexMatcher empty =
+            new MultiRegexMatcher(new ArrayList<String>());
+        assertFalse(empty.matchesAny("x"));
+        assertTrue(empty.matchesAll("x"));
+    }
+
+    public void testRandomExpressions() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            String[] patterns = new String[20];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = randomRegex(random, 3);
+            }
+            String[] inputs = new String[100];
+            for (int i = 0; i < inputs.length; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int len = random.nextInt(8); len > 0; len--) {
+                    sb.append("abcAB-\n".charAt(random.nextInt(7)));
+                }
+                inputs[i] = sb.toString();
+            }
+            assertEquivalent(patterns, new MultiRegexMatcher(
+                Arrays.asList(patterns)), inputs);
+        }
+    }
+
+    public void testManyStates() {
+        // needs far more deterministic states than are kept at once
+        String[] patterns = {".*a.{14}", ".*b.{13}"};
+        MultiRegexMatcher m = new MultiRegexMatcher(Arrays.asList(patterns));
+        Random random = new Random(7);
+        String[] inputs = new String[300];
+        for (int i = 0; i < inputs.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int len = 100; len > 0; len--) {
+                sb.append(random.nextBoolean() ? 'a': 'b');
+            }
+            inputs[i] = sb.toString();
+        }
+        assertEquivalent(patterns, m, inputs);
+    }
+
+    protected String randomRegex(Random random, int depth) {
+        switch (depth <= 0 ? random.nextInt(4) : random.nextInt(9)) {
+            case 0: return "abc".substring(random.nextInt(3)).substring(0, 1);
+            case 1: return ".";
+            case 2: return "[^b]";
+            case 3: return "[a-c]";
+            case 4: return randomRegex(random, depth - 1)
+                + randomRegex(random, depth - 1);
+            case 5: return "(" + randomRegex(random, depth - 1) + "|"
+                + randomRegex(random, depth - 1) + ")";
+            case 6: return "(?:" + randomRegex(random, depth - 1) + ")*";
+            case 7: return "(" + randomRegex(random, depth - 1) + ")"
+                + new String[] {"+", "?", "{2}", "{1,3}", "+?"}
+                    [random.nextInt(5)];
+            default: return "(?i)" + randomRegex(random, 0);
+        }
+    }
+
+    protected void assertEquivalent(String[] patterns, MultiRegexMatcher m,
+            String[] inputs) {
+        // twice, the second time over already built states
+        for (int pass = 0; pass < 2; pass++) {
+            for (String input: inputs) {
+                BitSet expected = new BitSet();
+                for (int i = 0; i < patterns.length; i++) {
+                    if (Pattern.compile(patterns[i]).matcher(input)
+                            .matches()) {
+                        expected.set(i);
+                    }
+                }
+                String msg = Arrays.asList(patterns) + " on '" + input + "'";
+                assertEquals(msg, expected, m.matching(input));
+                assertEquals(msg, !expected.isEmpty(), m.matchesAny(input));
+                assertEquals(msg, expected.cardinality() == patterns.length,
+                    m.matchesAll(input));
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.security.MessageDigest;
+
+/**
+ * The 128-bit x64 variant of Austin Appleby's MurmurHash3, seed 0, as a
+ * {@link MessageDigest}. Several times faster than MD5 or SHA-1, but not
+ * cryptographic: suited to keys for spotting duplicate content, not to
+ * digests others must trust.
+ *
+ * The digest is h1 then h2, each little-endian, as the reference
+ * implementation lays them out on x86.
+ */
+public class MurmurHash3Digest extends MessageDigest {
+    /** algorithm name, as given to the constructor */
+    public static final String ALGORITHM = "murmur3-128";
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    /** bytes short of a whole block */
+    private final byte[] tail = new byte[16];
+    private int tailLength;
+
+    public MurmurHash3Digest() {
+        super(ALGORITHM);
+    }
+
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    protected void engineReset() {
+        this.h1 = 0;
+        this.h2 = 0;
+        this.length = 0;
+        this.tailLength = 0;
+    }
+
+    protected void engineUpdate(byte input) {
+        this.tail[this.tailLength++] = input;
+        this.length++;
+        if (this.tailLength == 16) {
+            block(this.tail, 0);
+            this.tailLength = 0;
+        }
+    }
+
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        this.length += len;
+        int end = offset + len;
+        if (this.tailLength > 0) {
+            int fill = Math.min(16 - this.tailLength, len);
+            System.arraycopy(input, offset, this.tail, this.tailLength, fill);
+            this.tailLength += fill;
+            offset += fill;
+            if (this.tailLength < 16) {
+                return;
+            }
+            block(this.tail, 0);
+            this.tailLength = 0;
+        }
+        for (; offset + 16 <= end; offset += 16) {
+            block(input, offset);
+        }
+        this.tailLength = end - offset;
+        System.arraycopy(input, offset, this.tail, 0, this.tailLength);
+    }
+
+    private void block(byte[] b, int off) {
+        long k1 = getLong(b, off);
+        long k2 = getLong(b, off + 8);
+
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = this.tailLength - 1; i >= 8; i--) {
+            k2 ^= (this.tail[i] & 0xffL) << ((i - 8) * 8);
+        }
+        if (this.tailLength > 8) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        for (int i = Math.min(this.tailLength, 8) - 1; i >= 0; i--) {
+            k1 ^= (this.tail[i] & 0xffL) << (i * 8);
+        }
+        if (this.tailLength > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= this.length;
+        h2 ^= this.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] digest = new byte[16];
+        putLong(digest, 0, h1);
+        putLong(digest, 8, h2);
+        engineReset();
+        return digest;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return (b[off] & 0xffL)
+            | (b[off + 1] & 0xffL) << 8
+            | (b[off + 2] & 0xffL) << 16
+            | (b[off + 3] & 0xffL) << 24
+            | (b[off + 4] & 0xffL) << 32
+            | (b[off + 5] & 0xffL) << 40
+            | (b[off + 6] & 0xffL) << 48
+            | (b[off + 7] & 0xffL) << 56;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte)(v >>> (8 * i));
+        }
+    }
+}
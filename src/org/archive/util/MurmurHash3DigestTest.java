@@ -0,0 +1,76 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for MurmurHash3Digest.
+ */
+public class MurmurHash3DigestTest extends TestCase {
+
+    public void testKnownValues() throws Exception {
+        MessageDigest md = new MurmurHash3Digest();
+        assertEquals("00000000000000000000000000000000",
+            hex(md.digest(new byte[0])));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hex(md.digest(
+            "The quick brown fox jumps over the lazy dog".getBytes("UTF-8"))));
+        // digest() resets for reuse
+        assertEquals("029bbd41b3a7d8cb191dae486a901e5b",
+            hex(md.digest("hello".getBytes("UTF-8"))));
+    }
+
+    public void testPiecewiseUpdates() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i * 7 + 3);
+        }
+        MessageDigest md = new MurmurHash3Digest();
+        for (int len = 0; len < 70; len++) {
+            md.update(data, 0, len);
+            byte[] whole = md.digest();
+            // pieces of every alignment relative to the 16-byte blocks
+            for (int piece = 1; piece <= 17; piece++) {
+                for (int off = 0; off < len; off += piece) {
+                    md.update(data, off, Math.min(piece, len - off));
+                }
+                assertTrue("len " + len + " piece " + piece,
+                    Arrays.equals(whole, md.digest()));
+            }
+            for (int i = 0; i < len; i++) {
+                md.update(data[i]);
+            }
+            assertTrue("bytewise len " + len,
+                Arrays.equals(whole, md.digest()));
+        }
+    }
+
+    private static String hex(byte[] b) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < b.length; i++) {
+            sb.append(Character.forDigit((b[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,472 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+
+/**
+ * A BDB JE backed object cache holding at most a fixed number of
+ * instances in its in-memory map, evicted by the CLOCK (second-chance)
+ * policy. (Up to as many recently evicted values are held besides.)
+ *
+ * Unlike ObjectIdentityBdbCache, eviction does not wait on the garbage
+ * collector clearing soft references, and no reflective or finalizer
+ * hooks are used: when a miss finds the cache full, the clock hand
+ * sweeps past (and clears the 'referenced' mark of) recently-used
+ * entries until it finds one not used since its last pass, whose value
+ * is then written to the deferred-write BDB database and dropped from
+ * the cache. Cache hits take no lock; they only set the entry's mark.
+ *
+ * An evicted value may still be in use elsewhere, and be changed after
+ * it was written: a WorkQueue held through a long fetch, say. Nothing
+ * portable reports when such a value is finally dropped (the referent
+ * of a cleared reference can no longer be read), so evicted values stay
+ * strongly held, up to the maximum size of the cache, oldest first out.
+ * A get() meanwhile returns (and readmits) the same instance. A value
+ * released from that hold, or by a sync(), is written again, then
+ * remembered only by weak reference: still returned by get() and
+ * written by later syncs while something else holds it. A value changed
+ * after so many further evictions, and dropped before the next sync(),
+ * loses the change; values in use that long are expected to be obtained
+ * through get() again before further changes.
+ *
+ * The maximum size may be given to the constructor, or else is taken
+ * from the system property
+ *
+ *  org.archive.util.ObjectIdentityBoundedBdbCache.max-size (default 10000)
+ *
+ * @param <V>
+ */
+public class ObjectIdentityBoundedBdbCache<V>
+implements ObjectIdentityCache<String, V>, Closeable, Serializable {
+    private static final long serialVersionUID = 3472960839218835211L;
+    private static final Logger logger =
+        Logger.getLogger(ObjectIdentityBoundedBdbCache.class.getName());
+
+    public static final String MAX_SIZE_KEY = ".max-size";
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The BDB JE database used for this instance. */
+    protected transient Database db;
+
+    /** The Collection view of the BDB JE database used for this instance. */
+    protected transient StoredSortedMap<String, V> diskMap;
+
+    /** in-memory map of cached instances */
+    protected transient ConcurrentHashMap<String,Node<V>> memMap;
+
+    /** cached entries in clock order; guarded by this */
+    protected transient Node<V>[] ring;
+    protected transient int ringSize;
+    protected transient int hand;
+
+    /**
+     * values most recently evicted, possibly still changing, oldest
+     * first; at most maxSize; guarded by this
+     */
+    protected transient LinkedHashMap<String,V> pinned;
+
+    /** values evicted before the last sync(), possibly still in use */
+    protected transient ConcurrentHashMap<String,EvictedRef<V>> evicted;
+    protected transient ReferenceQueue<V> evictedQueue;
+
+    /** maximum instances held in memory */
+    protected int maxSize;
+
+    protected AtomicLong count;
+
+    //
+    // USAGE STATS
+    //
+    /** Count of times the {@link #getOrUse} method was called. */
+    private AtomicLong countOfGets = new AtomicLong(0);
+    /** Count of times we got an object from the in-memory cache */
+    private AtomicLong cacheHit = new AtomicLong(0);
+    /** Count of times an evicted but still-live object was returned */
+    private AtomicLong rescueHit = new AtomicLong(0);
+    /** Count of every time disk-based map provided non-null object */
+    private AtomicLong diskHit = new AtomicLong(0);
+    /** Count of times Supplier was used for new object */
+    private AtomicLong supplierUsed = new AtomicLong(0);
+    /** Count of evictions (each a put() to BDB) */
+    private AtomicLong evictions = new AtomicLong(0);
+    /** count of {@link #sync()} use */
+    private AtomicLong useStatsSyncUsed = new AtomicLong(0);
+
+    /**
+     * Constructor, taking maximum size from system property. You must
+     * call {@link #initialize(Environment, String, Class, StoredClassCatalog)}
+     * to finish construction.
+     */
+    public ObjectIdentityBoundedBdbCache() {
+        this(Integer.getInteger(ObjectIdentityBoundedBdbCache.class.getName()
+                + MAX_SIZE_KEY, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Constructor. You must call
+     * {@link #initialize(Environment, String, Class, StoredClassCatalog)}
+     * to finish construction.
+     *
+     * @param maxSize maximum number of instances to hold in memory
+     */
+    public ObjectIdentityBoundedBdbCache(int maxSize) {
+        super();
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Call this method after construction, or on a deserialized instance
+     * to reconnect it with an extant bdbje environment.
+     * @param env
+     * @param dbName
+     * @param valueClass
+     * @param classCatalog
+     * @throws DatabaseException
+     */
+    @SuppressWarnings("unchecked")
+    public void initialize(final Environment env, String dbName,
+            final Class valueClass, final StoredClassCatalog classCatalog)
+    throws DatabaseException {
+        this.memMap = new ConcurrentHashMap<String,Node<V>>(
+                maxSize + maxSize / 3 + 1, 0.75f, 64);
+        this.ring = new Node[maxSize];
+        this.ringSize = 0;
+        this.hand = 0;
+        this.pinned = new LinkedHashMap<String,V>();
+        this.evicted = new ConcurrentHashMap<String,EvictedRef<V>>();
+        this.evictedQueue = new ReferenceQueue<V>();
+
+        this.db = openDatabase(env, dbName);
+        this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
+        this.count = new AtomicLong(diskMap.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected StoredSortedMap<String, V> createDiskMap(Database database,
+            StoredClassCatalog classCatalog, Class valueClass) {
+        EntryBinding keyBinding = TupleBinding.getPrimitiveBinding(String.class);
+        EntryBinding valueBinding = TupleBinding.getPrimitiveBinding(valueClass);
+        if(valueBinding == null) {
+            valueBinding = new SerialBinding(classCatalog, valueClass);
+        }
+        return new StoredSortedMap<String,V>(database, keyBinding, valueBinding, true);
+    }
+
+    protected Database openDatabase(final Environment environment,
+            final String dbName) throws DatabaseException {
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        return environment.openDatabase(null, dbName, dbConfig);
+    }
+
+    public synchronized void close() {
+        if (this.db != null) {
+            try {
+                sync();
+                this.db.close();
+            } catch (DatabaseException e) {
+                logger.log(Level.WARNING,
+                    "problem closing ObjectIdentityBoundedBdbCache", e);
+            } finally {
+                this.db = null;
+            }
+        }
+    }
+
+    public V get(final String key) {
+        return getOrUse(key, null);
+    }
+
+    public V getOrUse(final String key, Supplier<V> supplierOrNull) {
+        if (countOfGets.incrementAndGet() % 10000 == 0) {
+            logCacheSummary();
+        }
+
+        // the concurrent garden path: in mem
+        Node<V> node = memMap.get(key);
+        if (node != null) {
+            node.referenced = true;
+            cacheHit.incrementAndGet();
+            return node.value;
+        }
+
+        synchronized (this) {
+            // recheck -- another thread may have admitted key meanwhile
+            node = memMap.get(key);
+            if (node != null) {
+                node.referenced = true;
+                cacheHit.incrementAndGet();
+                return node.value;
+            }
+            expungeCollected();
+
+            V val = pinned.remove(key);
+            EvictedRef<V> ref = evicted.remove(key);
+            if (val == null && ref != null) {
+                val = ref.get();
+            }
+            if (val != null) {
+                // evicted, but still in use elsewhere: same instance
+                rescueHit.incrementAndGet();
+            } else {
+                val = diskMap.get(key);
+                if (val == null) {
+                    if (supplierOrNull == null) {
+                        return null;
+                    }
+                    val = supplierOrNull.get();
+                    supplierUsed.incrementAndGet();
+                    // putting initial value directly into diskMap
+                    // ensures diskMap.keySet() provides complete view
+                    diskMap.put(key, val);
+                    count.incrementAndGet();
+                } else {
+                    diskHit.incrementAndGet();
+                }
+            }
+            admit(key, val);
+            return val;
+        }
+    }
+
+    /**
+     * Place a value in the cache, evicting another if full. Caller must
+     * hold this object's monitor.
+     */
+    protected void admit(String key, V val) {
+        Node<V> node = new Node<V>(key, val);
+        if (ringSize < maxSize) {
+            ring[ringSize++] = node;
+        } else {
+            // second chance for all marked since the hand last passed
+            while (ring[hand].referenced) {
+                ring[hand].referenced = false;
+                hand = (hand + 1) % maxSize;
+            }
+            evict(ring[hand]);
+            ring[hand] = node;
+            hand = (hand + 1) % maxSize;
+        }
+        memMap.put(key, node);
+    }
+
+    /**
+     * Write the given entry's value to disk and drop it from the cache.
+     * Caller must hold this object's monitor.
+     */
+    protected void evict(Node<V> victim) {
+        diskMap.put(victim.key, victim.value);
+        evictions.incrementAndGet();
+        // remember before forgetting, so lock-free readers missing in
+        // memMap will find the same instance here; hold on to it for a
+        // while in case it changes yet
+        pinned.put(victim.key, victim.value);
+        memMap.remove(victim.key);
+        if (pinned.size() > maxSize) {
+            Iterator<Map.Entry<String,V>> iter =
+                pinned.entrySet().iterator();
+            release(iter.next());
+            iter.remove();
+        }
+    }
+
+    /**
+     * Write a pinned value again, then remember it only by weak
+     * reference. Caller must hold this object's monitor, and remove the
+     * entry from pinned.
+     */
+    protected void release(Map.Entry<String,V> e) {
+        diskMap.put(e.getKey(), e.getValue());
+        evicted.put(e.getKey(),
+            new EvictedRef<V>(e.getKey(), e.getValue(), evictedQueue));
+    }
+
+    /**
+     * Forget evicted values which have since been collected.
+     */
+    @SuppressWarnings("unchecked")
+    protected void expungeCollected() {
+        for (EvictedRef<V> ref; (ref = (EvictedRef<V>)evictedQueue.poll()) != null;) {
+            evicted.remove(ref.key, ref);
+        }
+    }
+
+    public Set<String> keySet() {
+        return diskMap.keySet();
+    }
+
+    public int size() {
+        if(db==null) {
+            return 0;
+        }
+        return (int) count.get();
+    }
+
+    /**
+     * Sync all in-memory and evicted-but-live values to backing disk
+     * store, then hold on to all evicted values only by weak reference.
+     */
+    public synchronized void sync() {
+        useStatsSyncUsed.incrementAndGet();
+        long startTime = System.currentTimeMillis();
+        for (Node<V> node : memMap.values()) {
+            diskMap.put(node.key, node.value);
+        }
+        expungeCollected();
+        for (Map.Entry<String,EvictedRef<V>> e : evicted.entrySet()) {
+            V val = e.getValue().get();
+            if (val != null) {
+                diskMap.put(e.getKey(), val);
+            }
+        }
+        for (Map.Entry<String,V> e : pinned.entrySet()) {
+            release(e);
+        }
+        pinned.clear();
+        try {
+            this.db.sync();
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info(getDatabaseName() + " sync took " +
+                (System.currentTimeMillis() - startTime) + "ms. " +
+                composeCacheSummary());
+        }
+    }
+
+    protected String getDatabaseName() {
+        String name = "DbName-Lookup-Failed";
+        try {
+            if (this.db != null) {
+                name = this.db.getDatabaseName();
+            }
+        } catch (DatabaseException e) {
+            // Ignore.
+        }
+        return name;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHit.get();
+    }
+
+    public long getRescueCount() {
+        return rescueHit.get();
+    }
+
+    public long getMissCount() {
+        return diskHit.get() + supplierUsed.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Info to log, if at FINE level
+     */
+    private void logCacheSummary() {
+        if (logger.isLoggable((Level.FINE))) {
+            logger.fine(composeCacheSummary());
+        }
+    }
+
+    private String composeCacheSummary() {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("DB name:")
+          .append(getDatabaseName())
+          .append(", mem=")
+          .append(memMap.size())
+          .append("/")
+          .append(maxSize)
+          .append(" gets=")
+          .append(countOfGets.get())
+          .append(" memHits=")
+          .append(cacheHit.get())
+          .append(" rescues=")
+          .append(rescueHit.get())
+          .append(" diskHits=")
+          .append(diskHit.get())
+          .append(" supplieds=")
+          .append(supplierUsed.get())
+          .append(" evictions=")
+          .append(evictions.get())
+          .append(" pinned=")
+          .append(pinned.size())
+          .append(" syncs=")
+          .append(useStatsSyncUsed.get());
+        return sb.toString();
+    }
+
+    /**
+     * Cache entry.
+     */
+    protected static class Node<V> {
+        final String key;
+        final V value;
+        /** set on every hit; cleared as the clock hand passes */
+        volatile boolean referenced = false;
+
+        Node(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Weak reference to an evicted value, remembering its key.
+     */
+    protected static class EvictedRef<V> extends WeakReference<V> {
+        final String key;
+
+        EvictedRef(String key, V referent, ReferenceQueue<V> q) {
+            super(referent, q);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Test ObjectIdentityBoundedBdbCache.
+ */
+public class ObjectIdentityBoundedBdbCacheTest extends TmpDirTestCase {
+    File envDir;
+    EnhancedEnvironment env;
+    ObjectIdentityBoundedBdbCache<AtomicLong> cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.envDir = new File(getTmpDir(), "ObjectIdentityBoundedBdbCacheTest");
+        FileUtils.deleteDir(this.envDir);
+        this.envDir.mkdirs();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        this.env = new EnhancedEnvironment(this.envDir, envConfig);
+        this.cache = new ObjectIdentityBoundedBdbCache<AtomicLong>(10);
+        this.cache.initialize(env, "test", AtomicLong.class,
+            env.getClassCatalog());
+    }
+
+    protected void tearDown() throws Exception {
+        this.cache.close();
+        this.env.close();
+        FileUtils.deleteDir(this.envDir);
+        super.tearDown();
+    }
+
+    protected AtomicLong getOrCreate(String key) {
+        return cache.getOrUse(key, new Supplier<AtomicLong>() {
+            public AtomicLong get() {
+                return new AtomicLong(0);
+            }
+        });
+    }
+
+    public void testEvictionWritesBehind() {
+        for (int i = 0; i < 100; i++) {
+            getOrCreate("key" + i).set(i);
+        }
+        assertEquals("size", 100, cache.size());
+        assertEquals("evictions", 90, cache.getEvictionCount());
+        // drop evicted-but-live instances, so values come from disk
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value " + i, i, cache.get("key" + i).get());
+        }
+        assertNull(cache.get("absent"));
+    }
+
+    public void testIdentityPreservedAcrossEviction() {
+        AtomicLong held = getOrCreate("held");
+        for (int i = 0; i < 100; i++) {
+            getOrCreate("key" + i);
+        }
+        held.set(42);
+        assertSame("same instance while referenced", held,
+            cache.get("held"));
+        assertTrue("rescued", cache.getRescueCount() > 0);
+        cache.sync();
+        assertEquals(42, cache.get("held").get());
+    }
+
+    public void testRecentlyUsedSurvives() {
+        AtomicLong hot = getOrCreate("hot");
+        long hitsBefore;
+        for (int i = 0; i < 100; i++) {
+            getOrCreate("key" + i);
+            // keep 'hot' marked as used
+            cache.get("hot");
+        }
+        hitsBefore = cache.getCacheHitCount();
+        assertSame(hot, cache.get("hot"));
+        assertEquals("hot still cached", hitsBefore + 1,
+            cache.getCacheHitCount());
+    }
+
+    public void testChangeAfterEvictionKept() {
+        AtomicLong held = getOrCreate("held");
+        held.set(1);
+        // evicted, but not yet released from the pinned hold
+        for (int i = 0; i < 15; i++) {
+            getOrCreate("key" + i);
+        }
+        assertEquals("evicted", 1, cache.diskMap.get("held").get());
+        // changed after eviction wrote it, then dropped
+        held.set(2);
+        held = null;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        assertEquals("change not lost", 2, cache.get("held").get());
+        for (int i = 0; i < 100; i++) {
+            getOrCreate("key" + i);
+        }
+        cache.sync();
+        assertEquals("change written", 2, cache.diskMap.get("held").get());
+    }
+
+    public void testPinnedBounded() {
+        AtomicLong held = getOrCreate("held");
+        held.set(1);
+        for (int i = 0; i < 15; i++) {
+            getOrCreate("key" + i);
+        }
+        assertEquals("evicted", 1, cache.diskMap.get("held").get());
+        held.set(2);
+        // many more evictions, and no sync()
+        for (int i = 15; i < 1000; i++) {
+            getOrCreate("key" + i);
+        }
+        // strongly held: the cache and the pinned values, at most
+        assertTrue("cached " + cache.memMap.size(),
+            cache.memMap.size() <= 10);
+        assertTrue("pinned " + cache.pinned.size(),
+            cache.pinned.size() <= 10);
+        assertEquals("change written on release", 2,
+            cache.diskMap.get("held").get());
+        held = null;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        // a miss forgets collected values
+        assertNull(cache.get("absent"));
+        assertTrue("evicted " + cache.evicted.size(),
+            cache.evicted.size() < 500);
+        assertEquals(2, cache.get("held").get());
+    }
+}
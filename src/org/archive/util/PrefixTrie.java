@@ -0,0 +1,516 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of String prefixes held as a compressed (radix) trie
+ * in flat int and char buffers, with the same semantics as
+ * {@link PrefixSet}: redundant entries (those prefixed by another
+ * entry) are dropped, and {@link #containsPrefixOf(String)} tests
+ * whether any entry is a prefix of a given string.
+ *
+ * A lookup costs one step per trie edge along the candidate string,
+ * independent of the number of entries, and takes no locks. Shared
+ * leading characters (as in SURT prefixes under common domains) are
+ * stored once.
+ *
+ * Nodes are laid out breadth-first so that each node's children are
+ * contiguous and sorted by first label character. Each node is four
+ * ints: label start and length in the char buffer, index of first
+ * child, and child count shifted left one bit with the low bit marking
+ * a terminal (an entry ends here).
+ *
+ * The same layout is written by {@link #writeTo(File)} and can be
+ * memory-mapped by {@link #map(File)}, so a large prebuilt scope need
+ * not be parsed or held on the Java heap.
+ */
+public class PrefixTrie implements Iterable<String> {
+    /** 'HTXPTRIE' */
+    protected static final long MAGIC = 0x4854585054524945L;
+    protected static final int VERSION = 1;
+    /** magic, version, size, node count, char count */
+    protected static final int HEADER_BYTES = 8 + 4 + 4 + 4 + 4;
+
+    protected static final int NODE_INTS = 4;
+
+    /** node records */
+    protected final IntBuffer nodes;
+    /** edge labels */
+    protected final CharBuffer chars;
+    /** number of entries */
+    protected final int size;
+
+    protected PrefixTrie(IntBuffer nodes, CharBuffer chars, int size) {
+        this.nodes = nodes;
+        this.chars = chars;
+        this.size = size;
+    }
+
+    /**
+     * Build a trie from strings in ascending order, as iterated from a
+     * {@link PrefixSet}. Strings prefixed by an earlier string are
+     * skipped.
+     *
+     * @param sorted strings in ascending (String.compareTo) order
+     * @return new trie
+     * @throws IllegalArgumentException if strings are out of order
+     */
+    public static PrefixTrie build(Iterator<String> sorted) {
+        List<String> entries = new ArrayList<String>();
+        String last = null;
+        while (sorted.hasNext()) {
+            String s = sorted.next();
+            if (last != null) {
+                if (s.compareTo(last) < 0) {
+                    throw new IllegalArgumentException("out of order: "
+                        + s + " after " + last);
+                }
+                if (s.startsWith(last)) {
+                    // redundant; prefix already present
+                    continue;
+                }
+            }
+            entries.add(s);
+            last = s;
+        }
+        return build(entries);
+    }
+
+    /**
+     * @param set prefixes to hold
+     * @return new trie holding the same prefixes
+     */
+    public static PrefixTrie build(PrefixSet set) {
+        return build(set.iterator());
+    }
+
+    /**
+     * Lay out a trie over sorted, non-redundant entries.
+     */
+    protected static PrefixTrie build(List<String> entries) {
+        int n = entries.size();
+        // at most one leaf and one branch node per entry, plus root
+        int[] nodeInts = new int[(2 * n + 1) * NODE_INTS];
+        StringBuilder labels = new StringBuilder();
+        // pending nodes: index, range of entries, depth
+        int[] queue = new int[(2 * n + 1) * 4];
+        int head = 0;
+        int tail = 0;
+        int nodeCount = 1;
+        queue[tail++] = 0;
+        queue[tail++] = 0;
+        queue[tail++] = n;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int node = queue[head++];
+            int lo = queue[head++];
+            int hi = queue[head++];
+            int depth = queue[head++];
+            int base = node * NODE_INTS;
+            if (hi - lo == 1 && entries.get(lo).length() == depth) {
+                // entry ends here
+                nodeInts[base + 2] = 0;
+                nodeInts[base + 3] = 1;
+                continue;
+            }
+            int first = nodeCount;
+            int childCount = 0;
+            int i = lo;
+            while (i < hi) {
+                char c = entries.get(i).charAt(depth);
+                int j = i + 1;
+                while (j < hi && entries.get(j).charAt(depth) == c) {
+                    j++;
+                }
+                // sorted, so first and last share what the group shares
+                String a = entries.get(i);
+                String b = entries.get(j - 1);
+                int end = depth + 1;
+                int max = Math.min(a.length(), b.length());
+                while (end < max && a.charAt(end) == b.charAt(end)) {
+                    end++;
+                }
+                int child = nodeCount++;
+                int childBase = child * NODE_INTS;
+                nodeInts[childBase] = labels.length();
+                nodeInts[childBase + 1] = end - depth;
+                labels.append(a, depth, end);
+                queue[tail++] = child;
+                queue[tail++] = i;
+                queue[tail++] = j;
+                queue[tail++] = end;
+                childCount++;
+                i = j;
+            }
+            nodeInts[base + 2] = first;
+            nodeInts[base + 3] = childCount << 1;
+        }
+        int[] trimmed = new int[nodeCount * NODE_INTS];
+        System.arraycopy(nodeInts, 0, trimmed, 0, trimmed.length);
+        char[] labelChars = new char[labels.length()];
+        labels.getChars(0, labelChars.length, labelChars, 0);
+        return new PrefixTrie(IntBuffer.wrap(trimmed),
+            CharBuffer.wrap(labelChars), n);
+    }
+
+    /**
+     * Test whether the given String is prefixed by one of this trie's
+     * entries.
+     *
+     * @param s String to test
+     * @return True if contains prefix.
+     */
+    public boolean containsPrefixOf(String s) {
+        int node = 0;
+        int pos = 0;
+        int len = s.length();
+        for (;;) {
+            int base = node * NODE_INTS;
+            int countAndTerminal = nodes.get(base + 3);
+            if ((countAndTerminal & 1) != 0) {
+                return true;
+            }
+            if (pos >= len) {
+                return false;
+            }
+            // binary search children on first label char
+            char c = s.charAt(pos);
+            int lo = nodes.get(base + 2);
+            int hi = lo + (countAndTerminal >>> 1) - 1;
+            int child = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char m = chars.get(nodes.get(mid * NODE_INTS));
+                if (m < c) {
+                    lo = mid + 1;
+                } else if (m > c) {
+                    hi = mid - 1;
+                } else {
+                    child = mid;
+                    break;
+                }
+            }
+            if (child < 0) {
+                return false;
+            }
+            int childBase = child * NODE_INTS;
+            int start = nodes.get(childBase);
+            int labelLen = nodes.get(childBase + 1);
+            if (len - pos < labelLen) {
+                return false;
+            }
+            for (int k = 1; k < labelLen; k++) {
+                if (chars.get(start + k) != s.charAt(pos + k)) {
+                    return false;
+                }
+            }
+            pos += labelLen;
+            node = child;
+        }
+    }
+
+    /**
+     * @return number of (non-redundant) prefixes held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of trie nodes
+     */
+    public int getNodeCount() {
+        return nodes.limit() / NODE_INTS;
+    }
+
+    /**
+     * @return approximate bytes of node and label storage
+     */
+    public long getStorageBytes() {
+        return nodes.limit() * 4L + chars.limit() * 2L;
+    }
+
+    /**
+     * Return a trie which also holds the given prefixes. If every one is
+     * already covered by this trie, this trie itself (possibly mapped)
+     * is returned.
+     *
+     * @param more additional prefixes, in any order
+     * @return trie holding the union
+     */
+    public PrefixTrie merge(Collection<String> more) {
+        PrefixSet added = new PrefixSet();
+        for (String s : more) {
+            if (!containsPrefixOf(s)) {
+                added.add(s);
+            }
+        }
+        if (added.isEmpty()) {
+            return this;
+        }
+        final Iterator<String> a = iterator();
+        final Iterator<String> b = added.iterator();
+        return build(new Iterator<String>() {
+            String nextA = a.hasNext() ? a.next() : null;
+            String nextB = b.hasNext() ? b.next() : null;
+            public boolean hasNext() {
+                return nextA != null || nextB != null;
+            }
+            public String next() {
+                String s;
+                if (nextB == null
+                        || (nextA != null && nextA.compareTo(nextB) <= 0)) {
+                    s = nextA;
+                    nextA = a.hasNext() ? a.next() : null;
+                } else {
+                    s = nextB;
+                    nextB = b.hasNext() ? b.next() : null;
+                }
+                return s;
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * @return iterator over entries in ascending order
+     */
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            /** pending (node, depth) pairs, deepest last */
+            int[] stack = new int[64];
+            int top = 0;
+            StringBuilder path = new StringBuilder();
+            String next;
+            {
+                push(0, 0);
+                advance();
+            }
+
+            void push(int node, int depth) {
+                if (top + 2 > stack.length) {
+                    int[] bigger = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, bigger, 0, top);
+                    stack = bigger;
+                }
+                stack[top++] = node;
+                stack[top++] = depth;
+            }
+
+            void advance() {
+                next = null;
+                while (top > 0 && next == null) {
+                    int depth = stack[--top];
+                    int node = stack[--top];
+                    int base = node * NODE_INTS;
+                    path.setLength(depth);
+                    if (node != 0) {
+                        int start = nodes.get(base);
+                        int labelLen = nodes.get(base + 1);
+                        for (int k = 0; k < labelLen; k++) {
+                            path.append(chars.get(start + k));
+                        }
+                    }
+                    int countAndTerminal = nodes.get(base + 3);
+                    if ((countAndTerminal & 1) != 0) {
+                        if (size > 0) {
+                            next = path.toString();
+                        }
+                        continue;
+                    }
+                    int first = nodes.get(base + 2);
+                    // push in reverse so first child is visited first
+                    for (int c = (countAndTerminal >>> 1) - 1; c >= 0; c--) {
+                        push(first + c, path.length());
+                    }
+                }
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String s = next;
+                advance();
+                return s;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Write entries one per line.
+     *
+     * @param w Writer to write to
+     * @throws IOException
+     */
+    public void exportTo(Writer w) throws IOException {
+        for (String s : this) {
+            w.write(s + "\n");
+        }
+    }
+
+    /**
+     * Write this trie in the form read by {@link #map(File)}.
+     *
+     * @param file destination
+     * @throws IOException
+     */
+    public void writeTo(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+        try {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(nodes.limit() / NODE_INTS);
+            out.writeInt(chars.limit());
+            for (int i = 0; i < nodes.limit(); i++) {
+                out.writeInt(nodes.get(i));
+            }
+            for (int i = 0; i < chars.limit(); i++) {
+                out.writeChar(chars.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param file file to test
+     * @return true if the file begins as a trie written by
+     *         {@link #writeTo(File)}
+     */
+    public static boolean isTrieFile(File file) {
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return false;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return raf.readLong() == MAGIC;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Map a trie file written by {@link #writeTo(File)} read-only into
+     * memory.
+     *
+     * @param file trie file
+     * @return trie backed by the mapped file
+     * @throws IOException if the file is not a readable trie
+     */
+    public static PrefixTrie map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getLong() != MAGIC) {
+                throw new IOException("not a prefix trie: " + file);
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported prefix trie version "
+                    + version + ": " + file);
+            }
+            int size = buf.getInt();
+            int nodeCount = buf.getInt();
+            int charCount = buf.getInt();
+            long expected = HEADER_BYTES + nodeCount * (long)NODE_INTS * 4
+                + charCount * 2L;
+            if (channel.size() != expected) {
+                throw new IOException("truncated prefix trie: " + file);
+            }
+            buf.position(HEADER_BYTES);
+            ByteBuffer nodeBytes = buf.slice();
+            nodeBytes.limit(nodeCount * NODE_INTS * 4);
+            buf.position(HEADER_BYTES + nodeCount * NODE_INTS * 4);
+            ByteBuffer charBytes = buf.slice();
+            return new PrefixTrie(nodeBytes.asIntBuffer(),
+                charBytes.asCharBuffer(), size);
+        } finally {
+            // mapping remains valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Command-line tool to convert a SURT prefix source file -- in the
+     * mixed URI and '+'-prefixed SURT format accepted by
+     * SurtPrefixedDecideRule -- into a mappable trie file.
+     *
+     * @param args input source file, output trie file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PrefixTrie SURTS_SOURCE_FILE TRIE_FILE");
+            System.exit(1);
+        }
+        SurtPrefixSet set = new SurtPrefixSet();
+        Reader reader = new InputStreamReader(
+            new FileInputStream(args[0]), "UTF-8");
+        try {
+            set.importFromMixed(reader, true);
+        } finally {
+            reader.close();
+        }
+        PrefixTrie trie = build(set);
+        trie.writeTo(new File(args[1]));
+        System.out.println(trie.size() + " prefixes, "
+            + trie.getNodeCount() + " nodes written to " + args[1]);
+    }
+}
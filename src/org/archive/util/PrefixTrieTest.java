@@ -0,0 +1,131 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Test PrefixTrie against the equivalent PrefixSet.
+ */
+public class PrefixTrieTest extends TmpDirTestCase {
+
+    protected PrefixSet randomSet(Random random, int count) {
+        PrefixSet set = new PrefixSet();
+        for (int i = 0; i < count; i++) {
+            set.add((char)('a' + random.nextInt(4)) + randomString(random));
+        }
+        return set;
+    }
+
+    protected String randomString(Random random) {
+        int len = random.nextInt(8);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append((char)('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    protected void assertEquivalent(PrefixSet set, PrefixTrie trie,
+            Random random) {
+        assertEquals("size", set.size(), trie.size());
+        Iterator<String> expected = set.iterator();
+        for (String s : trie) {
+            assertEquals(expected.next(), s);
+        }
+        assertFalse(expected.hasNext());
+        for (int i = 0; i < 2000; i++) {
+            String s = randomString(random) + randomString(random);
+            assertEquals(s, set.containsPrefixOf(s), trie.containsPrefixOf(s));
+        }
+    }
+
+    public void testRandomSets() {
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            PrefixSet set = randomSet(random, random.nextInt(40));
+            assertEquivalent(set, PrefixTrie.build(set), random);
+        }
+    }
+
+    public void testEmptyAndEmptyString() {
+        PrefixTrie empty = PrefixTrie.build(new PrefixSet());
+        assertEquals(0, empty.size());
+        assertFalse(empty.containsPrefixOf(""));
+        assertFalse(empty.containsPrefixOf("http://(org,"));
+        assertFalse(empty.iterator().hasNext());
+
+        PrefixSet set = new PrefixSet();
+        set.add("http://(org,archive,");
+        set.add("");
+        PrefixTrie all = PrefixTrie.build(set);
+        assertEquals(1, all.size());
+        assertTrue(all.containsPrefixOf(""));
+        assertTrue(all.containsPrefixOf("http://(com,example,"));
+    }
+
+    public void testOutOfOrder() {
+        try {
+            PrefixTrie.build(Arrays.asList(
+                new String[] {"b", "a"}).iterator());
+            fail("accepted unsorted input");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testMerge() {
+        Random random = new Random(2);
+        PrefixSet set = randomSet(random, 20);
+        PrefixTrie trie = PrefixTrie.build(set);
+        String covered = trie.iterator().next() + "zz";
+        assertSame("unchanged when covered", trie,
+            trie.merge(Collections.singleton(covered)));
+        PrefixSet more = randomSet(random, 20);
+        PrefixTrie merged = trie.merge(more);
+        set.addAll(more);
+        assertEquivalent(set, merged, random);
+    }
+
+    public void testWriteAndMap() throws Exception {
+        Random random = new Random(3);
+        PrefixSet set = randomSet(random, 200);
+        PrefixTrie trie = PrefixTrie.build(set);
+        File file = new File(getTmpDir(), "PrefixTrieTest.trie");
+        trie.writeTo(file);
+        try {
+            assertTrue(PrefixTrie.isTrieFile(file));
+            PrefixTrie mapped = PrefixTrie.map(file);
+            assertEquivalent(set, mapped, random);
+            StringWriter a = new StringWriter();
+            StringWriter b = new StringWriter();
+            trie.exportTo(a);
+            mapped.exportTo(b);
+            assertEquals(a.toString(), b.toString());
+        } finally {
+            file.delete();
+        }
+    }
+}
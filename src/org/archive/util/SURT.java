@@ -33,7 +33,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.util.regex.Matcher;
 
 /**
  * Sort-friendly URI Reordering Transform.
@@ -90,6 +89,11 @@ public class SURT {
     //       userinfo    = *( unreserved | escaped |
     //                     ";" | ":" | "&" | "=" | "+" | "$" | "," )
     //       escaped     = "%" hex hex
+    
+    /**
+     * Userinfo characters of URI_SPLITTER other than '\\w' ones.
+     */
+    static String USERINFO_MARKS = "-.!~*'()%;:&=+$,";
 
 
     /**
@@ -122,56 +126,186 @@ public class SURT {
      * @return SURT form 
      */
     public static String fromURI(String s, boolean preserveCase) {
-        Matcher m = TextUtils.getMatcher(URI_SPLITTER,s);
-        if(!m.matches()) {
+        // Find the URI_SPLITTER groups by hand: this is called several
+        // times for each URI a crawl discovers.
+        int length = s.length();
+        int schemeEnd = 0;
+        while (schemeEnd < length && isWordChar(s.charAt(schemeEnd))) {
+            schemeEnd++;
+        }
+        if (schemeEnd == 0 || !s.startsWith("://", schemeEnd)) {
             // not an authority-based URI scheme; return unchanged
-            TextUtils.recycleMatcher(m);
             return s;
         }
+        int authorityStart = schemeEnd + 3;
+        for (int i = authorityStart; i < length; i++) {
+            if (isWhitespace(s.charAt(i))) {
+                return s;
+            }
+        }
+        // host end, port end (path start), and whether a dotted quad
+        int[] split = new int[3];
+        int userinfoStart = authorityStart;
+        int at = s.indexOf('@', authorityStart);
+        int hostStart = at + 1;
+        if (at <= authorityStart || !isUserinfo(s, authorityStart, at)
+                || !splitHost(s, hostStart, split)) {
+            // no userinfo
+            userinfoStart = -1;
+            hostStart = authorityStart;
+            if (!splitHost(s, hostStart, split)) {
+                return s;
+            }
+        }
+        int hostEnd = split[0];
+        int portEnd = split[1];
+
         // preallocate enough space for SURT form, which includes
         // 3 extra characters ('(', ')', and one more ',' than '.'s
         // in original)
-        StringBuffer builder = new StringBuffer(s.length()+3);
-        append(builder,s,m.start(1),m.end(1)); // scheme://
+        StringBuilder builder = new StringBuilder(length + 3);
+        append(builder, s, 0, authorityStart, preserveCase); // scheme://
         builder.append(BEGIN_TRANSFORMED_AUTHORITY); // '('
         
-        if(m.start(4)>-1) {
+        if (split[2] != 0) {
             // dotted-quad ip match: don't reverse
-            append(builder,s,m.start(4),m.end(4));
+            append(builder, s, hostStart, hostEnd, preserveCase);
         } else {
             // other hostname match: do reverse
-            int hostSegEnd = m.end(5);
-            int hostStart = m.start(5); 
-            for(int i = m.end(5)-1; i>=hostStart; i--) {
+            int hostSegEnd = hostEnd;
+            for(int i = hostEnd-1; i>=hostStart; i--) {
                 if(s.charAt(i-1)!=DOT && i > hostStart) {
                     continue;
                 }
-                append(builder,s,i,hostSegEnd); // rev host segment
+                append(builder, s, i, hostSegEnd, preserveCase); // rev host segment
                 builder.append(TRANSFORMED_HOST_DELIM);     // ','
                 hostSegEnd = i-1;
             }
         }
 
-        append(builder,s,m.start(6),m.end(6)); // :port
-        append(builder,s,m.start(3),m.end(3)); // at
-        append(builder,s,m.start(2),m.end(2)); // userinfo
+        append(builder, s, hostEnd, portEnd, preserveCase); // :port
+        if (userinfoStart > -1) {
+            builder.append('@'); // at
+            append(builder, s, userinfoStart, at, preserveCase); // userinfo
+        }
         builder.append(END_TRANSFORMED_AUTHORITY); // ')'
-        append(builder,s,m.start(7),m.end(7)); // path
-        if (!preserveCase) {
-            for(int i = 0; i < builder.length(); i++) {
-                builder.setCharAt(i,Character.toLowerCase(builder.charAt((i))));
+        append(builder, s, portEnd, length, preserveCase); // path
+        return builder.toString();
+    }
+    
+    /**
+     * Match the host, port and path groups of URI_SPLITTER, starting at
+     * <code>start</code> and running to the end of <code>s</code>, which
+     * holds no whitespace.
+     * 
+     * @param s String URI
+     * @param start where the host would start
+     * @param split receives host end, port end and 1 if a dotted quad
+     * @return true if the rest of <code>s</code> matches
+     */
+    private static boolean splitHost(String s, int start, int[] split) {
+        // dotted quad: (?:\d{1,3}\.){3}\d{1,3}
+        int i = start;
+        for (int part = 0; i > -1 && part < 4; part++) {
+            int digits = i;
+            while (i < s.length() && isAsciiDigit(s.charAt(i))) {
+                i++;
+            }
+            if (i == digits || i - digits > 3) {
+                i = -1;
+            } else if (part < 3) {
+                i = (i < s.length() && s.charAt(i) == DOT)? i + 1: -1;
             }
         }
-        TextUtils.recycleMatcher(m);
-        return builder.toString();
+        if (i > -1) {
+            int portEnd = portEnd(s, i);
+            if (portEnd > -1) {
+                split[0] = i;
+                split[1] = portEnd;
+                split[2] = 1;
+                return true;
+            }
+        }
+        // other host: \S+?
+        for (i = start + 1; i <= s.length(); i++) {
+            int portEnd = portEnd(s, i);
+            if (portEnd > -1) {
+                split[0] = i;
+                split[1] = portEnd;
+                split[2] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Match "(:\d+)?(/\S*)?$" at <code>start</code>.
+     * 
+     * @param s String URI, holding no whitespace
+     * @param start where the port would start
+     * @return end of the port (start of the path), or -1 if no match
+     */
+    private static int portEnd(String s, int start) {
+        if (start == s.length() || s.charAt(start) == '/') {
+            return start;
+        }
+        if (s.charAt(start) != ':') {
+            return -1;
+        }
+        int i = start + 1;
+        while (i < s.length() && isAsciiDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i == start + 1 || (i < s.length() && s.charAt(i) != '/')) {
+            return -1;
+        }
+        return i;
+    }
+    
+    /**
+     * @return true if all of <code>s</code> from <code>start</code> to
+     * <code>end</code> are userinfo characters as URI_SPLITTER has them
+     */
+    private static boolean isUserinfo(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isWordChar(c) && USERINFO_MARKS.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return true if regex '\\w' matches <code>c</code>
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || isAsciiDigit(c) || c == '_';
+    }
+    
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    /**
+     * @return true if regex '\\s' matches <code>c</code>
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
     }
     
-    private static void append(StringBuffer b, CharSequence cs, int start, 
-            int end) {
-        if (start < 0) {
+    private static void append(StringBuilder b, String s, int start, 
+            int end, boolean preserveCase) {
+        if (preserveCase) {
+            b.append(s, start, end);
             return;
         }
-        b.append(cs, start, end);
+        for (int i = start; i < end; i++) {
+            b.append(Character.toLowerCase(s.charAt(i)));
+        }
     }
         
     /**
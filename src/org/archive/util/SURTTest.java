@@ -110,5 +110,30 @@ public class SURTTest extends TestCase {
                 "http://(127.2.34.5)/foo",
                 SURT.fromURI("http://127.2.34.5/foo"));  
     }
+    
+    /**
+     * Cases where the regex URI_SPLITTER (now hand-coded) backtracks.
+     * 
+     * @throws URIException
+     */
+    public void testSplitterCorners() throws URIException {
+        assertEquals("not a dotted quad",
+                "http://(4567,3,2,1,)/foo",
+                SURT.fromURI("http://1.2.3.4567/foo"));
+        assertEquals("not a port",
+                "http://(com:x,example,)/foo",
+                SURT.fromURI("http://example.com:x/foo"));
+        assertEquals("not userinfo",
+                "http://(a,)/@b",
+                SURT.fromURI("http://a/@b"));
+        assertEquals("no host after userinfo",
+                "http://(a:b@,)",
+                SURT.fromURI("http://a:b@"));
+        assertEquals("whitespace",
+                "http://www.archive.org/a b",
+                SURT.fromURI("http://www.archive.org/a b"));
+        assertEquals("case preserved",
+                "http://(org,Archive,WWW,)/A",
+                SURT.fromURI("http://WWW.Archive.org/A", true));
+    }
 }
-
@@ -0,0 +1,460 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Open-addressing set of long fingerprints held outside the Java heap,
+ * in memory-mapped files.
+ *
+ * The fingerprint space is split by its top <code>segmentBits</code> bits
+ * into independent segments, each a power-of-two table of longs in its
+ * own file. The next-highest fingerprint bits choose the starting slot,
+ * and collisions are resolved by linear probing, so a lookup is usually
+ * a single memory access. A slot value of zero marks an empty slot; the
+ * zero fingerprint itself is remembered by a header flag.
+ *
+ * Each segment grows independently, doubling into a fresh file once its
+ * load factor is exceeded, so growth never stalls the whole set. Segments
+ * are individually locked, so threads adding fingerprints that fall in
+ * different segments do not contend.
+ *
+ * Because the tables live in files, a set constructed over a directory
+ * that already holds segment files resumes with their contents. Call
+ * {@link #sync()} to force all tables to disk; serializing the set does
+ * so, and records only its configuration -- the fingerprints themselves
+ * stay in the segment files, which are reopened on deserialization.
+ */
+public class MappedLongFPSet implements LongFPSet, Serializable {
+    private static final long serialVersionUID = 6247812269514130275L;
+
+    private static final Logger logger =
+        Logger.getLogger(MappedLongFPSet.class.getName());
+
+    /** 'HTXFPSET' */
+    protected static final long MAGIC = 0x4854584650534554L;
+    protected static final int VERSION = 1;
+
+    /** bytes reserved at the start of each segment file */
+    protected static final int HEADER_BYTES = 64;
+    protected static final int MAGIC_OFFSET = 0;
+    protected static final int VERSION_OFFSET = 8;
+    protected static final int SEGMENT_BITS_OFFSET = 12;
+    protected static final int CAPACITY_OFFSET = 16;
+    protected static final int COUNT_OFFSET = 24;
+    protected static final int HAS_ZERO_OFFSET = 32;
+
+    /**
+     * Largest segment table, as a power of two; each file is then just
+     * under 1GB, the most a single MappedByteBuffer can safely address.
+     */
+    public static final int MAX_SEGMENT_CAPACITY_POWER_OF_TWO = 27;
+
+    protected static final String SEGMENT_PREFIX = "fpset-";
+    protected static final String SEGMENT_SUFFIX = ".tbl";
+    protected static final String GROWING_SUFFIX = ".grow";
+
+    /** directory holding the segment files */
+    protected File directory;
+
+    /** number of top fingerprint bits used to choose a segment */
+    protected int segmentBits;
+
+    /** table size, as a power of two, of a newly created segment */
+    protected int initialCapacityPowerOfTwo;
+
+    /** fraction of a segment's slots which may fill before it grows */
+    protected float loadFactor;
+
+    protected transient Segment[] segments;
+
+    /**
+     * Create or reopen a set in the given directory.
+     *
+     * @param directory directory for segment files; created if necessary
+     * @param segmentBits number of segments, as a power of two (0-16)
+     * @param initialCapacityPowerOfTwo initial slots per segment, as a
+     * power of two
+     * @param loadFactor fraction of slots used before a segment grows
+     * @throws IOException
+     */
+    public MappedLongFPSet(File directory, int segmentBits,
+            int initialCapacityPowerOfTwo, float loadFactor)
+    throws IOException {
+        super();
+        if (segmentBits < 0 || segmentBits > 16) {
+            throw new IllegalArgumentException(
+                "segmentBits must be 0-16: " + segmentBits);
+        }
+        if (initialCapacityPowerOfTwo < 1 || initialCapacityPowerOfTwo
+                > MAX_SEGMENT_CAPACITY_POWER_OF_TWO) {
+            throw new IllegalArgumentException(
+                "initialCapacityPowerOfTwo must be 1-"
+                + MAX_SEGMENT_CAPACITY_POWER_OF_TWO + ": "
+                + initialCapacityPowerOfTwo);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1) {
+            throw new IllegalArgumentException(
+                "loadFactor must be between 0 and 1: " + loadFactor);
+        }
+        this.directory = directory;
+        this.segmentBits = segmentBits;
+        this.initialCapacityPowerOfTwo = initialCapacityPowerOfTwo;
+        this.loadFactor = loadFactor;
+        open();
+    }
+
+    /**
+     * Map all segment files, creating any that do not yet exist.
+     *
+     * @throws IOException
+     */
+    protected void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        Segment[] opened = new Segment[1 << segmentBits];
+        for (int i = 0; i < opened.length; i++) {
+            opened[i] = new Segment(i);
+        }
+        this.segments = opened;
+    }
+
+    /**
+     * Force all segment tables to disk.
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].sync();
+        }
+    }
+
+    /**
+     * Force all segment tables to disk and release their mappings. The
+     * set may not be used afterward.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (segments == null) {
+            return;
+        }
+        sync();
+        segments = null;
+    }
+
+    /**
+     * @return directory holding the segment files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    protected Segment segmentFor(long fp) {
+        return segments[(segmentBits == 0) ? 0
+                : (int)(fp >>> (64 - segmentBits))];
+    }
+
+    public boolean add(long fp) {
+        return segmentFor(fp).add(fp);
+    }
+
+    public boolean contains(long fp) {
+        return segmentFor(fp).contains(fp);
+    }
+
+    public boolean remove(long fp) {
+        return segmentFor(fp).remove(fp);
+    }
+
+    public boolean quickContains(long fp) {
+        return contains(fp);
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < segments.length; i++) {
+            total += segments[i].count();
+        }
+        return total;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        sync();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        open();
+    }
+
+    /**
+     * One segment: a power-of-two open-addressing table of longs in a
+     * single mapped file. All access is synchronized on the segment.
+     */
+    protected class Segment {
+        protected final int index;
+        protected final File file;
+        protected MappedByteBuffer table;
+        protected int capacityPowerOfTwo;
+        protected long count;
+        protected boolean hasZero;
+        protected long threshold;
+        protected boolean warnedFull = false;
+
+        protected Segment(int index) throws IOException {
+            this.index = index;
+            this.file = new File(directory, SEGMENT_PREFIX
+                + Integer.toHexString(index) + SEGMENT_SUFFIX);
+            File growing = new File(directory, file.getName() + GROWING_SUFFIX);
+            if (growing.exists()) {
+                // interrupted mid-grow; the original remains authoritative
+                growing.delete();
+            }
+            if (file.exists()) {
+                table = map(file, -1);
+                if (table.getLong(MAGIC_OFFSET) != MAGIC
+                        || table.getInt(VERSION_OFFSET) != VERSION) {
+                    throw new IOException("Not a fingerprint segment: "
+                        + file);
+                }
+                if (table.getInt(SEGMENT_BITS_OFFSET) != segmentBits) {
+                    throw new IOException(file + " was created with "
+                        + table.getInt(SEGMENT_BITS_OFFSET)
+                        + " segment bits, not " + segmentBits);
+                }
+                capacityPowerOfTwo = table.getInt(CAPACITY_OFFSET);
+                count = table.getLong(COUNT_OFFSET);
+                hasZero = table.get(HAS_ZERO_OFFSET) != 0;
+            } else {
+                capacityPowerOfTwo = initialCapacityPowerOfTwo;
+                table = create(file, capacityPowerOfTwo);
+            }
+            threshold = (long)(loadFactor * (1L << capacityPowerOfTwo));
+        }
+
+        /**
+         * Create and map a new, empty table file.
+         */
+        protected MappedByteBuffer create(File f, int capPow)
+        throws IOException {
+            MappedByteBuffer buf = map(f, HEADER_BYTES + (8L << capPow));
+            buf.putLong(MAGIC_OFFSET, MAGIC);
+            buf.putInt(VERSION_OFFSET, VERSION);
+            buf.putInt(SEGMENT_BITS_OFFSET, segmentBits);
+            buf.putInt(CAPACITY_OFFSET, capPow);
+            buf.putLong(COUNT_OFFSET, 0);
+            buf.put(HAS_ZERO_OFFSET, (byte)0);
+            return buf;
+        }
+
+        /**
+         * Map the given file read-write.
+         *
+         * @param f file to map
+         * @param length length to set first, or -1 to keep current length
+         */
+        protected MappedByteBuffer map(File f, long length) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                if (length >= 0) {
+                    // new length reads as zeros, ie empty slots
+                    raf.setLength(length);
+                }
+                FileChannel channel = raf.getChannel();
+                // mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    channel.size());
+            } finally {
+                raf.close();
+            }
+        }
+
+        protected int slotFor(long fp, int capPow) {
+            return (int)((fp << segmentBits) >>> (64 - capPow));
+        }
+
+        /**
+         * Find the slot holding the given fingerprint, or the empty slot
+         * where it would go.
+         */
+        protected int find(long fp) {
+            int mask = (1 << capacityPowerOfTwo) - 1;
+            int i = slotFor(fp, capacityPowerOfTwo);
+            while (true) {
+                long v = table.getLong(HEADER_BYTES + (i << 3));
+                if (v == fp || v == 0) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        protected long slot(int i) {
+            return table.getLong(HEADER_BYTES + (i << 3));
+        }
+
+        protected void setSlot(int i, long v) {
+            table.putLong(HEADER_BYTES + (i << 3), v);
+        }
+
+        protected void setCount(long c) {
+            count = c;
+            table.putLong(COUNT_OFFSET, c);
+        }
+
+        synchronized boolean add(long fp) {
+            if (fp == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                table.put(HAS_ZERO_OFFSET, (byte)1);
+                setCount(count + 1);
+                return true;
+            }
+            int i = find(fp);
+            if (slot(i) == fp) {
+                return false;
+            }
+            setSlot(i, fp);
+            setCount(count + 1);
+            if (count - (hasZero ? 1 : 0) > threshold) {
+                grow();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(long fp) {
+            if (fp == 0) {
+                return hasZero;
+            }
+            return slot(find(fp)) == fp;
+        }
+
+        synchronized boolean remove(long fp) {
+            if (fp == 0) {
+                if (!hasZero) {
+                    return false;
+                }
+                hasZero = false;
+                table.put(HAS_ZERO_OFFSET, (byte)0);
+                setCount(count - 1);
+                return true;
+            }
+            int i = find(fp);
+            if (slot(i) != fp) {
+                return false;
+            }
+            // close the gap, shifting back any later entries of the
+            // probe run which would otherwise become unreachable
+            int mask = (1 << capacityPowerOfTwo) - 1;
+            int gap = i;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                long v = slot(j);
+                if (v == 0) {
+                    break;
+                }
+                int home = slotFor(v, capacityPowerOfTwo);
+                // move v if its home is not cyclically within (gap, j]
+                if ((j > gap) ? (home <= gap || home > j)
+                        : (home <= gap && home > j)) {
+                    setSlot(gap, v);
+                    gap = j;
+                }
+            }
+            setSlot(gap, 0);
+            setCount(count - 1);
+            return true;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized void sync() {
+            table.force();
+        }
+
+        /**
+         * Double this segment's table into a new file, then swap it into
+         * place of the old.
+         */
+        protected void grow() {
+            if (capacityPowerOfTwo >= MAX_SEGMENT_CAPACITY_POWER_OF_TWO) {
+                if (count < (1L << capacityPowerOfTwo) - 1) {
+                    if (!warnedFull) {
+                        logger.severe(file + " at maximum size; lookups "
+                            + "will slow as it fills. Use more segment bits.");
+                        warnedFull = true;
+                    }
+                    return;
+                }
+                throw new IllegalStateException(file + " is full");
+            }
+            int newCapPow = capacityPowerOfTwo + 1;
+            File growing = new File(directory, file.getName() + GROWING_SUFFIX);
+            try {
+                MappedByteBuffer bigger = create(growing, newCapPow);
+                int newMask = (1 << newCapPow) - 1;
+                int slots = 1 << capacityPowerOfTwo;
+                for (int i = 0; i < slots; i++) {
+                    long v = slot(i);
+                    if (v == 0) {
+                        continue;
+                    }
+                    int j = slotFor(v, newCapPow);
+                    while (bigger.getLong(HEADER_BYTES + (j << 3)) != 0) {
+                        j = (j + 1) & newMask;
+                    }
+                    bigger.putLong(HEADER_BYTES + (j << 3), v);
+                }
+                bigger.putLong(COUNT_OFFSET, count);
+                bigger.put(HAS_ZERO_OFFSET, (byte)(hasZero ? 1 : 0));
+                bigger.force();
+                if (!growing.renameTo(file)) {
+                    if (!file.delete() || !growing.renameTo(file)) {
+                        throw new IOException("Unable to replace " + file);
+                    }
+                }
+                table = bigger;
+                capacityPowerOfTwo = newCapPow;
+                threshold = (long)(loadFactor * (1L << capacityPowerOfTwo));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed growing " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/* Copyright (C) 2009 Internet Archive
+ *
+ * This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ * Heritrix is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * Heritrix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with Heritrix; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ */
+package org.archive.util.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.archive.util.FileUtils;
+
+/**
+ * JUnit test suite for MappedLongFPSet
+ */
+public class MappedLongFPSetTest extends LongFPSetTestCase {
+    protected File dir;
+
+    public MappedLongFPSetTest(final String testName) {
+        super(testName);
+    }
+
+    LongFPSet makeLongFPSet() {
+        String tmp = System.getProperty("testtmpdir",
+            File.separator + "tmp" + File.separator + "heritrix-junit-tests");
+        dir = new File(tmp, "MappedLongFPSetTest");
+        FileUtils.deleteDir(dir);
+        return open();
+    }
+
+    protected MappedLongFPSet open() {
+        try {
+            // tiny segments, to exercise growth
+            return new MappedLongFPSet(dir, 2, 2, 0.75f);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void tearDown() {
+        FileUtils.deleteDir(dir);
+    }
+
+    /** check that many fingerprints survive growth, removal, and reopen */
+    public void testGrowRemoveReopen() throws IOException {
+        MappedLongFPSet set = open();
+        Random rand = new Random(1);
+        long[] fps = new long[5000];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = rand.nextLong();
+            assertTrue("added " + i, set.add(fps[i]));
+        }
+        assertEquals(fps.length, set.count());
+        for (int i = 0; i < fps.length; i += 2) {
+            assertTrue("removed " + i, set.remove(fps[i]));
+        }
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals("contains " + i, i % 2 == 1, set.contains(fps[i]));
+        }
+        set.add(0);
+        set.close();
+
+        MappedLongFPSet reopened = open();
+        assertEquals(fps.length / 2 + 1, reopened.count());
+        assertTrue("zero survived reopen", reopened.contains(0));
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals("reopened contains " + i, i % 2 == 1,
+                reopened.contains(fps[i]));
+        }
+        reopened.close();
+    }
+}